@@ -5,6 +5,7 @@ import me.shedaniel.autoconfig.ConfigHolder;
 import qouteall.imm_ptl.core.chunk_loading.ChunkDataSyncManager;
 import qouteall.imm_ptl.core.platform_specific.IPConfig;
 import qouteall.imm_ptl.core.teleportation.ServerTeleportationManager;
+import qouteall.q_misc_util.Helper;
 import qouteall.q_misc_util.MiscHelper;
 import qouteall.q_misc_util.my_util.MyTaskList;
 import qouteall.q_misc_util.my_util.Signal;
@@ -20,14 +21,18 @@ public class IPGlobal {
     public static final Signal preGameRenderSignal = new Signal();
     
     // executed after ticking. will be cleared when client encounter loading screen
-    public static final MyTaskList clientTaskList = new MyTaskList();
+    public static final MyTaskList clientTaskList =
+        new MyTaskList("client", Helper.secondToNano(0.005));
     
     // executed after ticking. will be cleared when server closes
-    public static final MyTaskList serverTaskList = new MyTaskList();
+    public static final MyTaskList serverTaskList =
+        new MyTaskList("server", Helper.secondToNano(0.01));
     
     // won't be cleared
-    public static final MyTaskList preGameRenderTaskList = new MyTaskList();
-    public static final MyTaskList preTotalRenderTaskList = new MyTaskList();
+    public static final MyTaskList preGameRenderTaskList =
+        new MyTaskList("pre_game_render", Helper.secondToNano(0.002));
+    public static final MyTaskList preTotalRenderTaskList =
+        new MyTaskList("pre_total_render", Helper.secondToNano(0.002));
     public static final Signal clientCleanupSignal = new Signal();
     public static final Signal serverCleanupSignal = new Signal();
     
@@ -126,6 +131,12 @@ public class IPGlobal {
     
     public static boolean enableClientPerformanceAdjustment = true;
     public static boolean enableServerPerformanceAdjustment = true;
+    // the server performance adjustment tries to keep the 95th percentile tick time under this
+    public static int serverTargetMspt = 40;
+    // how many chunks of the frequently watched portal destinations are loaded after the server starts
+    public static int portalChunkWarmupBudget = 400;
+    // the estimated memory of the chunk meshes of all dimensions, it's lowered under memory pressure
+    public static int builtChunkMemoryBudgetMB = 1024;
     
     public static boolean enableCrossPortalSound = true;
     
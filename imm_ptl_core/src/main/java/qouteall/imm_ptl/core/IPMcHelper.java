@@ -2,32 +2,42 @@ package qouteall.imm_ptl.core;
 
 import com.mojang.blaze3d.platform.GlUtil;
 import io.netty.buffer.Unpooled;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import net.fabricmc.api.EnvType;
 import net.fabricmc.api.Environment;
 import net.minecraft.client.multiplayer.ClientLevel;
 import net.minecraft.core.BlockPos;
 import net.minecraft.core.Direction;
+import net.minecraft.core.SectionPos;
 import net.minecraft.network.FriendlyByteBuf;
 import net.minecraft.network.chat.ClickEvent;
 import net.minecraft.network.chat.Component;
 import net.minecraft.network.chat.MutableComponent;
 import net.minecraft.network.protocol.Packet;
+import net.minecraft.util.Mth;
 import net.minecraft.util.Tuple;
 import net.minecraft.world.entity.Entity;
 import net.minecraft.world.level.ClipContext;
 import net.minecraft.world.level.Level;
+import net.minecraft.world.level.entity.EntityTypeTest;
+import net.minecraft.world.level.entity.LevelEntityGetter;
 import net.minecraft.world.phys.BlockHitResult;
 import net.minecraft.world.phys.HitResult;
 import net.minecraft.world.phys.Vec3;
+import org.jetbrains.annotations.Nullable;
 import qouteall.imm_ptl.core.ducks.IERayTraceContext;
+import qouteall.imm_ptl.core.ducks.IEWorld;
 import qouteall.imm_ptl.core.portal.Portal;
 import qouteall.imm_ptl.core.portal.global_portals.GlobalPortalStorage;
 import qouteall.imm_ptl.core.render.CrossPortalEntityRenderer;
 import qouteall.q_misc_util.my_util.LimitedLogger;
 
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.function.Consumer;
+import java.util.function.DoublePredicate;
+import java.util.function.LongConsumer;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
 import java.util.stream.Stream;
@@ -125,45 +135,194 @@ public class IPMcHelper {
         boolean includeGlobalPortals,
         Predicate<Portal> filter
     ) {
-        // This will be the center of the chunk search, rather than using start or end. This will allow the radius to be
-        // smaller, and as a result, the search to be faster and slightly less inefficient.
-        //
-        // The searching method employed by getNearbyEntities is still not ideal, but it's the best idea I have.
-        Vec3 middle = start.scale(0.5).add(end.scale(0.5));
+        List<Tuple<Portal, Vec3>> hits = new ArrayList<>();
         
-        // This could result in searching more chunks than necessary, but it always expands to completely cover any
-        // chunks the line from start->end passes through.
-        int chunkRadius = (int) Math.ceil(Math.abs(start.distanceTo(end) / 2) / 16);
-        List<Portal> nearby = McHelper.getEntitiesNearby(world, middle, Portal.class, chunkRadius * 16);
+        traversePortalHits(world, start, end, includeGlobalPortals, filter, false, hits);
         
-        if (includeGlobalPortals) {
-            nearby.addAll(GlobalPortalStorage.getGlobalPortals(world));
-        }
+        // Nearest portals first.
+        hits.sort(Comparator.comparingDouble(pair -> pair.getB().distanceToSqr(start)));
         
-        // Make a list of all portals actually intersecting with this line, and then sort them by the distance from the
-        // start position. Nearest portals first.
+        return hits;
+    }
+    
+    /**
+     * Similar to {@link #rayTracePortals(Level, Vec3, Vec3, boolean, Predicate)}
+     * but only finds the nearest portal, so it can stop walking the ray after a hit.
+     *
+     * @return The nearest portal and its intersection point with the line. Null if no portal intersects.
+     */
+    @Nullable
+    public static Tuple<Portal, Vec3> rayTraceNearestPortal(
+        Level world,
+        Vec3 start,
+        Vec3 end,
+        boolean includeGlobalPortals,
+        Predicate<Portal> filter
+    ) {
         List<Tuple<Portal, Vec3>> hits = new ArrayList<>();
         
-        nearby.forEach(portal -> {
+        traversePortalHits(world, start, end, includeGlobalPortals, filter, true, hits);
+        
+        return hits.stream()
+            .min(Comparator.comparingDouble(pair -> pair.getB().distanceToSqr(start)))
+            .orElse(null);
+    }
+    
+    /**
+     * A portal entity is stored in the entity section of its position (the portal center),
+     * but the portal area can extend up to the max portal radius from the center.
+     * So the sections around the ray within this margin are also visited.
+     */
+    static int getRayTraceSectionMargin(double maxPortalRadius) {
+        return Math.max(1, Mth.ceil(maxPortalRadius / 16.0));
+    }
+    
+    /**
+     * Walk the entity sections along the segment (3D DDA in section coordinates),
+     * visiting the portals in each section within {@link #getRayTraceSectionMargin(double)} of the walked sections once.
+     * The visited region grows linearly with the segment length,
+     * instead of being a cube around the segment's middle.
+     * <p>
+     * If {@code nearestOnly} is true, it stops walking when the walked distance
+     * is far enough beyond the nearest hit found so far. The hits are not sorted.
+     */
+    private static void traversePortalHits(
+        Level world,
+        Vec3 start,
+        Vec3 end,
+        boolean includeGlobalPortals,
+        @Nullable Predicate<Portal> filter,
+        boolean nearestOnly,
+        List<Tuple<Portal, Vec3>> hits
+    ) {
+        // the nearest hit distance found so far. an array to be captured by the lambda
+        double[] nearestHitDistance = {Double.POSITIVE_INFINITY};
+        
+        Consumer<Portal> tester = portal -> {
             if (filter == null || filter.test(portal)) {
                 Vec3 intersection = portal.rayTrace(start, end);
                 
                 if (intersection != null) {
                     hits.add(new Tuple<>(portal, intersection));
+                    nearestHitDistance[0] = Math.min(
+                        nearestHitDistance[0], intersection.distanceTo(start)
+                    );
                 }
             }
-        });
+        };
         
-        hits.sort((pair1, pair2) -> {
-            Vec3 intersection1 = pair1.getB();
-            Vec3 intersection2 = pair2.getB();
-            
-            // Return a negative number if intersection1 is smaller (should come first)
-            return (int) Math.signum(intersection1.distanceToSqr(start) - intersection2.distanceToSqr(
-                start));
-        });
+        // There are usually only a few global portals.
+        if (includeGlobalPortals) {
+            GlobalPortalStorage.getGlobalPortals(world).forEach(tester);
+        }
         
-        return hits;
+        LevelEntityGetter<Entity> entityLookup = ((IEWorld) world).portal_getEntityLookup();
+        EntityTypeTest<Entity, Portal> typeFilter = EntityTypeTest.forClass(Portal.class);
+        
+        int sectionMargin = getRayTraceSectionMargin(IPGlobal.maxNormalPortalRadius);
+        
+        // a portal found later can still have a nearer hit, if it's in the margin sections
+        double terminationMargin = (sectionMargin + 1) * 16 * Math.sqrt(3);
+        
+        walkSectionsAlongSegment(
+            start, end, sectionMargin,
+            walkedDistance -> nearestOnly && walkedDistance > nearestHitDistance[0] + terminationMargin,
+            sectionPos -> McHelper.traverseEntitiesInSection(
+                typeFilter, entityLookup, sectionPos,
+                portal -> {
+                    tester.accept(portal);
+                    return null;
+                }
+            )
+        );
+    }
+    
+    /**
+     * Visit each section within {@code sectionMargin} of the sections that the segment passes through once,
+     * in the order of walking from start to end.
+     *
+     * @param shouldStop tested with the distance from start to where the walk enters a section,
+     *                   before visiting the sections around it
+     */
+    static void walkSectionsAlongSegment(
+        Vec3 start, Vec3 end, int sectionMargin,
+        DoublePredicate shouldStop, LongConsumer sectionVisitor
+    ) {
+        LongOpenHashSet visitedSections = new LongOpenHashSet();
+        
+        Vec3 delta = end.subtract(start);
+        double length = delta.length();
+        
+        int x = SectionPos.blockToSectionCoord(Mth.floor(start.x));
+        int y = SectionPos.blockToSectionCoord(Mth.floor(start.y));
+        int z = SectionPos.blockToSectionCoord(Mth.floor(start.z));
+        int endX = SectionPos.blockToSectionCoord(Mth.floor(end.x));
+        int endY = SectionPos.blockToSectionCoord(Mth.floor(end.y));
+        int endZ = SectionPos.blockToSectionCoord(Mth.floor(end.z));
+        
+        int stepX = (int) Math.signum(delta.x);
+        int stepY = (int) Math.signum(delta.y);
+        int stepZ = (int) Math.signum(delta.z);
+        
+        // the ray parameter (0 at start, 1 at end) of crossing the next section boundary on each axis
+        double tMaxX = getFirstCrossingParameter(start.x, delta.x, x, stepX);
+        double tMaxY = getFirstCrossingParameter(start.y, delta.y, y, stepY);
+        double tMaxZ = getFirstCrossingParameter(start.z, delta.z, z, stepZ);
+        
+        // the ray parameter difference of crossing one section on each axis
+        double tDeltaX = stepX == 0 ? Double.POSITIVE_INFINITY : 16 / Math.abs(delta.x);
+        double tDeltaY = stepY == 0 ? Double.POSITIVE_INFINITY : 16 / Math.abs(delta.y);
+        double tDeltaZ = stepZ == 0 ? Double.POSITIVE_INFINITY : 16 / Math.abs(delta.z);
+        
+        int maxSteps = Math.abs(endX - x) + Math.abs(endY - y) + Math.abs(endZ - z);
+        double tEnter = 0;
+        
+        for (int i = 0; i <= maxSteps; i++) {
+            if (shouldStop.test(tEnter * length)) {
+                return;
+            }
+            
+            for (int dx = -sectionMargin; dx <= sectionMargin; dx++) {
+                for (int dy = -sectionMargin; dy <= sectionMargin; dy++) {
+                    for (int dz = -sectionMargin; dz <= sectionMargin; dz++) {
+                        long sectionPos = SectionPos.asLong(x + dx, y + dy, z + dz);
+                        if (visitedSections.add(sectionPos)) {
+                            sectionVisitor.accept(sectionPos);
+                        }
+                    }
+                }
+            }
+            
+            if (x == endX && y == endY && z == endZ) {
+                return;
+            }
+            
+            if (tMaxX <= tMaxY && tMaxX <= tMaxZ) {
+                x += stepX;
+                tEnter = tMaxX;
+                tMaxX += tDeltaX;
+            }
+            else if (tMaxY <= tMaxZ) {
+                y += stepY;
+                tEnter = tMaxY;
+                tMaxY += tDeltaY;
+            }
+            else {
+                z += stepZ;
+                tEnter = tMaxZ;
+                tMaxZ += tDeltaZ;
+            }
+        }
+    }
+    
+    private static double getFirstCrossingParameter(
+        double startCoord, double deltaCoord, int sectionCoord, int step
+    ) {
+        if (step == 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double boundary = SectionPos.sectionToBlockCoord(step > 0 ? sectionCoord + 1 : sectionCoord);
+        return (boundary - startCoord) / deltaCoord;
     }
     
     /**
@@ -216,14 +375,13 @@ public class IPMcHelper {
         // First ray trace normally
         BlockHitResult hitResult = world.clip(context);
         
-        List<Tuple<Portal, Vec3>> rayTracedPortals =
-            rayTracePortals(world, start, end, includeGlobalPortals, Portal::isInteractable);
+        Tuple<Portal, Vec3> portalHit =
+            rayTraceNearestPortal(world, start, end, includeGlobalPortals, Portal::isInteractable);
         
-        if (rayTracedPortals.isEmpty()) {
+        if (portalHit == null) {
             return new Tuple<>(hitResult, portals);
         }
         
-        Tuple<Portal, Vec3> portalHit = rayTracedPortals.get(0);
         Portal portal = portalHit.getA();
         Vec3 intersection = portalHit.getB();
         
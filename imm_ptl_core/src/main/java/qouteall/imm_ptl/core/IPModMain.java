@@ -8,9 +8,12 @@ import net.minecraft.world.InteractionResult;
 import net.minecraft.world.entity.EntityType;
 import qouteall.imm_ptl.core.block_manipulation.BlockManipulationServer;
 import qouteall.imm_ptl.core.chunk_loading.ChunkDataSyncManager;
+import qouteall.imm_ptl.core.chunk_loading.ChunkPacketBuilder;
+import qouteall.imm_ptl.core.chunk_loading.ChunkPrefetcher;
 import qouteall.imm_ptl.core.chunk_loading.EntitySync;
 import qouteall.imm_ptl.core.chunk_loading.ImmPtlChunkTickets;
 import qouteall.imm_ptl.core.chunk_loading.NewChunkTrackingGraph;
+import qouteall.imm_ptl.core.chunk_loading.PortalChunkWarmup;
 import qouteall.imm_ptl.core.chunk_loading.ServerPerformanceMonitor;
 import qouteall.imm_ptl.core.chunk_loading.WorldInfoSender;
 import qouteall.imm_ptl.core.collision.CollisionHelper;
@@ -28,6 +31,7 @@ import qouteall.imm_ptl.core.portal.BreakableMirror;
 import qouteall.imm_ptl.core.portal.EndPortalEntity;
 import qouteall.imm_ptl.core.portal.LoadingIndicatorEntity;
 import qouteall.imm_ptl.core.portal.Mirror;
+import qouteall.imm_ptl.core.portal.PortalBlockWatchRegistry;
 import qouteall.imm_ptl.core.portal.Portal;
 import qouteall.imm_ptl.core.portal.PortalExtension;
 import qouteall.imm_ptl.core.portal.PortalPlaceholderBlock;
@@ -69,8 +73,14 @@ public class IPModMain {
         IPGlobal.serverTeleportationManager = new ServerTeleportationManager();
         IPGlobal.chunkDataSyncManager = new ChunkDataSyncManager();
         
+        ChunkPacketBuilder.init();
+        
         NewChunkTrackingGraph.init();
         
+        ChunkPrefetcher.init();
+        
+        PortalChunkWarmup.init();
+        
         WorldInfoSender.init();
         
         GlobalPortalStorage.init();
@@ -87,6 +97,8 @@ public class IPModMain {
         
         ImmPtlChunkTickets.init();
         
+        PortalBlockWatchRegistry.init();
+        
         IPPortingLibCompat.init();
         
         BlockManipulationServer.init();
@@ -545,6 +545,29 @@ public class McHelper {
         );
     }
     
+    /**
+     * Traverse the entities in one entity section.
+     * Unlike {@link #traverseEntities}, it does not scan the section ids in the x column.
+     */
+    @Nullable
+    public static <T extends Entity, R> R traverseEntitiesInSection(
+        EntityTypeTest<Entity, T> typeFilter, LevelEntityGetter<Entity> entityLookup,
+        long sectionPos,
+        Function<T, R> function
+    ) {
+        EntitySectionStorage<Entity> cache =
+            (EntitySectionStorage<Entity>) ((IELevelEntityGetterAdapter) entityLookup).getCache();
+        
+        return ((IESectionedEntityCache<Entity>) cache).ip_traverseSection(
+            sectionPos,
+            entityTrackingSection -> {
+                return ((IEEntityTrackingSection<Entity>) entityTrackingSection).ip_traverse(
+                    typeFilter, function
+                );
+            }
+        );
+    }
+    
     public static <E extends Entity, R> R traverseEntitiesByBox(
         Class<E> entityClass,
         Level world,
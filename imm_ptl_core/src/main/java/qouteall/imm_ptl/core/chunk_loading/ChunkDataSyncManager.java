@@ -1,27 +1,21 @@
 package qouteall.imm_ptl.core.chunk_loading;
 
 import com.mojang.logging.LogUtils;
-import net.minecraft.network.protocol.Packet;
 import net.minecraft.network.protocol.game.ClientboundForgetLevelChunkPacket;
-import net.minecraft.network.protocol.game.ClientboundLevelChunkWithLightPacket;
 import net.minecraft.resources.ResourceKey;
 import net.minecraft.server.level.ChunkHolder;
 import net.minecraft.server.level.ServerChunkCache;
 import net.minecraft.server.level.ServerLevel;
 import net.minecraft.server.level.ServerPlayer;
-import net.minecraft.server.level.ThreadedLevelLightEngine;
 import net.minecraft.world.level.Level;
 import net.minecraft.world.level.chunk.LevelChunk;
 import org.slf4j.Logger;
 import qouteall.imm_ptl.core.McHelper;
 import qouteall.imm_ptl.core.ducks.IEThreadedAnvilChunkStorage;
 import qouteall.imm_ptl.core.network.PacketRedirection;
-import qouteall.q_misc_util.Helper;
 import qouteall.q_misc_util.MiscHelper;
 import qouteall.q_misc_util.dimension.DynamicDimensionsImpl;
 
-import java.util.function.Supplier;
-
 // TODO change singleton to static in 1.20.2 or 1.21
 public class ChunkDataSyncManager {
     
@@ -52,35 +46,23 @@ public class ChunkDataSyncManager {
         
         IEThreadedAnvilChunkStorage ieStorage = McHelper.getIEStorage(chunkPos.dimension);
         
-        sendChunkDataPacketNow(player, chunkPos, ieStorage);
+        sendChunkDataPacket(player, chunkPos, ieStorage);
         
         MiscHelper.getServer().getProfiler().pop();
     }
     
-    private void sendChunkDataPacketNow(
+    private void sendChunkDataPacket(
         ServerPlayer player,
         DimensionalChunkPos chunkPos,
         IEThreadedAnvilChunkStorage ieStorage
     ) {
         ChunkHolder chunkHolder = ieStorage.ip_getChunkHolder(chunkPos.getChunkPos().toLong());
         
-        ThreadedLevelLightEngine lightingProvider = ieStorage.ip_getLightingProvider();
-        
         if (chunkHolder != null) {
             LevelChunk chunk = chunkHolder.getTickingChunk();
             if (chunk != null) {
-                MiscHelper.getServer().getProfiler().push("ptl_create_chunk_packet");
-                
-                PacketRedirection.sendRedirectedMessage(
-                    player,
-                    chunkPos.dimension,
-                    new ClientboundLevelChunkWithLightPacket(((LevelChunk) chunk), lightingProvider, null, null)
-                );
-                
-                ieStorage.ip_updateEntityTrackersAfterSendingChunkPacket(chunk, player);
-                
-                MiscHelper.getServer().getProfiler().pop();
-                
+                // the packet is built off-thread, and the entity trackers are updated after sending it
+                ChunkPacketBuilder.request(player, chunkPos.dimension, chunkPos.getChunkPos());
                 return;
             }
         }
@@ -92,27 +74,12 @@ public class ChunkDataSyncManager {
      */
     public void onChunkProvidedDeferred(LevelChunk chunk) {
         ResourceKey<Level> dimension = chunk.getLevel().dimension();
-        IEThreadedAnvilChunkStorage ieStorage = McHelper.getIEStorage(dimension);
-        ThreadedLevelLightEngine lightingProvider = ieStorage.ip_getLightingProvider();
-        
-        MiscHelper.getServer().getProfiler().push("ptl_create_chunk_packet");
-        
-        Supplier<Packet> chunkDataPacketRedirected = Helper.cached(
-            () -> PacketRedirection.createRedirectedMessage(
-                dimension,
-                new ClientboundLevelChunkWithLightPacket(((LevelChunk) chunk), lightingProvider, null, null)
-            )
-        );
         
         NewChunkTrackingGraph.getPlayersViewingChunk(
             dimension, chunk.getPos().x, chunk.getPos().z
         ).forEach(player -> {
-            player.connection.send(chunkDataPacketRedirected.get());
-            
-            ieStorage.ip_updateEntityTrackersAfterSendingChunkPacket(chunk, player);
+            ChunkPacketBuilder.request(player, dimension, chunk.getPos());
         });
-        
-        MiscHelper.getServer().getProfiler().pop();
     }
     
     private void onEndWatch(ServerPlayer player, DimensionalChunkPos chunkPos) {
@@ -61,6 +61,15 @@ public class ChunkLoader {
         return LenientChunkRegion.createLenientChunkRegion(center, radius, world);
     }
     
+    /**
+     * The returned region's block states can be read off-thread.
+     */
+    public ChunkRegionSnapshot createChunkRegionSnapshot() {
+        ServerLevel world = MiscHelper.getServer().getLevel(center.dimension);
+        
+        return ChunkRegionSnapshot.create(center, radius, world);
+    }
+    
     /**
      * Load chunks and execute something when the chunks are loaded, then remove the chunk loader.
      * Note: if the server closes before the chunks load, it won't be executed when server starts again.
@@ -0,0 +1,77 @@
+package qouteall.imm_ptl.core.chunk_loading;
+
+import qouteall.q_misc_util.Helper;
+
+/**
+ * The adaptive limit of how many chunks can be loading concurrently by {@link ImmPtlChunkTickets}.
+ * It uses AIMD (additive increase, multiplicative decrease), like TCP congestion control.
+ * <p>
+ * When a chunk finishes loading quickly and the server has tick headroom, the window grows by about 1
+ * for each window of finished chunks.
+ * When the loading latency becomes much higher than the minimum observed latency
+ * (the world generation threads are saturated, adding more only makes each chunk slower),
+ * or the server is lagging, the window halves.
+ */
+public class ChunkLoadingWindow {
+    public static final int MIN_SIZE = 1;
+    public static final int MAX_SIZE = 64;
+    public static final int INITIAL_SIZE = 4;
+    
+    // the latency below this is never considered as congestion
+    // (generating a new chunk is much slower than loading a saved one)
+    private static final long LATENCY_FLOOR_NANOS = Helper.secondToNano(1);
+    
+    // it's congested if the smoothed latency is higher than the minimum latency by this factor
+    private static final double LATENCY_TOLERANCE = 2.5;
+    
+    // the minimum latency is re-measured periodically, as the workload changes
+    private static final long MIN_LATENCY_LIFETIME_NANOS = Helper.secondToNano(30);
+    
+    // only decrease once within this time, as the chunks that are already loading finish slowly together
+    private static final long DECREASE_COOLDOWN_NANOS = Helper.secondToNano(1);
+    
+    private static final double LATENCY_SMOOTHING = 0.2;
+    
+    private double size = INITIAL_SIZE;
+    
+    private long minLatency = Long.MAX_VALUE;
+    private long minLatencyTime = 0;
+    
+    private double smoothedLatency = 0;
+    
+    private long lastDecreaseTime = 0;
+    
+    public void onChunkLoaded(long latencyNanos, long currTime, PerformanceLevel serverLevel) {
+        if (latencyNanos < minLatency || currTime - minLatencyTime > MIN_LATENCY_LIFETIME_NANOS) {
+            minLatency = latencyNanos;
+            minLatencyTime = currTime;
+        }
+        
+        if (smoothedLatency == 0) {
+            smoothedLatency = latencyNanos;
+        }
+        else {
+            smoothedLatency += (latencyNanos - smoothedLatency) * LATENCY_SMOOTHING;
+        }
+        
+        boolean congested = smoothedLatency > Math.max(LATENCY_FLOOR_NANOS, minLatency * LATENCY_TOLERANCE);
+        
+        if (congested || serverLevel == PerformanceLevel.bad) {
+            if (currTime - lastDecreaseTime > DECREASE_COOLDOWN_NANOS) {
+                lastDecreaseTime = currTime;
+                size = Math.max(MIN_SIZE, size / 2);
+            }
+        }
+        else if (serverLevel == PerformanceLevel.good) {
+            size = Math.min(MAX_SIZE, size + 1.0 / size);
+        }
+    }
+    
+    public int getSize() {
+        return (int) size;
+    }
+    
+    public double getSmoothedLatencyMs() {
+        return smoothedLatency / 1.0e6;
+    }
+}
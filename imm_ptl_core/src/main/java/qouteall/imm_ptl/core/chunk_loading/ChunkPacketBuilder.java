@@ -0,0 +1,363 @@
+package qouteall.imm_ptl.core.chunk_loading;
+
+import com.mojang.logging.LogUtils;
+import io.netty.buffer.Unpooled;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArraySet;
+import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
+import net.minecraft.Util;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.Holder;
+import net.minecraft.core.SectionPos;
+import net.minecraft.core.registries.BuiltInRegistries;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.LongArrayTag;
+import net.minecraft.network.FriendlyByteBuf;
+import net.minecraft.network.protocol.game.ClientboundLevelChunkWithLightPacket;
+import net.minecraft.network.protocol.game.ClientboundLightUpdatePacketData;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.biome.Biome;
+import net.minecraft.world.level.block.entity.BlockEntity;
+import net.minecraft.world.level.block.entity.BlockEntityType;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+import net.minecraft.world.level.chunk.PalettedContainer;
+import net.minecraft.world.level.chunk.PalettedContainerRO;
+import net.minecraft.world.level.levelgen.Heightmap;
+import net.minecraft.world.level.lighting.LevelLightEngine;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import qouteall.imm_ptl.core.IPGlobal;
+import qouteall.imm_ptl.core.McHelper;
+import qouteall.imm_ptl.core.ducks.IEThreadedAnvilChunkStorage;
+import qouteall.imm_ptl.core.network.PacketRedirection;
+import qouteall.q_misc_util.MiscHelper;
+import qouteall.q_misc_util.dimension.DynamicDimensionsImpl;
+import qouteall.q_misc_util.metrics.Counter;
+import qouteall.q_misc_util.metrics.Metrics;
+import qouteall.q_misc_util.metrics.TimedSection;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Builds the chunk data packets on worker threads.
+ * <p>
+ * Creating {@link ClientboundLevelChunkWithLightPacket} serializes all sections, heightmaps and light,
+ * which takes a lot of server thread time when many chunks are sent through portals.
+ * On the server thread, only a snapshot is taken: the section palettes are copied,
+ * and the block entity update tags and the light data are created.
+ * A worker thread writes the packet data, then the packet is sent on the server thread.
+ * <p>
+ * If the changes of a chunk are broadcast while its packet is being built, the client would receive
+ * the changes before the chunk, so the packet is outdated and gets rebuilt.
+ * After {@link #MAX_REBUILD_TIMES} rebuilds, it's built on the server thread.
+ * <p>
+ * At most {@link #MAX_BUILDING_NUM} packets are built concurrently.
+ * The other requests wait in a queue without taking the snapshot, so the memory usage is bounded.
+ */
+public class ChunkPacketBuilder {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    
+    private static final int MAX_BUILDING_NUM = 32;
+    
+    private static final int MAX_REBUILD_TIMES = 2;
+    
+    private static final TimedSection SNAPSHOT_SECTION = Metrics.section("chunk_packet.snapshot");
+    private static final TimedSection BUILD_SECTION = Metrics.section("chunk_packet.build");
+    private static final Counter REBUILD_COUNTER = Metrics.counter("chunk_packet.rebuilt");
+    private static final Counter SYNC_BUILD_COUNTER = Metrics.counter("chunk_packet.built_on_server_thread");
+    
+    private static final class Task {
+        private final ResourceKey<Level> dimension;
+        private final ChunkPos chunkPos;
+        
+        // the players that are waiting for this packet
+        private final ObjectArraySet<ServerPlayer> players = new ObjectArraySet<>();
+        
+        private boolean isOutdated = false;
+        private int rebuildTimes = 0;
+        
+        private Task(ResourceKey<Level> dimension, ChunkPos chunkPos) {
+            this.dimension = dimension;
+            this.chunkPos = chunkPos;
+        }
+    }
+    
+    private static final HashMap<ResourceKey<Level>, Long2ObjectOpenHashMap<Task>> tasks = new HashMap<>();
+    
+    private static final ArrayDeque<Task> waitingTasks = new ArrayDeque<>();
+    
+    private static final ObjectOpenHashSet<Task> buildingTasks = new ObjectOpenHashSet<>();
+    
+    public static void init() {
+        IPGlobal.serverCleanupSignal.connect(ChunkPacketBuilder::cleanup);
+        DynamicDimensionsImpl.beforeRemovingDimensionSignal.connect(ChunkPacketBuilder::onDimensionRemove);
+    }
+    
+    private static void cleanup() {
+        tasks.clear();
+        waitingTasks.clear();
+        buildingTasks.clear();
+    }
+    
+    private static void onDimensionRemove(ResourceKey<Level> dimension) {
+        tasks.remove(dimension);
+        waitingTasks.removeIf(task -> task.dimension == dimension);
+        buildingTasks.removeIf(task -> task.dimension == dimension);
+    }
+    
+    /**
+     * Send the chunk packet to the player when it's built.
+     * Should be called when the chunk is ticking.
+     */
+    public static void request(ServerPlayer player, ResourceKey<Level> dimension, ChunkPos chunkPos) {
+        Task task = tasks
+            .computeIfAbsent(dimension, k -> new Long2ObjectOpenHashMap<>())
+            .computeIfAbsent(chunkPos.toLong(), k -> {
+                Task newTask = new Task(dimension, chunkPos);
+                waitingTasks.add(newTask);
+                return newTask;
+            });
+        
+        task.players.add(player);
+        
+        startWaitingTasks();
+    }
+    
+    /**
+     * Called when the block or light changes of a chunk are being sent to the players.
+     * {@link qouteall.imm_ptl.core.mixin.common.chunk_sync.MixinChunkHolder}
+     */
+    public static void onChunkChangesBroadcast(ResourceKey<Level> dimension, ChunkPos chunkPos) {
+        if (buildingTasks.isEmpty()) {
+            return;
+        }
+        
+        Long2ObjectOpenHashMap<Task> dimTasks = tasks.get(dimension);
+        if (dimTasks == null) {
+            return;
+        }
+        
+        Task task = dimTasks.get(chunkPos.toLong());
+        if (task != null && buildingTasks.contains(task)) {
+            task.isOutdated = true;
+        }
+    }
+    
+    private static void startWaitingTasks() {
+        while (buildingTasks.size() < MAX_BUILDING_NUM && !waitingTasks.isEmpty()) {
+            startBuilding(waitingTasks.poll());
+        }
+    }
+    
+    private static void startBuilding(Task task) {
+        LevelChunk chunk = getChunk(task);
+        task.players.removeIf(player -> !isWaiting(player, task));
+        if (chunk == null || task.players.isEmpty()) {
+            // if the chunk is unloaded, it will be requested again when it's loaded
+            removeTask(task);
+            return;
+        }
+        
+        MiscHelper.getServer().getProfiler().push("ptl_chunk_packet_snapshot");
+        long startTime = SNAPSHOT_SECTION.begin();
+        
+        PacketSnapshot snapshot = new PacketSnapshot(
+            chunk, McHelper.getIEStorage(task.dimension).ip_getLightingProvider()
+        );
+        
+        SNAPSHOT_SECTION.end(startTime);
+        MiscHelper.getServer().getProfiler().pop();
+        
+        task.isOutdated = false;
+        buildingTasks.add(task);
+        
+        CompletableFuture
+            .supplyAsync(snapshot::build, Util.backgroundExecutor())
+            .whenCompleteAsync(
+                (packet, throwable) -> onBuilt(task, packet, throwable),
+                MiscHelper.getServer()
+            );
+    }
+    
+    private static void onBuilt(
+        Task task,
+        @Nullable ClientboundLevelChunkWithLightPacket packet,
+        @Nullable Throwable throwable
+    ) {
+        if (!buildingTasks.remove(task)) {
+            // the server or the dimension is removed
+            return;
+        }
+        
+        if (throwable != null) {
+            LOGGER.error(
+                "Failed to build chunk packet {} {}", task.dimension.location(), task.chunkPos, throwable
+            );
+            packet = null;
+        }
+        
+        LevelChunk chunk = getChunk(task);
+        if (chunk == null) {
+            removeTask(task);
+            startWaitingTasks();
+            return;
+        }
+        
+        IEThreadedAnvilChunkStorage ieStorage = McHelper.getIEStorage(task.dimension);
+        
+        if (packet == null || task.isOutdated) {
+            if (packet != null && task.rebuildTimes < MAX_REBUILD_TIMES) {
+                task.rebuildTimes++;
+                REBUILD_COUNTER.inc();
+                waitingTasks.addFirst(task);
+                startWaitingTasks();
+                return;
+            }
+            
+            // the chunk keeps changing, build it on the server thread so that it won't be outdated
+            SYNC_BUILD_COUNTER.inc();
+            packet = new ClientboundLevelChunkWithLightPacket(
+                chunk, ieStorage.ip_getLightingProvider(), null, null
+            );
+        }
+        
+        removeTask(task);
+        
+        for (ServerPlayer player : task.players) {
+            if (isWaiting(player, task)) {
+                PacketRedirection.sendRedirectedMessage(player, task.dimension, packet);
+                
+                ieStorage.ip_updateEntityTrackersAfterSendingChunkPacket(chunk, player);
+            }
+        }
+        
+        startWaitingTasks();
+    }
+    
+    private static void removeTask(Task task) {
+        Long2ObjectOpenHashMap<Task> dimTasks = tasks.get(task.dimension);
+        if (dimTasks != null) {
+            dimTasks.remove(task.chunkPos.toLong(), task);
+        }
+    }
+    
+    // if the player stopped watching the chunk, the forget packet was already sent
+    private static boolean isWaiting(ServerPlayer player, Task task) {
+        return !player.isRemoved() && NewChunkTrackingGraph.isPlayerWatchingChunk(
+            player, task.dimension, task.chunkPos.x, task.chunkPos.z
+        );
+    }
+    
+    @Nullable
+    private static LevelChunk getChunk(Task task) {
+        ServerLevel world = MiscHelper.getServer().getLevel(task.dimension);
+        if (world == null) {
+            return null;
+        }
+        return world.getChunkSource().getChunkNow(task.chunkPos.x, task.chunkPos.z);
+    }
+    
+    private record BlockEntityData(
+        int packedXZ, int y, BlockEntityType<?> type, @Nullable CompoundTag tag
+    ) {
+        private static BlockEntityData create(BlockEntity blockEntity) {
+            CompoundTag tag = blockEntity.getUpdateTag();
+            BlockPos pos = blockEntity.getBlockPos();
+            int packedXZ = SectionPos.sectionRelative(pos.getX()) << 4 | SectionPos.sectionRelative(pos.getZ());
+            return new BlockEntityData(packedXZ, pos.getY(), blockEntity.getType(), tag.isEmpty() ? null : tag);
+        }
+        
+        // the same format as ClientboundLevelChunkPacketData.BlockEntityInfo
+        private void write(FriendlyByteBuf buf) {
+            buf.writeByte(packedXZ);
+            buf.writeShort(y);
+            buf.writeId(BuiltInRegistries.BLOCK_ENTITY_TYPE, type);
+            buf.writeNbt(tag);
+        }
+    }
+    
+    /**
+     * The data of a chunk packet that does not change when the server thread changes the chunk.
+     */
+    private static final class PacketSnapshot {
+        private final ChunkPos chunkPos;
+        private final CompoundTag heightmaps;
+        private final PalettedContainer<BlockState>[] states;
+        private final PalettedContainerRO<Holder<Biome>>[] biomes;
+        private final List<BlockEntityData> blockEntities;
+        private final ClientboundLightUpdatePacketData lightData;
+        
+        @SuppressWarnings("unchecked")
+        private PacketSnapshot(LevelChunk chunk, LevelLightEngine lightEngine) {
+            chunkPos = chunk.getPos();
+            
+            heightmaps = new CompoundTag();
+            for (Map.Entry<Heightmap.Types, Heightmap> entry : chunk.getHeightmaps()) {
+                if (entry.getKey().sendToClient()) {
+                    heightmaps.put(
+                        entry.getKey().getSerializationKey(),
+                        new LongArrayTag(entry.getValue().getRawData().clone())
+                    );
+                }
+            }
+            
+            LevelChunkSection[] sections = chunk.getSections();
+            states = new PalettedContainer[sections.length];
+            biomes = new PalettedContainerRO[sections.length];
+            for (int i = 0; i < sections.length; i++) {
+                LevelChunkSection section = sections[i];
+                // copies the palette and the packed data array
+                states[i] = section.getStates().copy();
+                biomes[i] = section.getBiomes() instanceof PalettedContainer<Holder<Biome>> container ?
+                    container.copy() : section.getBiomes();
+            }
+            
+            blockEntities = new ArrayList<>(chunk.getBlockEntities().size());
+            for (BlockEntity blockEntity : chunk.getBlockEntities().values()) {
+                blockEntities.add(BlockEntityData.create(blockEntity));
+            }
+            
+            lightData = new ClientboundLightUpdatePacketData(chunkPos, lightEngine, null, null);
+        }
+        
+        /**
+         * Writes the data in the format of {@link ClientboundLevelChunkWithLightPacket#write(FriendlyByteBuf)}
+         * and reads the packet from it. Called on a worker thread.
+         */
+        private ClientboundLevelChunkWithLightPacket build() {
+            long startTime = BUILD_SECTION.begin();
+            
+            FriendlyByteBuf sectionBuf = new FriendlyByteBuf(Unpooled.buffer());
+            for (int i = 0; i < states.length; i++) {
+                // the block counts are calculated here
+                new LevelChunkSection(states[i], biomes[i]).write(sectionBuf);
+            }
+            
+            FriendlyByteBuf buf = new FriendlyByteBuf(Unpooled.buffer());
+            buf.writeInt(chunkPos.x);
+            buf.writeInt(chunkPos.z);
+            buf.writeNbt(heightmaps);
+            buf.writeVarInt(sectionBuf.readableBytes());
+            buf.writeBytes(sectionBuf);
+            buf.writeCollection(blockEntities, (b, blockEntity) -> blockEntity.write(b));
+            lightData.write(buf);
+            
+            ClientboundLevelChunkWithLightPacket packet = new ClientboundLevelChunkWithLightPacket(buf);
+            
+            BUILD_SECTION.end(startTime);
+            
+            return packet;
+        }
+    }
+}
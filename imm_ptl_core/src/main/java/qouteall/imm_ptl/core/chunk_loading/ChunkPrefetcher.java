@@ -0,0 +1,279 @@
+package qouteall.imm_ptl.core.chunk_loading;
+
+import net.minecraft.core.BlockPos;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.phys.Vec3;
+import org.jetbrains.annotations.Nullable;
+import qouteall.imm_ptl.core.IPGlobal;
+import qouteall.imm_ptl.core.McHelper;
+import qouteall.imm_ptl.core.portal.Portal;
+import qouteall.q_misc_util.MiscHelper;
+import qouteall.q_misc_util.metrics.Counter;
+import qouteall.q_misc_util.metrics.Metrics;
+
+import java.util.List;
+import java.util.WeakHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Loads the chunks on the other side of a portal before a fast-moving player reaches it.
+ * <p>
+ * The player's velocity is estimated from the recent positions.
+ * Every {@link #PREDICTION_INTERVAL} ticks, the player's movement is extrapolated linearly
+ * and the first portal that it will cross within {@link #HORIZON_SECONDS} is found.
+ * The chunks around the transformed crossing point are loaded by a ticket-only chunk loader
+ * with lower priority than the chunks that players are watching.
+ * When the prediction changes, the old loader is dropped and its tickets are removed in the next purge.
+ */
+public class ChunkPrefetcher {
+    
+    public static final double HORIZON_SECONDS = 6;
+    
+    // walking is slow enough for the normal portal chunk loading
+    public static final double MIN_SPEED = 7;
+    
+    // the allowed deviation of the crossing point, it increases with the travel distance
+    public static final double BASE_MARGIN = 2;
+    public static final double ANGULAR_TOLERANCE = 0.12;
+    
+    // added to the distanceToSource of the prefetched chunks, so they are loaded after the watched chunks
+    public static final int PRIORITY_OFFSET = 12;
+    
+    static final int PREDICTION_INTERVAL = 10;
+    
+    // if the player moves more than this in one tick, it's teleported
+    private static final double TELEPORT_DISTANCE = 20;
+    
+    private static final double VELOCITY_SMOOTHING = 0.3;
+    
+    private static final Counter PREFETCH_COUNTER = Metrics.counter("chunk_prefetch.started");
+    private static final Counter CANCEL_COUNTER = Metrics.counter("chunk_prefetch.cancelled");
+    
+    static class PlayerMotion {
+        @Nullable
+        private Vec3 lastPos;
+        private Vec3 velocity = Vec3.ZERO;
+        
+        @Nullable
+        private Portal predictedPortal;
+        @Nullable
+        private ChunkLoader prefetchLoader;
+        
+        /**
+         * Called every tick with the player's position.
+         */
+        void updatePosition(Vec3 pos) {
+            Vec3 lastPos = this.lastPos;
+            this.lastPos = pos;
+            
+            if (lastPos == null || pos.distanceToSqr(lastPos) > TELEPORT_DISTANCE * TELEPORT_DISTANCE) {
+                velocity = Vec3.ZERO;
+                return;
+            }
+            
+            // blocks per second
+            Vec3 tickVelocity = pos.subtract(lastPos).scale(20);
+            velocity = velocity.lerp(tickVelocity, VELOCITY_SMOOTHING);
+        }
+        
+        Vec3 getVelocity() {
+            return velocity;
+        }
+    }
+    
+    private static final WeakHashMap<ServerPlayer, PlayerMotion> playerMotions = new WeakHashMap<>();
+    
+    public static void init() {
+        IPGlobal.postServerTickSignal.connect(ChunkPrefetcher::tick);
+        IPGlobal.serverCleanupSignal.connect(playerMotions::clear);
+    }
+    
+    private static void tick() {
+        MinecraftServer server = MiscHelper.getServer();
+        if (server == null) {
+            return;
+        }
+        
+        playerMotions.keySet().removeIf(player -> player.isRemoved());
+        
+        int tickCount = server.getTickCount();
+        for (ServerPlayer player : server.getPlayerList().getPlayers()) {
+            PlayerMotion motion = playerMotions.computeIfAbsent(player, k -> new PlayerMotion());
+            motion.updatePosition(player.position());
+            
+            if (isPredictionTick(player.getId(), tickCount)) {
+                updatePrediction(player, motion);
+            }
+        }
+    }
+    
+    // spread the players to different ticks
+    static boolean isPredictionTick(int playerId, int tickCount) {
+        return playerId % PREDICTION_INTERVAL == tickCount % PREDICTION_INTERVAL;
+    }
+    
+    private static void updatePrediction(ServerPlayer player, PlayerMotion motion) {
+        Portal portal = predictPortal(player, motion.velocity);
+        
+        if (portal == null) {
+            if (motion.prefetchLoader != null) {
+                CANCEL_COUNTER.inc();
+            }
+            motion.predictedPortal = null;
+            motion.prefetchLoader = null;
+            return;
+        }
+        
+        double crossingTime = getCrossingTime(portal, player.position(), motion.velocity);
+        if (Double.isNaN(crossingTime)) {
+            return;
+        }
+        
+        Vec3 crossingPoint = player.position().add(motion.velocity.scale(crossingTime));
+        Vec3 destPoint = portal.transformPoint(crossingPoint);
+        
+        int radius = getPrefetchRadius(ServerPerformanceMonitor.getLevel(portal.dimensionTo));
+        ChunkLoader loader = new ChunkLoader(
+            new DimensionalChunkPos(portal.dimensionTo, new ChunkPos(BlockPos.containing(destPoint))),
+            radius
+        );
+        
+        if (motion.predictedPortal != portal) {
+            if (motion.prefetchLoader != null) {
+                CANCEL_COUNTER.inc();
+            }
+            PREFETCH_COUNTER.inc();
+        }
+        
+        motion.predictedPortal = portal;
+        motion.prefetchLoader = loader;
+    }
+    
+    @Nullable
+    private static Portal predictPortal(ServerPlayer player, Vec3 velocity) {
+        double speed = velocity.length();
+        if (speed < MIN_SPEED) {
+            return null;
+        }
+        
+        int radiusChunks = Math.min(
+            (int) Math.ceil(speed * HORIZON_SECONDS / 16),
+            IPGlobal.indirectLoadingRadiusCap * 2
+        );
+        
+        // the portals near the player are already loaded by ChunkVisibility
+        double alreadyLoadedDistance = PerformanceLevel.getVisiblePortalRangeChunks(
+            NewChunkTrackingGraph.getPlayerInfo(player).performanceLevel
+        ) * 16;
+        
+        Vec3 pos = player.position();
+        List<Portal> portals = McHelper.findEntitiesRough(
+            Portal.class, player.level(), pos, radiusChunks,
+            portal -> !portal.getIsGlobal() && portal.broadcastToPlayer(player) &&
+                portal.getDestinationWorld() != null &&
+                portal.getDistanceToNearestPointInPortal(pos) > alreadyLoadedDistance
+        );
+        
+        Portal result = null;
+        double minTime = Double.MAX_VALUE;
+        for (Portal portal : portals) {
+            double time = getCrossingTime(portal, pos, velocity);
+            if (!Double.isNaN(time) && time < minTime) {
+                minTime = time;
+                result = portal;
+            }
+        }
+        
+        return result;
+    }
+    
+    private static double getCrossingTime(Portal portal, Vec3 pos, Vec3 velocity) {
+        return predictPrefetchCrossingTime(
+            pos, velocity,
+            portal.getOriginPos(), portal.axisW, portal.axisH, portal.width, portal.height
+        );
+    }
+    
+    /**
+     * The prediction used for prefetching: the players slower than {@link #MIN_SPEED} are not predicted.
+     *
+     * @return the time in seconds, or NaN if it won't prefetch for this portal
+     */
+    static double predictPrefetchCrossingTime(
+        Vec3 pos, Vec3 velocity,
+        Vec3 portalOrigin, Vec3 axisW, Vec3 axisH, double width, double height
+    ) {
+        if (velocity.length() < MIN_SPEED) {
+            return Double.NaN;
+        }
+        return predictCrossingTime(
+            pos, velocity, portalOrigin, axisW, axisH, width, height, HORIZON_SECONDS
+        );
+    }
+    
+    /**
+     * Extrapolate the movement linearly, and find when it crosses the portal rectangle from the front side.
+     * The rectangle is enlarged by a margin that grows with the travel distance,
+     * to tolerate the turning of the player.
+     *
+     * @return the time in seconds, or NaN if it won't cross within maxSeconds
+     */
+    public static double predictCrossingTime(
+        Vec3 pos, Vec3 velocity,
+        Vec3 portalOrigin, Vec3 axisW, Vec3 axisH, double width, double height,
+        double maxSeconds
+    ) {
+        Vec3 normal = axisW.cross(axisH);
+        
+        double velocityAlongNormal = velocity.dot(normal);
+        if (velocityAlongNormal >= -1e-6) {
+            // moving away from the portal or parallel to it
+            return Double.NaN;
+        }
+        
+        double time = portalOrigin.subtract(pos).dot(normal) / velocityAlongNormal;
+        if (time < 0 || time > maxSeconds) {
+            return Double.NaN;
+        }
+        
+        Vec3 offset = pos.add(velocity.scale(time)).subtract(portalOrigin);
+        double margin = BASE_MARGIN + velocity.length() * time * ANGULAR_TOLERANCE;
+        
+        if (Math.abs(offset.dot(axisW)) > width / 2 + margin) {
+            return Double.NaN;
+        }
+        if (Math.abs(offset.dot(axisH)) > height / 2 + margin) {
+            return Double.NaN;
+        }
+        
+        return time;
+    }
+    
+    private static int getPrefetchRadius(PerformanceLevel level) {
+        if (level == PerformanceLevel.good) {
+            return 3;
+        }
+        else if (level == PerformanceLevel.medium) {
+            return 1;
+        }
+        else {
+            return 0;
+        }
+    }
+    
+    public static void foreachPrefetchLoader(Consumer<ChunkLoader> func) {
+        playerMotions.forEach((player, motion) -> {
+            if (motion.prefetchLoader != null && !player.isRemoved()) {
+                func.accept(motion.prefetchLoader);
+            }
+        });
+    }
+    
+    @Nullable
+    public static ChunkLoader getPrefetchLoader(ServerPlayer player) {
+        PlayerMotion motion = playerMotions.get(player);
+        return motion == null ? null : motion.prefetchLoader;
+    }
+}
@@ -0,0 +1,137 @@
+package qouteall.imm_ptl.core.chunk_loading;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.SectionPos;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.block.Blocks;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.ChunkAccess;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+import net.minecraft.world.level.chunk.PalettedContainer;
+import net.minecraft.world.level.material.FluidState;
+import org.apache.commons.lang3.Validate;
+import org.jetbrains.annotations.Nullable;
+import qouteall.q_misc_util.MiscHelper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A {@link LenientChunkRegion} whose block states are read from copies of the chunk sections.
+ * The copies are made on the server thread when creating it.
+ * After that, {@link #getBlockState(BlockPos)} and {@link #getFluidState(BlockPos)}
+ * can be called from any thread without locking, while the server thread is changing the chunks.
+ * <p>
+ * The other methods of {@link net.minecraft.server.level.WorldGenRegion} still access the live chunks,
+ * so they should not be used off-thread.
+ */
+public class ChunkRegionSnapshot extends LenientChunkRegion {
+    
+    /**
+     * The copied block states of one chunk.
+     */
+    public static final class ChunkSnapshot {
+        public final ChunkPos pos;
+        public final int minSectionY;
+        
+        // null for the sections that only have air
+        private final PalettedContainer<BlockState>[] sections;
+        
+        @SuppressWarnings("unchecked")
+        private ChunkSnapshot(ChunkAccess chunk) {
+            this.pos = chunk.getPos();
+            this.minSectionY = chunk.getMinSection();
+            
+            LevelChunkSection[] chunkSections = chunk.getSections();
+            this.sections = new PalettedContainer[chunkSections.length];
+            for (int i = 0; i < chunkSections.length; i++) {
+                LevelChunkSection section = chunkSections[i];
+                if (section != null && !section.hasOnlyAir()) {
+                    // copies the palette and the packed data array
+                    sections[i] = section.getStates().copy();
+                }
+            }
+        }
+        
+        public int getSectionNum() {
+            return sections.length;
+        }
+        
+        /**
+         * @param sectionIndex the index from the bottom section, not the section y
+         * @return null if the section only has air
+         */
+        @Nullable
+        public PalettedContainer<BlockState> getSection(int sectionIndex) {
+            return sections[sectionIndex];
+        }
+        
+        public BlockState getBlockState(int x, int y, int z) {
+            int sectionIndex = SectionPos.blockToSectionCoord(y) - minSectionY;
+            if (sectionIndex < 0 || sectionIndex >= sections.length) {
+                return Blocks.AIR.defaultBlockState();
+            }
+            PalettedContainer<BlockState> section = sections[sectionIndex];
+            if (section == null) {
+                return Blocks.AIR.defaultBlockState();
+            }
+            return section.get(x & 15, y & 15, z & 15);
+        }
+    }
+    
+    private final Long2ObjectOpenHashMap<ChunkSnapshot> snapshots;
+    
+    private final List<ChunkSnapshot> snapshotList;
+    
+    private ChunkRegionSnapshot(ServerLevel world, List<ChunkAccess> chunks) {
+        super(world, chunks);
+        
+        snapshots = new Long2ObjectOpenHashMap<>(chunks.size());
+        List<ChunkSnapshot> list = new ArrayList<>(chunks.size());
+        for (ChunkAccess chunk : chunks) {
+            ChunkSnapshot snapshot = new ChunkSnapshot(chunk);
+            snapshots.put(snapshot.pos.toLong(), snapshot);
+            list.add(snapshot);
+        }
+        snapshotList = Collections.unmodifiableList(list);
+    }
+    
+    /**
+     * Must be called on the server thread. The chunks will be loaded if not loaded.
+     */
+    public static ChunkRegionSnapshot create(
+        DimensionalChunkPos center, int radius, ServerLevel world
+    ) {
+        Validate.isTrue(MiscHelper.getServer().isSameThread());
+        
+        return new ChunkRegionSnapshot(world, getChunks(center, radius, world));
+    }
+    
+    public List<ChunkSnapshot> getChunkSnapshots() {
+        return snapshotList;
+    }
+    
+    @Nullable
+    public ChunkSnapshot getChunkSnapshot(int chunkX, int chunkZ) {
+        return snapshots.get(ChunkPos.asLong(chunkX, chunkZ));
+    }
+    
+    @Override
+    public BlockState getBlockState(BlockPos pos) {
+        ChunkSnapshot snapshot = getChunkSnapshot(
+            SectionPos.blockToSectionCoord(pos.getX()), SectionPos.blockToSectionCoord(pos.getZ())
+        );
+        if (snapshot == null) {
+            return Blocks.AIR.defaultBlockState();
+        }
+        return snapshot.getBlockState(pos.getX(), pos.getY(), pos.getZ());
+    }
+    
+    @Override
+    public FluidState getFluidState(BlockPos pos) {
+        return getBlockState(pos).getFluidState();
+    }
+}
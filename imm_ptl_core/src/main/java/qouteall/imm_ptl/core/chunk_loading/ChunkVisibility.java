@@ -52,9 +52,11 @@ public class ChunkVisibility {
             NewChunkTrackingGraph.getPlayerInfo(player).performanceLevel;
         int cap1 = PerformanceLevel.getIndirectLoadingRadiusCap(performanceLevel);
         int cap2 = IPGlobal.indirectLoadingRadiusCap;
-        int cap3 = PerformanceLevel.getIndirectLoadingRadiusCap(ServerPerformanceMonitor.getLevel());
+        int cap3 = PerformanceLevel.getIndirectLoadingRadiusCap(
+            ServerPerformanceMonitor.getLevel(portal.dimensionTo)
+        );
         
-        int cap = Math.min(cap1, cap2);
+        int cap = Math.min(Math.min(cap1, cap2), cap3);
         
         // load more for scaling portal
         if (portal.getScale() > 2) {
@@ -67,16 +67,25 @@ public class EntitySync {
             }
         }
         
+        int tickCount = server.getTickCount();
+        
         server.getAllLevels().forEach(world -> {
             ChunkMap storage = world.getChunkSource().chunkMap;
             Int2ObjectMap<ChunkMap.TrackedEntity> entityTrackerMap =
                 ((IEThreadedAnvilChunkStorage) storage).ip_getEntityTrackerMap();
             
+            // when the server is lagging, the entities that moved to another section are updated less frequently
+            // a deferred one stays dirty until its turn
+            int syncInterval = PerformanceLevel.getEntitySyncInterval(
+                ServerPerformanceMonitor.getLevel(world.dimension())
+            );
+            
             PacketRedirection.withForceRedirect(world, () -> {
                 for (ChunkMap.TrackedEntity tracker : entityTrackerMap.values()) {
                     ((IEEntityTracker) tracker).tickEntry();
                     
-                    boolean dirty = isDirty(tracker);
+                    boolean dirty = isDirty(tracker) && (syncInterval == 1 ||
+                        ((IEEntityTracker) tracker).getEntity_().getId() % syncInterval == tickCount % syncInterval);
                     List<ServerPlayer> updatedPlayerList = dirty ? playerList : dirtyPlayers;
                     
                     for (ServerPlayer player : updatedPlayerList) {
@@ -4,7 +4,6 @@ import com.mojang.datafixers.util.Either;
 import com.mojang.logging.LogUtils;
 import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.longs.LongLinkedOpenHashSet;
-import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import it.unimi.dsi.fastutil.longs.LongPredicate;
 import net.minecraft.resources.ResourceKey;
 import net.minecraft.server.level.ChunkHolder;
@@ -21,6 +20,7 @@ import net.minecraft.world.level.ChunkPos;
 import net.minecraft.world.level.Level;
 import net.minecraft.world.level.chunk.LevelChunk;
 import org.apache.commons.lang3.Validate;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import qouteall.imm_ptl.core.IPGlobal;
 import qouteall.imm_ptl.core.McHelper;
@@ -31,12 +31,15 @@ import qouteall.imm_ptl.core.mixin.common.chunk_sync.IEDistanceManager;
 import qouteall.imm_ptl.core.platform_specific.IPConfig;
 import qouteall.q_misc_util.Helper;
 import qouteall.q_misc_util.dimension.DynamicDimensionsImpl;
-import qouteall.q_misc_util.my_util.RateStat;
+import qouteall.q_misc_util.metrics.Counter;
+import qouteall.q_misc_util.metrics.Gauge;
+import qouteall.q_misc_util.metrics.Metrics;
 
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
 import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
 
 /**
@@ -56,6 +59,10 @@ import java.util.concurrent.Executor;
  * In {@link DistanceManager.PlayerTicketTracker} it sends message for acquiring and releasing.
  * The chunk positions to release are passed into {@link DistanceManager#ticketsToRelease}.
  * A callback for sending message for releasing will be added to these chunk's future.
+ * <p>
+ * The number of chunks that are loading concurrently is limited by a {@link ChunkLoadingWindow},
+ * which adapts to the loading latency and the server tick time.
+ * The loading completion is detected by the callbacks of the chunk holder's entity ticking future.
  */
 public class ImmPtlChunkTickets {
     private static final Logger LOGGER = LogUtils.getLogger();
@@ -63,9 +70,9 @@ public class ImmPtlChunkTickets {
     public static final TicketType<ChunkPos> TICKET_TYPE =
         TicketType.create("imm_ptl", Comparator.comparingLong(ChunkPos::toLong));
     
-    // for debugging
-    private static boolean enableDebugRateStat = false;
-    private static final RateStat debugRateStat = new RateStat("imm_ptl_chunk_ticket");
+    private static final Counter ADD_TICKET_COUNTER = Metrics.counter("chunk_ticket.add");
+    private static final Counter REMOVE_TICKET_COUNTER = Metrics.counter("chunk_ticket.remove");
+    private static final Counter THROTTLED_COUNTER = Metrics.counter("chunk_ticket.throttled_flush");
     
     // the fields of ImmPtlChunkTickets should avoid referencing ServerLevel
     public static final WeakHashMap<ServerLevel, ImmPtlChunkTickets> BY_DIMENSION = new WeakHashMap<>();
@@ -90,21 +97,40 @@ public class ImmPtlChunkTickets {
     
     private final ArrayList<LongLinkedOpenHashSet> chunksToAddTicketByDistance = new ArrayList<>();
     
-    private final LongOpenHashSet waitingForLoading = new LongOpenHashSet();
+    private static final class LoadingEntry {
+        private final long chunkPos;
+        private final long ticketAddTime;
+        
+        private LoadingEntry(long chunkPos, long ticketAddTime) {
+            this.chunkPos = chunkPos;
+            this.ticketAddTime = ticketAddTime;
+        }
+    }
     
-    private boolean isValid = true;
+    private final Long2ObjectOpenHashMap<LoadingEntry> waitingForLoading = new Long2ObjectOpenHashMap<>();
     
-    public final int throttlingLimit = 4;
+    // the loading entries that haven't got a callback on the chunk holder's future
+    private final ArrayList<LoadingEntry> entriesToListen = new ArrayList<>();
     
-    public int immediateTaskQuota = 0;
+    private final ChunkLoadingWindow loadingWindow = new ChunkLoadingWindow();
     
-    private ImmPtlChunkTickets() {
+    private final ResourceKey<Level> dimension;
+    private final Counter loadedCounter;
+    private final Gauge windowGauge;
     
+    private boolean isValid = true;
+    
+    public int immediateTaskQuota = 0;
+    
+    private ImmPtlChunkTickets(ResourceKey<Level> dimension) {
+        this.dimension = dimension;
+        this.loadedCounter = Metrics.counter("chunk_ticket.loaded." + dimension.location());
+        this.windowGauge = Metrics.gauge("chunk_ticket.window." + dimension.location());
     }
     
     // it takes in world instead of dimension id, to ensure dimension really exists
     public static ImmPtlChunkTickets get(ServerLevel world) {
-        return BY_DIMENSION.computeIfAbsent(world, k -> new ImmPtlChunkTickets());
+        return BY_DIMENSION.computeIfAbsent(world, k -> new ImmPtlChunkTickets(k.dimension()));
     }
     
     public void markForLoading(long chunkPos, int distanceToSource, int generation) {
@@ -170,10 +196,6 @@ public class ImmPtlChunkTickets {
             return;
         }
         
-        if (enableDebugRateStat) {
-            debugRateStat.update();
-        }
-        
         if (!isValid) {
             LOGGER.error("flushing when invalid {}", world);
             return;
@@ -188,25 +210,18 @@ public class ImmPtlChunkTickets {
         DistanceManager distanceManager = getDistanceManager(world);
         Executor mainThreadExecutor = ((IEDistanceManager) distanceManager).ip_getMainThreadExecutor();
         
-        // clear the already loaded chunks
-        waitingForLoading.removeIf((long chunkPos) -> {
-            ChunkHolder chunkHolder = getChunkHolder(world, chunkPos);
-            if (chunkHolder == null) {
-//                LOGGER.error("Missing chunk holder {} {}", world, new ChunkPos(chunkPos));
-                return true;
-            }
-            
-            Either<LevelChunk, ChunkHolder.ChunkLoadingFailure> resultNow =
-                chunkHolder.getEntityTickingChunkFuture().getNow(null);
-            
-            return resultNow != null && resultNow.left().isPresent();
-        });
+        // listen to the newly added chunk tickets' loading
+        entriesToListen.removeIf(entry -> tryListen(world, mainThreadExecutor, entry));
+        
+        int throttlingLimit = loadingWindow.getSize();
+        windowGauge.set(throttlingLimit);
         
         // flush the pending-add-ticket queues
         for (LongLinkedOpenHashSet queue : chunksToAddTicketByDistance) {
             if (queue != null) {
                 while (!queue.isEmpty()) {
                     if (waitingForLoading.size() >= throttlingLimit) {
+                        THROTTLED_COUNTER.inc();
                         return;
                     }
                     
@@ -214,7 +229,10 @@ public class ImmPtlChunkTickets {
                     if (chunkPosToTicketInfo.containsKey(chunkPos)) {
                         addTicket(distanceManager, chunkPos);
                         
-                        waitingForLoading.add(chunkPos);
+                        // the chunk holder's future is updated later, so don't listen now
+                        LoadingEntry entry = new LoadingEntry(chunkPos, System.nanoTime());
+                        waitingForLoading.put(chunkPos, entry);
+                        entriesToListen.add(entry);
                     }
                     else {
                         LOGGER.warn("Chunk {} is not in the queue", new ChunkPos(chunkPos));
@@ -224,6 +242,70 @@ public class ImmPtlChunkTickets {
         }
     }
     
+    /**
+     * @return whether the entry no longer needs listening
+     */
+    private boolean tryListen(ServerLevel world, Executor mainThreadExecutor, LoadingEntry entry) {
+        if (waitingForLoading.get(entry.chunkPos) != entry) {
+            // purged
+            return true;
+        }
+        
+        ChunkHolder chunkHolder = getChunkHolder(world, entry.chunkPos);
+        if (chunkHolder == null) {
+            waitingForLoading.remove(entry.chunkPos);
+            return true;
+        }
+        
+        CompletableFuture<Either<LevelChunk, ChunkHolder.ChunkLoadingFailure>> future =
+            chunkHolder.getEntityTickingChunkFuture();
+        
+        Either<LevelChunk, ChunkHolder.ChunkLoadingFailure> resultNow = future.getNow(null);
+        if (resultNow != null) {
+            if (resultNow.left().isPresent()) {
+                onChunkLoaded(entry);
+                return true;
+            }
+            else {
+                // it's the placeholder future that immediately fails. the future is not updated yet
+                return false;
+            }
+        }
+        
+        future.whenCompleteAsync(
+            (result, throwable) -> onLoadingFutureCompleted(entry, result),
+            mainThreadExecutor
+        );
+        return true;
+    }
+    
+    private void onLoadingFutureCompleted(
+        LoadingEntry entry, @Nullable Either<LevelChunk, ChunkHolder.ChunkLoadingFailure> result
+    ) {
+        if (!isValid || waitingForLoading.get(entry.chunkPos) != entry) {
+            return;
+        }
+        
+        if (result != null && result.left().isPresent()) {
+            onChunkLoaded(entry);
+        }
+        else {
+            // the chunk holder's level dropped before finishing loading, listen to the new future later
+            entriesToListen.add(entry);
+        }
+    }
+    
+    private void onChunkLoaded(LoadingEntry entry) {
+        waitingForLoading.remove(entry.chunkPos);
+        loadedCounter.inc();
+        
+        long currTime = System.nanoTime();
+        loadingWindow.onChunkLoaded(
+            currTime - entry.ticketAddTime, currTime,
+            ServerPerformanceMonitor.getLevel(dimension)
+        );
+    }
+    
     private static void addTicket(DistanceManager distanceManager, long chunkPos) {
         if (!IPConfig.getConfig().enableImmPtlChunkLoading) {
             return;
@@ -234,9 +316,7 @@ public class ImmPtlChunkTickets {
             TICKET_TYPE, chunkPosObj, getLoadingRadius(), chunkPosObj
         );
         
-        if (enableDebugRateStat) {
-            debugRateStat.hit();
-        }
+        ADD_TICKET_COUNTER.inc();
     }
     
     public void purge(
@@ -262,6 +342,7 @@ public class ImmPtlChunkTickets {
                     distanceManager.removeRegionTicket(
                         TICKET_TYPE, chunkPosObj, getLoadingRadius(), chunkPosObj
                     );
+                    REMOVE_TICKET_COUNTER.inc();
                 }
                 return true;
             }
@@ -275,6 +356,12 @@ public class ImmPtlChunkTickets {
         return chunkPosToTicketInfo.size();
     }
     
+    public String getThrottlingDebugString() {
+        return "window %d, loading %d, latency %.0fms".formatted(
+            loadingWindow.getSize(), waitingForLoading.size(), loadingWindow.getSmoothedLatencyMs()
+        );
+    }
+    
     public static void onDimensionRemove(ResourceKey<Level> dimension) {
         ServerLevel world = McHelper.getServerWorld(dimension);
         
@@ -20,6 +20,15 @@ public class LenientChunkRegion extends WorldGenRegion {
     
     static LenientChunkRegion createLenientChunkRegion(
         DimensionalChunkPos center, int radius, ServerLevel world
+    ) {
+        return new LenientChunkRegion(
+            world, getChunks(center, radius, world)
+        );
+    }
+    
+    // the order is required by the constructor of WorldGenRegion
+    static List<ChunkAccess> getChunks(
+        DimensionalChunkPos center, int radius, ServerLevel world
     ) {
         List<ChunkAccess> chunks = new ArrayList<>();
     
@@ -29,9 +38,7 @@ public class LenientChunkRegion extends WorldGenRegion {
             }
         }
     
-        return new LenientChunkRegion(
-            world, chunks
-        );
+        return chunks;
     }
     
     @Override
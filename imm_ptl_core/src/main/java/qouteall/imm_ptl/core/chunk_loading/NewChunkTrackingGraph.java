@@ -21,6 +21,11 @@ import qouteall.imm_ptl.core.ducks.IEThreadedAnvilChunkStorage;
 import qouteall.imm_ptl.core.network.PacketRedirection;
 import qouteall.q_misc_util.Helper;
 import qouteall.q_misc_util.MiscHelper;
+import qouteall.q_misc_util.dimension.DimensionHibernation;
+import qouteall.q_misc_util.metrics.Counter;
+import qouteall.q_misc_util.metrics.Gauge;
+import qouteall.q_misc_util.metrics.Metrics;
+import qouteall.q_misc_util.metrics.TimedSection;
 import qouteall.q_misc_util.my_util.SignalBiArged;
 
 import java.util.ArrayDeque;
@@ -37,6 +42,11 @@ public class NewChunkTrackingGraph {
     
     private static final Logger LOGGER = LogUtils.getLogger();
     
+    private static final TimedSection TICK_SECTION = Metrics.section("chunk_tracking.tick");
+    private static final Counter BEGIN_WATCH_COUNTER = Metrics.counter("chunk_tracking.begin_watch");
+    private static final Counter END_WATCH_COUNTER = Metrics.counter("chunk_tracking.end_watch");
+    private static final Gauge TICKETED_CHUNKS_GAUGE = Metrics.gauge("chunk_ticket.ticketed_chunks");
+    
     public static final int updateInterval = 13;
     public static final int defaultDelayUnloadGenerations = 4;
     
@@ -148,7 +158,12 @@ public class NewChunkTrackingGraph {
         
         ChunkVisibility.foreachBaseChunkLoaders(
             player,
-            chunkLoaders::add
+            chunkLoader -> {
+                chunkLoaders.add(chunkLoader);
+                if (!chunkLoader.isDirectLoader) {
+                    PortalChunkWarmup.recordPortalLoader(chunkLoader);
+                }
+            }
         );
         
         chunkLoaders.addAll(playerInfo.additionalChunkLoaders);
@@ -237,6 +252,7 @@ public class NewChunkTrackingGraph {
                         ServerLevel world = MiscHelper.getServer().getLevel(record.dimension);
                         if (world != null) {
                             ChunkPos chunkPos = new ChunkPos(record.chunkPos);
+                            BEGIN_WATCH_COUNTER.inc();
                             beginWatchChunkSignal.emit(player, new DimensionalChunkPos(
                                 record.dimension, chunkPos
                             ));
@@ -297,6 +313,7 @@ public class NewChunkTrackingGraph {
                     
                     if (shouldRemove) {
                         if (record.isLoadedToPlayer) {
+                            END_WATCH_COUNTER.inc();
                             endWatchChunkSignal.emit(
                                 record.player,
                                 new DimensionalChunkPos(
@@ -368,37 +385,63 @@ public class NewChunkTrackingGraph {
         Object2ObjectOpenHashMap<ResourceKey<Level>, LongOpenHashSet> additionalLoadedChunks =
             new Object2ObjectOpenHashMap<>();
         
-        additionalChunkLoaders.removeIf(chunkLoader -> {
-            ResourceKey<Level> dimension = chunkLoader.center.dimension;
-            ServerLevel world = MiscHelper.getServer().getLevel(dimension);
-            
-            if (world == null) {
-                LOGGER.error("Missing dimension in chunk loader {}", dimension.location());
-                return true;
-            }
-            
-            ImmPtlChunkTickets dimTicketManager = ImmPtlChunkTickets.get(world);
-            
-            LongOpenHashSet set = additionalLoadedChunks.computeIfAbsent(dimension, k -> new LongOpenHashSet());
-            
-            chunkLoader.foreachChunkPos(new ChunkLoader.ChunkPosConsumer() {
-                @Override
-                public void consume(ResourceKey<Level> dimension, int x, int z, int distanceToSource) {
-                    long chunkPos = ChunkPos.asLong(x, z);
-                    dimTicketManager.markForLoading(chunkPos, distanceToSource, generationCounter);
-                    set.add(chunkPos);
-                }
-            });
-            
+        additionalChunkLoaders.removeIf(
+            chunkLoader -> !markAdditionalChunkLoader(chunkLoader, 0, additionalLoadedChunks)
+        );
+        
+        // the prefetched chunks are loaded after the chunks that are being watched
+        ChunkPrefetcher.foreachPrefetchLoader(
+            chunkLoader -> markAdditionalChunkLoader(
+                chunkLoader, ChunkPrefetcher.PRIORITY_OFFSET, additionalLoadedChunks
+            )
+        );
+        
+        PortalChunkWarmup.foreachWarmupLoader(
+            chunkLoader -> markAdditionalChunkLoader(
+                chunkLoader, PortalChunkWarmup.PRIORITY_OFFSET, additionalLoadedChunks
+            )
+        );
+        
+        return additionalLoadedChunks;
+    }
+    
+    /**
+     * @return false if the dimension is missing
+     */
+    private static boolean markAdditionalChunkLoader(
+        ChunkLoader chunkLoader, int distanceOffset,
+        Object2ObjectOpenHashMap<ResourceKey<Level>, LongOpenHashSet> additionalLoadedChunks
+    ) {
+        ResourceKey<Level> dimension = chunkLoader.center.dimension;
+        ServerLevel world = MiscHelper.getServer().getLevel(dimension);
+        
+        if (world == null) {
+            LOGGER.error("Missing dimension in chunk loader {}", dimension.location());
             return false;
+        }
+        
+        ImmPtlChunkTickets dimTicketManager = ImmPtlChunkTickets.get(world);
+        
+        LongOpenHashSet set = additionalLoadedChunks.computeIfAbsent(dimension, k -> new LongOpenHashSet());
+        
+        chunkLoader.foreachChunkPos(new ChunkLoader.ChunkPosConsumer() {
+            @Override
+            public void consume(ResourceKey<Level> dimension, int x, int z, int distanceToSource) {
+                long chunkPos = ChunkPos.asLong(x, z);
+                dimTicketManager.markForLoading(
+                    chunkPos, Math.min(distanceToSource + distanceOffset, 32), generationCounter
+                );
+                set.add(chunkPos);
+            }
         });
         
-        return additionalLoadedChunks;
+        return true;
     }
     
     private static void tick() {
         MinecraftServer server = MiscHelper.getServer();
         server.getProfiler().push("portal_chunk_tracking");
+        long startTime = TICK_SECTION.begin();
         
         long gameTime = McHelper.getOverWorldOnServer().getGameTime();
         server.getPlayerList().getPlayers().forEach(player -> {
@@ -419,19 +462,28 @@ public class NewChunkTrackingGraph {
             generationCounter++;
         }
         
+        int ticketedChunks = 0;
         for (ServerLevel world : MiscHelper.getServer().getAllLevels()) {
             ImmPtlChunkTickets dimTicketManager = ImmPtlChunkTickets.get(world);
             IEThreadedAnvilChunkStorage chunkMap = (IEThreadedAnvilChunkStorage) world.getChunkSource().chunkMap;
             
             dimTicketManager.tick(world);
+            ticketedChunks += dimTicketManager.getLoadedChunkNum();
         }
+        TICKETED_CHUNKS_GAUGE.set(ticketedChunks);
         
+        TICK_SECTION.end(startTime);
         server.getProfiler().pop();
     }
     
     public static void init() {
         IPGlobal.postServerTickSignal.connect(NewChunkTrackingGraph::tick);
         IPGlobal.serverCleanupSignal.connect(NewChunkTrackingGraph::cleanup);
+        
+        // a dimension that's watched through portals should not hibernate
+        DimensionHibernation.DIMENSION_IN_USE_EVENT.register(
+            world -> shouldLoadDimension(world.dimension())
+        );
     }
     
     public static boolean isPlayerWatchingChunk(
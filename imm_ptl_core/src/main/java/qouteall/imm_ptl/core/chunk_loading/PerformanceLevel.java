@@ -3,14 +3,17 @@ package qouteall.imm_ptl.core.chunk_loading;
 public enum PerformanceLevel {
     good, medium, bad;
     
+    /**
+     * @param memoryPressure the smoothed memory pressure from {@link qouteall.imm_ptl.core.miscellaneous.GcMonitor}
+     */
     public static PerformanceLevel getClientPerformanceLevel(
         int averageFPS,
-        int averageFreeMemoryMB
+        double memoryPressure
     ) {
-        if (averageFPS > 50 && averageFreeMemoryMB > 800) {
+        if (averageFPS > 50 && memoryPressure < 0.3) {
             return good;
         }
-        else if (averageFPS > 30 && averageFreeMemoryMB > 300) {
+        else if (averageFPS > 30 && memoryPressure < 0.7) {
             return medium;
         }
         else {
@@ -19,11 +22,22 @@ public enum PerformanceLevel {
     }
     
     
-    public static PerformanceLevel getServerPerformanceLevel(float tickTimeMs) {
-        if (tickTimeMs < 40) {
+    public static PerformanceLevel getServerPerformanceLevel(
+        double tickTimeMs, int targetMspt, double memoryPressure
+    ) {
+        if (tickTimeMs < targetMspt && memoryPressure < 0.3) {
             return good;
         }
-        else if (tickTimeMs < 80) {
+        else if (tickTimeMs < targetMspt * 1.5 && memoryPressure < 0.7) {
+            return medium;
+        }
+        else {
+            return bad;
+        }
+    }
+    
+    public static PerformanceLevel getWorse(PerformanceLevel level) {
+        if (level == good) {
             return medium;
         }
         else {
@@ -69,6 +83,19 @@ public enum PerformanceLevel {
         }
     }
     
+    // the entities that moved to another section update their tracking status once per this many ticks
+    public static int getEntitySyncInterval(PerformanceLevel level) {
+        if (level == good) {
+            return 1;
+        }
+        else if (level == medium) {
+            return 2;
+        }
+        else {
+            return 4;
+        }
+    }
+    
     public static int getPortalRenderingDistance(
         PerformanceLevel level, int originalDistance
     ) {
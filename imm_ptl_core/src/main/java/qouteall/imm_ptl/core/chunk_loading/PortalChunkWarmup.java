@@ -0,0 +1,260 @@
+package qouteall.imm_ptl.core.chunk_loading;
+
+import com.mojang.logging.LogUtils;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.saveddata.SavedData;
+import org.slf4j.Logger;
+import qouteall.imm_ptl.core.IPGlobal;
+import qouteall.q_misc_util.Helper;
+import qouteall.q_misc_util.MiscHelper;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Remembers the portal destination areas that players frequently watch, per dimension,
+ * and loads them in the background after the server starts,
+ * so that the first players going through the hub portals don't cause a chunk loading storm.
+ * <p>
+ * Each record is the center and radius of a portal chunk loader with a score.
+ * The score increases by 1 each time a player's chunk loading update uses that loader,
+ * and decays at each server start, so the areas that are no longer visited are forgotten.
+ * The scores also age periodically while the server runs, and when the table is full
+ * the lowest record is replaced, so the new areas of a long-running server can compete
+ * with the established ones.
+ * <p>
+ * The warmup loaders have a lower priority than the watched chunks and are throttled by
+ * {@link ImmPtlChunkTickets}. They are removed after {@link #WARMUP_DURATION_SECONDS}.
+ * The number of chunks to warm up is limited by {@link IPGlobal#portalChunkWarmupBudget}.
+ */
+public class PortalChunkWarmup extends SavedData {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    
+    private static final String DATA_NAME = "imm_ptl_portal_chunk_warmup";
+    
+    private static final int MAX_RECORDS_PER_DIMENSION = 128;
+    
+    // the large loaders are recorded with a capped radius, to keep the warmup small
+    private static final int MAX_RADIUS = 6;
+    
+    private static final double DECAY_PER_SERVER_START = 0.7;
+    
+    private static final long AGING_INTERVAL_SECONDS = 10 * 60;
+    private static final double AGING_FACTOR = 0.9;
+    
+    // the records with lower score are not used for warmup, and are dropped at server start
+    private static final double MIN_SCORE = 20;
+    
+    public static final int PRIORITY_OFFSET = 16;
+    
+    private static final long WARMUP_DURATION_SECONDS = 10 * 60;
+    
+    private static final class WatchRecord {
+        private int radius;
+        private double score;
+        
+        private WatchRecord(int radius, double score) {
+            this.radius = radius;
+            this.score = score;
+        }
+    }
+    
+    private final Long2ObjectOpenHashMap<WatchRecord> records = new Long2ObjectOpenHashMap<>();
+    
+    private static boolean warmupStarted = false;
+    private static long warmupEndTime = 0;
+    private static long lastAgingTime = 0;
+    private static final ArrayList<ChunkLoader> warmupLoaders = new ArrayList<>();
+    
+    public static void init() {
+        IPGlobal.postServerTickSignal.connect(PortalChunkWarmup::tick);
+        IPGlobal.serverCleanupSignal.connect(PortalChunkWarmup::cleanup);
+    }
+    
+    public static PortalChunkWarmup get(ServerLevel world) {
+        return world.getDataStorage().computeIfAbsent(
+            PortalChunkWarmup::fromNbt,
+            PortalChunkWarmup::new,
+            DATA_NAME
+        );
+    }
+    
+    private static void cleanup() {
+        warmupStarted = false;
+        lastAgingTime = 0;
+        warmupLoaders.clear();
+    }
+    
+    /**
+     * Called when a portal chunk loader is used for a player.
+     */
+    public static void recordPortalLoader(ChunkLoader chunkLoader) {
+        ServerLevel world = MiscHelper.getServer().getLevel(chunkLoader.center.dimension);
+        if (world == null) {
+            return;
+        }
+        
+        get(world).record(
+            ChunkPos.asLong(chunkLoader.center.x, chunkLoader.center.z),
+            Math.min(chunkLoader.radius, MAX_RADIUS)
+        );
+    }
+    
+    private void record(long chunkPos, int radius) {
+        WatchRecord record = records.get(chunkPos);
+        if (record == null) {
+            if (records.size() >= MAX_RECORDS_PER_DIMENSION) {
+                removeLowestRecord();
+            }
+            records.put(chunkPos, new WatchRecord(radius, 1));
+        }
+        else {
+            record.radius = Math.max(record.radius, radius);
+            record.score += 1;
+        }
+        
+        setDirty();
+    }
+    
+    // the established records age, so a new area can replace them when it's watched more
+    private void removeLowestRecord() {
+        long lowestPos = 0;
+        double lowestScore = Double.MAX_VALUE;
+        for (var entry : records.long2ObjectEntrySet()) {
+            if (entry.getValue().score < lowestScore) {
+                lowestScore = entry.getValue().score;
+                lowestPos = entry.getLongKey();
+            }
+        }
+        
+        records.remove(lowestPos);
+    }
+    
+    private void decay() {
+        records.values().forEach(record -> record.score *= DECAY_PER_SERVER_START);
+        records.values().removeIf(record -> record.score < MIN_SCORE);
+        setDirty();
+    }
+    
+    // unlike the decay at server start, it doesn't drop records, the new records have low scores
+    private void age() {
+        if (records.isEmpty()) {
+            return;
+        }
+        records.values().forEach(record -> record.score *= AGING_FACTOR);
+        setDirty();
+    }
+    
+    private static void tick() {
+        MinecraftServer server = MiscHelper.getServer();
+        if (server == null) {
+            return;
+        }
+        
+        if (!warmupStarted) {
+            warmupStarted = true;
+            lastAgingTime = System.nanoTime();
+            startWarmup(server);
+            return;
+        }
+        
+        if (System.nanoTime() - lastAgingTime > Helper.secondToNano(AGING_INTERVAL_SECONDS)) {
+            lastAgingTime = System.nanoTime();
+            for (ServerLevel world : server.getAllLevels()) {
+                get(world).age();
+            }
+        }
+        
+        if (!warmupLoaders.isEmpty() && System.nanoTime() > warmupEndTime) {
+            LOGGER.info("Portal chunk warmup finished");
+            warmupLoaders.clear();
+        }
+    }
+    
+    private static void startWarmup(MinecraftServer server) {
+        record Candidate(ServerLevel world, long chunkPos, WatchRecord record) {}
+        
+        List<Candidate> candidates = new ArrayList<>();
+        for (ServerLevel world : server.getAllLevels()) {
+            PortalChunkWarmup storage = get(world);
+            storage.decay();
+            storage.records.long2ObjectEntrySet().forEach(
+                e -> candidates.add(new Candidate(world, e.getLongKey(), e.getValue()))
+            );
+        }
+        
+        candidates.sort(Comparator.comparingDouble((Candidate c) -> c.record.score).reversed());
+        
+        int budget = IPGlobal.portalChunkWarmupBudget;
+        int usedBudget = 0;
+        for (Candidate candidate : candidates) {
+            int chunkNum = (candidate.record.radius * 2 + 1) * (candidate.record.radius * 2 + 1);
+            if (usedBudget + chunkNum > budget) {
+                continue;
+            }
+            usedBudget += chunkNum;
+            
+            warmupLoaders.add(new ChunkLoader(
+                new DimensionalChunkPos(candidate.world.dimension(), new ChunkPos(candidate.chunkPos)),
+                candidate.record.radius
+            ));
+        }
+        
+        warmupEndTime = System.nanoTime() + Helper.secondToNano(WARMUP_DURATION_SECONDS);
+        
+        if (!warmupLoaders.isEmpty()) {
+            LOGGER.info(
+                "Warming up {} portal destination areas ({} chunks)", warmupLoaders.size(), usedBudget
+            );
+        }
+    }
+    
+    public static void foreachWarmupLoader(Consumer<ChunkLoader> func) {
+        warmupLoaders.forEach(func);
+    }
+    
+    private static PortalChunkWarmup fromNbt(CompoundTag tag) {
+        PortalChunkWarmup result = new PortalChunkWarmup();
+        
+        long[] positions = tag.getLongArray("positions");
+        int[] radii = tag.getIntArray("radii");
+        int[] scores = tag.getIntArray("scores");
+        if (radii.length != positions.length || scores.length != positions.length) {
+            LOGGER.error("Invalid portal chunk warmup data");
+            return result;
+        }
+        
+        for (int i = 0; i < positions.length; i++) {
+            result.records.put(positions[i], new WatchRecord(radii[i], scores[i]));
+        }
+        
+        return result;
+    }
+    
+    @Override
+    public CompoundTag save(CompoundTag tag) {
+        int size = records.size();
+        long[] positions = new long[size];
+        int[] radii = new int[size];
+        int[] scores = new int[size];
+        
+        int i = 0;
+        for (var entry : records.long2ObjectEntrySet()) {
+            positions[i] = entry.getLongKey();
+            radii[i] = entry.getValue().radius;
+            scores[i] = (int) Math.min(entry.getValue().score, Integer.MAX_VALUE);
+            i++;
+        }
+        
+        tag.putLongArray("positions", positions);
+        tag.putIntArray("radii", radii);
+        tag.putIntArray("scores", scores);
+        return tag;
+    }
+}
@@ -1,28 +1,114 @@
 package qouteall.imm_ptl.core.chunk_loading;
 
+import net.minecraft.resources.ResourceKey;
 import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.Level;
 import qouteall.imm_ptl.core.IPGlobal;
+import qouteall.imm_ptl.core.miscellaneous.GcMonitor;
 import qouteall.q_misc_util.Helper;
 import qouteall.q_misc_util.MiscHelper;
+import qouteall.q_misc_util.dimension.DynamicDimensionsImpl;
+import qouteall.q_misc_util.metrics.Gauge;
+import qouteall.q_misc_util.metrics.Metrics;
 import qouteall.q_misc_util.my_util.LimitedLogger;
 
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Decides the server performance level from the recent tick durations,
+ * aiming to keep MSPT under {@link IPGlobal#serverTargetMspt}.
+ * <p>
+ * The tick durations of the last {@link #WINDOW_SIZE} ticks are kept, and the level is
+ * re-evaluated every second from the 95th percentile.
+ * Degrading happens quickly, but improving requires the tick time to be clearly lower
+ * than the threshold for a while, so that it doesn't oscillate between lag and under-utilisation.
+ * <p>
+ * The tick time of each dimension is also measured. When the server is under pressure,
+ * the dimensions that use more than their budget get a worse level than the others,
+ * so the portal chunk loading and entity syncing into them are reduced first.
+ */
 public class ServerPerformanceMonitor {
     
-    private static final int sampleNum = 20;
+    // 10 seconds
+    private static final int WINDOW_SIZE = 200;
+    
+    // when improving, the tick time is evaluated as if it's higher by this factor
+    private static final double IMPROVE_MARGIN = 1.3;
+    
+    private static final int SECONDS_TO_DEGRADE = 2;
+    private static final int SECONDS_TO_IMPROVE = 10;
+    
+    // the ratio of the target MSPT that one dimension can use when the server is under pressure
+    private static final double DIMENSION_BUDGET_RATIO = 0.5;
+    
+    // the smoothing factor of the per-dimension tick time, applied every tick
+    private static final double DIMENSION_SMOOTHING = 0.05;
+    
+    private static final Gauge MSPT_P50_GAUGE = Metrics.gauge("server.mspt_p50");
+    private static final Gauge MSPT_P95_GAUGE = Metrics.gauge("server.mspt_p95");
     
     private static PerformanceLevel level = PerformanceLevel.bad;
     
     private static final LimitedLogger limitedLogger = new LimitedLogger(50);
     
+    private static final long[] tickTimeWindow = new long[WINDOW_SIZE];
+    private static int sampleNum = 0;
+    private static int lastSampledTickCount = -1;
+    
+    private static long lastUpdateTime = 0;
+    private static int degradeStreak = 0;
+    private static int improveStreak = 0;
+    
+    private static final class DimensionStat {
+        private final Gauge gauge;
+        private long tickStartTime = 0;
+        private double smoothedTickNanos = 0;
+        private PerformanceLevel level = ServerPerformanceMonitor.level;
+        
+        private DimensionStat(ResourceKey<Level> dimension) {
+            gauge = Metrics.gauge("server.dimension_mspt." + dimension.location());
+        }
+    }
+    
+    private static final HashMap<ResourceKey<Level>, DimensionStat> dimensionStats = new HashMap<>();
+    
     public static void init() {
         IPGlobal.postServerTickSignal.connect(ServerPerformanceMonitor::tick);
+        IPGlobal.serverCleanupSignal.connect(ServerPerformanceMonitor::cleanup);
+        DynamicDimensionsImpl.beforeRemovingDimensionSignal.connect(dimensionStats::remove);
     }
     
-    private static long lastUpdateTime = 0;
+    private static void cleanup() {
+        dimensionStats.clear();
+        sampleNum = 0;
+        lastSampledTickCount = -1;
+        level = PerformanceLevel.bad;
+        degradeStreak = 0;
+        improveStreak = 0;
+    }
+    
+    // called by mixin
+    public static void onBeginDimensionTick(ServerLevel world) {
+        getDimensionStat(world.dimension()).tickStartTime = System.nanoTime();
+    }
+    
+    // called by mixin
+    public static void onEndDimensionTick(ServerLevel world) {
+        DimensionStat stat = getDimensionStat(world.dimension());
+        long duration = System.nanoTime() - stat.tickStartTime;
+        stat.smoothedTickNanos += (duration - stat.smoothedTickNanos) * DIMENSION_SMOOTHING;
+    }
+    
+    private static DimensionStat getDimensionStat(ResourceKey<Level> dimension) {
+        return dimensionStats.computeIfAbsent(dimension, DimensionStat::new);
+    }
     
     private static void tick() {
         if (!IPGlobal.enableServerPerformanceAdjustment) {
             level = PerformanceLevel.good;
+            dimensionStats.values().forEach(stat -> stat.level = PerformanceLevel.good);
             return;
         }
         
@@ -35,21 +121,101 @@ public class ServerPerformanceMonitor {
             return;
         }
         
+        sampleTickTime(server);
+        
         long currTime = System.nanoTime();
         
-        // update every 20 seconds
-        if (currTime - lastUpdateTime < Helper.secondToNano(20)) {
+        // update every second
+        if (currTime - lastUpdateTime < Helper.secondToNano(1)) {
             return;
         }
         else {
             lastUpdateTime = currTime;
         }
         
-        float tickTime = server.getAverageTickTime();
-        PerformanceLevel newLevel = PerformanceLevel.getServerPerformanceLevel(tickTime);
+        if (sampleNum < 20) {
+            return;
+        }
+        
+        long[] sorted = Arrays.copyOf(tickTimeWindow, Math.min(sampleNum, WINDOW_SIZE));
+        Arrays.sort(sorted);
+        double p50Ms = sorted[sorted.length / 2] / 1.0e6;
+        double p95Ms = sorted[(int) (sorted.length * 0.95)] / 1.0e6;
+        MSPT_P50_GAUGE.set(p50Ms);
+        MSPT_P95_GAUGE.set(p95Ms);
+        
+        updateLevel(p95Ms);
+        
+        updateDimensionLevels();
+    }
+    
+    // the tick time of vanilla's tickServer, which includes the ticking of all dimensions and this mod
+    private static void sampleTickTime(MinecraftServer server) {
+        // in tickServer, the tick count is increased before ticking, and the tick time is recorded after ticking
+        // so the last recorded one is the previous tick
+        int tickCount = server.getTickCount() - 1;
+        if (tickCount == lastSampledTickCount || tickCount < 0) {
+            return;
+        }
+        lastSampledTickCount = tickCount;
+        
+        tickTimeWindow[sampleNum % WINDOW_SIZE] = server.tickTimes[tickCount % server.tickTimes.length];
+        sampleNum++;
+    }
+    
+    private static void updateLevel(double p95Ms) {
+        double memoryPressure = GcMonitor.getMemoryPressure();
+        int targetMspt = IPGlobal.serverTargetMspt;
+        
+        PerformanceLevel degradeLevel = PerformanceLevel.getServerPerformanceLevel(
+            p95Ms, targetMspt, memoryPressure
+        );
+        PerformanceLevel improveLevel = PerformanceLevel.getServerPerformanceLevel(
+            p95Ms * IMPROVE_MARGIN, targetMspt, memoryPressure
+        );
+        
+        if (degradeLevel.ordinal() > level.ordinal()) {
+            degradeStreak++;
+            improveStreak = 0;
+            if (degradeStreak >= SECONDS_TO_DEGRADE) {
+                setLevel(degradeLevel, p95Ms);
+            }
+        }
+        else if (improveLevel.ordinal() < level.ordinal()) {
+            improveStreak++;
+            degradeStreak = 0;
+            if (improveStreak >= SECONDS_TO_IMPROVE) {
+                // improve one step at a time
+                setLevel(PerformanceLevel.values()[level.ordinal() - 1], p95Ms);
+            }
+        }
+        else {
+            degradeStreak = 0;
+            improveStreak = 0;
+        }
+    }
+    
+    private static void setLevel(PerformanceLevel newLevel, double p95Ms) {
+        degradeStreak = 0;
+        improveStreak = 0;
         if (newLevel != level) {
             level = newLevel;
-            limitedLogger.log("Server performance level: " + newLevel);
+            limitedLogger.log("Server performance level: %s (p95 tick time %.1f ms)".formatted(newLevel, p95Ms));
+        }
+    }
+    
+    private static void updateDimensionLevels() {
+        double budgetNanos = IPGlobal.serverTargetMspt * DIMENSION_BUDGET_RATIO * 1.0e6;
+        
+        for (DimensionStat stat : dimensionStats.values()) {
+            stat.gauge.set(stat.smoothedTickNanos / 1.0e6);
+            
+            if (level != PerformanceLevel.good && stat.smoothedTickNanos > budgetNanos) {
+                stat.level = PerformanceLevel.getWorse(level);
+            }
+            else {
+                stat.level = level;
+            }
         }
     }
     
@@ -57,4 +223,16 @@ public class ServerPerformanceMonitor {
         return level;
     }
     
+    /**
+     * @return the performance level for the work in that dimension,
+     * which may be worse than {@link #getLevel()} if that dimension uses too much tick time
+     */
+    public static PerformanceLevel getLevel(ResourceKey<Level> dimension) {
+        DimensionStat stat = dimensionStats.get(dimension);
+        if (stat == null) {
+            return level;
+        }
+        return stat.level;
+    }
+    
 }
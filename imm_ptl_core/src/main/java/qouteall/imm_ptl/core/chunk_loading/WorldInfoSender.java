@@ -1,100 +1,297 @@
 package qouteall.imm_ptl.core.chunk_loading;
 
+import net.minecraft.Util;
+import net.minecraft.network.protocol.Packet;
 import net.minecraft.network.protocol.game.ClientboundGameEventPacket;
 import net.minecraft.network.protocol.game.ClientboundSetTimePacket;
 import net.minecraft.resources.ResourceKey;
+import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.level.ServerLevel;
 import net.minecraft.server.level.ServerPlayer;
 import net.minecraft.world.level.GameRules;
 import net.minecraft.world.level.Level;
+import org.jetbrains.annotations.Nullable;
 import qouteall.imm_ptl.core.IPGlobal;
-import qouteall.imm_ptl.core.McHelper;
 import qouteall.imm_ptl.core.network.PacketRedirection;
 import qouteall.q_misc_util.MiscHelper;
+import qouteall.q_misc_util.metrics.Counter;
+import qouteall.q_misc_util.metrics.Metrics;
 
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
 
+/**
+ * Syncs the time and weather of the remote dimensions that the player can see.
+ * Vanilla only syncs them for the player's current dimension.
+ * <p>
+ * For each player, it records the state last sent for each remote dimension,
+ * and only sends when it changes:
+ * <ul>
+ *     <li>The dimension becomes visible (or the player leaves it), all states are sent.</li>
+ *     <li>The day time differs from what the client predicts by ticking from the last sent time.
+ *     The client ticks in real time, so this also covers the drift when the server lags.</li>
+ *     <li>It starts or stops raining, or the rain and thunder levels change during the transition.</li>
+ *     <li>The time is sent again every {@link #TIME_RESEND_MILLIS}, because the server cannot see
+ *     the client's drift (the client lags, or the remote dimension ticking is disabled on client).
+ *     Vanilla resends the current dimension's time every 20 ticks for the same reason.</li>
+ * </ul>
+ * In a static world, only the time is sent once per minute after a dimension becomes visible.
+ */
 public class WorldInfoSender {
-    public static void init() {
-        IPGlobal.postServerTickSignal.connect(() -> {
-            MiscHelper.getServer().getProfiler().push("portal_send_world_info");
-            if (McHelper.getServerGameTime() % 100 == 42) {
-                for (ServerPlayer player : McHelper.getCopiedPlayerList()) {
-                    Set<ResourceKey<Level>> visibleDimensions = NewChunkTrackingGraph.getVisibleDimensions(player);
-                    
-                    if (player.level().dimension() != Level.OVERWORLD) {
-                        sendWorldInfo(
-                            player,
-                            MiscHelper.getServer().getLevel(Level.OVERWORLD)
-                        );
-                    }
-                    
-                    MiscHelper.getServer().getAllLevels().forEach(thisWorld -> {
-                        if (isNonOverworldSurfaceDimension(thisWorld)) {
-                            if (visibleDimensions.contains(thisWorld.dimension())) {
-                                sendWorldInfo(
-                                    player,
-                                    thisWorld
-                                );
-                            }
-                        }
-                    });
-                    
-                }
+    
+    // the allowed difference between the server time and the time predicted by client
+    public static final long TIME_TOLERANCE_TICKS = 20;
+    
+    // resend the time even if the prediction is right, to correct the drift of client
+    public static final long TIME_RESEND_MILLIS = 60 * 1000;
+    
+    // the weather levels change by 0.01 per tick during the transition
+    public static final float WEATHER_LEVEL_STEP = 0.05f;
+    
+    public static final int SEND_TIME = 1;
+    public static final int SEND_START_RAINING = 1 << 1;
+    public static final int SEND_STOP_RAINING = 1 << 2;
+    public static final int SEND_RAIN_LEVEL = 1 << 3;
+    public static final int SEND_THUNDER_LEVEL = 1 << 4;
+    
+    private static final Counter PACKET_COUNTER = Metrics.counter("world_info.packets");
+    
+    public static record DimensionState(
+        long gameTime, long dayTime, boolean doDaylightCycle,
+        boolean raining, float rainLevel, float thunderLevel
+    ) {
+        public static DimensionState fromWorld(ServerLevel world) {
+            return new DimensionState(
+                world.getGameTime(),
+                world.getDayTime(),
+                world.getGameRules().getBoolean(GameRules.RULE_DAYLIGHT),
+                world.isRaining(),
+                world.getRainLevel(1.0F),
+                world.getThunderLevel(1.0F)
+            );
+        }
+    }
+    
+    /**
+     * The state that the client knows.
+     */
+    public static class SentState {
+        long gameTime;
+        long dayTime;
+        boolean doDaylightCycle;
+        long sentTimeMillis;
+        boolean raining;
+        float rainLevel;
+        float thunderLevel;
+        
+        /**
+         * Update by the sent packets.
+         */
+        public void apply(DimensionState state, int flags, long currentTimeMillis) {
+            if ((flags & SEND_TIME) != 0) {
+                gameTime = state.gameTime;
+                dayTime = state.dayTime;
+                doDaylightCycle = state.doDaylightCycle;
+                sentTimeMillis = currentTimeMillis;
+            }
+            if ((flags & (SEND_START_RAINING | SEND_STOP_RAINING)) != 0) {
+                raining = state.raining;
+            }
+            if ((flags & SEND_RAIN_LEVEL) != 0) {
+                rainLevel = state.rainLevel;
             }
-            MiscHelper.getServer().getProfiler().pop();
-        });
+            if ((flags & SEND_THUNDER_LEVEL) != 0) {
+                thunderLevel = state.thunderLevel;
+            }
+        }
     }
     
-    //send the daytime and weather info to player when player is in nether
-    public static void sendWorldInfo(ServerPlayer player, ServerLevel world) {
-        ResourceKey<Level> remoteDimension = world.dimension();
+    // the remote dimensions' states that the player's client knows
+    private static final WeakHashMap<ServerPlayer, Map<ResourceKey<Level>, SentState>> sentStates =
+        new WeakHashMap<>();
+    
+    public static void init() {
+        IPGlobal.postServerTickSignal.connect(WorldInfoSender::tick);
+        IPGlobal.serverCleanupSignal.connect(sentStates::clear);
+    }
+    
+    private static void tick() {
+        MinecraftServer server = MiscHelper.getServer();
+        if (server == null) {
+            return;
+        }
         
-        PacketRedirection.sendRedirectedMessage(
-            player,
-            remoteDimension,
-            new ClientboundSetTimePacket(
-                world.getGameTime(),
-                world.getDayTime(),
-                world.getGameRules().getBoolean(
-                    GameRules.RULE_DAYLIGHT
-                )
-            )
-        );
+        server.getProfiler().push("portal_send_world_info");
         
-        /**{@link net.minecraft.client.network.ClientPlayNetworkHandler#onGameStateChange(GameStateChangeS2CPacket)}*/
+        sentStates.keySet().removeIf(player -> player.isRemoved());
         
-        if (world.isRaining()) {
-            PacketRedirection.sendRedirectedMessage(
-                player,
-                world.dimension(),
-                new ClientboundGameEventPacket(
-                    ClientboundGameEventPacket.START_RAINING,
-                    0.0F
-                )
+        long currentTimeMillis = Util.getMillis();
+        
+        for (ServerPlayer player : server.getPlayerList().getPlayers()) {
+            Map<ResourceKey<Level>, SentState> playerSentStates =
+                sentStates.computeIfAbsent(player, k -> new HashMap<>());
+            
+            Set<ResourceKey<Level>> visibleDimensions = NewChunkTrackingGraph.getVisibleDimensions(player);
+            
+            // the states are sent again when the dimension becomes visible again
+            playerSentStates.keySet().removeIf(
+                dimension -> !shouldSync(player, dimension, visibleDimensions)
             );
+            
+            for (ServerLevel world : server.getAllLevels()) {
+                ResourceKey<Level> dimension = world.dimension();
+                if (!shouldSync(player, dimension, visibleDimensions)) {
+                    continue;
+                }
+                
+                DimensionState state = DimensionState.fromWorld(world);
+                SentState sentState = playerSentStates.get(dimension);
+                int flags = computeUpdates(sentState, state, currentTimeMillis);
+                if (flags == 0) {
+                    continue;
+                }
+                
+                sendWorldInfo(player, dimension, state, flags);
+                
+                if (sentState == null) {
+                    sentState = new SentState();
+                    playerSentStates.put(dimension, sentState);
+                }
+                sentState.apply(state, flags, currentTimeMillis);
+            }
+        }
+        
+        server.getProfiler().pop();
+    }
+    
+    /**
+     * The overworld's sky is shown in other dimensions, so it's synced even when not visible.
+     * The player's current dimension is synced by vanilla.
+     */
+    private static boolean shouldSync(
+        ServerPlayer player, ResourceKey<Level> dimension, Set<ResourceKey<Level>> visibleDimensions
+    ) {
+        if (dimension == player.level().dimension()) {
+            return false;
+        }
+        if (dimension == Level.OVERWORLD) {
+            return true;
+        }
+        ServerLevel world = MiscHelper.getServer().getLevel(dimension);
+        return world != null && isNonOverworldSurfaceDimension(world) &&
+            visibleDimensions.contains(dimension);
+    }
+    
+    /**
+     * @param sentState null if the dimension just becomes visible
+     * @return the flags of what should be sent
+     */
+    public static int computeUpdates(
+        @Nullable SentState sentState, DimensionState state, long currentTimeMillis
+    ) {
+        if (sentState == null) {
+            // if the weather is already not raining when the player logs in then no need to sync
+            return SEND_TIME | (state.raining ? SEND_START_RAINING : 0) |
+                SEND_RAIN_LEVEL | SEND_THUNDER_LEVEL;
+        }
+        
+        int flags = 0;
+        
+        if (state.doDaylightCycle != sentState.doDaylightCycle ||
+            currentTimeMillis - sentState.sentTimeMillis >= TIME_RESEND_MILLIS
+        ) {
+            flags |= SEND_TIME;
         }
         else {
-            //if the weather is already not raining when the player logs in then no need to sync
-            //if the weather turned to not raining then elsewhere syncs it
+            long clientTicks = (currentTimeMillis - sentState.sentTimeMillis) / 50;
+            long predictedGameTime = sentState.gameTime + clientTicks;
+            long predictedDayTime = sentState.doDaylightCycle ?
+                sentState.dayTime + clientTicks : sentState.dayTime;
+            if (Math.abs(state.gameTime - predictedGameTime) > TIME_TOLERANCE_TICKS ||
+                Math.abs(state.dayTime - predictedDayTime) > TIME_TOLERANCE_TICKS
+            ) {
+                flags |= SEND_TIME;
+            }
         }
         
-        PacketRedirection.sendRedirectedMessage(
-            player,
-            world.dimension(),
-            new ClientboundGameEventPacket(
-                ClientboundGameEventPacket.RAIN_LEVEL_CHANGE,
-                world.getRainLevel(1.0F)
-            )
-        );
-        PacketRedirection.sendRedirectedMessage(
-            player,
-            world.dimension(),
-            new ClientboundGameEventPacket(
-                ClientboundGameEventPacket.THUNDER_LEVEL_CHANGE,
-                world.getThunderLevel(1.0F)
-            )
-        );
+        if (state.raining != sentState.raining) {
+            // the client resets the rain level when receiving the start or stop packet
+            flags |= (state.raining ? SEND_START_RAINING : SEND_STOP_RAINING) |
+                SEND_RAIN_LEVEL | SEND_THUNDER_LEVEL;
+        }
+        
+        if (isWeatherLevelChanged(sentState.rainLevel, state.rainLevel)) {
+            flags |= SEND_RAIN_LEVEL;
+        }
+        if (isWeatherLevelChanged(sentState.thunderLevel, state.thunderLevel)) {
+            flags |= SEND_THUNDER_LEVEL;
+        }
+        
+        return flags;
+    }
+    
+    private static boolean isWeatherLevelChanged(float sentLevel, float level) {
+        if (sentLevel == level) {
+            return false;
+        }
+        // the transition ends at 0 or 1, the final level should be exact
+        if (level == 0 || level == 1) {
+            return true;
+        }
+        return Math.abs(level - sentLevel) >= WEATHER_LEVEL_STEP;
+    }
+    
+    /**
+     * {@link net.minecraft.client.multiplayer.ClientPacketListener#handleGameEvent(ClientboundGameEventPacket)}
+     */
+    private static void sendWorldInfo(
+        ServerPlayer player, ResourceKey<Level> remoteDimension, DimensionState state, int flags
+    ) {
+        if ((flags & SEND_TIME) != 0) {
+            sendRedirected(player, remoteDimension, new ClientboundSetTimePacket(
+                state.gameTime, state.dayTime, state.doDaylightCycle
+            ));
+        }
+        
+        if ((flags & SEND_START_RAINING) != 0) {
+            sendRedirected(player, remoteDimension, new ClientboundGameEventPacket(
+                ClientboundGameEventPacket.START_RAINING, 0.0F
+            ));
+        }
+        
+        if ((flags & SEND_STOP_RAINING) != 0) {
+            sendRedirected(player, remoteDimension, new ClientboundGameEventPacket(
+                ClientboundGameEventPacket.STOP_RAINING, 0.0F
+            ));
+        }
+        
+        if ((flags & SEND_RAIN_LEVEL) != 0) {
+            sendRedirected(player, remoteDimension, new ClientboundGameEventPacket(
+                ClientboundGameEventPacket.RAIN_LEVEL_CHANGE, state.rainLevel
+            ));
+        }
+        
+        if ((flags & SEND_THUNDER_LEVEL) != 0) {
+            sendRedirected(player, remoteDimension, new ClientboundGameEventPacket(
+                ClientboundGameEventPacket.THUNDER_LEVEL_CHANGE, state.thunderLevel
+            ));
+        }
+    }
+    
+    private static void sendRedirected(
+        ServerPlayer player, ResourceKey<Level> remoteDimension, Packet<?> packet
+    ) {
+        PacketRedirection.sendRedirectedMessage(player, remoteDimension, packet);
+        PACKET_COUNTER.inc();
+    }
+    
+    /**
+     * @return the number of packets of the flags
+     */
+    public static int getPacketNum(int flags) {
+        return Integer.bitCount(flags);
     }
     
     public static boolean isNonOverworldSurfaceDimension(Level world) {
@@ -0,0 +1,105 @@
+package qouteall.imm_ptl.core.collision;
+
+import net.minecraft.core.BlockPos;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.phys.AABB;
+import net.minecraft.world.phys.Vec3;
+import net.minecraft.world.phys.shapes.Shapes;
+import net.minecraft.world.phys.shapes.VoxelShape;
+import org.jetbrains.annotations.Nullable;
+import qouteall.imm_ptl.core.IPGlobal;
+import qouteall.q_misc_util.metrics.Counter;
+import qouteall.q_misc_util.metrics.Metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caches the block collision shapes clipped by the portal planes,
+ * so that an entity standing in a portal doesn't join the same shapes every tick.
+ * <p>
+ * The key is the block-local shape (compared by identity), the block position and the clipping plane,
+ * which fully determine the clipped shape.
+ * Most blocks return the same shape object for the same block state, so the key repeats.
+ * When a block changes, its new shape is a different object. When a portal moves, its plane changes.
+ * So the outdated entries are no longer hit and get evicted as least recently used.
+ * The key holds the source shape, so its identity won't be reused by another shape.
+ * <p>
+ * Only the shapes that intersect the plane are cached, the others don't need joining.
+ * There is one cache for the client thread and one for the server thread.
+ */
+public class ClippedShapeCache {
+    public static final int MAX_SIZE = 4096;
+    
+    private static final Counter HIT_COUNTER = Metrics.counter("collision.clip_cache.hit");
+    private static final Counter MISS_COUNTER = Metrics.counter("collision.clip_cache.miss");
+    
+    private static final ClippedShapeCache serverCache = new ClippedShapeCache();
+    private static final ClippedShapeCache clientCache = new ClippedShapeCache();
+    
+    private record Key(VoxelShape localShape, long blockPos, Vec3 planePos, Vec3 planeNormal) {}
+    
+    // for collision, an empty shape is the same as no shape, so the removed shapes are stored as empty
+    private final LinkedHashMap<Key, VoxelShape> map = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, VoxelShape> eldest) {
+            return size() > MAX_SIZE;
+        }
+    };
+    
+    public static void init() {
+        IPGlobal.serverCleanupSignal.connect(serverCache::clear);
+        IPGlobal.clientCleanupSignal.connect(clientCache::clear);
+    }
+    
+    public static ClippedShapeCache get(Level world) {
+        return world.isClientSide() ? clientCache : serverCache;
+    }
+    
+    /**
+     * The same as {@link CollisionHelper#clipVoxelShape(VoxelShape, Vec3, Vec3)} for the moved shape.
+     */
+    @Nullable
+    public VoxelShape clipBlockShape(
+        VoxelShape localShape, BlockPos pos, Vec3 planePos, Vec3 planeNormal
+    ) {
+        if (localShape.isEmpty()) {
+            return null;
+        }
+        
+        AABB bounds = localShape.bounds().move(pos);
+        
+        if (CollisionHelper.isBoxFullyBehindPlane(planePos, planeNormal, bounds)) {
+            return null;
+        }
+        
+        if (CollisionHelper.isBoxFullyBehindPlane(planePos, planeNormal.scale(-1), bounds)) {
+            return localShape.move(pos.getX(), pos.getY(), pos.getZ());
+        }
+        
+        Key key = new Key(localShape, pos.asLong(), planePos, planeNormal);
+        VoxelShape cached = map.get(key);
+        if (cached != null) {
+            HIT_COUNTER.inc();
+            return cached.isEmpty() ? null : cached;
+        }
+        
+        MISS_COUNTER.inc();
+        
+        VoxelShape result = CollisionHelper.clipVoxelShape(
+            localShape.move(pos.getX(), pos.getY(), pos.getZ()), planePos, planeNormal
+        );
+        
+        map.put(key, result == null ? Shapes.empty() : result);
+        
+        return result;
+    }
+    
+    public int getSize() {
+        return map.size();
+    }
+    
+    public void clear() {
+        map.clear();
+    }
+}
@@ -5,16 +5,23 @@ import net.fabricmc.api.EnvType;
 import net.fabricmc.api.Environment;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.multiplayer.ClientLevel;
+import net.minecraft.core.BlockPos;
 import net.minecraft.core.Direction;
+import net.minecraft.core.SectionPos;
 import net.minecraft.network.chat.Component;
 import net.minecraft.resources.ResourceKey;
 import net.minecraft.server.level.ServerLevel;
+import net.minecraft.util.Mth;
 import net.minecraft.world.entity.Entity;
+import net.minecraft.world.level.BlockGetter;
 import net.minecraft.world.level.Level;
+import net.minecraft.world.level.block.Blocks;
+import net.minecraft.world.level.block.state.BlockState;
 import net.minecraft.world.level.border.WorldBorder;
 import net.minecraft.world.phys.AABB;
 import net.minecraft.world.phys.Vec3;
 import net.minecraft.world.phys.shapes.BooleanOp;
+import net.minecraft.world.phys.shapes.CollisionContext;
 import net.minecraft.world.phys.shapes.Shapes;
 import net.minecraft.world.phys.shapes.VoxelShape;
 import org.jetbrains.annotations.Nullable;
@@ -32,9 +39,12 @@ import qouteall.imm_ptl.core.portal.global_portals.GlobalPortalStorage;
 import qouteall.imm_ptl.core.render.PortalGroup;
 import qouteall.q_misc_util.Helper;
 import qouteall.q_misc_util.MiscHelper;
+import qouteall.q_misc_util.metrics.Counter;
+import qouteall.q_misc_util.metrics.Metrics;
 import qouteall.q_misc_util.my_util.LimitedLogger;
 
 import java.util.List;
+import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 
@@ -42,6 +52,8 @@ public class CollisionHelper {
     
     private static final LimitedLogger limitedLogger = new LimitedLogger(20);
     
+    public static final Counter CLIP_JOIN_COUNTER = Metrics.counter("collision.clip_join");
+    
     /**
      * cut a box with a plane.
      * the facing that normal points to will be remained.
@@ -177,6 +189,8 @@ public class CollisionHelper {
             return null;
         }
         
+        CLIP_JOIN_COUNTER.inc();
+        
         VoxelShape result = Shapes.joinUnoptimized(
             shape,
             Shapes.create(clippedBoundingBox),
@@ -187,7 +201,7 @@ public class CollisionHelper {
     }
     
     // only for reference
-    private static Vec3 refHandleCollisionWithShapeProcessor(Entity entity, Vec3 attemptedMove, Function<VoxelShape, VoxelShape> filter) {
+    private static Vec3 refHandleCollisionWithShapeProcessor(Entity entity, Vec3 attemptedMove, CollisionShapeProcessor filter) {
         AABB boundingBox = entity.getBoundingBox();
         List<VoxelShape> entityCollisions = entity.level().getEntityCollisions(entity, boundingBox.expandTowards(attemptedMove));
         
@@ -245,22 +259,43 @@ public class CollisionHelper {
     /**
      * Vanilla copy {@link Entity#collide(Vec3)}
      * But filters collisions behind the clipping plane and handles stepping with rotated gravity.
+     * The collision shapes are gathered once for all stepping attempts, see {@link MoveCollisionContext}.
      */
     @IPVanillaCopy
     public static Vec3 handleCollisionWithShapeProcessor(
         Entity entity,
         AABB boundingBox, Level world,
-        Vec3 attemptedMove, Function<VoxelShape, VoxelShape> filter,
+        Vec3 attemptedMove, CollisionShapeProcessor filter,
         Direction gravity, double steppingScale
     ) {
-        Direction jumpDirection = gravity.getOpposite();
-        Direction.Axis gravityAxis = gravity.getAxis();
+        float maxUpStep = entity.maxUpStep()
+            * PehkuiInterface.invoker.getBaseScale(entity);
+        if (steppingScale > 1) {
+            maxUpStep *= steppingScale;
+        }
         
-        List<VoxelShape> entityCollisions = world.getEntityCollisions(entity, boundingBox.expandTowards(attemptedMove));
+        MoveCollisionContext context = MoveCollisionContext.create(
+            entity, world, boundingBox, attemptedMove, gravity.getOpposite(), maxUpStep, filter
+        );
         
-        // introduce a helper func to reduce argument count
-        BiFunction<Vec3, AABB, Vec3> collisionFunc = (attempt, bb) ->
-            collideBoundingBox(entity, attempt, bb, world, entityCollisions, filter);
+        return collideWithStepping(
+            attemptedMove, boundingBox, entity.onGround(), maxUpStep, gravity, context::collide
+        );
+    }
+    
+    /**
+     * Vanilla copy {@link Entity#collide(Vec3)}
+     * But handles stepping with rotated gravity.
+     * The collision function collides a box with an attempted move and returns the collided move.
+     */
+    @IPVanillaCopy
+    public static Vec3 collideWithStepping(
+        Vec3 attemptedMove, AABB boundingBox,
+        boolean onGround, float maxUpStep, Direction gravity,
+        BiFunction<Vec3, AABB, Vec3> collisionFunc
+    ) {
+        Direction jumpDirection = gravity.getOpposite();
+        Direction.Axis gravityAxis = gravity.getAxis();
         
         // firstly do a normal collision regardless of stepping
         Vec3 collidedMovement = attemptedMove.lengthSqr() == 0.0D ? attemptedMove :
@@ -269,13 +304,8 @@ public class CollisionHelper {
         boolean collidesOnGravityAxis = Helper.getCoordinate(collisionDelta, gravityAxis) != 0;
         boolean attemptToMoveAlongGravity = Helper.getSignedCoordinate(attemptedMove, gravity) > 0;
         boolean collidesWithFloor = collidesOnGravityAxis && attemptToMoveAlongGravity;
-        boolean touchGround = entity.onGround() || collidesWithFloor;
+        boolean touchGround = onGround || collidesWithFloor;
         boolean collidesHorizontally = movesOnNonGravityAxis(collisionDelta, gravityAxis);
-        float maxUpStep = entity.maxUpStep()
-            * PehkuiInterface.invoker.getBaseScale(entity);
-        if (steppingScale > 1) {
-            maxUpStep *= steppingScale;
-        }
         if (maxUpStep > 0.0F && touchGround && collidesHorizontally) {
             // the entity is touching ground and has horizontal collision now
             // try to directly move to stepped position, make it approach the stair
@@ -342,13 +372,13 @@ public class CollisionHelper {
         Entity entity, Vec3 vec,
         AABB collisionBox, Level level,
         List<VoxelShape> potentialHits,
-        Function<VoxelShape, VoxelShape> shapeProcessor
+        CollisionShapeProcessor shapeProcessor
     ) {
         ImmutableList.Builder<VoxelShape> builder =
             ImmutableList.builderWithExpectedSize(potentialHits.size() + 1);
         
         for (VoxelShape potentialHit : potentialHits) {
-            VoxelShape processed = shapeProcessor.apply(potentialHit);
+            VoxelShape processed = shapeProcessor.processShape(potentialHit);
             if (processed != null) {
                 builder.add(processed);
             }
@@ -366,18 +396,86 @@ public class CollisionHelper {
         }
         
         // the entity is only used for collision context. the context does not use entity position
-        Iterable<VoxelShape> blockCollisions = level.getBlockCollisions(entity, collisionBox.expandTowards(vec));
-        
-        for (VoxelShape blockCollision : blockCollisions) {
-            VoxelShape processed = shapeProcessor.apply(blockCollision);
+        foreachBlockCollision(level, entity, collisionBox.expandTowards(vec), (localShape, pos) -> {
+            VoxelShape processed = shapeProcessor.processBlockShape(localShape, pos);
             if (processed != null) {
                 builder.add(processed);
             }
-        }
+        });
         
         return IEEntity_Collision.ip_CollideWithShapes(vec, collisionBox, builder.build());
     }
     
+    /**
+     * Vanilla copy {@link net.minecraft.world.level.BlockCollisions#computeNext()}
+     * But gives the block-local shape and the block position instead of the moved shape,
+     * so that the processed shapes can be cached by {@link ClippedShapeCache}.
+     * The shapes are filtered by their bounding boxes instead of the exact intersection with the box,
+     * which doesn't change the collision result.
+     * The block position passed to the consumer is mutable.
+     */
+    @IPVanillaCopy
+    public static void foreachBlockCollision(
+        Level level, @Nullable Entity entity, AABB box,
+        BiConsumer<VoxelShape, BlockPos> func
+    ) {
+        CollisionContext context = entity == null ? CollisionContext.empty() : CollisionContext.of(entity);
+        
+        int minX = Mth.floor(box.minX - 1.0E-7) - 1;
+        int maxX = Mth.floor(box.maxX + 1.0E-7) + 1;
+        int minY = Mth.floor(box.minY - 1.0E-7) - 1;
+        int maxY = Mth.floor(box.maxY + 1.0E-7) + 1;
+        int minZ = Mth.floor(box.minZ - 1.0E-7) - 1;
+        int maxZ = Mth.floor(box.maxZ + 1.0E-7) + 1;
+        
+        BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
+        
+        for (int x = minX; x <= maxX; x++) {
+            for (int z = minZ; z <= maxZ; z++) {
+                BlockGetter chunk = level.getChunkForCollisions(
+                    SectionPos.blockToSectionCoord(x), SectionPos.blockToSectionCoord(z)
+                );
+                if (chunk == null) {
+                    continue;
+                }
+                
+                for (int y = minY; y <= maxY; y++) {
+                    int boundaryNum = (x == minX || x == maxX ? 1 : 0) +
+                        (y == minY || y == maxY ? 1 : 0) +
+                        (z == minZ || z == maxZ ? 1 : 0);
+                    if (boundaryNum == 3) {
+                        continue;
+                    }
+                    
+                    pos.set(x, y, z);
+                    BlockState blockState = chunk.getBlockState(pos);
+                    
+                    if (boundaryNum == 1 && !blockState.hasLargeCollisionShape()) {
+                        continue;
+                    }
+                    if (boundaryNum == 2 && !blockState.is(Blocks.MOVING_PISTON)) {
+                        continue;
+                    }
+                    
+                    VoxelShape shape = blockState.getCollisionShape(level, pos, context);
+                    if (shape.isEmpty()) {
+                        continue;
+                    }
+                    
+                    AABB bounds = shape.bounds();
+                    if (!box.intersects(
+                        bounds.minX + x, bounds.minY + y, bounds.minZ + z,
+                        bounds.maxX + x, bounds.maxY + y, bounds.maxZ + z
+                    )) {
+                        continue;
+                    }
+                    
+                    func.accept(shape, pos);
+                }
+            }
+        }
+    }
+    
     public static AABB transformBox(PortalLike portal, AABB originalBox) {
         if (portal.getRotation() == null && portal.getScale() == 1) {
             return originalBox.move(portal.getDestPos().subtract(portal.getOriginPos()));
@@ -429,6 +527,8 @@ public class CollisionHelper {
     }
     
     public static void init() {
+        ClippedShapeCache.init();
+        
         IPGlobal.postServerTickSignal.connect(() -> {
             for (ServerLevel world : MiscHelper.getServer().getAllLevels()) {
                 updateCollidingPortalForWorld(world, 0);
@@ -0,0 +1,27 @@
+package qouteall.imm_ptl.core.collision;
+
+import net.minecraft.core.BlockPos;
+import net.minecraft.world.phys.shapes.VoxelShape;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Processes the collision shapes before colliding, for example clipping them by the portal plane.
+ * Returning null means the shape is removed.
+ */
+@FunctionalInterface
+public interface CollisionShapeProcessor {
+    /**
+     * @param shape the shape in world coordinates
+     */
+    @Nullable
+    VoxelShape processShape(VoxelShape shape);
+    
+    /**
+     * @param localShape the collision shape of the block state, relative to the block position
+     * @param pos the block position, it may be mutable
+     */
+    @Nullable
+    default VoxelShape processBlockShape(VoxelShape localShape, BlockPos pos) {
+        return processShape(localShape.move(pos.getX(), pos.getY(), pos.getZ()));
+    }
+}
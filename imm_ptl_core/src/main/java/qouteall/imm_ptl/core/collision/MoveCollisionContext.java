@@ -0,0 +1,138 @@
+package qouteall.imm_ptl.core.collision;
+
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.Direction;
+import net.minecraft.world.entity.Entity;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.border.WorldBorder;
+import net.minecraft.world.phys.AABB;
+import net.minecraft.world.phys.Vec3;
+import net.minecraft.world.phys.shapes.VoxelShape;
+import qouteall.imm_ptl.core.mixin.common.collision.IEEntity_Collision;
+import qouteall.q_misc_util.Helper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * The processed collision shapes for one movement of an entity.
+ * <p>
+ * When stepping, {@link CollisionHelper#collideWithStepping} collides up to 5 times.
+ * All of these collisions happen within {@link #getGatheringBox},
+ * so the shapes are gathered and processed (clipped by portal) once and reused,
+ * instead of querying the blocks again for each collision.
+ * The shapes that are gathered but don't intersect a collision's swept box don't change its result.
+ */
+public class MoveCollisionContext {
+    // avoid missing the shapes that touch the box because of floating point error
+    private static final double GATHERING_MARGIN = 1.0E-7;
+    
+    /**
+     * Gives the block collision shapes in the box, see {@link CollisionHelper#foreachBlockCollision}.
+     */
+    @FunctionalInterface
+    interface BlockCollisionGetter {
+        void foreachBlockCollision(AABB box, BiConsumer<VoxelShape, BlockPos> func);
+    }
+    
+    /**
+     * Collides the box with the shapes, it's vanilla Entity#collideWithShapes in game.
+     */
+    @FunctionalInterface
+    interface ShapeCollider {
+        Vec3 collide(Vec3 vec, AABB box, List<VoxelShape> shapes);
+    }
+    
+    private final WorldBorder worldBorder;
+    private final List<VoxelShape> shapes;
+    private final ShapeCollider shapeCollider;
+    
+    private MoveCollisionContext(WorldBorder worldBorder, List<VoxelShape> shapes, ShapeCollider shapeCollider) {
+        this.worldBorder = worldBorder;
+        this.shapes = shapes;
+        this.shapeCollider = shapeCollider;
+    }
+    
+    /**
+     * @return the box that contains the swept boxes of all collisions in
+     * {@link CollisionHelper#collideWithStepping}
+     */
+    public static AABB getGatheringBox(
+        AABB boundingBox, Vec3 attemptedMove, Direction jumpDirection, double maxUpStep
+    ) {
+        AABB box = boundingBox.expandTowards(attemptedMove);
+        
+        if (maxUpStep > 0) {
+            // the stepping moves up at most maxUpStep, then moves within the range of the attempted move
+            box = box.expandTowards(Helper.putSignedCoordinate(Vec3.ZERO, jumpDirection, maxUpStep));
+        }
+        
+        return box.inflate(GATHERING_MARGIN);
+    }
+    
+    /**
+     * The entity collisions are gathered in the box of attempted move, the same as vanilla.
+     */
+    public static MoveCollisionContext create(
+        Entity entity, Level world,
+        AABB boundingBox, Vec3 attemptedMove,
+        Direction jumpDirection, double maxUpStep,
+        CollisionShapeProcessor shapeProcessor
+    ) {
+        return create(
+            world.getEntityCollisions(entity, boundingBox.expandTowards(attemptedMove)),
+            (box, func) -> CollisionHelper.foreachBlockCollision(world, entity, box, func),
+            world.getWorldBorder(), IEEntity_Collision::ip_CollideWithShapes,
+            boundingBox, attemptedMove, jumpDirection, maxUpStep, shapeProcessor
+        );
+    }
+    
+    static MoveCollisionContext create(
+        List<VoxelShape> entityCollisions, BlockCollisionGetter blockCollisionGetter,
+        WorldBorder worldBorder, ShapeCollider shapeCollider,
+        AABB boundingBox, Vec3 attemptedMove,
+        Direction jumpDirection, double maxUpStep,
+        CollisionShapeProcessor shapeProcessor
+    ) {
+        List<VoxelShape> shapes = new ArrayList<>(entityCollisions.size() + 16);
+        
+        for (VoxelShape entityCollision : entityCollisions) {
+            VoxelShape processed = shapeProcessor.processShape(entityCollision);
+            if (processed != null) {
+                shapes.add(processed);
+            }
+        }
+        
+        AABB gatheringBox = getGatheringBox(boundingBox, attemptedMove, jumpDirection, maxUpStep);
+        
+        blockCollisionGetter.foreachBlockCollision(gatheringBox, (localShape, pos) -> {
+            VoxelShape processed = shapeProcessor.processBlockShape(localShape, pos);
+            if (processed != null) {
+                shapes.add(processed);
+            }
+        });
+        
+        return new MoveCollisionContext(worldBorder, shapes, shapeCollider);
+    }
+    
+    /**
+     * The same as {@link CollisionHelper#collideBoundingBox} but uses the gathered shapes.
+     */
+    public Vec3 collide(Vec3 vec, AABB collisionBox) {
+        Vec3 boundingBoxCenter = collisionBox.getCenter();
+        
+        boolean addWorldBorderCollision =
+            worldBorder.isWithinBounds(boundingBoxCenter.x, boundingBoxCenter.z)
+                && worldBorder.getDistanceToBorder(boundingBoxCenter.x, boundingBoxCenter.z) < 32;
+        
+        if (!addWorldBorderCollision) {
+            return shapeCollider.collide(vec, collisionBox, shapes);
+        }
+        
+        List<VoxelShape> shapesWithBorder = new ArrayList<>(shapes.size() + 1);
+        shapesWithBorder.addAll(shapes);
+        shapesWithBorder.add(worldBorder.getCollisionShape());
+        return shapeCollider.collide(vec, collisionBox, shapesWithBorder);
+    }
+}
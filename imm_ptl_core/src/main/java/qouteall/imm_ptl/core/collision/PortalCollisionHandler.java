@@ -17,6 +17,8 @@ import qouteall.imm_ptl.core.ducks.IEEntity;
 import qouteall.imm_ptl.core.portal.Portal;
 import qouteall.imm_ptl.core.portal.PortalLike;
 import qouteall.q_misc_util.Helper;
+import qouteall.q_misc_util.metrics.Metrics;
+import qouteall.q_misc_util.metrics.TimedSection;
 
 import org.jetbrains.annotations.Nullable;
 import java.util.ArrayList;
@@ -27,6 +29,8 @@ import java.util.List;
 public class PortalCollisionHandler {
     private static final int maxCollidingPortals = 6;
     
+    private static final TimedSection COLLISION_SECTION = Metrics.section("collision.cross_portal");
+    
     public long lastActiveTime;
     public final List<PortalCollisionEntry> portalCollisions = new ArrayList<>();
     
@@ -73,6 +77,7 @@ public class PortalCollisionHandler {
         }
         
         entity.level().getProfiler().push("cross_portal_collision");
+        long startTime = COLLISION_SECTION.begin();
         
         portalCollisions.sort(
             Comparator.comparingLong((PortalCollisionEntry p) -> p.activeTime).reversed()
@@ -80,6 +85,7 @@ public class PortalCollisionHandler {
         
         Vec3 result = doHandleCollision(entity, attemptedMove, 1, portalCollisions, entity.getBoundingBox());
         
+        COLLISION_SECTION.end(startTime);
         entity.level().getProfiler().pop();
         
         return result;
@@ -154,26 +160,30 @@ public class PortalCollisionHandler {
         PortalLike collisionHandlingUnit = CollisionHelper.getCollisionHandlingUnit(collidingPortal);
         Direction transformedGravityDirection = collidingPortal.getTransformedGravityDirection(GravityChangerInterface.invoker.getGravityDirection(entity));
         
+        Vec3 clippingPlanePos = collidingPortal.getDestPos();
+        Vec3 clippingPlaneNormal = collidingPortal.getContentDirection();
+        ClippedShapeCache clippedShapeCache = ClippedShapeCache.get(destinationWorld);
+        
         Vec3 collided = transformedAttemptedMove;
         collided = CollisionHelper.handleCollisionWithShapeProcessor(
             entity, boxOtherSide, destinationWorld,
             collided,
-            shape -> {
-                VoxelShape current = CollisionHelper.clipVoxelShape(
-                    shape, collidingPortal.getDestPos(), collidingPortal.getContentDirection()
-                );
-                
-                if (current == null) {
-                    return null;
+            new CollisionShapeProcessor() {
+                @Override
+                public VoxelShape processShape(VoxelShape shape) {
+                    return processOtherSideCollisionShape(
+                        CollisionHelper.clipVoxelShape(shape, clippingPlanePos, clippingPlaneNormal),
+                        indirectCollidingPortals
+                    );
                 }
                 
-                if (!indirectCollidingPortals.isEmpty()) {
-                    current = processThisSideCollisionShape(
-                        current, indirectCollidingPortals
+                @Override
+                public VoxelShape processBlockShape(VoxelShape localShape, BlockPos pos) {
+                    return processOtherSideCollisionShape(
+                        clippedShapeCache.clipBlockShape(localShape, pos, clippingPlanePos, clippingPlaneNormal),
+                        indirectCollidingPortals
                     );
                 }
-                
-                return current;
             },
             transformedGravityDirection, collidingPortal.getScale());
         
@@ -198,6 +208,21 @@ public class PortalCollisionHandler {
         return result;
     }
     
+    @Nullable
+    private static VoxelShape processOtherSideCollisionShape(
+        @Nullable VoxelShape clippedShape, List<Portal> indirectCollidingPortals
+    ) {
+        if (clippedShape == null) {
+            return null;
+        }
+        
+        if (!indirectCollidingPortals.isEmpty()) {
+            return processThisSideCollisionShape(clippedShape, indirectCollidingPortals);
+        }
+        
+        return clippedShape;
+    }
+    
     private static Vec3 handleOtherSideChunkNotLoaded(Entity entity, Vec3 attemptedMove, Portal collidingPortal, AABB originalBoundingBox) {
         if (entity instanceof Player && entity.level().isClientSide()) {
             CollisionHelper.informClientStagnant();
@@ -55,6 +55,7 @@ import qouteall.imm_ptl.core.platform_specific.IPConfigGUI;
 import qouteall.imm_ptl.core.portal.Portal;
 import qouteall.imm_ptl.core.portal.PortalLike;
 import qouteall.imm_ptl.core.portal.PortalRenderInfo;
+import qouteall.imm_ptl.core.render.BuiltChunkEviction;
 import qouteall.imm_ptl.core.render.MyBuiltChunkStorage;
 import qouteall.imm_ptl.core.render.MyGameRenderer;
 import qouteall.imm_ptl.core.render.PortalGroup;
@@ -62,6 +63,7 @@ import qouteall.imm_ptl.core.render.context_management.RenderStates;
 import qouteall.q_misc_util.Helper;
 import qouteall.q_misc_util.MiscHelper;
 import qouteall.q_misc_util.api.McRemoteProcedureCall;
+import qouteall.q_misc_util.metrics.Metrics;
 import qouteall.q_misc_util.my_util.MyTaskList;
 
 import java.lang.ref.WeakReference;
@@ -176,6 +178,14 @@ public class ClientDebugCommand {
                 return 0;
             })
         );
+        builder = builder.then(ClientCommandManager
+            .literal("report_metrics")
+            .executes(context -> {
+                // in singleplayer, the metrics of the integrated server are also included
+                CHelper.printChat(Metrics.getReport());
+                return 0;
+            })
+        );
         builder = builder.then(ClientCommandManager
             .literal("report_render_info_num")
             .executes(context -> {
@@ -336,6 +346,7 @@ public class ClientDebugCommand {
                             world.dimension().location().toString() + builtChunkStorage.getDebugString()
                         );
                     });
+                    CHelper.printChat(BuiltChunkEviction.getDebugString());
                 });
                 
                 return 0;
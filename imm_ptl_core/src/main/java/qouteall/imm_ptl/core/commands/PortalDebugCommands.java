@@ -58,6 +58,7 @@ import qouteall.imm_ptl.core.portal.GeometryPortalShape;
 import qouteall.imm_ptl.core.portal.Portal;
 import qouteall.q_misc_util.MiscHelper;
 import qouteall.q_misc_util.api.McRemoteProcedureCall;
+import qouteall.q_misc_util.metrics.Metrics;
 import qouteall.q_misc_util.my_util.Mesh2D;
 import qouteall.q_misc_util.my_util.MyTaskList;
 
@@ -176,6 +177,22 @@ public class PortalDebugCommands {
                         false
                     );
                     
+                    return 0;
+                })
+            ).then(Commands
+                .literal("report_metrics")
+                .requires(serverCommandSource -> serverCommandSource.hasPermission(2))
+                .executes(context -> {
+                    String report = Metrics.getReport();
+                    context.getSource().sendSuccess(() -> Component.literal(report), false);
+                    return 0;
+                })
+            ).then(Commands
+                .literal("reset_metrics")
+                .requires(serverCommandSource -> serverCommandSource.hasPermission(2))
+                .executes(context -> {
+                    Metrics.reset();
+                    context.getSource().sendSuccess(() -> Component.literal("Metrics reset"), false);
                     return 0;
                 })
             )
@@ -722,10 +739,11 @@ public class PortalDebugCommands {
         LevelEntityGetter<Entity> entityLookup = ((IEWorld) world).portal_getEntityLookup();
         
         subStr.append(String.format(
-            "%s:\nImmPtl Tracked Chunks: %s\nImmPtl Loading Ticket:%s\nChunks: %s\nEntities:%s Entity Sections:%s\n",
+            "%s:\nImmPtl Tracked Chunks: %s\nImmPtl Loading Ticket:%s (%s)\nChunks: %s\nEntities:%s Entity Sections:%s\n",
             world.dimension().location(),
             NewChunkTrackingGraph.getLoadedChunkNum(world.dimension()),
             dimTicketManager.getLoadedChunkNum(),
+            dimTicketManager.getThrottlingDebugString(),
             world.getChunkSource().chunkMap.size(),
             ((IELevelEntityGetterAdapter) entityLookup).getIndex().count(),
             ((IELevelEntityGetterAdapter) entityLookup).getCache().count()
@@ -14,4 +14,10 @@ public interface IESectionedEntityCache<T extends EntityAccess> {
         int chunkZStart, int chunkZEnd,
         Function<EntitySection<T>, R> function
     );
+    
+    @Nullable
+    public <R> R ip_traverseSection(
+        long sectionPos,
+        Function<EntitySection<T>, R> function
+    );
 }
@@ -86,7 +86,7 @@ public class ClientPerformanceMonitor {
             level = PerformanceLevel.good;
         }
         else {
-            level = PerformanceLevel.getClientPerformanceLevel(averageFps, averageFreeMemoryMB);
+            level = PerformanceLevel.getClientPerformanceLevel(averageFps, GcMonitor.getMemoryPressure());
         }
         
         McRemoteProcedureCall.tellServerToInvoke(
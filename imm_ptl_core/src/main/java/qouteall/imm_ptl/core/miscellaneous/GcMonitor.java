@@ -1,10 +1,15 @@
 package qouteall.imm_ptl.core.miscellaneous;
 
+import com.mojang.logging.LogUtils;
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.GcInfo;
 import net.fabricmc.api.EnvType;
 import net.fabricmc.api.Environment;
 import net.minecraft.client.Minecraft;
 import net.minecraft.network.chat.Component;
 import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.Mth;
+import org.slf4j.Logger;
 import qouteall.imm_ptl.core.CHelper;
 import qouteall.imm_ptl.core.IPGlobal;
 import qouteall.imm_ptl.core.McHelper;
@@ -12,33 +17,94 @@ import qouteall.imm_ptl.core.commands.PortalDebugCommands;
 import qouteall.imm_ptl.core.platform_specific.O_O;
 import qouteall.q_misc_util.Helper;
 import qouteall.q_misc_util.MiscHelper;
+import qouteall.q_misc_util.metrics.Gauge;
+import qouteall.q_misc_util.metrics.Histogram;
+import qouteall.q_misc_util.metrics.Metrics;
 import qouteall.q_misc_util.my_util.LimitedLogger;
 
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
 import java.lang.management.GarbageCollectorMXBean;
 import java.lang.management.ManagementFactory;
-import java.util.WeakHashMap;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
 
-// Java does not provide a program-accessible interface to tell GC pause time.
-// (There are GC logs, but not accessible from within program)
-// so I can only roughly measure it.
+/**
+ * Monitors the GC pauses and the allocation rate, and turns them into a smoothed memory pressure.
+ * <p>
+ * The GC pause durations and the heap usage after GC are received from
+ * {@link GarbageCollectionNotificationInfo} notifications (on a JMX notification thread).
+ * The heap usage after GC is the live data size, unlike {@link Runtime#freeMemory()}
+ * which also counts the garbage that's not yet collected.
+ * So a large heap that's full of garbage is not considered as memory not enough.
+ * <p>
+ * The memory pressure is in [0, 1]. It's used by the {@link qouteall.imm_ptl.core.chunk_loading.PerformanceLevel}
+ * decisions and the built chunk cache eviction.
+ */
 public class GcMonitor {
-    private static boolean memoryNotEnough = false;
+    private static final Logger LOGGER = LogUtils.getLogger();
+    
+    // the memory pressure is above this for entering the "memory not enough" state
+    private static final double MEMORY_NOT_ENOUGH_ENTER_PRESSURE = 0.85;
+    // and it needs to be below this for leaving, to avoid oscillating
+    private static final double MEMORY_NOT_ENOUGH_LEAVE_PRESSURE = 0.6;
+    
+    // the live data ratio below this is no pressure, and it reaches full pressure at LIVE_RATIO_HIGH
+    private static final double LIVE_RATIO_LOW = 0.6;
+    private static final double LIVE_RATIO_HIGH = 0.9;
+    
+    // spending this ratio of time in GC pauses is full pressure
+    private static final double PAUSE_TIME_RATIO_HIGH = 0.1;
+    
+    // if the free space after GC will be filled within this time by the allocation, it's full pressure
+    private static final double FILL_SECONDS_LOW = 0.5;
     
-    private static final WeakHashMap<GarbageCollectorMXBean, Long> lastCollectCount =
-        new WeakHashMap<>();
+    // the smoothing factor of the exponential moving average, applied once per second
+    private static final double SMOOTHING = 0.3;
+    
+    private static final Histogram GC_PAUSE_HISTOGRAM = Metrics.histogram("gc.pause_ms");
+    private static final Gauge MEMORY_PRESSURE_GAUGE = Metrics.gauge("gc.memory_pressure");
+    private static final Gauge ALLOCATION_RATE_GAUGE = Metrics.gauge("gc.allocation_rate_mb_per_second");
+    private static final Gauge LIVE_DATA_GAUGE = Metrics.gauge("gc.live_data_mb");
+    
+    private static boolean memoryNotEnough = false;
     
     private static final LimitedLogger limitedLogger = new LimitedLogger(3);
     private static final LimitedLogger limitedLogger2 = new LimitedLogger(3);
     
+    private static boolean initialized = false;
+    private static boolean notificationAvailable = false;
+    
+    // the GC info also has the non-heap pools (Metaspace, CodeHeap ...), which are not in Runtime#maxMemory
+    // set before registering the listeners, then only read by the notification thread
+    private static volatile Set<String> heapPoolNames = Set.of();
+    
+    // written by the notification thread
+    private static final LongAdder pauseNanosSinceUpdate = new LongAdder();
+    private static volatile long lastUsedAfterGcBytes = -1;
+    
     private static long lastUpdateTime = 0;
-    private static long lastLongPauseTime = 0;
+    private static long lastAllocatedBytes = -1;
+    
+    private static double smoothedPressure = 0;
+    private static long liveDataBytes = -1;
+    private static double allocationBytesPerSecond = 0;
     
     @Environment(EnvType.CLIENT)
     public static void initClient() {
+        init();
         IPGlobal.preGameRenderSignal.connect(GcMonitor::update);
     }
     
     public static void initCommon() {
+        init();
         IPGlobal.postServerTickSignal.connect(() -> {
             MinecraftServer server = MiscHelper.getServer();
             if (server != null) {
@@ -49,77 +115,188 @@ public class GcMonitor {
         });
     }
     
-    private static void update() {
-        double longPauseThresholdSeconds = 0.3;
-        if (PortalDebugCommands.toMiB(Runtime.getRuntime().maxMemory()) < 2049) {
-            // if only allocated 2048 MB, be more sensitive
-            longPauseThresholdSeconds = 0.1;
+    private static void init() {
+        // both initClient and initCommon are invoked on client
+        if (initialized) {
+            return;
         }
+        initialized = true;
         
+        heapPoolNames = ManagementFactory.getMemoryPoolMXBeans().stream()
+            .filter(pool -> pool.getType() == MemoryType.HEAP)
+            .map(MemoryPoolMXBean::getName)
+            .collect(Collectors.toUnmodifiableSet());
+        
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (bean instanceof NotificationEmitter emitter) {
+                emitter.addNotificationListener(
+                    (notification, handback) -> onNotification(notification),
+                    notification -> notification.getType().equals(
+                        GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION
+                    ),
+                    null
+                );
+                notificationAvailable = true;
+            }
+        }
+        
+        if (!notificationAvailable) {
+            LOGGER.warn("GC notification is not available. Memory pressure will be estimated from heap usage.");
+        }
+    }
+    
+    // invoked on the JMX notification thread
+    private static void onNotification(Notification notification) {
+        GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from(
+            (CompositeData) notification.getUserData()
+        );
+        GcInfo gcInfo = info.getGcInfo();
+        
+        // the concurrent cycles of ZGC/Shenandoah/G1 don't stop the game
+        if (!isConcurrentCycle(info.getGcName())) {
+            long pauseMs = gcInfo.getDuration();
+            GC_PAUSE_HISTOGRAM.record(pauseMs);
+            pauseNanosSinceUpdate.add(pauseMs * 1000000L);
+        }
+        
+        Set<String> heapPools = heapPoolNames;
+        long usedAfterGc = 0;
+        for (Map.Entry<String, MemoryUsage> entry : gcInfo.getMemoryUsageAfterGc().entrySet()) {
+            if (heapPools.contains(entry.getKey())) {
+                usedAfterGc += entry.getValue().getUsed();
+            }
+        }
+        lastUsedAfterGcBytes = usedAfterGc;
+    }
+    
+    private static boolean isConcurrentCycle(String gcName) {
+        return gcName.contains("Cycles") || gcName.contains("Concurrent");
+    }
+    
+    private static void update() {
         long currTime = System.nanoTime();
-        if (currTime - lastUpdateTime > Helper.secondToNano(longPauseThresholdSeconds)) {
-            lastLongPauseTime = currTime;
+        if (lastUpdateTime == 0) {
+            lastUpdateTime = currTime;
+            lastAllocatedBytes = getTotalAllocatedBytes();
+            return;
+        }
+        
+        // update every second
+        long elapsedNanos = currTime - lastUpdateTime;
+        if (elapsedNanos < Helper.secondToNano(1)) {
+            return;
         }
         lastUpdateTime = currTime;
+        double elapsedSeconds = elapsedNanos / 1.0e9;
         
-        for (GarbageCollectorMXBean garbageCollectorMXBean : ManagementFactory.getGarbageCollectorMXBeans()) {
-            long currCount = garbageCollectorMXBean.getCollectionCount();
-            
-            Long lastCount = lastCollectCount.get(garbageCollectorMXBean);
-            lastCollectCount.put(garbageCollectorMXBean, currCount);
-            
-            if (lastCount != null) {
-                if (lastCount != currCount) {
-                    check();
-                }
-            }
+        long allocatedBytes = getTotalAllocatedBytes();
+        // the sum decreases when threads end, skip that update
+        if (allocatedBytes >= 0 && lastAllocatedBytes >= 0 && allocatedBytes >= lastAllocatedBytes) {
+            allocationBytesPerSecond = (allocatedBytes - lastAllocatedBytes) / elapsedSeconds;
+        }
+        lastAllocatedBytes = allocatedBytes;
+        
+        double pauseTimeRatio = pauseNanosSinceUpdate.sumThenReset() / (double) elapsedNanos;
+        
+        long maxMemory = Runtime.getRuntime().maxMemory();
+        long liveBytes = lastUsedAfterGcBytes;
+        if (!notificationAvailable || liveBytes < 0) {
+            // no GC happened yet, or cannot get notification, use the current usage as an upper bound
+            liveBytes = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
         }
         
+        double pressure = computeMemoryPressure(
+            liveBytes, maxMemory, allocationBytesPerSecond, pauseTimeRatio
+        );
+        smoothedPressure = Mth.lerp(SMOOTHING, smoothedPressure, pressure);
+        
+        MEMORY_PRESSURE_GAUGE.set(smoothedPressure);
+        ALLOCATION_RATE_GAUGE.set(allocationBytesPerSecond / (1024 * 1024));
+        LIVE_DATA_GAUGE.set(PortalDebugCommands.toMiB(liveBytes));
+        liveDataBytes = liveBytes;
+        
+        updateMemoryNotEnough(liveBytes, maxMemory);
     }
     
-    private static void check() {
-        long maxMemory = Runtime.getRuntime().maxMemory();
-        long totalMemory = Runtime.getRuntime().totalMemory();
-        long freeMemory = Runtime.getRuntime().freeMemory();
-        long usedMemory = totalMemory - freeMemory;
+    /**
+     * @param liveBytes the heap usage after the last GC
+     * @param allocationBytesPerSecond the recent allocation rate
+     * @param pauseTimeRatio the ratio of time spent in GC pauses recently
+     * @return the instant memory pressure in [0, 1], the max of the three factors
+     */
+    public static double computeMemoryPressure(
+        long liveBytes, long maxMemory, double allocationBytesPerSecond, double pauseTimeRatio
+    ) {
+        double liveRatio = (double) liveBytes / maxMemory;
+        double livePressure = Mth.clamp(
+            (liveRatio - LIVE_RATIO_LOW) / (LIVE_RATIO_HIGH - LIVE_RATIO_LOW), 0, 1
+        );
         
-        double usage = ((double) usedMemory) / maxMemory;
+        double pausePressure = Mth.clamp(pauseTimeRatio / PAUSE_TIME_RATIO_HIGH, 0, 1);
         
-        double timeFromLongPause = System.nanoTime() - lastLongPauseTime;
+        // a high allocation rate alone is fine, it matters when the headroom is small
+        double fillPressure = 0;
+        long headroom = maxMemory - liveBytes;
+        if (allocationBytesPerSecond > 0) {
+            double fillSeconds = headroom / allocationBytesPerSecond;
+            fillPressure = Mth.clamp(FILL_SECONDS_LOW / fillSeconds, 0, 1);
+        }
         
-        if (PortalDebugCommands.toMiB(freeMemory) < 300 && timeFromLongPause < Helper.secondToNano(2)) {
-            if (memoryNotEnough) {
-                // show message the second time
-                
-                if (!O_O.isDedicatedServer()) {
-                    informMemoryNotEnoughClient();
+        return Math.max(livePressure, Math.max(pausePressure, fillPressure));
+    }
+    
+    /**
+     * The sum of the allocated bytes of the live threads.
+     * (getTotalThreadAllocatedBytes is only available since Java 21)
+     */
+    private static long getTotalAllocatedBytes() {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean sunBean) {
+            if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled()) {
+                long sum = 0;
+                for (long bytes : sunBean.getThreadAllocatedBytes(sunBean.getAllThreadIds())) {
+                    // -1 for the threads that ended
+                    if (bytes > 0) {
+                        sum += bytes;
+                    }
                 }
+                return sum;
             }
-            
-            limitedLogger2.invoke(() -> {
-                Helper.err(
-                    "Memory not enough. Try to Shrink loading distance or allocate more memory." +
-                        " If this happens with low loading distance, it usually indicates memory leak"
-                );
-                
-                long maxMemory1 = Runtime.getRuntime().maxMemory();
-                long totalMemory1 = Runtime.getRuntime().totalMemory();
-                long freeMemory1 = Runtime.getRuntime().freeMemory();
-                long usedMemory1 = totalMemory1 - freeMemory1;
-                
-                // When using ZGC, the memory usage amount is decreased with a delay
-                
-                Helper.err(String.format(
-                    "Memory: % 2d%% %03d/%03dMB", usedMemory1 * 100L / maxMemory1,
-                    PortalDebugCommands.toMiB(usedMemory1), PortalDebugCommands.toMiB(maxMemory1)
-                ));
-            });
-            
-            memoryNotEnough = true;
         }
-        else {
-            memoryNotEnough = false;
+        return -1;
+    }
+    
+    private static void updateMemoryNotEnough(long liveBytes, long maxMemory) {
+        if (memoryNotEnough) {
+            if (smoothedPressure < MEMORY_NOT_ENOUGH_LEAVE_PRESSURE) {
+                memoryNotEnough = false;
+            }
+            return;
+        }
+        
+        if (smoothedPressure < MEMORY_NOT_ENOUGH_ENTER_PRESSURE) {
+            return;
+        }
+        
+        memoryNotEnough = true;
+        
+        if (!O_O.isDedicatedServer()) {
+            informMemoryNotEnoughClient();
         }
+        
+        limitedLogger2.invoke(() -> {
+            Helper.err(
+                "Memory not enough. Try to Shrink loading distance or allocate more memory." +
+                    " If this happens with low loading distance, it usually indicates memory leak"
+            );
+            
+            Helper.err(String.format(
+                "Live data after GC: % 2d%% %03d/%03dMB, allocation %.1fMB/s",
+                liveBytes * 100L / maxMemory,
+                PortalDebugCommands.toMiB(liveBytes), PortalDebugCommands.toMiB(maxMemory),
+                allocationBytesPerSecond / (1024 * 1024)
+            ));
+        });
     }
     
     @Environment(EnvType.CLIENT)
@@ -141,4 +318,18 @@ public class GcMonitor {
     public static boolean isMemoryNotEnough() {
         return memoryNotEnough;
     }
+    
+    /**
+     * @return the heap usage after the last GC, updated every second. -1 if not updated yet
+     */
+    public static long getLiveDataBytes() {
+        return liveDataBytes;
+    }
+    
+    /**
+     * @return the smoothed memory pressure in [0, 1], updated every second
+     */
+    public static double getMemoryPressure() {
+        return smoothedPressure;
+    }
 }
@@ -0,0 +1,11 @@
+package qouteall.imm_ptl.core.mixin.client.render.optimization;
+
+import com.mojang.blaze3d.vertex.VertexBuffer;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.gen.Accessor;
+
+@Mixin(VertexBuffer.class)
+public interface IEVertexBuffer {
+    @Accessor("indexCount")
+    int ip_getIndexCount();
+}
@@ -9,6 +9,7 @@ import org.spongepowered.asm.mixin.Final;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.Mutable;
 import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.Unique;
 import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Redirect;
 import qouteall.imm_ptl.core.render.optimization.SharedBlockMeshBuffers;
@@ -53,6 +54,11 @@ public abstract class MixinChunkRenderDispatcher_Optimization {
     @Final
     private Executor executor;
     
+    // when this dispatcher started waiting for a buffer with pending tasks, 0 if not waiting
+    // only accessed in runTask, which runs in the mailbox one at a time
+    @Unique
+    private long ip_starvedSince = 0;
+    
     @Redirect(
         method = "<init>",
         at = @At(
@@ -126,6 +132,13 @@ public abstract class MixinChunkRenderDispatcher_Optimization {
                     SharedBlockMeshBuffers.bufferTemp.set(buffer);
                     SharedBlockMeshBuffers.taskTemp.set(polledTask);
                     
+                    long waitNanos = 0;
+                    if (ip_starvedSince != 0) {
+                        waitNanos = System.nanoTime() - ip_starvedSince;
+                        ip_starvedSince = 0;
+                    }
+                    SharedBlockMeshBuffers.onBufferAcquired(waitNanos);
+                    
                     // will launch the task
                     return false;
                 }
@@ -140,6 +153,13 @@ public abstract class MixinChunkRenderDispatcher_Optimization {
             }
         }
         else {
+            if (ip_starvedSince == 0 &&
+                (!toBatchHighPriority.isEmpty() || !toBatchLowPriority.isEmpty())
+            ) {
+                ip_starvedSince = System.nanoTime();
+                SharedBlockMeshBuffers.onStarved();
+            }
+            
             mailbox.tell(this::runTask);
             // in vanilla, when a task finishes it will call runTask again
             // when there is no buffer, there must be other tasks running and the runTask will trigger later
@@ -1,8 +1,10 @@
 package qouteall.imm_ptl.core.mixin.common;
 
+import net.minecraft.core.BlockPos;
 import net.minecraft.resources.ResourceKey;
 import net.minecraft.world.entity.Entity;
 import net.minecraft.world.level.Level;
+import net.minecraft.world.level.block.state.BlockState;
 import net.minecraft.world.level.entity.LevelEntityGetter;
 import net.minecraft.world.level.storage.WritableLevelData;
 import org.spongepowered.asm.mixin.Final;
@@ -11,7 +13,9 @@ import org.spongepowered.asm.mixin.Shadow;
 import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
 import qouteall.imm_ptl.core.ducks.IEWorld;
+import qouteall.imm_ptl.core.portal.PortalBlockWatchRegistry;
 
 @Mixin(Level.class)
 public abstract class MixinLevel implements IEWorld {
@@ -53,6 +57,20 @@ public abstract class MixinLevel implements IEWorld {
         }
     }
     
+    // notify the breakable portals and mirrors whose blocks are in this section
+    @Inject(
+        method = "Lnet/minecraft/world/level/Level;setBlock(Lnet/minecraft/core/BlockPos;Lnet/minecraft/world/level/block/state/BlockState;II)Z",
+        at = @At("RETURN")
+    )
+    private void onSetBlock(
+        BlockPos pos, BlockState state, int flags, int recursionLeft,
+        CallbackInfoReturnable<Boolean> cir
+    ) {
+        if (cir.getReturnValueZ()) {
+            PortalBlockWatchRegistry.onBlockChanged((Level) (Object) this, pos);
+        }
+    }
+    
     @Override
     public WritableLevelData myGetProperties() {
         return levelData;
@@ -15,10 +15,12 @@ import org.spongepowered.asm.mixin.injection.Redirect;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
 import qouteall.imm_ptl.core.chunk_loading.NewChunkTrackingGraph;
+import qouteall.imm_ptl.core.chunk_loading.ServerPerformanceMonitor;
 import qouteall.imm_ptl.core.ducks.IEEntity;
 import qouteall.imm_ptl.core.ducks.IEServerWorld;
 
 import java.util.List;
+import java.util.function.BooleanSupplier;
 
 @Mixin(ServerLevel.class)
 public abstract class MixinServerLevel implements IEServerWorld {
@@ -53,6 +55,22 @@ public abstract class MixinServerLevel implements IEServerWorld {
         return list.isEmpty();
     }
     
+    @Inject(
+        method = "Lnet/minecraft/server/level/ServerLevel;tick(Ljava/util/function/BooleanSupplier;)V",
+        at = @At("HEAD")
+    )
+    private void onTickBegin(BooleanSupplier hasTimeLeft, CallbackInfo ci) {
+        ServerPerformanceMonitor.onBeginDimensionTick((ServerLevel) (Object) this);
+    }
+    
+    @Inject(
+        method = "Lnet/minecraft/server/level/ServerLevel;tick(Ljava/util/function/BooleanSupplier;)V",
+        at = @At("RETURN")
+    )
+    private void onTickEnd(BooleanSupplier hasTimeLeft, CallbackInfo ci) {
+        ServerPerformanceMonitor.onEndDimensionTick((ServerLevel) (Object) this);
+    }
+    
     // for debug
     @Inject(method = "Lnet/minecraft/server/level/ServerLevel;toString()Ljava/lang/String;", at = @At("HEAD"), cancellable = true)
     private void onToString(CallbackInfoReturnable<String> cir) {
@@ -14,6 +14,7 @@ import org.spongepowered.asm.mixin.Shadow;
 import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.ModifyVariable;
 import org.spongepowered.asm.mixin.injection.Redirect;
+import qouteall.imm_ptl.core.chunk_loading.ChunkPacketBuilder;
 import qouteall.imm_ptl.core.chunk_loading.NewChunkTrackingGraph;
 import qouteall.imm_ptl.core.ducks.IEChunkHolder;
 import qouteall.imm_ptl.core.network.PacketRedirection;
@@ -63,6 +64,8 @@ public class MixinChunkHolder implements IEChunkHolder {
         )
     )
     private List<ServerPlayer> redirectGetPlayers(ChunkHolder.PlayerProvider playerProvider, ChunkPos chunkPos, boolean boundaryOnly) {
+        ChunkPacketBuilder.onChunkChangesBroadcast(((Level) levelHeightAccessor).dimension(), chunkPos);
+        
         return NewChunkTrackingGraph.getPlayersViewingChunk(
             ((Level) levelHeightAccessor).dimension(),
             chunkPos.x, chunkPos.z,
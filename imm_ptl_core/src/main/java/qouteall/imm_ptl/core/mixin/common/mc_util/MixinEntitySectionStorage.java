@@ -62,4 +62,16 @@ public class MixinEntitySectionStorage<T extends EntityAccess> implements IESect
         }
         return null;
     }
+    
+    @Nullable
+    @Override
+    public <R> R ip_traverseSection(
+        long sectionPos, Function<EntitySection<T>, R> function
+    ) {
+        EntitySection<T> entityTrackingSection = sections.get(sectionPos);
+        if (entityTrackingSection != null && entityTrackingSection.getStatus().isAccessible()) {
+            return function.apply(entityTrackingSection);
+        }
+        return null;
+    }
 }
@@ -83,6 +83,8 @@ public class MixinClientboundCustomPayloadPacket implements IECustomPayloadPacke
             Validate.isTrue(ip_redirectedDimension != null, "ip_redirectedDimension is null");
             Validate.isTrue(ip_redirectedPacket != null, "ip_redirectedPacket is null");
             
+            int startIndex = buffer.writerIndex();
+            
             DimId.writeWorldId(buffer, ip_redirectedDimension, false);
             
             int packetId = PacketRedirection.getPacketId(ip_redirectedPacket);
@@ -90,6 +92,8 @@ public class MixinClientboundCustomPayloadPacket implements IECustomPayloadPacke
             
             ip_redirectedPacket.write(buffer);
             
+            PacketRedirection.REDIRECTED_PACKET_BYTES.record(buffer.writerIndex() - startIndex);
+            
             ci.cancel();
         }
     }
@@ -13,7 +13,6 @@ import net.minecraft.world.entity.EntityType;
 import net.minecraft.world.level.Level;
 import net.minecraft.world.phys.Vec3;
 import qouteall.imm_ptl.core.IPGlobal;
-import qouteall.imm_ptl.core.portal.global_portals.GlobalPortalStorage;
 import qouteall.q_misc_util.MiscHelper;
 import qouteall.q_misc_util.dimension.DimId;
 
@@ -30,6 +29,8 @@ public class IPNetworking {
         new ResourceLocation("imm_ptl", "dim_confirm");
     public static final ResourceLocation id_stcUpdateGlobalPortal =
         new ResourceLocation("imm_ptl", "upd_glb_ptl");
+    public static final ResourceLocation id_stcGlobalPortalDelta =
+        new ResourceLocation("imm_ptl", "glb_ptl_delta");
 //    public static final ResourceLocation id_ctsPlayerAction =
 //        new ResourceLocation("imm_ptl", "player_action");
 //    public static final ResourceLocation id_ctsRightClick =
@@ -92,16 +93,27 @@ public class IPNetworking {
     }
     
     public static Packet createGlobalPortalUpdate(
-        GlobalPortalStorage storage
+        ResourceKey<Level> dimension, CompoundTag tag
     ) {
         FriendlyByteBuf buf = new FriendlyByteBuf(Unpooled.buffer());
         
-        DimId.writeWorldId(buf, storage.world.get().dimension(), false);
-        buf.writeNbt(storage.save(new CompoundTag()));
+        DimId.writeWorldId(buf, dimension, false);
+        buf.writeNbt(tag);
         
         return new ClientboundCustomPayloadPacket(id_stcUpdateGlobalPortal, buf);
     }
     
+    public static Packet createGlobalPortalDelta(
+        ResourceKey<Level> dimension, CompoundTag deltaTag
+    ) {
+        FriendlyByteBuf buf = new FriendlyByteBuf(Unpooled.buffer());
+        
+        DimId.writeWorldId(buf, dimension, false);
+        buf.writeNbt(deltaTag);
+        
+        return new ClientboundCustomPayloadPacket(id_stcGlobalPortalDelta, buf);
+    }
+    
     private static void processCtsTeleport(ServerPlayer player, FriendlyByteBuf buf) {
         ResourceKey<Level> dim = DimId.readWorldId(buf, false);
         Vec3 posBefore = new Vec3(
@@ -54,6 +54,10 @@ public class IPNetworkingClient {
             processGlobalPortalUpdate(buf.get());
             return true;
         }
+        else if (packedId.equals(IPNetworking.id_stcGlobalPortalDelta)) {
+            processGlobalPortalDelta(buf.get());
+            return true;
+        }
         else {
             return false;
         }
@@ -96,6 +100,14 @@ public class IPNetworkingClient {
         });
     }
     
+    private static void processGlobalPortalDelta(FriendlyByteBuf buf) {
+        ResourceKey<Level> dimension = DimId.readWorldId(buf, true);
+        CompoundTag deltaTag = buf.readNbt();
+        MiscHelper.executeOnRenderThread(() -> {
+            GlobalPortalStorage.receiveGlobalPortalDelta(dimension, deltaTag);
+        });
+    }
+    
 //    public static Packet createCtsPlayerAction(
 //        ResourceKey<Level> dimension,
 //        ServerboundPlayerActionPacket packet
@@ -21,6 +21,10 @@ import org.slf4j.LoggerFactory;
 import qouteall.imm_ptl.core.ducks.IECustomPayloadPacket;
 import qouteall.imm_ptl.core.ducks.IEWorld;
 import qouteall.imm_ptl.core.mixin.common.entity_sync.MixinServerGamePacketListenerImpl_E;
+import qouteall.q_misc_util.dimension.DimSyncManagement;
+import qouteall.q_misc_util.metrics.Counter;
+import qouteall.q_misc_util.metrics.Histogram;
+import qouteall.q_misc_util.metrics.Metrics;
 
 import org.jetbrains.annotations.Nullable;
 import java.util.ArrayList;
@@ -30,6 +34,11 @@ import java.util.function.Supplier;
 public class PacketRedirection {
     private static final Logger LOGGER = LoggerFactory.getLogger(PacketRedirection.class);
     
+    private static final Counter REDIRECTED_PACKET_COUNTER = Metrics.counter("packet_redirection.packets");
+    
+    // recorded when encoding, on the networking thread
+    public static final Histogram REDIRECTED_PACKET_BYTES = Metrics.histogram("packet_redirection.bytes");
+    
     public static final ResourceLocation id_stcRedirected =
         new ResourceLocation("imm_ptl", "rd");
     
@@ -128,6 +137,10 @@ public class PacketRedirection {
             return new ClientboundBundlePacket(newSubPackets);
         }
         else {
+            // the dimension id is written later when encoding
+            DimSyncManagement.onWritingDimensionId(dimension);
+            REDIRECTED_PACKET_COUNTER.inc();
+            
             ClientboundCustomPayloadPacket result =
                 new ClientboundCustomPayloadPacket(id_stcRedirected, dummyByteBuf);
             
@@ -9,6 +9,7 @@ import org.jetbrains.annotations.Nullable;
 import qouteall.imm_ptl.core.IPGlobal;
 import qouteall.imm_ptl.core.portal.nether_portal.BlockPortalShape;
 import qouteall.q_misc_util.Helper;
+import qouteall.q_misc_util.dimension.DimensionHibernation;
 
 import java.util.HashSet;
 
@@ -107,6 +108,14 @@ public class IPConfig implements ConfigData {
     @ConfigEntry.Gui.Excluded
     public boolean enableImmPtlChunkLoading = true;
     @ConfigEntry.Gui.Excluded
+    public int dimensionHibernationIdleMinutes = 0; // zero for disabled
+    @ConfigEntry.Gui.Excluded
+    public int serverTargetMspt = 40;
+    @ConfigEntry.Gui.Excluded
+    public int portalChunkWarmupBudget = 400; // zero for disabled
+    @ConfigEntry.Gui.Excluded
+    public int builtChunkMemoryBudgetMB = 1024;
+    @ConfigEntry.Gui.Excluded
     public HashSet<String> disabledWarnings = new HashSet<>();
     
     @ConfigEntry.Gui.Excluded
@@ -126,6 +135,9 @@ public class IPConfig implements ConfigData {
         indirectLoadingRadiusCap = Mth.clamp(indirectLoadingRadiusCap, 1, 32);
         regularPortalLengthLimit = Mth.clamp(regularPortalLengthLimit, 3, 64);
         scaleLimit = Mth.clamp(scaleLimit, 8, 128);
+        serverTargetMspt = Mth.clamp(serverTargetMspt, 5, 1000);
+        portalChunkWarmupBudget = Mth.clamp(portalChunkWarmupBudget, 0, 10000);
+        builtChunkMemoryBudgetMB = Mth.clamp(builtChunkMemoryBudgetMB, 64, 65536);
         if (netherPortalMode == null) {
             netherPortalMode = IPGlobal.NetherPortalMode.normal;
         }
@@ -164,6 +176,9 @@ public class IPConfig implements ConfigData {
         IPGlobal.enableNetherPortalEffect = enableNetherPortalEffect;
         IPGlobal.enableClientPerformanceAdjustment = enableClientPerformanceAdjustment;
         IPGlobal.enableServerPerformanceAdjustment = enableServerPerformanceAdjustment;
+        IPGlobal.serverTargetMspt = serverTargetMspt;
+        IPGlobal.portalChunkWarmupBudget = portalChunkWarmupBudget;
+        IPGlobal.builtChunkMemoryBudgetMB = builtChunkMemoryBudgetMB;
         IPGlobal.enableCrossPortalSound = enableCrossPortalSound;
         IPGlobal.checkModInfoFromInternet = checkModInfoFromInternet;
         IPGlobal.enableUpdateNotification = enableUpdateNotification;
@@ -171,6 +186,7 @@ public class IPConfig implements ConfigData {
         BlockPortalShape.defaultLengthLimit = regularPortalLengthLimit;
         IPGlobal.maxNormalPortalRadius = Math.max(regularPortalLengthLimit / 2, 16);
         IPGlobal.chunkPacketDebug = chunkPacketDebug;
+        DimensionHibernation.idleMinutesBeforeHibernation = Math.max(dimensionHibernationIdleMinutes, 0);
         
         Helper.log("IP Config Applied");
         
@@ -1,5 +1,6 @@
 package qouteall.imm_ptl.core.portal;
 
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import net.minecraft.core.BlockPos;
 import net.minecraft.core.Direction;
 import net.minecraft.nbt.CompoundTag;
@@ -24,7 +25,7 @@ import qouteall.q_misc_util.my_util.IntBox;
 
 import java.util.function.Predicate;
 
-public class BreakableMirror extends Mirror {
+public class BreakableMirror extends Mirror implements PortalBlockWatchRegistry.BlockWatcher {
     
     public static final EntityType<BreakableMirror> entityType =
         Portal.createPortalEntityType(BreakableMirror::new);
@@ -35,6 +36,11 @@ public class BreakableMirror extends Mirror {
     public BlockPortalShape blockPortalShape;
     public boolean unbreakable = false;
     
+    // the wall blocks are watched through PortalBlockWatchRegistry instead of polling
+    private boolean isWatchingBlocks = false;
+    private boolean shouldCheckAllBlocks = true;
+    private final LongOpenHashSet changedBlocks = new LongOpenHashSet();
+    
     public BreakableMirror(EntityType<?> entityType, Level world) {
         super(entityType, world);
     }
@@ -42,6 +48,9 @@ public class BreakableMirror extends Mirror {
     @Override
     protected void readAdditionalSaveData(CompoundTag tag) {
         super.readAdditionalSaveData(tag);
+        // the wall area may change. re-watch and do full check in the next tick
+        stopWatchingBlocks();
+        
         if (tag.contains("boxXL")) {
             wallArea = new IntBox(
                 new BlockPos(
@@ -94,9 +103,18 @@ public class BreakableMirror extends Mirror {
         super.tick();
         if (!level().isClientSide) {
             if (!unbreakable) {
-                if (level().getGameTime() % 10 == getId() % 10) {
+                if (!isWatchingBlocks) {
+                    startWatchingBlocks();
+                }
+                
+                if (shouldCheckAllBlocks || PortalBlockWatchRegistry.isFullCheckTick(level(), getId())) {
+                    shouldCheckAllBlocks = false;
+                    changedBlocks.clear();
                     checkWallIntegrity();
                 }
+                else if (!changedBlocks.isEmpty()) {
+                    checkChangedBlocks();
+                }
             }
         }
     }
@@ -126,6 +144,63 @@ public class BreakableMirror extends Mirror {
         }
     }
     
+    private void checkChangedBlocks() {
+        BlockPos.MutableBlockPos mutableBlockPos = new BlockPos.MutableBlockPos();
+        for (long blockPosLong : changedBlocks) {
+            mutableBlockPos.set(blockPosLong);
+            if (isInWall(mutableBlockPos) && !isGlass(level(), mutableBlockPos)) {
+                remove(RemovalReason.KILLED);
+                break;
+            }
+        }
+        changedBlocks.clear();
+    }
+    
+    private boolean isInWall(BlockPos blockPos) {
+        if (wallArea != null) {
+            return wallArea.contains(blockPos);
+        }
+        else if (blockPortalShape != null) {
+            return blockPortalShape.area.contains(blockPos);
+        }
+        else {
+            return false;
+        }
+    }
+    
+    private void startWatchingBlocks() {
+        if (wallArea == null && blockPortalShape == null) {
+            return;
+        }
+        
+        PortalBlockWatchRegistry.get((ServerLevel) level()).watch(this, getAreaBox());
+        isWatchingBlocks = true;
+        
+        // the blocks may change when the mirror is not loaded
+        shouldCheckAllBlocks = true;
+    }
+    
+    private void stopWatchingBlocks() {
+        if (isWatchingBlocks) {
+            isWatchingBlocks = false;
+            changedBlocks.clear();
+            if (level() instanceof ServerLevel serverLevel) {
+                PortalBlockWatchRegistry.get(serverLevel).unwatch(this);
+            }
+        }
+    }
+    
+    @Override
+    public void onWatchedBlockChanged(BlockPos blockPos) {
+        changedBlocks.add(blockPos.asLong());
+    }
+    
+    @Override
+    public void setRemoved(RemovalReason removalReason) {
+        super.setRemoved(removalReason);
+        stopWatchingBlocks();
+    }
+    
     public static boolean isGlass(Level world, BlockPos blockPos) {
         Block block = world.getBlockState(blockPos).getBlock();
         return block instanceof GlassBlock
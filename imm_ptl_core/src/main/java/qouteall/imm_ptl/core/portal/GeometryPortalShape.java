@@ -1,13 +1,16 @@
 package qouteall.imm_ptl.core.portal;
 
 import com.mojang.logging.LogUtils;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 import net.minecraft.nbt.DoubleTag;
 import net.minecraft.nbt.ListTag;
 import org.apache.commons.lang3.Validate;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import qouteall.q_misc_util.Helper;
 import qouteall.q_misc_util.my_util.GeometryUtil;
 import qouteall.q_misc_util.my_util.Mesh2D;
+import qouteall.q_misc_util.my_util.QuadTree;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -96,6 +99,19 @@ public class GeometryPortalShape {
     
     public boolean normalized = false;
     
+    // the shapes with few triangles don't need the lookup
+    private static final int TRIANGLE_LOOKUP_THRESHOLD = 16;
+    
+    /**
+     * Maps the triangles' bounding boxes to the triangle indexes.
+     * Lazily built on the first query and invalidated when the triangles change.
+     * The normalized coordinates are in [-1, 1], matching the quad tree's root node.
+     */
+    @Nullable
+    private TriangleLookup triangleLookup;
+    
+    private static final double BOUNDARY_EPSILON = 1.0E-7;
+    
     public GeometryPortalShape() {
         triangles = new ArrayList<>();
     }
@@ -143,6 +159,7 @@ public class GeometryPortalShape {
     }
     
     public void addTriangleForRectangle(double x1, double y1, double x2, double y2) {
+        invalidateTriangleLookup();
         triangles.add(new TriangleInPlane(
             x1, y1,
             x2, y1,
@@ -162,6 +179,8 @@ public class GeometryPortalShape {
         }
         
         if (!normalized) {
+            invalidateTriangleLookup();
+            
             double halfWidth = width / 2;
             double halfHeight = height / 2;
             for (TriangleInPlane triangle : triangles) {
@@ -262,9 +281,177 @@ public class GeometryPortalShape {
     }
     
     public boolean boxIntersects(double minX, double minY, double maxX, double maxY) {
-        return triangles.stream().anyMatch(t -> GeometryUtil.triangleIntersectsWithAABB(
+        TriangleLookup lookup = getTriangleLookup();
+        if (lookup == null) {
+            return triangles.stream().anyMatch(t -> triangleIntersectsBox(
+                t, minX, minY, maxX, maxY
+            ));
+        }
+        
+        for (int i = 0; i < lookup.unindexedTriangles.size(); i++) {
+            TriangleInPlane t = triangles.get(lookup.unindexedTriangles.getInt(i));
+            if (triangleIntersectsBox(t, minX, minY, maxX, maxY)) {
+                return true;
+            }
+        }
+        
+        Boolean result = lookup.tree.traverse(
+            minX - BOUNDARY_EPSILON, minY - BOUNDARY_EPSILON,
+            maxX + BOUNDARY_EPSILON, maxY + BOUNDARY_EPSILON,
+            (IntArrayList triangleIndexes) -> {
+                for (int i = 0; i < triangleIndexes.size(); i++) {
+                    TriangleInPlane t = triangles.get(triangleIndexes.getInt(i));
+                    if (triangleIntersectsBox(t, minX, minY, maxX, maxY)) {
+                        return Boolean.TRUE;
+                    }
+                }
+                return null;
+            }
+        );
+        return result != null;
+    }
+    
+    private static boolean triangleIntersectsBox(
+        TriangleInPlane t, double minX, double minY, double maxX, double maxY
+    ) {
+        return GeometryUtil.triangleIntersectsWithAABB(
             t.x1, t.y1, t.x2, t.y2, t.x3, t.y3,
             minX, minY, maxX, maxY
-        ));
+        );
+    }
+    
+    /**
+     * The coordinates are normalized (in [-1, 1] for the points on portal).
+     * The result is the same as testing all triangles,
+     * but with the lookup, only the triangles near the point are tested.
+     */
+    public boolean lenientIsPointInShape(double x, double y, double leniency) {
+        TriangleLookup lookup = getTriangleLookup();
+        if (lookup == null) {
+            for (TriangleInPlane triangle : triangles) {
+                if (triangle.lenientIsPointInTriangle(x, y, leniency)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        
+        for (int i = 0; i < lookup.unindexedTriangles.size(); i++) {
+            TriangleInPlane t = triangles.get(lookup.unindexedTriangles.getInt(i));
+            if (t.lenientIsPointInTriangle(x, y, leniency)) {
+                return true;
+            }
+        }
+        
+        // the lenient test expands the 3 edges outward, so the corners move further than the leniency.
+        // use a small box instead of a point, so the point on a node boundary is handled
+        double range = Math.max(leniency, 0) * lookup.maxCornerExpansion + BOUNDARY_EPSILON;
+        
+        Boolean result = lookup.tree.traverse(
+            x - range, y - range, x + range, y + range,
+            (IntArrayList triangleIndexes) -> {
+                for (int i = 0; i < triangleIndexes.size(); i++) {
+                    TriangleInPlane t = triangles.get(triangleIndexes.getInt(i));
+                    if (t.lenientIsPointInTriangle(x, y, leniency)) {
+                        return Boolean.TRUE;
+                    }
+                }
+                return null;
+            }
+        );
+        return result != null;
+    }
+    
+    private void invalidateTriangleLookup() {
+        triangleLookup = null;
+    }
+    
+    @Nullable
+    private TriangleLookup getTriangleLookup() {
+        if (triangles.size() < TRIANGLE_LOOKUP_THRESHOLD) {
+            return null;
+        }
+        
+        // the triangle list is public, also rebuild when it's changed from outside
+        if (triangleLookup == null || triangleLookup.triangleNum != triangles.size()) {
+            triangleLookup = TriangleLookup.build(triangles);
+        }
+        
+        return triangleLookup;
+    }
+    
+    /**
+     * @param tree                the triangle indexes, placed by the triangles' bounding boxes
+     * @param unindexedTriangles  the very thin triangles, whose lenient area is much larger than the bounding box.
+     *                            they are always tested
+     * @param maxCornerExpansion  how far a corner of an indexed triangle moves in lenient test, relative to the leniency
+     */
+    private static record TriangleLookup(
+        QuadTree<IntArrayList> tree,
+        IntArrayList unindexedTriangles,
+        double maxCornerExpansion,
+        int triangleNum
+    ) {
+        private static final double MAX_CORNER_EXPANSION = 16;
+        
+        static TriangleLookup build(List<TriangleInPlane> triangles) {
+            QuadTree<IntArrayList> tree = new QuadTree<>(() -> new IntArrayList(1));
+            IntArrayList unindexedTriangles = new IntArrayList();
+            double maxCornerExpansion = 1;
+            
+            for (int i = 0; i < triangles.size(); i++) {
+                TriangleInPlane t = triangles.get(i);
+                
+                // a corner with angle a moves by leniency / sin(a / 2)
+                double minAngle = Math.min(
+                    getAngle(t.x1, t.y1, t.x2, t.y2, t.x3, t.y3),
+                    Math.min(
+                        getAngle(t.x2, t.y2, t.x3, t.y3, t.x1, t.y1),
+                        getAngle(t.x3, t.y3, t.x1, t.y1, t.x2, t.y2)
+                    )
+                );
+                double cornerExpansion = 1 / Math.sin(minAngle / 2);
+                if (!(cornerExpansion <= MAX_CORNER_EXPANSION)) {
+                    // also handles NaN from degenerate triangle
+                    unindexedTriangles.add(i);
+                    continue;
+                }
+                maxCornerExpansion = Math.max(maxCornerExpansion, cornerExpansion);
+                
+                double minX = Math.min(t.x1, Math.min(t.x2, t.x3));
+                double minY = Math.min(t.y1, Math.min(t.y2, t.y3));
+                double maxX = Math.max(t.x1, Math.max(t.x2, t.x3));
+                double maxY = Math.max(t.y1, Math.max(t.y2, t.y3));
+                
+                // The quad tree puts a box whose max is exactly on a node boundary into the parent node.
+                // The triangles in a grid-aligned shape often touch the boundaries,
+                // so slightly shrink the box to avoid piling them up in the upper nodes.
+                // The queries are expanded by more than this.
+                if (maxX - minX > BOUNDARY_EPSILON) {
+                    minX += BOUNDARY_EPSILON / 100;
+                    maxX -= BOUNDARY_EPSILON / 100;
+                }
+                if (maxY - minY > BOUNDARY_EPSILON) {
+                    minY += BOUNDARY_EPSILON / 100;
+                    maxY -= BOUNDARY_EPSILON / 100;
+                }
+                
+                tree.acquireElementForBoundingBox(minX, minY, maxX, maxY).add(i);
+            }
+            
+            return new TriangleLookup(tree, unindexedTriangles, maxCornerExpansion, triangles.size());
+        }
+        
+        // the angle at (x, y)
+        private static double getAngle(
+            double x, double y, double x1, double y1, double x2, double y2
+        ) {
+            double ax = x1 - x;
+            double ay = y1 - y;
+            double bx = x2 - x;
+            double by = y2 - y;
+            double cos = (ax * bx + ay * by) / Math.sqrt((ax * ax + ay * ay) * (bx * bx + by * by));
+            return Math.acos(Math.max(-1, Math.min(1, cos)));
+        }
     }
 }
@@ -1284,10 +1284,9 @@ public class Portal extends Entity implements
         }
         
         if (roughResult && specialShape != null) {
-            return specialShape.triangles.stream()
-                .anyMatch(triangle ->
-                    triangle.lenientIsPointInTriangle(xInPlane / halfWidth, yInPlane / halfHeight, leniency)
-                );
+            return specialShape.lenientIsPointInShape(
+                xInPlane / halfWidth, yInPlane / halfHeight, leniency
+            );
         }
         
         return roughResult;
@@ -0,0 +1,163 @@
+package qouteall.imm_ptl.core.portal;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.SectionPos;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.Level;
+import qouteall.imm_ptl.core.IPGlobal;
+import qouteall.imm_ptl.core.McHelper;
+import qouteall.q_misc_util.dimension.DynamicDimensionsImpl;
+import qouteall.q_misc_util.my_util.IntBox;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.WeakHashMap;
+
+/**
+ * Maps chunk sections to the breakable portals (and mirrors) whose blocks are in them.
+ * When a block changes in a watched section, the watchers of that section get notified
+ * with the changed position, so they don't need to poll all their blocks periodically.
+ * <p>
+ * Watchers filter the positions by themselves, as a section is much larger than the watched area.
+ * <p>
+ * Only the changes through {@link Level#setBlock} are notified.
+ * The changes that bypass it (for example mods writing {@code LevelChunk.setBlockState} directly)
+ * are caught by the watchers' slow periodic full check.
+ */
+public class PortalBlockWatchRegistry {
+    
+    // the interval of the full check of watchers, as a fallback of the notification
+    public static final int FULL_CHECK_INTERVAL_TICKS = 1200;
+    
+    public static boolean isFullCheckTick(Level world, int entityId) {
+        return world.getGameTime() % FULL_CHECK_INTERVAL_TICKS == entityId % FULL_CHECK_INTERVAL_TICKS;
+    }
+    
+    public static interface BlockWatcher {
+        /**
+         * Called on server thread after the block at the position changed.
+         * Only record the position here. Don't change the world in this callback.
+         */
+        void onWatchedBlockChanged(BlockPos blockPos);
+    }
+    
+    // the fields should avoid referencing ServerLevel
+    private static final WeakHashMap<ServerLevel, PortalBlockWatchRegistry> BY_DIMENSION = new WeakHashMap<>();
+    
+    private final Long2ObjectOpenHashMap<ArrayList<BlockWatcher>> sectionToWatchers =
+        new Long2ObjectOpenHashMap<>();
+    
+    private final IdentityHashMap<BlockWatcher, LongArrayList> watcherToSections =
+        new IdentityHashMap<>();
+    
+    public static void init() {
+        DynamicDimensionsImpl.beforeRemovingDimensionSignal.connect(
+            PortalBlockWatchRegistry::onDimensionRemove
+        );
+        
+        IPGlobal.serverCleanupSignal.connect(BY_DIMENSION::clear);
+    }
+    
+    private PortalBlockWatchRegistry() {}
+    
+    public static PortalBlockWatchRegistry get(ServerLevel world) {
+        return BY_DIMENSION.computeIfAbsent(world, k -> new PortalBlockWatchRegistry());
+    }
+    
+    /**
+     * Watch all sections that intersect with the box.
+     * If the watcher is already watching, the old watch will be replaced.
+     */
+    public void watch(BlockWatcher watcher, IntBox box) {
+        unwatch(watcher);
+        
+        LongArrayList sections = new LongArrayList();
+        int minX = SectionPos.blockToSectionCoord(box.l.getX());
+        int minY = SectionPos.blockToSectionCoord(box.l.getY());
+        int minZ = SectionPos.blockToSectionCoord(box.l.getZ());
+        int maxX = SectionPos.blockToSectionCoord(box.h.getX());
+        int maxY = SectionPos.blockToSectionCoord(box.h.getY());
+        int maxZ = SectionPos.blockToSectionCoord(box.h.getZ());
+        for (int x = minX; x <= maxX; x++) {
+            for (int y = minY; y <= maxY; y++) {
+                for (int z = minZ; z <= maxZ; z++) {
+                    long sectionKey = SectionPos.asLong(x, y, z);
+                    sections.add(sectionKey);
+                    sectionToWatchers.computeIfAbsent(sectionKey, k -> new ArrayList<>(1))
+                        .add(watcher);
+                }
+            }
+        }
+        
+        watcherToSections.put(watcher, sections);
+    }
+    
+    public void unwatch(BlockWatcher watcher) {
+        LongArrayList sections = watcherToSections.remove(watcher);
+        if (sections == null) {
+            return;
+        }
+        
+        for (int i = 0; i < sections.size(); i++) {
+            long sectionKey = sections.getLong(i);
+            ArrayList<BlockWatcher> watchers = sectionToWatchers.get(sectionKey);
+            if (watchers != null) {
+                watchers.remove(watcher);
+                if (watchers.isEmpty()) {
+                    sectionToWatchers.remove(sectionKey);
+                }
+            }
+        }
+    }
+    
+    public int getWatcherNum() {
+        return watcherToSections.size();
+    }
+    
+    public int getWatchedSectionNum() {
+        return sectionToWatchers.size();
+    }
+    
+    private void notifyBlockChange(BlockPos blockPos) {
+        ArrayList<BlockWatcher> watchers = sectionToWatchers.get(
+            SectionPos.blockToSection(blockPos.asLong())
+        );
+        if (watchers == null) {
+            return;
+        }
+        
+        // the watchers only record the position, so it won't modify the list during iterating
+        for (int i = 0; i < watchers.size(); i++) {
+            watchers.get(i).onWatchedBlockChanged(blockPos);
+        }
+    }
+    
+    /**
+     * Called from {@link Level#setBlock(BlockPos, net.minecraft.world.level.block.state.BlockState, int, int)}
+     * when the block state really changed.
+     */
+    public static void onBlockChanged(Level world, BlockPos blockPos) {
+        if (!(world instanceof ServerLevel serverLevel)) {
+            return;
+        }
+        
+        if (!serverLevel.getServer().isSameThread()) {
+            return;
+        }
+        
+        PortalBlockWatchRegistry registry = BY_DIMENSION.get(serverLevel);
+        if (registry == null) {
+            return;
+        }
+        
+        registry.notifyBlockChange(blockPos);
+    }
+    
+    private static void onDimensionRemove(ResourceKey<Level> dimension) {
+        ServerLevel world = McHelper.getServerWorld(dimension);
+        BY_DIMENSION.remove(world);
+    }
+}
@@ -7,7 +7,6 @@ import net.minecraft.core.BlockPos;
 import net.minecraft.core.Direction;
 import net.minecraft.world.level.BlockGetter;
 import net.minecraft.world.level.Level;
-import net.minecraft.world.level.LevelAccessor;
 import net.minecraft.world.level.block.Block;
 import net.minecraft.world.level.block.RenderShape;
 import net.minecraft.world.level.block.SoundType;
@@ -17,11 +16,8 @@ import net.minecraft.world.level.block.state.properties.BlockStateProperties;
 import net.minecraft.world.level.block.state.properties.EnumProperty;
 import net.minecraft.world.phys.BlockHitResult;
 import net.minecraft.world.phys.HitResult;
-import net.minecraft.world.phys.Vec3;
 import net.minecraft.world.phys.shapes.CollisionContext;
 import net.minecraft.world.phys.shapes.VoxelShape;
-import qouteall.imm_ptl.core.McHelper;
-import qouteall.imm_ptl.core.portal.nether_portal.BreakablePortalEntity;
 
 public class PortalPlaceholderBlock extends Block {
     public static final EnumProperty<Direction.Axis> AXIS = BlockStateProperties.AXIS;
@@ -89,50 +85,6 @@ public class PortalPlaceholderBlock extends Block {
         builder.add(AXIS);
     }
     
-    @Override
-    public BlockState updateShape(
-        BlockState thisState,
-        Direction direction,
-        BlockState neighborState,
-        LevelAccessor worldAccess,
-        BlockPos blockPos,
-        BlockPos neighborPos
-    ) {
-        if (!worldAccess.isClientSide()) {
-            if (worldAccess instanceof Level) {
-                Level world = (Level) worldAccess;
-                
-                world.getProfiler().push("portal_placeholder");
-                
-                Direction.Axis axis = thisState.getValue(AXIS);
-                if (direction.getAxis() != axis) {
-                    McHelper.findEntitiesRough(
-                        BreakablePortalEntity.class,
-                        world,
-                        Vec3.atLowerCornerOf(blockPos),
-                        2,
-                        e -> true
-                    ).forEach(
-                        portal -> {
-                            ((BreakablePortalEntity) portal).notifyPlaceholderUpdate();
-                        }
-                    );
-                }
-                
-                world.getProfiler().pop();
-            }
-        }
-        
-        return super.updateShape(
-            thisState,
-            direction,
-            neighborState,
-            worldAccess,
-            blockPos,
-            neighborPos
-        );
-    }
-    
     public static boolean isHitOnPlaceholder(HitResult hitResult, Level world) {
         if (hitResult.getType() == HitResult.Type.BLOCK) {
             if (hitResult instanceof BlockHitResult blockHitResult) {
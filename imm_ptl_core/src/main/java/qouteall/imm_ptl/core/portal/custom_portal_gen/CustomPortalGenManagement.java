@@ -1,7 +1,5 @@
 package qouteall.imm_ptl.core.portal.custom_portal_gen;
 
-import com.google.common.collect.HashMultimap;
-import com.google.common.collect.Multimap;
 import com.google.gson.JsonElement;
 import com.mojang.serialization.JsonOps;
 import com.mojang.serialization.Lifecycle;
@@ -16,10 +14,12 @@ import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.level.ServerLevel;
 import net.minecraft.server.level.ServerPlayer;
 import net.minecraft.server.packs.resources.ResourceManager;
+import net.minecraft.util.Unit;
 import net.minecraft.world.InteractionResult;
 import net.minecraft.world.entity.item.ItemEntity;
 import net.minecraft.world.item.Item;
 import net.minecraft.world.item.context.UseOnContext;
+import net.minecraft.world.level.Level;
 import net.minecraft.world.phys.Vec3;
 import org.apache.commons.lang3.Validate;
 import qouteall.imm_ptl.core.IPGlobal;
@@ -29,17 +29,20 @@ import qouteall.q_misc_util.Helper;
 import qouteall.q_misc_util.MiscHelper;
 import qouteall.q_misc_util.my_util.WithDim;
 
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
 public class CustomPortalGenManagement {
-    private static final Multimap<Item, CustomPortalGeneration> useItemGen = HashMultimap.create();
-    private static final Multimap<Item, CustomPortalGeneration> throwItemGen = HashMultimap.create();
+    // indexed by the item and the source dimension, so that a trigger only tries the generations that can match
+    private static final PortalGenIndex<Item, ResourceKey<Level>, CustomPortalGeneration> useItemGen =
+        new PortalGenIndex<>(CustomPortalGeneration.anyDimension);
+    private static final PortalGenIndex<Item, ResourceKey<Level>, CustomPortalGeneration> throwItemGen =
+        new PortalGenIndex<>(CustomPortalGeneration.anyDimension);
     
-    private static final ArrayList<CustomPortalGeneration> convGen = new ArrayList<>();
+    private static final PortalGenIndex<Unit, ResourceKey<Level>, CustomPortalGeneration> convGen =
+        new PortalGenIndex<>(CustomPortalGeneration.anyDimension);
     private static final Map<UUID, WithDim<Vec3>> playerPosBeforeTravel = new HashMap<>();
     
     public static void onDatapackReload() {
@@ -86,6 +89,11 @@ public class CustomPortalGenManagement {
                 }
             }
         });
+        
+        Helper.log(String.format(
+            "Indexed custom portal generation: use item %d, throw item %d, conventional dimension change %d",
+            useItemGen.size(), throwItemGen.size(), convGen.size()
+        ));
     }
     
     private static Registry<CustomPortalGeneration> loadCustomPortalGenerations() {
@@ -130,16 +138,17 @@ public class CustomPortalGenManagement {
     private static void load(CustomPortalGeneration gen) {
         PortalGenTrigger trigger = gen.trigger;
         if (trigger instanceof PortalGenTrigger.UseItemTrigger) {
-            useItemGen.put(((PortalGenTrigger.UseItemTrigger) trigger).item, gen);
+            useItemGen.add(((PortalGenTrigger.UseItemTrigger) trigger).item, gen.fromDimensions, gen);
         }
         else if (trigger instanceof PortalGenTrigger.ThrowItemTrigger) {
-            throwItemGen.put(
+            throwItemGen.add(
                 ((PortalGenTrigger.ThrowItemTrigger) trigger).item,
+                gen.fromDimensions,
                 gen
             );
         }
         else if (trigger instanceof PortalGenTrigger.ConventionalDimensionChangeTrigger) {
-            convGen.add(gen);
+            convGen.add(Unit.INSTANCE, gen.fromDimensions, gen);
         }
     }
     
@@ -149,10 +158,11 @@ public class CustomPortalGenManagement {
         }
         
         Item item = context.getItemInHand().getItem();
-        if (useItemGen.containsKey(item)) {
+        ResourceKey<Level> dimension = context.getLevel().dimension();
+        if (useItemGen.hasCandidates(item, dimension)) {
             // perform it in the second tick
             IPGlobal.serverTaskList.addTask(() -> {
-                for (CustomPortalGeneration gen : useItemGen.get(item)) {
+                for (CustomPortalGeneration gen : useItemGen.getCandidates(item, dimension)) {
                     boolean result = gen.perform(
                         ((ServerLevel) context.getLevel()),
                         context.getClickedPos().relative(context.getClickedFace()),
@@ -180,9 +190,10 @@ public class CustomPortalGenManagement {
         
         if (entity.hasPickUpDelay()) {
             Item item = entity.getItem().getItem();
-            if (throwItemGen.containsKey(item)) {
+            ResourceKey<Level> dimension = entity.level().dimension();
+            if (throwItemGen.hasCandidates(item, dimension)) {
                 IPGlobal.serverTaskList.addTask(() -> {
-                    for (CustomPortalGeneration gen : throwItemGen.get(item)) {
+                    for (CustomPortalGeneration gen : throwItemGen.getCandidates(item, dimension)) {
                         boolean result = gen.perform(
                             ((ServerLevel) entity.level()),
                             entity.blockPosition(),
@@ -218,7 +229,7 @@ public class CustomPortalGenManagement {
             
             BlockPos startPos = BlockPos.containing(startCoord.value());
             
-            for (CustomPortalGeneration gen : convGen) {
+            for (CustomPortalGeneration gen : convGen.getCandidates(Unit.INSTANCE, startCoord.dimension())) {
                 boolean succeeded = gen.perform(startWorld, startPos, player);
                 
                 if (succeeded) {
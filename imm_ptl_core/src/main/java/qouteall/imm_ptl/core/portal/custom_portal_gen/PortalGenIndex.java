@@ -0,0 +1,123 @@
+package qouteall.imm_ptl.core.portal.custom_portal_gen;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Indexes the custom portal generations by the trigger key (for example the item)
+ * and the source dimension. It's built when loading the datapacks.
+ * <p>
+ * The candidates of a trigger are the generations that can pass the dimension check
+ * in {@link CustomPortalGeneration#perform}, in the order that they are added.
+ * The order matters because the first generation that succeeds is used.
+ * The generations whose first source dimension is the wildcard match every dimension,
+ * they are merged with the dimension's generations by the adding order.
+ *
+ * @param <K> the trigger key
+ * @param <D> the dimension
+ * @param <G> the generation
+ */
+public class PortalGenIndex<K, D, G> {
+    private static record Entry<G>(int order, G gen) {}
+    
+    private final D anyDimension;
+    
+    private final Map<K, Map<D, List<Entry<G>>>> byDimension = new HashMap<>();
+    private final Map<K, List<Entry<G>>> anyDimensionEntries = new HashMap<>();
+    
+    private int addedNum = 0;
+    
+    public PortalGenIndex(D anyDimension) {
+        this.anyDimension = anyDimension;
+    }
+    
+    public void add(K key, List<D> fromDimensions, G gen) {
+        Entry<G> entry = new Entry<>(addedNum, gen);
+        addedNum++;
+        
+        if (fromDimensions.isEmpty()) {
+            return;
+        }
+        
+        if (fromDimensions.get(0).equals(anyDimension)) {
+            anyDimensionEntries.computeIfAbsent(key, k -> new ArrayList<>()).add(entry);
+            return;
+        }
+        
+        Map<D, List<Entry<G>>> dimToEntries = byDimension.computeIfAbsent(key, k -> new HashMap<>());
+        for (D dimension : fromDimensions) {
+            List<Entry<G>> entries = dimToEntries.computeIfAbsent(dimension, k -> new ArrayList<>());
+            // a dimension may be listed twice
+            if (entries.isEmpty() || entries.get(entries.size() - 1) != entry) {
+                entries.add(entry);
+            }
+        }
+    }
+    
+    public boolean hasCandidates(K key, D dimension) {
+        return getDimensionEntries(key, dimension) != null || anyDimensionEntries.containsKey(key);
+    }
+    
+    /**
+     * @return the generations that may be triggered in the dimension, in the adding order
+     */
+    public List<G> getCandidates(K key, D dimension) {
+        List<Entry<G>> dimensionEntries = getDimensionEntries(key, dimension);
+        List<Entry<G>> anyEntries = anyDimensionEntries.get(key);
+        
+        if (dimensionEntries == null && anyEntries == null) {
+            return Collections.emptyList();
+        }
+        if (anyEntries == null) {
+            return dimensionEntries.stream().map(Entry::gen).toList();
+        }
+        if (dimensionEntries == null) {
+            return anyEntries.stream().map(Entry::gen).toList();
+        }
+        
+        List<G> result = new ArrayList<>(dimensionEntries.size() + anyEntries.size());
+        int i = 0;
+        int j = 0;
+        while (i < dimensionEntries.size() || j < anyEntries.size()) {
+            if (j == anyEntries.size() ||
+                (i < dimensionEntries.size() && dimensionEntries.get(i).order < anyEntries.get(j).order)
+            ) {
+                result.add(dimensionEntries.get(i).gen);
+                i++;
+            }
+            else {
+                result.add(anyEntries.get(j).gen);
+                j++;
+            }
+        }
+        return result;
+    }
+    
+    @Nullable
+    private List<Entry<G>> getDimensionEntries(K key, D dimension) {
+        Map<D, List<Entry<G>>> dimToEntries = byDimension.get(key);
+        if (dimToEntries == null) {
+            return null;
+        }
+        return dimToEntries.get(dimension);
+    }
+    
+    public boolean isEmpty() {
+        return addedNum == 0;
+    }
+    
+    public int size() {
+        return addedNum;
+    }
+    
+    public void clear() {
+        byDimension.clear();
+        anyDimensionEntries.clear();
+        addedNum = 0;
+    }
+}
@@ -25,30 +25,33 @@ public abstract class AbstractDiligentForm extends NetherPortalLikeForm {
         
         Predicate<BlockState> areaPredicate = getAreaPredicate();
         Predicate<BlockState> otherSideFramePredicate = getOtherSideFramePredicate();
-        BlockPos.MutableBlockPos temp2 = new BlockPos.MutableBlockPos();
-        return (region) -> (blockPos) -> {
-            for (DiligentMatcher.TransformedShape matchableShapeVariant : matchableShapeVariants) {
-                BlockPortalShape template = matchableShapeVariant.transformedShape;
-                BlockPortalShape matched = template.matchShapeWithMovedFirstFramePos(
-                    pos -> areaPredicate.test(region.getBlockState(pos)),
-                    pos -> otherSideFramePredicate.test(region.getBlockState(pos)),
-                    blockPos,
-                    temp2
-                );
-                if (matched != null) {
-                    if (fromWorld != toWorld || !fromShape.anchor.equals(matched.anchor)) {
-                        return new PortalGenInfo(
-                            fromWorld.dimension(),
-                            toWorld.dimension(),
-                            fromShape, matched,
-                            matchableShapeVariant.rotation.toQuaternion(),
-                            matchableShapeVariant.scale
-                        );
+        // applied once for each frame searching thread, the temporary objects are not shared
+        return (region) -> {
+            BlockPos.MutableBlockPos temp2 = new BlockPos.MutableBlockPos();
+            return (blockPos) -> {
+                for (DiligentMatcher.TransformedShape matchableShapeVariant : matchableShapeVariants) {
+                    BlockPortalShape template = matchableShapeVariant.transformedShape;
+                    BlockPortalShape matched = template.matchShapeWithMovedFirstFramePos(
+                        pos -> areaPredicate.test(region.getBlockState(pos)),
+                        pos -> otherSideFramePredicate.test(region.getBlockState(pos)),
+                        blockPos,
+                        temp2
+                    );
+                    if (matched != null) {
+                        if (fromWorld != toWorld || !fromShape.anchor.equals(matched.anchor)) {
+                            return new PortalGenInfo(
+                                fromWorld.dimension(),
+                                toWorld.dimension(),
+                                fromShape, matched,
+                                matchableShapeVariant.rotation.toQuaternion(),
+                                matchableShapeVariant.scale
+                            );
+                        }
                     }
                 }
-            }
-            
-            return null;
+                
+                return null;
+            };
         };
     }
 }
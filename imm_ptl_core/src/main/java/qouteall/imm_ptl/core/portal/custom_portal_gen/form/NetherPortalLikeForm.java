@@ -113,24 +113,27 @@ public abstract class NetherPortalLikeForm extends PortalGenForm {
     ) {
         Predicate<BlockState> areaPredicate = getAreaPredicate();
         Predicate<BlockState> otherSideFramePredicate = getOtherSideFramePredicate();
-        BlockPos.MutableBlockPos temp2 = new BlockPos.MutableBlockPos();
-        return (region) -> (blockPos) -> {
-            BlockPortalShape result = fromShape.matchShapeWithMovedFirstFramePos(
-                pos -> areaPredicate.test(region.getBlockState(pos)),
-                pos -> otherSideFramePredicate.test(region.getBlockState(pos)),
-                blockPos,
-                temp2
-            );
-            if (result != null) {
-                if (fromWorld != toWorld || fromShape.anchor != result.anchor) {
-                    return new PortalGenInfo(
-                        fromWorld.dimension(),
-                        toWorld.dimension(),
-                        fromShape, result
-                    );
+        // applied once for each frame searching thread, the temporary objects are not shared
+        return (region) -> {
+            BlockPos.MutableBlockPos temp2 = new BlockPos.MutableBlockPos();
+            return (blockPos) -> {
+                BlockPortalShape result = fromShape.matchShapeWithMovedFirstFramePos(
+                    pos -> areaPredicate.test(region.getBlockState(pos)),
+                    pos -> otherSideFramePredicate.test(region.getBlockState(pos)),
+                    blockPos,
+                    temp2
+                );
+                if (result != null) {
+                    if (fromWorld != toWorld || fromShape.anchor != result.anchor) {
+                        return new PortalGenInfo(
+                            fromWorld.dimension(),
+                            toWorld.dimension(),
+                            fromShape, result
+                        );
+                    }
                 }
-            }
-            return null;
+                return null;
+            };
         };
     }
     
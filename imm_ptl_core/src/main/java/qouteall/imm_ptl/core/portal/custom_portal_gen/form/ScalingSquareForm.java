@@ -75,26 +75,29 @@ public class ScalingSquareForm extends NetherPortalLikeForm {
         
         Predicate<BlockState> areaPredicate = getAreaPredicate();
         Predicate<BlockState> otherSideFramePredicate = getOtherSideFramePredicate();
-        BlockPos.MutableBlockPos temp2 = new BlockPos.MutableBlockPos();
-        return (region) -> (blockPos) -> {
-            BlockPortalShape result = template.matchShapeWithMovedFirstFramePos(
-                pos -> areaPredicate.test(region.getBlockState(pos)),
-                pos -> otherSideFramePredicate.test(region.getBlockState(pos)),
-                blockPos,
-                temp2
-            );
-            if (result != null) {
-                if (fromWorld != toWorld || fromShape.anchor != result.anchor) {
-                    return new PortalGenInfo(
-                        fromWorld.dimension(),
-                        toWorld.dimension(),
-                        fromShape, result,
-                        null,
-                        getScale()
-                    );
+        // applied once for each frame searching thread, the temporary objects are not shared
+        return (region) -> {
+            BlockPos.MutableBlockPos temp2 = new BlockPos.MutableBlockPos();
+            return (blockPos) -> {
+                BlockPortalShape result = template.matchShapeWithMovedFirstFramePos(
+                    pos -> areaPredicate.test(region.getBlockState(pos)),
+                    pos -> otherSideFramePredicate.test(region.getBlockState(pos)),
+                    blockPos,
+                    temp2
+                );
+                if (result != null) {
+                    if (fromWorld != toWorld || fromShape.anchor != result.anchor) {
+                        return new PortalGenInfo(
+                            fromWorld.dimension(),
+                            toWorld.dimension(),
+                            fromShape, result,
+                            null,
+                            getScale()
+                        );
+                    }
                 }
-            }
-            return null;
+                return null;
+            };
         };
     }
     
@@ -8,6 +8,7 @@ import net.minecraft.core.registries.Registries;
 import net.minecraft.nbt.CompoundTag;
 import net.minecraft.nbt.ListTag;
 import net.minecraft.nbt.NbtUtils;
+import net.minecraft.nbt.Tag;
 import net.minecraft.network.protocol.Packet;
 import net.minecraft.resources.ResourceKey;
 import net.minecraft.resources.ResourceLocation;
@@ -24,6 +25,7 @@ import qouteall.imm_ptl.core.CHelper;
 import qouteall.imm_ptl.core.ClientWorldLoader;
 import qouteall.imm_ptl.core.IPGlobal;
 import qouteall.imm_ptl.core.McHelper;
+import qouteall.imm_ptl.core.chunk_loading.NewChunkTrackingGraph;
 import qouteall.imm_ptl.core.ducks.IEClientWorld;
 import qouteall.imm_ptl.core.network.IPNetworking;
 import qouteall.imm_ptl.core.platform_specific.O_O;
@@ -36,12 +38,24 @@ import org.jetbrains.annotations.Nullable;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.WeakHashMap;
 import java.util.function.Predicate;
 
 /**
  * Stores global portals.
  * Also stores bedrock replacement block state for dimension stack.
+ * <p>
+ * The global portals are synced to the players that can see this dimension.
+ * A player gets the full list when the dimension becomes visible to it.
+ * After that, the changes within a tick are sent as a delta of the added, changed and removed portals.
  */
 public class GlobalPortalStorage extends SavedData {
     public List<Portal> data;
@@ -49,6 +63,13 @@ public class GlobalPortalStorage extends SavedData {
     private int version = 1;
     private boolean shouldReSync = false;
     
+    // the portal data that was last synced, by portal UUID. null means not yet computed
+    @Nullable
+    private LinkedHashMap<UUID, CompoundTag> syncedPortalTags = null;
+    
+    // the players that have the up-to-date global portals of this dimension
+    private final Set<ServerPlayer> syncedPlayers = Collections.newSetFromMap(new WeakHashMap<>());
+    
     @Nullable
     public BlockState bedrockReplacement;
     
@@ -69,8 +90,8 @@ public class GlobalPortalStorage extends SavedData {
         DimensionAPI.serverDimensionDynamicUpdateEvent.register(dims -> {
             for (ServerLevel world : MiscHelper.getServer().getAllLevels()) {
                 GlobalPortalStorage gps = get(world);
+                // the removed portals will be synced as delta
                 gps.clearAbnormalPortals();
-                gps.syncToAllPlayers();
             }
         });
         
@@ -117,20 +138,13 @@ public class GlobalPortalStorage extends SavedData {
         data = new ArrayList<>();
     }
     
+    /**
+     * The global portals of the player's dimension are needed immediately.
+     * The other dimensions are synced when they become visible to the player.
+     */
     public static void onPlayerLoggedIn(ServerPlayer player) {
-        MiscHelper.getServer().getAllLevels().forEach(
-            world -> {
-                GlobalPortalStorage storage = get(world);
-                if (!storage.data.isEmpty()) {
-                    player.connection.send(
-                        IPNetworking.createGlobalPortalUpdate(
-                            storage
-                        )
-                    );
-                }
-            }
-        );
-        
+        GlobalPortalStorage storage = get(player.serverLevel());
+        storage.sendFullSync(player);
     }
     
     public void onDataChanged() {
@@ -169,11 +183,116 @@ public class GlobalPortalStorage extends SavedData {
         onDataChanged();
     }
     
-    private void syncToAllPlayers() {
-        Packet packet = IPNetworking.createGlobalPortalUpdate(this);
-        McHelper.getCopiedPlayerList().forEach(
-            player -> player.connection.send(packet)
+    private void syncToPlayers() {
+        ServerLevel currWorld = world.get();
+        if (currWorld == null) {
+            return;
+        }
+        ResourceKey<Level> dimension = currWorld.dimension();
+        
+        Packet deltaPacket = null;
+        if (shouldReSync || syncedPortalTags == null) {
+            shouldReSync = false;
+            deltaPacket = updateSyncedPortalTags(dimension);
+        }
+        
+        for (ServerPlayer player : McHelper.getCopiedPlayerList()) {
+            boolean isVisible = player.level() == currWorld ||
+                NewChunkTrackingGraph.getVisibleDimensions(player).contains(dimension);
+            
+            if (!isVisible) {
+                // the client's data becomes outdated. it will get the full list when visible again
+                syncedPlayers.remove(player);
+                continue;
+            }
+            
+            if (!syncedPlayers.contains(player)) {
+                sendFullSync(player);
+            }
+            else if (deltaPacket != null) {
+                player.connection.send(deltaPacket);
+            }
+        }
+    }
+    
+    /**
+     * @return the delta packet, null if nothing changed
+     */
+    @Nullable
+    private Packet updateSyncedPortalTags(ResourceKey<Level> dimension) {
+        LinkedHashMap<UUID, CompoundTag> newTags = new LinkedHashMap<>();
+        for (Portal portal : data) {
+            if (newTags.put(portal.getUUID(), portalToTag(portal)) != null) {
+                // the delta is keyed by UUID, it cannot represent duplicated UUIDs
+                Helper.err("Duplicated global portal UUID " + portal.getUUID());
+            }
+        }
+        
+        LinkedHashMap<UUID, CompoundTag> oldTags = syncedPortalTags;
+        syncedPortalTags = newTags;
+        
+        if (oldTags == null) {
+            // no player has the data of this storage yet
+            syncedPlayers.clear();
+            return null;
+        }
+        
+        ListTag updated = new ListTag();
+        newTags.forEach((uuid, tag) -> {
+            if (!tag.equals(oldTags.get(uuid))) {
+                updated.add(tag);
+            }
+        });
+        
+        ListTag removed = new ListTag();
+        for (UUID uuid : oldTags.keySet()) {
+            if (!newTags.containsKey(uuid)) {
+                removed.add(NbtUtils.createUUID(uuid));
+            }
+        }
+        
+        if (updated.isEmpty() && removed.isEmpty()) {
+            return null;
+        }
+        
+        CompoundTag deltaTag = new CompoundTag();
+        deltaTag.put("updated", updated);
+        deltaTag.put("removed", removed);
+        return IPNetworking.createGlobalPortalDelta(dimension, deltaTag);
+    }
+    
+    private void sendFullSync(ServerPlayer player) {
+        ServerLevel currWorld = world.get();
+        Validate.notNull(currWorld);
+        
+        if (syncedPortalTags == null || shouldReSync) {
+            shouldReSync = false;
+            Packet deltaPacket = updateSyncedPortalTags(currWorld.dimension());
+            if (deltaPacket != null) {
+                // the players that are already synced also need the change
+                for (ServerPlayer syncedPlayer : syncedPlayers) {
+                    syncedPlayer.connection.send(deltaPacket);
+                }
+            }
+        }
+        
+        ListTag listTag = new ListTag();
+        listTag.addAll(syncedPortalTags.values());
+        CompoundTag tag = new CompoundTag();
+        tag.put("data", listTag);
+        
+        player.connection.send(IPNetworking.createGlobalPortalUpdate(currWorld.dimension(), tag));
+        syncedPlayers.add(player);
+    }
+    
+    private static CompoundTag portalToTag(Portal portal) {
+        CompoundTag portalTag = new CompoundTag();
+        portal.saveWithoutId(portalTag);
+        portalTag.putString(
+            "entity_type",
+            EntityType.getKey(portal.getType()).toString()
         );
+        return portalTag;
     }
     
     public void fromNbt(CompoundTag tag) {
@@ -208,6 +327,13 @@ public class GlobalPortalStorage extends SavedData {
         /**{@link CompoundTag#getType()}*/
         ListTag listTag = tag.getList("data", 10);
         
+        return getPortalsFromListTag(listTag, currWorld);
+    }
+    
+    private static List<Portal> getPortalsFromListTag(
+        ListTag listTag,
+        Level currWorld
+    ) {
         List<Portal> newData = new ArrayList<>();
         
         for (int i = 0; i < listTag.size(); i++) {
@@ -251,13 +377,7 @@ public class GlobalPortalStorage extends SavedData {
         
         for (Portal portal : data) {
             Validate.isTrue(portal.level() == currWorld);
-            CompoundTag portalTag = new CompoundTag();
-            portal.saveWithoutId(portalTag);
-            portalTag.putString(
-                "entity_type",
-                EntityType.getKey(portal.getType()).toString()
-            );
-            listTag.add(portalTag);
+            listTag.add(portalToTag(portal));
         }
         
         tag.put("data", listTag);
@@ -272,10 +392,7 @@ public class GlobalPortalStorage extends SavedData {
     }
     
     public void tick() {
-        if (shouldReSync) {
-            syncToAllPlayers();
-            shouldReSync = false;
-        }
+        syncToPlayers();
         
         if (version <= 1) {
             upgradeData(world.get());
@@ -285,7 +402,7 @@ public class GlobalPortalStorage extends SavedData {
     }
     
     public void clearAbnormalPortals() {
-        data.removeIf(e -> {
+        boolean removed = data.removeIf(e -> {
             ResourceKey<Level> dimensionTo = ((Portal) e).dimensionTo;
             if (MiscHelper.getServer().getLevel(dimensionTo) == null) {
                 Helper.err("Missing Dimension for global portal " + dimensionTo.location());
@@ -293,6 +410,9 @@ public class GlobalPortalStorage extends SavedData {
             }
             return false;
         });
+        if (removed) {
+            shouldReSync = true;
+        }
     }
     
     private static void upgradeData(ServerLevel world) {
@@ -325,6 +445,65 @@ public class GlobalPortalStorage extends SavedData {
         Helper.log("Global Portals Updated " + dimension.location());
     }
     
+    @Environment(EnvType.CLIENT)
+    public static void receiveGlobalPortalDelta(ResourceKey<Level> dimension, CompoundTag deltaTag) {
+        ClientLevel world = ClientWorldLoader.getWorld(dimension);
+        
+        List<Portal> oldGlobalPortals = ((IEClientWorld) world).getGlobalPortals();
+        List<Portal> newPortals = oldGlobalPortals == null ?
+            new ArrayList<>() : new ArrayList<>(oldGlobalPortals);
+        
+        ListTag removedTag = deltaTag.getList("removed", Tag.TAG_INT_ARRAY);
+        Set<UUID> removed = new HashSet<>();
+        for (Tag uuidTag : removedTag) {
+            removed.add(NbtUtils.loadUUID(uuidTag));
+        }
+        
+        List<Portal> updatedPortals = getPortalsFromListTag(
+            deltaTag.getList("updated", Tag.TAG_COMPOUND), world
+        );
+        Map<UUID, Portal> updated = new HashMap<>();
+        for (Portal p : updatedPortals) {
+            p.myUnsetRemoved();
+            p.isGlobalPortal = true;
+            
+            Validate.isTrue(p.isPortalValid());
+            
+            ClientWorldLoader.getWorld(p.getDestDim());
+            
+            updated.put(p.getUUID(), p);
+        }
+        
+        // replace the changed portals in place, remove the removed ones
+        for (int i = 0; i < newPortals.size(); i++) {
+            Portal oldPortal = newPortals.get(i);
+            UUID uuid = oldPortal.getUUID();
+            Portal newPortal = updated.remove(uuid);
+            if (newPortal != null) {
+                oldPortal.remove(Entity.RemovalReason.KILLED);
+                newPortals.set(i, newPortal);
+            }
+            else if (removed.contains(uuid)) {
+                oldPortal.remove(Entity.RemovalReason.KILLED);
+                newPortals.set(i, null);
+            }
+        }
+        newPortals.removeIf(Objects::isNull);
+        
+        // the remaining ones are newly added
+        for (Portal p : updatedPortals) {
+            if (updated.containsKey(p.getUUID())) {
+                newPortals.add(p);
+            }
+        }
+        
+        ((IEClientWorld) world).setGlobalPortals(newPortals);
+        
+        Helper.log("Global Portals Delta Updated %s updated %d removed %d".formatted(
+            dimension.location(), updatedPortals.size(), removed.size()
+        ));
+    }
+    
     public static void convertNormalPortalIntoGlobalPortal(Portal portal) {
         Validate.isTrue(!portal.getIsGlobal());
         Validate.isTrue(!portal.level().isClientSide());
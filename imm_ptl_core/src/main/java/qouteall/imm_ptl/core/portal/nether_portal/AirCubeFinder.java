@@ -0,0 +1,236 @@
+package qouteall.imm_ptl.core.portal.nether_portal;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.SectionPos;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.LevelAccessor;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.ChunkAccess;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+import net.minecraft.world.level.levelgen.Heightmap;
+import org.jetbrains.annotations.Nullable;
+import qouteall.q_misc_util.my_util.IntBox;
+
+/**
+ * Finds the all-air box, the same as checking every block of every candidate box,
+ * but much faster when there are many non-air blocks (like in the nether).
+ * <p>
+ * The candidates are searched in the same order as {@link BlockTraverse#searchColumned}:
+ * the columns are traversed from center to outside, and the lowest box in a column is found first.
+ * In one column, the boxes of adjacent Y overlap, so it scans the layers upwards once,
+ * and tracks the start of the current run of all-air layers.
+ * A box fits when the run is as high as the box.
+ * <p>
+ * A section that only has air is skipped as air.
+ * A section whose palette doesn't contain air is skipped as non-air.
+ * Above the world surface heightmap, all layers are air, so the scanning stops there.
+ */
+public class AirCubeFinder {
+    
+    public static enum SectionAirState {
+        ALL_AIR, NO_AIR, MIXED
+    }
+    
+    public static interface BlockAccess {
+        SectionAirState getSectionAirState(int sectionX, int sectionY, int sectionZ);
+        
+        boolean isAir(int x, int y, int z);
+        
+        /**
+         * @return the lowest Y that the blocks at and above it in this column are all air
+         */
+        int getAirStartY(int x, int z);
+    }
+    
+    /**
+     * Caches the chunks and section states during one search.
+     * Getting the chunk may load it, the same as getting block state from the world.
+     */
+    public static class LevelBlockAccess implements BlockAccess {
+        private final LevelAccessor world;
+        private final Long2ObjectOpenHashMap<ChunkAccess> chunks = new Long2ObjectOpenHashMap<>();
+        private final Long2ObjectOpenHashMap<SectionAirState> sectionStates = new Long2ObjectOpenHashMap<>();
+        
+        public LevelBlockAccess(LevelAccessor world) {
+            this.world = world;
+        }
+        
+        private ChunkAccess getChunk(int chunkX, int chunkZ) {
+            return chunks.computeIfAbsent(
+                ChunkPos.asLong(chunkX, chunkZ),
+                k -> world.getChunk(chunkX, chunkZ)
+            );
+        }
+        
+        private LevelChunkSection getSection(int sectionX, int sectionY, int sectionZ) {
+            ChunkAccess chunk = getChunk(sectionX, sectionZ);
+            return chunk.getSection(chunk.getSectionIndexFromSectionY(sectionY));
+        }
+        
+        @Override
+        public SectionAirState getSectionAirState(int sectionX, int sectionY, int sectionZ) {
+            return sectionStates.computeIfAbsent(
+                SectionPos.asLong(sectionX, sectionY, sectionZ),
+                k -> {
+                    LevelChunkSection section = getSection(sectionX, sectionY, sectionZ);
+                    if (section.hasOnlyAir()) {
+                        return SectionAirState.ALL_AIR;
+                    }
+                    // the palette may contain the states that no longer exist in the section,
+                    // so it's only known to have no air when the palette has no air
+                    if (!section.maybeHas(BlockState::isAir)) {
+                        return SectionAirState.NO_AIR;
+                    }
+                    return SectionAirState.MIXED;
+                }
+            );
+        }
+        
+        @Override
+        public boolean isAir(int x, int y, int z) {
+            LevelChunkSection section = getSection(
+                SectionPos.blockToSectionCoord(x),
+                SectionPos.blockToSectionCoord(y),
+                SectionPos.blockToSectionCoord(z)
+            );
+            return section.getBlockState(x & 15, y & 15, z & 15).isAir();
+        }
+        
+        @Override
+        public int getAirStartY(int x, int z) {
+            ChunkAccess chunk = getChunk(
+                SectionPos.blockToSectionCoord(x), SectionPos.blockToSectionCoord(z)
+            );
+            // the heightmap height is the Y of the highest non-air block
+            return chunk.getHeight(Heightmap.Types.WORLD_SURFACE, x & 15, z & 15) + 1;
+        }
+    }
+    
+    /**
+     * @param baseCenterX      the X of the box's lowest corner in the first searched column
+     * @param baseCenterZ      the Z of the box's lowest corner in the first searched column
+     * @param lowestBaseY      the lowest Y of the box's lowest corner, inclusive
+     * @param highestBaseY     the highest Y of the box's lowest corner, inclusive.
+     *                         The whole box should be in the world.
+     */
+    @Nullable
+    public static IntBox findAirCube(
+        BlockAccess access, BlockPos areaSize,
+        int baseCenterX, int baseCenterZ, int findingRadius,
+        int lowestBaseY, int highestBaseY
+    ) {
+        if (lowestBaseY > highestBaseY) {
+            return null;
+        }
+        
+        return BlockTraverse.searchOnPlane(
+            baseCenterX, baseCenterZ, findingRadius,
+            (x, z) -> {
+                int baseY = findLowestBaseYInColumn(
+                    access, x, z, areaSize, lowestBaseY, highestBaseY
+                );
+                if (baseY > highestBaseY) {
+                    return null;
+                }
+                return IntBox.fromBasePointAndSize(new BlockPos(x, baseY, z), areaSize);
+            }
+        );
+    }
+    
+    /**
+     * @return the lowest base Y that the box is all air, or a value above highestBaseY if not found
+     */
+    private static int findLowestBaseYInColumn(
+        BlockAccess access, int x, int z, BlockPos areaSize,
+        int lowestBaseY, int highestBaseY
+    ) {
+        int x1 = x + areaSize.getX() - 1;
+        int z1 = z + areaSize.getZ() - 1;
+        int sizeY = areaSize.getY();
+        
+        int airStartY = Integer.MIN_VALUE;
+        for (int bx = x; bx <= x1; bx++) {
+            for (int bz = z; bz <= z1; bz++) {
+                airStartY = Math.max(airStartY, access.getAirStartY(bx, bz));
+            }
+        }
+        
+        // the layers in [runStart, y) are all air
+        int runStart = lowestBaseY;
+        int y = lowestBaseY;
+        
+        while (runStart <= highestBaseY) {
+            if (y - runStart >= sizeY || y >= airStartY) {
+                return runStart;
+            }
+            
+            int sectionY = SectionPos.blockToSectionCoord(y);
+            int sectionEnd = Math.min(SectionPos.sectionToBlockCoord(sectionY + 1), airStartY);
+            
+            switch (getFootprintSectionState(access, x, z, x1, z1, sectionY)) {
+                case ALL_AIR -> y = sectionEnd;
+                case NO_AIR -> {
+                    y = sectionEnd;
+                    runStart = sectionEnd;
+                }
+                case MIXED -> {
+                    for (; y < sectionEnd && y - runStart < sizeY; y++) {
+                        if (!isLayerAir(access, x, z, x1, z1, y)) {
+                            runStart = y + 1;
+                            if (runStart > highestBaseY) {
+                                return runStart;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        
+        return runStart;
+    }
+    
+    private static SectionAirState getFootprintSectionState(
+        BlockAccess access, int x0, int z0, int x1, int z1, int sectionY
+    ) {
+        boolean allAir = true;
+        for (int sx = SectionPos.blockToSectionCoord(x0); sx <= SectionPos.blockToSectionCoord(x1); sx++) {
+            for (int sz = SectionPos.blockToSectionCoord(z0); sz <= SectionPos.blockToSectionCoord(z1); sz++) {
+                SectionAirState state = access.getSectionAirState(sx, sectionY, sz);
+                if (state == SectionAirState.NO_AIR) {
+                    return SectionAirState.NO_AIR;
+                }
+                if (state == SectionAirState.MIXED) {
+                    allAir = false;
+                }
+            }
+        }
+        return allAir ? SectionAirState.ALL_AIR : SectionAirState.MIXED;
+    }
+    
+    private static boolean isLayerAir(
+        BlockAccess access, int x0, int z0, int x1, int z1, int y
+    ) {
+        int sectionY = SectionPos.blockToSectionCoord(y);
+        for (int sx = SectionPos.blockToSectionCoord(x0); sx <= SectionPos.blockToSectionCoord(x1); sx++) {
+            for (int sz = SectionPos.blockToSectionCoord(z0); sz <= SectionPos.blockToSectionCoord(z1); sz++) {
+                if (access.getSectionAirState(sx, sectionY, sz) == SectionAirState.ALL_AIR) {
+                    continue;
+                }
+                
+                int fromX = Math.max(x0, SectionPos.sectionToBlockCoord(sx));
+                int toX = Math.min(x1, SectionPos.sectionToBlockCoord(sx) + 15);
+                int fromZ = Math.max(z0, SectionPos.sectionToBlockCoord(sz));
+                int toZ = Math.min(z1, SectionPos.sectionToBlockCoord(sz) + 15);
+                for (int bx = fromX; bx <= toX; bx++) {
+                    for (int bz = fromZ; bz <= toZ; bz++) {
+                        if (!access.isAir(bx, y, bz)) {
+                            return false;
+                        }
+                    }
+                }
+            }
+        }
+        return true;
+    }
+}
@@ -1,5 +1,6 @@
 package qouteall.imm_ptl.core.portal.nether_portal;
 
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import net.fabricmc.api.EnvType;
 import net.fabricmc.api.Environment;
 import net.minecraft.Util;
@@ -18,6 +19,7 @@ import org.apache.commons.lang3.Validate;
 import qouteall.imm_ptl.core.IPGlobal;
 import qouteall.imm_ptl.core.McHelper;
 import qouteall.imm_ptl.core.portal.Portal;
+import qouteall.imm_ptl.core.portal.PortalBlockWatchRegistry;
 import qouteall.imm_ptl.core.portal.PortalPlaceholderBlock;
 import qouteall.q_misc_util.Helper;
 import qouteall.q_misc_util.my_util.DQuaternion;
@@ -27,7 +29,8 @@ import org.jetbrains.annotations.Nullable;
 import java.util.List;
 import java.util.UUID;
 
-public abstract class BreakablePortalEntity extends Portal {
+public abstract class BreakablePortalEntity extends Portal
+    implements PortalBlockWatchRegistry.BlockWatcher {
     public static record OverlayInfo(
         BlockState blockState,
         double opacity,
@@ -39,9 +42,13 @@ public abstract class BreakablePortalEntity extends Portal {
     public BlockPortalShape blockPortalShape;
     public UUID reversePortalId;
     public boolean unbreakable = false;
-    private boolean isNotified = true;
     private boolean shouldBreakPortal = false;
     
+    // the blocks are watched through PortalBlockWatchRegistry instead of polling
+    private boolean isWatchingBlocks = false;
+    private boolean shouldCheckAllBlocks = true;
+    private final LongOpenHashSet changedBlocks = new LongOpenHashSet();
+    
     @Nullable
     protected OverlayInfo overlayInfo;
     
@@ -64,6 +71,9 @@ public abstract class BreakablePortalEntity extends Portal {
     @Override
     protected void readAdditionalSaveData(CompoundTag compoundTag) {
         super.readAdditionalSaveData(compoundTag);
+        // the shape may change. re-watch and do full check in the next tick
+        stopWatchingBlocks();
+        
         if (compoundTag.contains("netherPortalShape")) {
             blockPortalShape = new BlockPortalShape(compoundTag.getCompound("netherPortalShape"));
         }
@@ -134,10 +144,6 @@ public abstract class BreakablePortalEntity extends Portal {
         Helper.log("Broke " + this);
     }
     
-    public void notifyPlaceholderUpdate() {
-        isNotified = true;
-    }
-    
     private BreakablePortalEntity getReversePortal() {
         
         ServerLevel world = getServer().getLevel(dimensionTo);
@@ -159,10 +165,23 @@ public abstract class BreakablePortalEntity extends Portal {
         }
         else {
             if (!unbreakable) {
-                if (isNotified || level().getGameTime() % 233 == getId() % 233) {
-                    isNotified = false;
+                if (!isWatchingBlocks) {
+                    startWatchingBlocks();
+                }
+                
+                if (shouldCheckAllBlocks || PortalBlockWatchRegistry.isFullCheckTick(level(), getId())) {
+                    shouldCheckAllBlocks = false;
+                    changedBlocks.clear();
                     checkPortalIntegrity();
                 }
+                else if (!changedBlocks.isEmpty()) {
+                    checkChangedBlocks();
+                }
+                else if (level().getGameTime() % 233 == getId() % 233) {
+                    // the pairing is not covered by the block watching
+                    checkPortalPairing();
+                }
+                
                 if (shouldBreakPortal) {
                     breakPortalOnThisSide();
                 }
@@ -182,15 +201,97 @@ public abstract class BreakablePortalEntity extends Portal {
         if (!isPortalIntactOnThisSide()) {
             markShouldBreak();
         }
-        else if (!isPortalPaired()) {
+        else {
+            checkPortalPairing();
+        }
+    }
+    
+    private void checkPortalPairing() {
+        if (!isPortalValid()) {
+            remove(RemovalReason.KILLED);
+            return;
+        }
+        
+        if (!isPortalPaired()) {
             Helper.err("Break portal because of abnormal pairing");
             markShouldBreak();
         }
     }
     
+    /**
+     * Only check the blocks that changed since last check.
+     */
+    private void checkChangedBlocks() {
+        if (!isPortalValid()) {
+            remove(RemovalReason.KILLED);
+            return;
+        }
+        
+        BlockPos.MutableBlockPos mutableBlockPos = new BlockPos.MutableBlockPos();
+        for (long blockPosLong : changedBlocks) {
+            mutableBlockPos.set(blockPosLong);
+            if (!isBlockIntact(mutableBlockPos)) {
+                markShouldBreak();
+                break;
+            }
+        }
+        changedBlocks.clear();
+    }
+    
+    private void startWatchingBlocks() {
+        if (blockPortalShape == null) {
+            return;
+        }
+        
+        PortalBlockWatchRegistry.get((ServerLevel) level())
+            .watch(this, blockPortalShape.totalAreaBox);
+        isWatchingBlocks = true;
+        
+        // the blocks may change when the portal is not loaded
+        shouldCheckAllBlocks = true;
+    }
+    
+    private void stopWatchingBlocks() {
+        if (isWatchingBlocks) {
+            isWatchingBlocks = false;
+            changedBlocks.clear();
+            if (level() instanceof ServerLevel serverLevel) {
+                PortalBlockWatchRegistry.get(serverLevel).unwatch(this);
+            }
+        }
+    }
+    
+    @Override
+    public void onWatchedBlockChanged(BlockPos blockPos) {
+        if (blockPortalShape != null && blockPortalShape.totalAreaBox.contains(blockPos)) {
+            changedBlocks.add(blockPos.asLong());
+        }
+    }
+    
+    @Override
+    public void setRemoved(RemovalReason removalReason) {
+        super.setRemoved(removalReason);
+        stopWatchingBlocks();
+    }
     
     protected abstract boolean isPortalIntactOnThisSide();
     
+    /**
+     * Whether the block is intact, for one block in the portal area or the frame.
+     * Used when only a few watched blocks changed.
+     */
+    protected boolean isBlockIntact(BlockPos blockPos) {
+        if (blockPortalShape.area.contains(blockPos)) {
+            return level().getBlockState(blockPos).getBlock() == PortalPlaceholderBlock.instance;
+        }
+        if (blockPortalShape.frameAreaWithoutCorner.contains(blockPos)) {
+            return isFrameBlockIntact(level().getBlockState(blockPos));
+        }
+        return true;
+    }
+    
+    protected abstract boolean isFrameBlockIntact(BlockState blockState);
+    
     @Environment(EnvType.CLIENT)
     protected abstract void addSoundAndParticle();
     
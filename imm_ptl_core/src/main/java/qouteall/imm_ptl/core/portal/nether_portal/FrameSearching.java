@@ -4,15 +4,18 @@ import net.minecraft.Util;
 import net.minecraft.core.BlockPos;
 import net.minecraft.server.level.WorldGenRegion;
 import net.minecraft.world.level.block.state.BlockState;
-import net.minecraft.world.level.chunk.ChunkAccess;
-import net.minecraft.world.level.chunk.LevelChunkSection;
+import net.minecraft.world.level.chunk.PalettedContainer;
 import qouteall.imm_ptl.core.McHelper;
+import qouteall.imm_ptl.core.chunk_loading.ChunkRegionSnapshot;
+import qouteall.imm_ptl.core.chunk_loading.ChunkRegionSnapshot.ChunkSnapshot;
 import qouteall.q_misc_util.MiscHelper;
 
 import org.jetbrains.annotations.Nullable;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
@@ -20,105 +23,150 @@ import java.util.function.Predicate;
 public class FrameSearching {
     // T is PortalGenInfo
     
+    private static final int MAX_PARALLELISM = 8;
+    
+    /**
+     * Searches the frame in the snapshot on the background threads.
+     * The chunks are split into interleaved groups that are searched in parallel.
+     * The result is the same as searching the chunks one by one from near to far.
+     * The callbacks are called on the server thread.
+     *
+     * @param matchShapeByRegion It's applied once for each thread,
+     *                           so the returned function does not need to be thread-safe.
+     */
+    @SuppressWarnings("unchecked")
     public static <T> void startSearchingPortalFrameAsync(
-        WorldGenRegion region,
+        ChunkRegionSnapshot region,
         int regionRadius,
         BlockPos centerPoint,
         Predicate<BlockState> framePredicate,
-        Function<BlockPos.MutableBlockPos, T> matchShape,
+        Function<WorldGenRegion, Function<BlockPos.MutableBlockPos, T>> matchShapeByRegion,
         Consumer<T> onFound,
         Runnable onNotFound
     ) {
-        CompletableFuture<Void> future = CompletableFuture.runAsync(
-            () -> {
-                try {
-                    T result = searchPortalFrame(
-                        region, regionRadius,
-                        centerPoint, framePredicate,
-                        matchShape
-                    );
-                    MiscHelper.getServer().execute(() -> {
-                        if (result != null) {
-                            onFound.accept(result);
+        List<ChunkSnapshot> chunks = getChunksFromNearToFar(
+            region, centerPoint, regionRadius
+        );
+        int yRangeStart = McHelper.getMinY(region);
+        int yRangeEnd = McHelper.getMaxYExclusive(region);
+        
+        int taskNum = Math.max(1, Math.min(
+            Math.min(chunks.size(), MAX_PARALLELISM),
+            Runtime.getRuntime().availableProcessors() / 2
+        ));
+        
+        // the smallest chunk index that has a match
+        AtomicInteger foundIndex = new AtomicInteger(Integer.MAX_VALUE);
+        Object[] results = new Object[chunks.size()];
+        
+        CompletableFuture<?>[] futures = new CompletableFuture[taskNum];
+        for (int taskIndex = 0; taskIndex < taskNum; taskIndex++) {
+            int firstIndex = taskIndex;
+            futures[taskIndex] = CompletableFuture.runAsync(
+                () -> {
+                    Function<BlockPos.MutableBlockPos, T> matchShape = matchShapeByRegion.apply(region);
+                    
+                    for (int i = firstIndex; i < chunks.size(); i += taskNum) {
+                        if (i > foundIndex.get()) {
+                            // a nearer chunk already has a match
+                            return;
                         }
-                        else {
-                            onNotFound.run();
+                        
+                        T result = searchPortalFrameInChunk(
+                            framePredicate, matchShape, chunks.get(i), yRangeStart, yRangeEnd
+                        );
+                        if (result != null) {
+                            results[i] = result;
+                            foundIndex.accumulateAndGet(i, Math::min);
+                            return;
                         }
-                    });
+                    }
+                },
+                Util.backgroundExecutor()
+            );
+        }
+        
+        CompletableFuture.allOf(futures).whenComplete((unused, throwable) -> {
+            MiscHelper.getServer().execute(() -> {
+                if (throwable != null) {
+                    throwable.printStackTrace();
+                    onNotFound.run();
+                    return;
+                }
+                
+                int index = foundIndex.get();
+                if (index != Integer.MAX_VALUE) {
+                    onFound.accept((T) results[index]);
                 }
-                catch (Throwable oops) {
-                    oops.printStackTrace();
+                else {
                     onNotFound.run();
                 }
-            },
-            Util.backgroundExecutor()
-        );
-        
+            });
+        });
     }
     
     // Return null for not found
     @Nullable
     public static <T> T searchPortalFrame(
-        WorldGenRegion region,
+        ChunkRegionSnapshot region,
         int regionRadius,
         BlockPos centerPoint,
         Predicate<BlockState> framePredicate,
         Function<BlockPos.MutableBlockPos, T> matchShape
     ) {
-        ArrayList<ChunkAccess> chunks = getChunksFromNearToFar(
+        List<ChunkSnapshot> chunks = getChunksFromNearToFar(
             region, centerPoint, regionRadius
         );
         
-        int minSectionY = McHelper.getMinSectionY(region);
-        int maxSectionYExclusive = McHelper.getMaxSectionYExclusive(region);
+        int yRangeStart = McHelper.getMinY(region);
+        int yRangeEnd = McHelper.getMaxYExclusive(region);
         
-        return searchPortalFrameWithYRange(
-            framePredicate, matchShape,
-            chunks, minSectionY,
-            McHelper.getMinY(region), McHelper.getMaxYExclusive(region)
-        );
+        for (int chunkIndex = 0; chunkIndex < chunks.size(); chunkIndex++) {
+            T result = searchPortalFrameInChunk(
+                framePredicate, matchShape, chunks.get(chunkIndex), yRangeStart, yRangeEnd
+            );
+            if (result != null) {
+                return result;
+            }
+        }
+        
+        return null;
     }
     
     // After removing the usage of stream API, it becomes 100 times faster!!!
     @Nullable
-    private static <T> T searchPortalFrameWithYRange(
+    private static <T> T searchPortalFrameInChunk(
         Predicate<BlockState> framePredicate,
         Function<BlockPos.MutableBlockPos, T> matchShape,
-        ArrayList<ChunkAccess> chunks,
-        int minSectionY,
+        ChunkSnapshot chunk,
         int yRangeStart, int yRangeEnd
     ) {
         BlockPos.MutableBlockPos temp = new BlockPos.MutableBlockPos();
         
         // avoid using stream api and maintain cache locality
-        for (int chunkIndex = 0; chunkIndex < chunks.size(); chunkIndex++) {
-            ChunkAccess chunk = chunks.get(chunkIndex);
-            LevelChunkSection[] sectionArray = chunk.getSections();
+        for (int ySectionIndex = 0; ySectionIndex < chunk.getSectionNum(); ySectionIndex++) {
+            int sectionY = ySectionIndex + chunk.minSectionY;
             
-            for (int ySectionIndex = 0; ySectionIndex < sectionArray.length; ySectionIndex++) {
-                int sectionY = ySectionIndex + minSectionY;
+            PalettedContainer<BlockState> chunkSection = chunk.getSection(ySectionIndex);
+            if (chunkSection != null) {
+                int localYStart = Math.max(0, yRangeStart - sectionY * 16);
+                int localYEnd = Math.min(16, yRangeEnd - sectionY * 16);
                 
-                LevelChunkSection chunkSection = sectionArray[ySectionIndex];
-                if (chunkSection != null && !chunkSection.hasOnlyAir()) {
-                    int localYStart = Math.max(0, yRangeStart - sectionY * 16);
-                    int localYEnd = Math.min(16, yRangeEnd - sectionY * 16);
-                    
-                    for (int localY = localYStart; localY < localYEnd; localY++) {
-                        for (int localZ = 0; localZ < 16; localZ++) {
-                            for (int localX = 0; localX < 16; localX++) {
-                                BlockState blockState = chunkSection.getBlockState(
-                                    localX, localY, localZ
-                                );
-                                if (framePredicate.test(blockState)) {
-                                    int worldX = localX + chunk.getPos().getMinBlockX();
-                                    int worldY = localY + (sectionY) * 16;
-                                    int worldZ = localZ + chunk.getPos().getMinBlockZ();
-                                    temp.set(worldX, worldY, worldZ);
-                                    
-                                    T result = matchShape.apply(temp);
-                                    if (result != null) {
-                                        return result;
-                                    }
+                for (int localY = localYStart; localY < localYEnd; localY++) {
+                    for (int localZ = 0; localZ < 16; localZ++) {
+                        for (int localX = 0; localX < 16; localX++) {
+                            BlockState blockState = chunkSection.get(
+                                localX, localY, localZ
+                            );
+                            if (framePredicate.test(blockState)) {
+                                int worldX = localX + chunk.pos.getMinBlockX();
+                                int worldY = localY + (sectionY) * 16;
+                                int worldZ = localZ + chunk.pos.getMinBlockZ();
+                                temp.set(worldX, worldY, worldZ);
+                                
+                                T result = matchShape.apply(temp);
+                                if (result != null) {
+                                    return result;
                                 }
                             }
                         }
@@ -130,24 +178,27 @@ public class FrameSearching {
         return null;
     }
     
-    private static ArrayList<ChunkAccess> getChunksFromNearToFar(
-        WorldGenRegion region,
+    private static List<ChunkSnapshot> getChunksFromNearToFar(
+        ChunkRegionSnapshot region,
         BlockPos centerPoint,
         int regionRadius
     ) {
-        ArrayList<ChunkAccess> chunks = new ArrayList<>();
+        ArrayList<ChunkSnapshot> chunks = new ArrayList<>();
         
         int searchedRadius = regionRadius - 1;
         int centerX = region.getCenter().x;
         int centerZ = region.getCenter().z;
         for (int x = centerX - searchedRadius; x <= centerX + searchedRadius; x++) {
             for (int z = centerZ - searchedRadius; z <= centerZ + searchedRadius; z++) {
-                chunks.add(region.getChunk(x, z));
+                ChunkSnapshot chunk = region.getChunkSnapshot(x, z);
+                if (chunk != null) {
+                    chunks.add(chunk);
+                }
             }
         }
         
         chunks.sort(Comparator.comparingDouble(
-            chunk -> chunk.getPos().getWorldPosition().distSqr(centerPoint)
+            chunk -> chunk.pos.getWorldPosition().distSqr(centerPoint)
         ));
         return chunks;
     }
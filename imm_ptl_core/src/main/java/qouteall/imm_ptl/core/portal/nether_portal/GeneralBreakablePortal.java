@@ -2,6 +2,7 @@ package qouteall.imm_ptl.core.portal.nether_portal;
 
 import net.minecraft.world.entity.EntityType;
 import net.minecraft.world.level.Level;
+import net.minecraft.world.level.block.state.BlockState;
 import qouteall.imm_ptl.core.portal.Portal;
 import qouteall.imm_ptl.core.portal.PortalPlaceholderBlock;
 
@@ -25,6 +26,11 @@ public class GeneralBreakablePortal extends BreakablePortalEntity {
         return areaIntact && frameIntact;
     }
     
+    @Override
+    protected boolean isFrameBlockIntact(BlockState blockState) {
+        return !blockState.isAir();
+    }
+    
     @Override
     protected void addSoundAndParticle() {
     
@@ -11,6 +11,7 @@ import net.minecraft.world.entity.EntityType;
 import net.minecraft.world.level.Level;
 import net.minecraft.world.level.block.Blocks;
 import net.minecraft.world.level.block.NetherPortalBlock;
+import net.minecraft.world.level.block.state.BlockState;
 import net.minecraft.world.phys.Vec3;
 import qouteall.imm_ptl.core.IPGlobal;
 import qouteall.imm_ptl.core.platform_specific.O_O;
@@ -82,6 +83,11 @@ public class NetherPortalEntity extends BreakablePortalEntity {
                 );
     }
     
+    @Override
+    protected boolean isFrameBlockIntact(BlockState blockState) {
+        return O_O.isObsidian(blockState);
+    }
+    
     @Override
     @Environment(EnvType.CLIENT)
     protected void addSoundAndParticle() {
@@ -15,6 +15,7 @@ import org.jetbrains.annotations.Nullable;
 import qouteall.imm_ptl.core.IPGlobal;
 import qouteall.imm_ptl.core.McHelper;
 import qouteall.imm_ptl.core.chunk_loading.ChunkLoader;
+import qouteall.imm_ptl.core.chunk_loading.ChunkRegionSnapshot;
 import qouteall.imm_ptl.core.chunk_loading.DimensionalChunkPos;
 import qouteall.imm_ptl.core.chunk_loading.NewChunkTrackingGraph;
 import qouteall.imm_ptl.core.platform_specific.O_O;
@@ -201,18 +202,17 @@ public class NetherPortalGeneration {
                 return true;
             }
             
-            WorldGenRegion chunkRegion = new ChunkLoader(
+            // the search runs off-thread, so it reads from a snapshot
+            ChunkRegionSnapshot chunkRegion = new ChunkLoader(
                 chunkLoader.center, frameSearchingRadius
-            ).createChunkRegion();
+            ).createChunkRegionSnapshot();
             
             indicatorEntity.inform(Component.translatable("imm_ptl.searching_for_frame"));
             
-            BlockPos.MutableBlockPos temp1 = new BlockPos.MutableBlockPos();
-            
             FrameSearching.startSearchingPortalFrameAsync(
                 chunkRegion, frameSearchingRadius,
                 toPos, otherSideFramePredicate,
-                matchShapeByFramePos.apply(chunkRegion),
+                matchShapeByFramePos,
                 (info) -> {
                     portalEntityGeneratingFunc.accept(info);
                     finalizer.run();
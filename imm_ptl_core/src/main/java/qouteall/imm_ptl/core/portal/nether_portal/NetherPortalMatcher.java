@@ -186,26 +186,28 @@ public class NetherPortalMatcher {
             isGroundBlock(world.getBlockState(blockPos.offset(0, -1, 0)));
     }
     
+    /**
+     * The same as searching with {@link #isAirCubeMediumPlace} in every column, see {@link AirCubeFinder}.
+     */
     public static IntBox findCubeAirAreaAtAnywhere(
         BlockPos areaSize,
         LevelAccessor world,
         BlockPos searchingCenter,
         int findingRadius
     ) {
-        return BlockTraverse.searchColumned(
+        // the box's top and bottom should not touch the height limit, the same as isAirCubeMediumPlace
+        int lowestBaseY = McHelper.getMinY(world) + 2;
+        int highestBaseY = Math.min(
+            McHelper.getMaxYExclusive(world) - 1,
+            McHelper.getMaxContentYExclusive(world) - areaSize.getY() - 1
+        );
+        
+        return AirCubeFinder.findAirCube(
+            new AirCubeFinder.LevelBlockAccess(world), areaSize,
             searchingCenter.getX() - (areaSize.getX() / 2),
             searchingCenter.getZ() - (areaSize.getZ() / 2),
             findingRadius,
-            1 + McHelper.getMinY(world), McHelper.getMaxYExclusive(world) - 1,
-            mutable -> {
-                IntBox box = IntBox.fromBasePointAndSize(mutable, areaSize);
-                if (isAirCubeMediumPlace(world, box)) {
-                    return box;
-                }
-                else {
-                    return null;
-                }
-            }
+            lowestBaseY, highestBaseY
         );
     }
     
@@ -0,0 +1,237 @@
+package qouteall.imm_ptl.core.render;
+
+import com.mojang.blaze3d.vertex.VertexBuffer;
+import com.mojang.blaze3d.vertex.VertexFormat;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.fabricmc.api.EnvType;
+import net.fabricmc.api.Environment;
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.multiplayer.ClientLevel;
+import net.minecraft.client.renderer.LevelRenderer;
+import net.minecraft.client.renderer.RenderType;
+import net.minecraft.client.renderer.ViewArea;
+import net.minecraft.client.renderer.chunk.ChunkRenderDispatcher;
+import net.minecraft.util.Mth;
+import qouteall.imm_ptl.core.ClientWorldLoader;
+import qouteall.imm_ptl.core.IPGlobal;
+import qouteall.imm_ptl.core.ducks.IEWorldRenderer;
+import qouteall.imm_ptl.core.miscellaneous.GcMonitor;
+import qouteall.imm_ptl.core.mixin.client.render.optimization.IEVertexBuffer;
+import qouteall.imm_ptl.core.render.context_management.RenderStates;
+import qouteall.q_misc_util.Helper;
+import qouteall.q_misc_util.metrics.Counter;
+import qouteall.q_misc_util.metrics.Gauge;
+import qouteall.q_misc_util.metrics.Metrics;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Evicts the built chunk columns of all dimensions within a memory budget.
+ * <p>
+ * The size of a column is estimated from the vertex count of its uploaded buffers.
+ * When the total exceeds {@link IPGlobal#builtChunkMemoryBudgetMB} (lowered by memory pressure),
+ * the columns that are inactive for the most frames are evicted first.
+ * The columns that are only used in portal rendering age faster, weighted by the portal layer,
+ * so the meshes of the remote dimensions are evicted before the outer world's.
+ * The columns used in recent frames and in the active views are never evicted by the budget.
+ * <p>
+ * The columns that are not used for a long time are removed regardless of the budget,
+ * as the columns without buffers also occupy memory.
+ */
+@Environment(EnvType.CLIENT)
+public class BuiltChunkEviction {
+    // the objects and GL handles of a section, regardless of its buffers
+    private static final long SECTION_OVERHEAD_BYTES = 2048;
+    
+    // the columns used in the recent frames may be used again soon
+    private static final int MIN_INACTIVE_FRAMES = 20;
+    
+    // one more portal layer makes the column age this much faster
+    private static final double PORTAL_LAYER_WEIGHT = 1.0;
+    
+    private static final Counter EVICTED_COLUMNS_COUNTER = Metrics.counter("built_chunk.evicted_columns");
+    private static final Counter EVICTED_BYTES_COUNTER = Metrics.counter("built_chunk.evicted_bytes");
+    private static final Counter STALE_COLUMNS_COUNTER = Metrics.counter("built_chunk.stale_columns");
+    private static final Gauge COLUMNS_GAUGE = Metrics.gauge("built_chunk.columns");
+    private static final Gauge ESTIMATED_MB_GAUGE = Metrics.gauge("built_chunk.estimated_mb");
+    private static final Gauge BUDGET_MB_GAUGE = Metrics.gauge("built_chunk.budget_mb");
+    
+    private static record Candidate(
+        MyBuiltChunkStorage storage, long chunkPos, MyBuiltChunkStorage.Column column, double score
+    ) {}
+    
+    private static long lastTotalBytes = 0;
+    private static long lastBudgetBytes = 0;
+    private static int lastEvictedNum = 0;
+    
+    public static void init() {
+        IPGlobal.postClientTickSignal.connect(BuiltChunkEviction::tick);
+    }
+    
+    private static void tick() {
+        ClientLevel worldClient = Minecraft.getInstance().level;
+        if (worldClient == null) {
+            return;
+        }
+        
+        if (GcMonitor.isMemoryNotEnough()) {
+            if (worldClient.getGameTime() % 3 == 0) {
+                purge();
+            }
+        }
+        else if (GcMonitor.getMemoryPressure() > 0.5) {
+            if (worldClient.getGameTime() % 41 == 7) {
+                purge();
+            }
+        }
+        else {
+            if (worldClient.getGameTime() % 213 == 66) {
+                purge();
+            }
+        }
+    }
+    
+    private static List<MyBuiltChunkStorage> getStorages() {
+        List<MyBuiltChunkStorage> result = new ArrayList<>();
+        for (LevelRenderer worldRenderer : ClientWorldLoader.worldRendererMap.values()) {
+            ViewArea viewArea = ((IEWorldRenderer) worldRenderer).ip_getBuiltChunkStorage();
+            if (viewArea instanceof MyBuiltChunkStorage storage && storage.isAlive()) {
+                result.add(storage);
+            }
+        }
+        return result;
+    }
+    
+    public static long getBudgetBytes() {
+        double factor = GcMonitor.isMemoryNotEnough() ? 0.25 :
+            Mth.lerp(GcMonitor.getMemoryPressure(), 1.0, 0.5);
+        return (long) (IPGlobal.builtChunkMemoryBudgetMB * 1024L * 1024L * factor);
+    }
+    
+    public static long estimateColumnBytes(MyBuiltChunkStorage.Column column) {
+        long result = 0;
+        for (ChunkRenderDispatcher.RenderChunk renderChunk : column.chunks) {
+            result += SECTION_OVERHEAD_BYTES;
+            
+            ChunkRenderDispatcher.CompiledChunk compiledChunk = renderChunk.getCompiledChunk();
+            for (RenderType renderType : RenderType.chunkBufferLayers()) {
+                if (compiledChunk.isEmpty(renderType)) {
+                    continue;
+                }
+                VertexBuffer buffer = renderChunk.getBuffer(renderType);
+                VertexFormat format = buffer.getFormat();
+                if (format == null) {
+                    continue;
+                }
+                // the chunk meshes are quads, 6 indices for 4 vertices
+                int indexCount = ((IEVertexBuffer) buffer).ip_getIndexCount();
+                result += (long) indexCount / 6 * 4 * format.getVertexSize();
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * The higher, the sooner it's evicted.
+     */
+    public static double getEvictionScore(int inactiveFrames, int portalLayer) {
+        return inactiveFrames * (1 + PORTAL_LAYER_WEIGHT * portalLayer);
+    }
+    
+    private static void purge() {
+        Minecraft.getInstance().getProfiler().push("built_chunk_eviction");
+        
+        boolean memoryNotEnough = GcMonitor.isMemoryNotEnough();
+        double memoryPressure = GcMonitor.getMemoryPressure();
+        
+        // the higher memory pressure, the sooner the inactive views and columns are dropped
+        long viewDropTime = Helper.secondToNano(
+            memoryNotEnough ? 3 : Mth.lerp(memoryPressure, 20, 5)
+        );
+        long staleTime = Helper.secondToNano(
+            memoryNotEnough ? 5 : Mth.lerp(memoryPressure, 60, 10)
+        );
+        long budgetBytes = getBudgetBytes();
+        
+        long currentTime = System.nanoTime();
+        int frameIndex = RenderStates.frameIndex;
+        
+        Map<MyBuiltChunkStorage, LongOpenHashSet> toRemove = new HashMap<>();
+        List<Candidate> candidates = new ArrayList<>();
+        long totalBytes = 0;
+        int columnNum = 0;
+        
+        for (MyBuiltChunkStorage storage : getStorages()) {
+            storage.purgeViews(viewDropTime, currentTime, frameIndex);
+            
+            for (Long2ObjectMap.Entry<MyBuiltChunkStorage.Column> entry :
+                storage.getColumnMap().long2ObjectEntrySet()
+            ) {
+                MyBuiltChunkStorage.Column column = entry.getValue();
+                column.estimatedBytes = estimateColumnBytes(column);
+                
+                if (currentTime - column.mark > staleTime) {
+                    toRemove.computeIfAbsent(storage, k -> new LongOpenHashSet()).add(entry.getLongKey());
+                    STALE_COLUMNS_COUNTER.inc();
+                    continue;
+                }
+                
+                totalBytes += column.estimatedBytes;
+                columnNum++;
+                
+                int inactiveFrames = frameIndex - column.lastActiveFrame;
+                if (inactiveFrames >= MIN_INACTIVE_FRAMES) {
+                    candidates.add(new Candidate(
+                        storage, entry.getLongKey(), column,
+                        getEvictionScore(inactiveFrames, column.lastPortalLayer)
+                    ));
+                }
+            }
+        }
+        
+        int evictedNum = 0;
+        if (totalBytes > budgetBytes) {
+            candidates.sort(Comparator.comparingDouble(Candidate::score).reversed());
+            
+            for (Candidate candidate : candidates) {
+                if (totalBytes <= budgetBytes) {
+                    break;
+                }
+                toRemove.computeIfAbsent(candidate.storage, k -> new LongOpenHashSet())
+                    .add(candidate.chunkPos);
+                totalBytes -= candidate.column.estimatedBytes;
+                columnNum--;
+                evictedNum++;
+                EVICTED_COLUMNS_COUNTER.inc();
+                EVICTED_BYTES_COUNTER.add(candidate.column.estimatedBytes);
+            }
+        }
+        
+        toRemove.forEach((storage, chunkPoses) -> storage.removeColumns(chunkPoses::contains));
+        
+        lastTotalBytes = totalBytes;
+        lastBudgetBytes = budgetBytes;
+        lastEvictedNum = evictedNum;
+        
+        COLUMNS_GAUGE.set(columnNum);
+        ESTIMATED_MB_GAUGE.set(totalBytes / (1024.0 * 1024.0));
+        BUDGET_MB_GAUGE.set(budgetBytes / (1024.0 * 1024.0));
+        
+        Minecraft.getInstance().getProfiler().pop();
+    }
+    
+    public static String getDebugString() {
+        return String.format(
+            "Built chunk memory: %.1fMB / %.1fMB (%.0f%%), evicted %s columns in the last purge",
+            lastTotalBytes / (1024.0 * 1024.0),
+            lastBudgetBytes / (1024.0 * 1024.0),
+            lastBudgetBytes == 0 ? 0.0 : lastTotalBytes * 100.0 / lastBudgetBytes,
+            lastEvictedNum
+        );
+    }
+}
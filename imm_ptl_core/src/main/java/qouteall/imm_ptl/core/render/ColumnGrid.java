@@ -0,0 +1,122 @@
+package qouteall.imm_ptl.core.render;
+
+/**
+ * A toroidal grid of columns around the camera, the same layout as vanilla {@link net.minecraft.client.renderer.ViewArea}.
+ * The column of chunk (x, z) is in slot (floorMod(x, sizeX), floorMod(z, sizeZ)).
+ * When the camera moves, only the slots of the chunks that enter the grid change,
+ * so moving by one chunk updates one row of slots instead of the whole grid.
+ */
+public class ColumnGrid<C> {
+    
+    public static interface SlotUpdater<C> {
+        /**
+         * @return the column of the chunk that is put into the slot
+         */
+        C update(int slotX, int slotZ, int chunkX, int chunkZ);
+    }
+    
+    public final int sizeX;
+    public final int sizeZ;
+    private final Object[] slots;
+    
+    private boolean initialized = false;
+    private int cameraChunkX;
+    private int cameraChunkZ;
+    
+    public ColumnGrid(int sizeX, int sizeZ) {
+        this.sizeX = sizeX;
+        this.sizeZ = sizeZ;
+        this.slots = new Object[sizeX * sizeZ];
+    }
+    
+    /**
+     * The lowest chunk coordinate in the grid, the same as the vanilla
+     * xStart = (cameraChunk * 16) - size * 16 / 2 rounded up to chunk
+     */
+    public static int getMinChunkCoord(int cameraChunk, int size) {
+        int blockStart = (cameraChunk << 4) - size * 16 / 2;
+        return Math.floorDiv(blockStart + 15, 16);
+    }
+    
+    public static int getSlotIndex(int chunkCoord, int size) {
+        return Math.floorMod(chunkCoord, size);
+    }
+    
+    /**
+     * @return the number of updated slots
+     */
+    public int moveCamera(int newCameraChunkX, int newCameraChunkZ, SlotUpdater<C> updater) {
+        if (initialized && newCameraChunkX == cameraChunkX && newCameraChunkZ == cameraChunkZ) {
+            return 0;
+        }
+        
+        int newMinX = getMinChunkCoord(newCameraChunkX, sizeX);
+        int newMinZ = getMinChunkCoord(newCameraChunkZ, sizeZ);
+        
+        int updatedNum = 0;
+        
+        if (!initialized ||
+            Math.abs(newCameraChunkX - cameraChunkX) >= sizeX ||
+            Math.abs(newCameraChunkZ - cameraChunkZ) >= sizeZ
+        ) {
+            for (int x = newMinX; x < newMinX + sizeX; x++) {
+                updatedNum += updateRow(x, newMinZ, newMinZ + sizeZ, updater);
+            }
+        }
+        else {
+            int oldMinX = getMinChunkCoord(cameraChunkX, sizeX);
+            int oldMinZ = getMinChunkCoord(cameraChunkZ, sizeZ);
+            
+            // the chunk x range that entered the grid
+            int enterXStart = newMinX > oldMinX ? Math.max(oldMinX + sizeX, newMinX) : newMinX;
+            int enterXEnd = newMinX > oldMinX ? newMinX + sizeX : Math.min(oldMinX, newMinX + sizeX);
+            
+            for (int x = enterXStart; x < enterXEnd; x++) {
+                updatedNum += updateRow(x, newMinZ, newMinZ + sizeZ, updater);
+            }
+            
+            int enterZStart = newMinZ > oldMinZ ? Math.max(oldMinZ + sizeZ, newMinZ) : newMinZ;
+            int enterZEnd = newMinZ > oldMinZ ? newMinZ + sizeZ : Math.min(oldMinZ, newMinZ + sizeZ);
+            
+            // the rows that entered in x are already updated
+            for (int x = newMinX; x < newMinX + sizeX; x++) {
+                if (x >= enterXStart && x < enterXEnd) {
+                    continue;
+                }
+                updatedNum += updateRow(x, enterZStart, enterZEnd, updater);
+            }
+        }
+        
+        initialized = true;
+        cameraChunkX = newCameraChunkX;
+        cameraChunkZ = newCameraChunkZ;
+        
+        return updatedNum;
+    }
+    
+    private int updateRow(int chunkX, int zStart, int zEnd, SlotUpdater<C> updater) {
+        int slotX = getSlotIndex(chunkX, sizeX);
+        for (int chunkZ = zStart; chunkZ < zEnd; chunkZ++) {
+            int slotZ = getSlotIndex(chunkZ, sizeZ);
+            slots[slotZ * sizeX + slotX] = updater.update(slotX, slotZ, chunkX, chunkZ);
+        }
+        return Math.max(zEnd - zStart, 0);
+    }
+    
+    @SuppressWarnings("unchecked")
+    public C getColumnAtSlot(int slotX, int slotZ) {
+        return (C) slots[slotZ * sizeX + slotX];
+    }
+    
+    /**
+     * @return how many slots need to be updated when moving the camera to the chunk
+     */
+    public long getMoveCost(int newCameraChunkX, int newCameraChunkZ) {
+        if (!initialized) {
+            return (long) sizeX * sizeZ;
+        }
+        long dx = Math.min(Math.abs(newCameraChunkX - cameraChunkX), sizeX);
+        long dz = Math.min(Math.abs(newCameraChunkZ - cameraChunkZ), sizeZ);
+        return dx * sizeZ + dz * sizeX - dx * dz;
+    }
+}
@@ -1,11 +1,12 @@
 package qouteall.imm_ptl.core.render;
 
 import net.minecraft.client.Minecraft;
+import net.minecraft.client.multiplayer.ClientLevel;
 import org.apache.commons.lang3.Validate;
 import org.lwjgl.opengl.GL15;
 import org.lwjgl.opengl.GL33;
-
-import java.util.ArrayList;
+import qouteall.imm_ptl.core.IPGlobal;
+import qouteall.q_misc_util.my_util.ObjectPool;
 
 public class GlQueryObject {
     private int idQueryObject = -1;
@@ -72,31 +73,28 @@ public class GlQueryObject {
         hasResult = false;
     }
     
-    private static final ArrayList<GlQueryObject> queryObjects = new ArrayList<>();
+    // the portals acquire the query objects every frame
+    private static final ObjectPool<GlQueryObject> queryObjectPool = ObjectPool.threadConfined(
+        "gl_query", 1500,
+        () -> new GlQueryObject(GL15.glGenQueries()),
+        GlQueryObject::dispose
+    );
     
-    private static void prepareQueryObjects() {
-        int[] buf = new int[500];
-        GL15.glGenQueries(buf);
-        for (int id : buf) {
-            queryObjects.add(new GlQueryObject(id));
-        }
+    public static void init() {
+        IPGlobal.postClientTickSignal.connect(() -> {
+            ClientLevel world = Minecraft.getInstance().level;
+            if (world != null && world.getGameTime() % 600 == 33) {
+                queryObjectPool.trimIdle();
+            }
+        });
     }
     
     public static GlQueryObject acquireQueryObject() {
-        if (queryObjects.isEmpty()) {
-            prepareQueryObjects();
-        }
-        
-        return queryObjects.remove(queryObjects.size() - 1);
+        return queryObjectPool.acquire();
     }
     
     public static void returnQueryObject(GlQueryObject obj) {
         obj.reset();
-        if (queryObjects.size() > 1500) {
-            obj.dispose();
-        }
-        else {
-            queryObjects.add(obj);
-        }
+        queryObjectPool.release(obj);
     }
 }
@@ -5,7 +5,6 @@ import net.fabricmc.api.EnvType;
 import net.fabricmc.api.Environment;
 import net.minecraft.client.Camera;
 import net.minecraft.client.Minecraft;
-import net.minecraft.client.multiplayer.ClientLevel;
 import net.minecraft.client.renderer.LevelRenderer;
 import net.minecraft.client.renderer.ViewArea;
 import net.minecraft.client.renderer.chunk.ChunkRenderDispatcher;
@@ -15,7 +14,6 @@ import net.minecraft.resources.ResourceKey;
 import net.minecraft.util.Mth;
 import net.minecraft.world.level.ChunkPos;
 import net.minecraft.world.level.Level;
-import org.apache.commons.lang3.Validate;
 import org.jetbrains.annotations.Nullable;
 import qouteall.imm_ptl.core.ClientWorldLoader;
 import qouteall.imm_ptl.core.IPGlobal;
@@ -23,15 +21,17 @@ import qouteall.imm_ptl.core.McHelper;
 import qouteall.imm_ptl.core.chunk_loading.ImmPtlClientChunkMap;
 import qouteall.imm_ptl.core.ducks.IEBuiltChunk;
 import qouteall.imm_ptl.core.ducks.IEWorldRenderer;
-import qouteall.imm_ptl.core.miscellaneous.GcMonitor;
+import qouteall.imm_ptl.core.render.context_management.PortalRendering;
+import qouteall.imm_ptl.core.render.context_management.RenderStates;
 import qouteall.q_misc_util.Helper;
 
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Queue;
 import java.util.Set;
-import java.util.function.LongConsumer;
+import java.util.function.LongPredicate;
 
 @Environment(EnvType.CLIENT)
 public class MyBuiltChunkStorage extends ViewArea {
@@ -40,26 +40,54 @@ public class MyBuiltChunkStorage extends ViewArea {
         public long mark = 0;
         public ChunkRenderDispatcher.RenderChunk[] chunks;
         
+        public int lastActiveFrame = 0;
+        // the lowest portal layer that used it in the last active frame, 0 is the outer world
+        public int lastPortalLayer = 0;
+        // updated in purging, see BuiltChunkEviction
+        public long estimatedBytes = 0;
+        
         public Column(ChunkRenderDispatcher.RenderChunk[] chunks) {
             this.chunks = chunks;
         }
+        
+        public void markActive(long timeMark, int frameIndex, int portalLayer) {
+            mark = timeMark;
+            if (lastActiveFrame != frameIndex) {
+                lastActiveFrame = frameIndex;
+                lastPortalLayer = portalLayer;
+            }
+            else {
+                lastPortalLayer = Math.min(lastPortalLayer, portalLayer);
+            }
+        }
     }
     
-    public static class Preset {
-        public final ChunkRenderDispatcher.RenderChunk[] data;
+    /**
+     * The RenderChunk array in vanilla layout for a camera position.
+     * When the camera moves, the grid only updates the slots of the chunks that entered.
+     * The array is not modified after being published, a changed copy replaces it.
+     */
+    public static class View {
+        public final ColumnGrid<Column> grid;
+        public ChunkRenderDispatcher.RenderChunk[] data;
         public long lastActiveTime = 0;
         
-        public Preset(
-            ChunkRenderDispatcher.RenderChunk[] data
+        public View(
+            ColumnGrid<Column> grid, ChunkRenderDispatcher.RenderChunk[] data
         ) {
+            this.grid = grid;
             this.data = data;
         }
     }
     
+    // keep a few views, so that going back to the previous position (like going back through a portal)
+    // doesn't refill the whole grid
+    public static final int MAX_VIEW_NUM = 3;
+    
     private final ChunkRenderDispatcher factory;
     private final Long2ObjectOpenHashMap<Column> columnMap = new Long2ObjectOpenHashMap<>();
-    private final Long2ObjectOpenHashMap<Preset> presets = new Long2ObjectOpenHashMap<>();
-    private Preset currentPreset = null;
+    private final ArrayList<View> views = new ArrayList<>();
+    private View currentView = null;
     
     public final int minSectionY;
     public final int endSectionY;
@@ -67,6 +95,8 @@ public class MyBuiltChunkStorage extends ViewArea {
     private boolean isAlive = true;
     
     public static void init() {
+        BuiltChunkEviction.init();
+        
         ImmPtlClientChunkMap.clientChunkUnloadSignal.connect(chunk -> {
             ResourceKey<Level> dimension = chunk.getLevel().dimension();
             
@@ -90,10 +120,6 @@ public class MyBuiltChunkStorage extends ViewArea {
         super(chunkBuilder, world, r, worldRenderer);
         factory = chunkBuilder;
         
-        IPGlobal.postClientTickSignal.connectWithWeakRef(
-            this, MyBuiltChunkStorage::tick
-        );
-        
         int cacheSize = chunkGridSizeX * chunkGridSizeY * chunkGridSizeZ;
         if (IPGlobal.cacheGlBuffer) {
             cacheSize = cacheSize / 10;
@@ -116,7 +142,8 @@ public class MyBuiltChunkStorage extends ViewArea {
             ChunkRenderDispatcher.RenderChunk::releaseBuffers
         );
         columnMap.clear();
-        presets.clear();
+        views.clear();
+        currentView = null;
         
         isAlive = false;
     }
@@ -125,6 +152,7 @@ public class MyBuiltChunkStorage extends ViewArea {
      * It will only be called during vanilla outer world rendering
      * Won't be called in portal rendering
      * In {@link LevelRenderer#initializeQueueForFullUpdate(Camera, Queue)} it reads the RenderChunks in another thread.
+     * So the published array is not modified. The entered chunks are written into a copy, then the copy is published.
      */
     @Override
     public void repositionCamera(double playerX, double playerZ) {
@@ -135,20 +163,26 @@ public class MyBuiltChunkStorage extends ViewArea {
         
         int cameraChunkX = cameraBlockX >> 4;
         int cameraChunkZ = cameraBlockZ >> 4;
-        ChunkPos cameraChunkPos = new ChunkPos(
-            cameraChunkX, cameraChunkZ
-        );
         
-        Preset preset = presets.computeIfAbsent(
-            cameraChunkPos.toLong(),
-            whatever -> {
-                return createPresetByChunkPos(cameraChunkX, cameraChunkZ);
-            }
-        );
-        preset.lastActiveTime = System.nanoTime();
+        View view = selectView(cameraChunkX, cameraChunkZ);
+        if (view.grid.getMoveCost(cameraChunkX, cameraChunkZ) > 0) {
+            ChunkRenderDispatcher.RenderChunk[] newData = view.data.clone();
+            view.grid.moveCamera(
+                cameraChunkX, cameraChunkZ,
+                (slotX, slotZ, chunkX, chunkZ) -> {
+                    Column column = provideColumn(ChunkPos.asLong(chunkX, chunkZ));
+                    for (int offsetCy = 0; offsetCy < this.chunkGridSizeY; ++offsetCy) {
+                        newData[this.getChunkIndex(slotX, offsetCy, slotZ)] = column.chunks[offsetCy];
+                    }
+                    return column;
+                }
+            );
+            view.data = newData;
+        }
+        view.lastActiveTime = System.nanoTime();
         
-        this.chunks = preset.data;
-        this.currentPreset = preset;
+        this.chunks = view.data;
+        this.currentView = view;
         
         Minecraft.getInstance().getProfiler().pop();
     }
@@ -168,65 +202,39 @@ public class MyBuiltChunkStorage extends ViewArea {
     }
     
     /**
-     * {@link BuiltChunkStorage#updateCameraPosition(double, double)}
+     * Use the view that needs the fewest updates.
+     * If all views need to be fully refilled, create a new one or reuse the least recently used one.
      */
-    private Preset createPresetByChunkPos(int chunkX, int chunkZ) {
-        ChunkRenderDispatcher.RenderChunk[] chunks1 =
-            new ChunkRenderDispatcher.RenderChunk[this.chunkGridSizeX * this.chunkGridSizeY * this.chunkGridSizeZ];
-        
-        for (int cx = 0; cx < this.chunkGridSizeX; ++cx) {
-            int xBlockSize = this.chunkGridSizeX * 16;
-            int xStart = (chunkX << 4) - xBlockSize / 2;
-            int px = xStart + Math.floorMod(cx * 16 - xStart, xBlockSize);
-            
-            for (int cz = 0; cz < this.chunkGridSizeZ; ++cz) {
-                int zBlockSize = this.chunkGridSizeZ * 16;
-                int zStart = (chunkZ << 4) - zBlockSize / 2;
-                int pz = zStart + Math.floorMod(cz * 16 - zStart, zBlockSize);
-                
-                Validate.isTrue(px % 16 == 0);
-                Validate.isTrue(pz % 16 == 0);
-                
-                Column column = provideColumn(ChunkPos.asLong(px >> 4, pz >> 4));
-                
-                for (int offsetCy = 0; offsetCy < this.chunkGridSizeY; ++offsetCy) {
-                    int index = this.getChunkIndex(cx, offsetCy, cz);
-                    chunks1[index] = column.chunks[offsetCy];
-                }
+    private View selectView(int cameraChunkX, int cameraChunkZ) {
+        View cheapest = null;
+        long cheapestCost = Long.MAX_VALUE;
+        View leastRecentlyUsed = null;
+        for (View view : views) {
+            long cost = view.grid.getMoveCost(cameraChunkX, cameraChunkZ);
+            if (cost < cheapestCost) {
+                cheapest = view;
+                cheapestCost = cost;
+            }
+            if (leastRecentlyUsed == null || view.lastActiveTime < leastRecentlyUsed.lastActiveTime) {
+                leastRecentlyUsed = view;
             }
         }
         
-        return new Preset(chunks1);
-    }
-    
-    /**
-     * {@link BuiltChunkStorage#updateCameraPosition(double, double)}
-     */
-    private void foreachPresetCoveredChunkPoses(
-        int centerChunkX, int centerChunkZ,
-        LongConsumer func
-    ) {
-        ChunkRenderDispatcher.RenderChunk[] chunks1 =
-            new ChunkRenderDispatcher.RenderChunk[this.chunkGridSizeX * this.chunkGridSizeY * this.chunkGridSizeZ];
+        long fullCost = (long) this.chunkGridSizeX * this.chunkGridSizeZ;
+        if (cheapest != null && cheapestCost < fullCost) {
+            return cheapest;
+        }
         
-        for (int cx = 0; cx < this.chunkGridSizeX; ++cx) {
-            int xBlockSize = this.chunkGridSizeX * 16;
-            int xStart = (centerChunkX << 4) - xBlockSize / 2;
-            int px = xStart + Math.floorMod(cx * 16 - xStart, xBlockSize);
-            
-            for (int cz = 0; cz < this.chunkGridSizeZ; ++cz) {
-                int zBlockSize = this.chunkGridSizeZ * 16;
-                int zStart = (centerChunkZ << 4) - zBlockSize / 2;
-                int pz = zStart + Math.floorMod(cz * 16 - zStart, zBlockSize);
-                
-                Validate.isTrue(px % 16 == 0);
-                Validate.isTrue(pz % 16 == 0);
-                
-                long chunkPos = ChunkPos.asLong(px >> 4, pz >> 4);
-                
-                func.accept(chunkPos);
-            }
+        if (views.size() < MAX_VIEW_NUM) {
+            View view = new View(
+                new ColumnGrid<>(this.chunkGridSizeX, this.chunkGridSizeZ),
+                new ChunkRenderDispatcher.RenderChunk[this.chunkGridSizeX * this.chunkGridSizeY * this.chunkGridSizeZ]
+            );
+            views.add(view);
+            return view;
         }
+        
+        return leastRecentlyUsed;
     }
     
     //copy because private
@@ -258,67 +266,43 @@ public class MyBuiltChunkStorage extends ViewArea {
         return new Column(array);
     }
     
-    private void tick() {
-        if (!isAlive) {
-            return;
-        }
-        
-        ClientLevel worldClient = Minecraft.getInstance().level;
-        if (worldClient != null) {
-            if (GcMonitor.isMemoryNotEnough()) {
-                if (worldClient.getGameTime() % 3 == 0) {
-                    purge();
-                }
-            }
-            else {
-                if (worldClient.getGameTime() % 213 == 66) {
-                    purge();
-                }
-            }
-        }
-    }
-    
-    private void purge() {
-        Minecraft.getInstance().getProfiler().push("my_built_chunk_storage_purge");
-        
-        long dropTime = Helper.secondToNano(GcMonitor.isMemoryNotEnough() ? 3 : 20);
-        
-        long currentTime = System.nanoTime();
-        
-        presets.long2ObjectEntrySet().removeIf(entry -> {
-            Preset preset = entry.getValue();
-            
-            long centerChunkPos = entry.getLongKey();
-            
-            boolean shouldDropPreset = shouldDropPreset(dropTime, currentTime, preset);
+    /**
+     * Drops the inactive views, and marks the columns in the remaining views as active.
+     * The columns are evicted by {@link BuiltChunkEviction}.
+     */
+    void purgeViews(long dropTime, long currentTime, int frameIndex) {
+        views.removeIf(view -> {
+            boolean shouldDropView = shouldDropView(dropTime, currentTime, view);
             
-            if (!shouldDropPreset) {
-                foreachPresetCoveredChunkPoses(
-                    ChunkPos.getX(centerChunkPos),
-                    ChunkPos.getZ(centerChunkPos),
-                    columnChunkPos -> {
-                        Column column = columnMap.get(columnChunkPos);
-                        column.mark = currentTime;
+            if (!shouldDropView) {
+                ColumnGrid<Column> grid = view.grid;
+                for (int slotX = 0; slotX < grid.sizeX; slotX++) {
+                    for (int slotZ = 0; slotZ < grid.sizeZ; slotZ++) {
+                        grid.getColumnAtSlot(slotX, slotZ).markActive(currentTime, frameIndex, 0);
                     }
-                );
+                }
             }
             
-            return shouldDropPreset;
+            return shouldDropView;
         });
-        
-        long timeThreshold = Helper.secondToNano(5);
-        
+    }
+    
+    Long2ObjectOpenHashMap<Column> getColumnMap() {
+        return columnMap;
+    }
+    
+    /**
+     * The buffers are released gradually before rendering.
+     */
+    void removeColumns(LongPredicate shouldRemove) {
         ArrayDeque<RenderChunk> toDelete = new ArrayDeque<>();
         
         columnMap.long2ObjectEntrySet().removeIf(entry -> {
-            Column column = entry.getValue();
-            
-            boolean shouldRemove = currentTime - column.mark > timeThreshold;
-            if (shouldRemove) {
-                toDelete.addAll(Arrays.asList(column.chunks));
+            boolean remove = shouldRemove.test(entry.getLongKey());
+            if (remove) {
+                toDelete.addAll(Arrays.asList(entry.getValue().chunks));
             }
-            
-            return shouldRemove;
+            return remove;
         });
         
         if (!toDelete.isEmpty()) {
@@ -337,23 +321,25 @@ public class MyBuiltChunkStorage extends ViewArea {
                 return false;
             });
         }
-        
-        Minecraft.getInstance().getProfiler().pop();
     }
     
-    private boolean shouldDropPreset(long dropTime, long currentTime, Preset preset) {
-        if (preset.data == this.chunks) {
+    boolean isAlive() {
+        return isAlive;
+    }
+    
+    private boolean shouldDropView(long dropTime, long currentTime, View view) {
+        if (view.data == this.chunks) {
             return false;
         }
-        return currentTime - preset.lastActiveTime > dropTime;
+        return currentTime - view.lastActiveTime > dropTime;
     }
     
     private Set<ChunkRenderDispatcher.RenderChunk> getAllActiveBuiltChunks() {
         HashSet<ChunkRenderDispatcher.RenderChunk> result = new HashSet<>();
         
-        presets.forEach((key, preset) -> {
-            result.addAll(Arrays.asList(preset.data));
-        });
+        for (View view : views) {
+            result.addAll(Arrays.asList(view.data));
+        }
         
         if (chunks != null) {
             result.addAll(Arrays.asList(chunks));
@@ -370,9 +356,13 @@ public class MyBuiltChunkStorage extends ViewArea {
     }
     
     public String getDebugString() {
+        long estimatedBytes = 0;
+        for (Column column : columnMap.values()) {
+            estimatedBytes += column.estimatedBytes;
+        }
         return String.format(
-            "Built Section Storage Columns:%s",
-            columnMap.size()
+            "Built Section Storage Columns:%s Views:%s Estimated:%.1fMB",
+            columnMap.size(), views.size(), estimatedBytes / (1024.0 * 1024.0)
         );
     }
     
@@ -453,7 +443,7 @@ public class MyBuiltChunkStorage extends ViewArea {
         long l = ChunkPos.asLong(cx, cz);
         Column column = provideColumn(l);
         
-        column.mark = timeMark;
+        column.markActive(timeMark, RenderStates.frameIndex, PortalRendering.getPortalLayer());
         
         int yOffset = cy - minSectionY;
         
@@ -34,6 +34,8 @@ import qouteall.imm_ptl.core.render.context_management.PortalRendering;
 import qouteall.imm_ptl.core.render.context_management.RenderStates;
 import qouteall.imm_ptl.core.render.context_management.WorldRenderInfo;
 import qouteall.q_misc_util.Helper;
+import qouteall.q_misc_util.metrics.Metrics;
+import qouteall.q_misc_util.metrics.TimedSection;
 
 import java.util.Comparator;
 import java.util.List;
@@ -42,6 +44,9 @@ import java.util.function.Supplier;
 
 public abstract class PortalRenderer {
     
+    // includes the nested portal rendering
+    private static final TimedSection PORTAL_CONTENT_SECTION = Metrics.section("render.portal_content");
+    
     /**
      * An event for filtering whether a portal should render.
      * All listeners' results are ANDed.
@@ -235,6 +240,7 @@ public abstract class PortalRenderer {
         
         ClientLevel newWorld = ClientWorldLoader.getWorld(portalLike.getDestDim());
         
+        long startTime = PORTAL_CONTENT_SECTION.begin();
         PortalRendering.onBeginPortalWorldRendering();
         
         int renderDistance = getPortalRenderDistance(portalLike);
@@ -254,6 +260,7 @@ public abstract class PortalRenderer {
         );
         
         PortalRendering.onEndPortalWorldRendering();
+        PORTAL_CONTENT_SECTION.end(startTime);
         
         GlStateManager._enableDepthTest();
         
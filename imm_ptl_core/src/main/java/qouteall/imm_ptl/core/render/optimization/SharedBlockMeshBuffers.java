@@ -1,6 +1,5 @@
 package qouteall.imm_ptl.core.render.optimization;
 
-import com.google.common.collect.Queues;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.renderer.ChunkBufferBuilderPack;
 import net.minecraft.client.renderer.RenderType;
@@ -8,17 +7,31 @@ import org.apache.commons.lang3.Validate;
 import qouteall.imm_ptl.core.CHelper;
 import qouteall.imm_ptl.core.IPGlobal;
 import qouteall.imm_ptl.core.compat.sodium_compatibility.SodiumInterface;
+import qouteall.imm_ptl.core.miscellaneous.GcMonitor;
 import qouteall.q_misc_util.Helper;
+import qouteall.q_misc_util.metrics.Counter;
+import qouteall.q_misc_util.metrics.Gauge;
+import qouteall.q_misc_util.metrics.Histogram;
+import qouteall.q_misc_util.metrics.Metrics;
 
 import org.jetbrains.annotations.Nullable;
-import java.util.ArrayList;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This optimization makes that different dimensions of ChunkRenderDispatcher
  *  use the same queue of ChunkBufferBuilderPack.
  * In vanilla, it will cause OutOfMemory exception then it will allocate fewer buffers.
  * Some dimension will have no buffer and the chunk cannot rebuild.
+ * <p>
+ * The pool starts small and adapts every second.
+ * It grows by one when a dispatcher had pending tasks but no free buffer (starvation),
+ * up to twice the processor count, limited by the available heap.
+ * It does not grow when memory is not enough.
+ * It never shrinks: the buffers of a pack are allocated by MemoryTracker (native memory not freed by GC),
+ * so dropping a pack would leak them. The pool keeps the packs that it grew to.
+ * The waiting time of the starved dispatchers and the high-water mark of the in-use buffers
+ * are recorded in metrics.
  */
 public class SharedBlockMeshBuffers {
     public static final ThreadLocal<Object> bufferTemp =
@@ -26,8 +39,20 @@ public class SharedBlockMeshBuffers {
     public static final ThreadLocal<Object> taskTemp =
         ThreadLocal.withInitial(() -> null);
     
+    // the ratio of the available heap that the buffers can use
+    private static final double HEAP_RATIO = 0.3;
+    
+    private static final long ADAPT_INTERVAL_NANOS = Helper.secondToNano(1);
+    
+    private static final Counter STARVATION_COUNTER = Metrics.counter("mesh_buffers.starvation");
+    private static final Counter GROW_COUNTER = Metrics.counter("mesh_buffers.grow");
+    private static final Histogram WAIT_MICROS_HISTOGRAM = Metrics.histogram("mesh_buffers.wait_micros");
+    private static final Gauge POOL_SIZE_GAUGE = Metrics.gauge("mesh_buffers.pool_size");
+    private static final Gauge IN_USE_HIGH_WATER_GAUGE = Metrics.gauge("mesh_buffers.in_use_high_water");
+    
     public static void init() {
         IPGlobal.clientCleanupSignal.connect(SharedBlockMeshBuffers::cleanup);
+        IPGlobal.postClientTickSignal.connect(SharedBlockMeshBuffers::tick);
     }
     
     /**
@@ -35,6 +60,18 @@ public class SharedBlockMeshBuffers {
      */
     public static ConcurrentLinkedQueue<ChunkBufferBuilderPack> threadBuffers;
     
+    // the number of packs, including the ones in use
+    private static final AtomicInteger poolSize = new AtomicInteger(0);
+    // the pool cannot grow beyond this after failing to allocate
+    private static int allocationFailedSize = Integer.MAX_VALUE;
+    
+    // written by the chunk building threads
+    private static final AtomicInteger starvationSinceAdapt = new AtomicInteger(0);
+    private static final AtomicInteger inUseHighWaterSinceAdapt = new AtomicInteger(0);
+    private static volatile int inUseHighWater = 0;
+    
+    private static long lastAdaptTime = 0;
+    
     public static boolean isEnabled() {
         if (SodiumInterface.invoker.isSodiumPresent()) {
             return false;
@@ -52,59 +89,169 @@ public class SharedBlockMeshBuffers {
     private static void createThreadBuffers() {
         Validate.isTrue(SharedBlockMeshBuffers.isEnabled());
         
-        int totalExpectedBufferSize =
-            RenderType.chunkBufferLayers().stream().mapToInt(RenderType::bufferSize).sum();
-        int bufferCountEstimation = Math.max(
-            1,
-            (int) ((double) Runtime.getRuntime().maxMemory() * 0.3D) / (totalExpectedBufferSize * 4) - 1
-        );
+        threadBuffers = new ConcurrentLinkedQueue<>();
+        poolSize.set(0);
+        allocationFailedSize = Integer.MAX_VALUE;
+        resetStats();
+        
+        // start with half of the max size, it grows when the chunk building starves
+        int initialSize = Math.max(1, getMaxPoolSize() / 2);
+        for (int i = 0; i < initialSize; i++) {
+            if (!tryGrow()) {
+                break;
+            }
+        }
+        
+        POOL_SIZE_GAUGE.set(poolSize.get());
+    }
+    
+    private static int getEffectiveProcessors() {
         int availableProcessors = Runtime.getRuntime().availableProcessors();
         boolean is64Bits = Minecraft.getInstance().is64Bit();
-        int effectiveProcessors = is64Bits ? availableProcessors : Math.min(availableProcessors, 4);
-        int bufferCount = Math.max(1, Math.min(effectiveProcessors, bufferCountEstimation));
-        
-        ArrayList<ChunkBufferBuilderPack> list = new ArrayList<>();
+        return is64Bits ? availableProcessors : Math.min(availableProcessors, 4);
+    }
+    
+    private static long getExpectedPackBytes() {
+        int totalExpectedBufferSize =
+            RenderType.chunkBufferLayers().stream().mapToInt(RenderType::bufferSize).sum();
+        // the buffers may grow while building
+        return totalExpectedBufferSize * 4L;
+    }
+    
+    /**
+     * The max pool size that the available heap allows, not counting the existing packs.
+     * The heap used by the existing packs is counted as available to them.
+     */
+    private static int getMaxPoolSize() {
+        long maxMemory = Runtime.getRuntime().maxMemory();
+        long liveBytes = GcMonitor.getLiveDataBytes();
+        if (liveBytes < 0) {
+            Runtime runtime = Runtime.getRuntime();
+            liveBytes = runtime.totalMemory() - runtime.freeMemory();
+        }
+        long packBytes = getExpectedPackBytes();
+        long availableBytes = Math.max(0, maxMemory - liveBytes) + poolSize.get() * packBytes;
+        int heapLimit = (int) Math.min(Integer.MAX_VALUE, (long) (availableBytes * HEAP_RATIO) / packBytes);
         
+        int result = Math.min(getEffectiveProcessors() * 2, heapLimit);
+        result = Math.min(result, allocationFailedSize);
+        return Math.max(1, result);
+    }
+    
+    /**
+     * @return whether a pack is added
+     */
+    private static boolean tryGrow() {
+        ChunkBufferBuilderPack pack;
         try {
-            for (int m = 0; m < bufferCount; ++m) {
-                list.add(new ChunkBufferBuilderPack());
-            }
+            pack = new ChunkBufferBuilderPack();
         }
         catch (OutOfMemoryError error) {
             error.printStackTrace();
             
+            allocationFailedSize = Math.max(1, poolSize.get());
+            
             String errorMessage = String.format(
-                "[Immersive Portals] Allocated only %s/%s block mesh buffers. Memory seems not enough.",
-                list.size(), bufferCount
+                "[Immersive Portals] Allocated only %s block mesh buffers. Memory seems not enough.",
+                poolSize.get()
             );
             
             Helper.err(errorMessage);
             
             CHelper.printChat(errorMessage);
             
-            int n = Math.min(list.size() * 2 / 3, list.size() - 1);
-            
-            for (int i = 0; i < n; ++i) {
-                list.remove(list.size() - 1);
+            return false;
+        }
+        
+        poolSize.incrementAndGet();
+        threadBuffers.add(pack);
+        return true;
+    }
+    
+    private static void tick() {
+        if (threadBuffers == null) {
+            return;
+        }
+        
+        long currentTime = System.nanoTime();
+        if (currentTime - lastAdaptTime < ADAPT_INTERVAL_NANOS) {
+            return;
+        }
+        lastAdaptTime = currentTime;
+        
+        adapt();
+    }
+    
+    private static void adapt() {
+        int starvation = starvationSinceAdapt.getAndSet(0);
+        int highWater = inUseHighWaterSinceAdapt.getAndSet(0);
+        int size = poolSize.get();
+        
+        if (starvation > 0 && !GcMonitor.isMemoryNotEnough()) {
+            if (size < getMaxPoolSize() && GcMonitor.getMemoryPressure() < 0.5) {
+                if (tryGrow()) {
+                    GROW_COUNTER.inc();
+                }
             }
-            
-            System.gc();
         }
         
-        threadBuffers = Queues.newConcurrentLinkedQueue(list);
+        POOL_SIZE_GAUGE.set(poolSize.get());
+        IN_USE_HIGH_WATER_GAUGE.set(highWater);
+    }
+    
+    /**
+     * Called by the dispatcher when it has pending tasks but no free buffer,
+     * once per starvation episode.
+     */
+    public static void onStarved() {
+        starvationSinceAdapt.incrementAndGet();
+        STARVATION_COUNTER.inc();
+    }
+    
+    /**
+     * Called by the dispatcher when it got a buffer for a task.
+     *
+     * @param waitNanos how long the dispatcher has been starved before getting the buffer, 0 if not starved
+     */
+    public static void onBufferAcquired(long waitNanos) {
+        if (waitNanos > 0) {
+            WAIT_MICROS_HISTOGRAM.record(waitNanos / 1000);
+        }
+        
+        ConcurrentLinkedQueue<ChunkBufferBuilderPack> queue = threadBuffers;
+        if (queue == null) {
+            return;
+        }
+        int inUse = Math.max(0, poolSize.get() - queue.size());
+        inUseHighWaterSinceAdapt.accumulateAndGet(inUse, Math::max);
+        if (inUse > inUseHighWater) {
+            inUseHighWater = inUse;
+        }
+    }
+    
+    private static void resetStats() {
+        starvationSinceAdapt.set(0);
+        inUseHighWaterSinceAdapt.set(0);
+        inUseHighWater = 0;
     }
     
     private static void cleanup() {
-        // the buffers are not GL resources and can be collected by GC
+        // dropped like vanilla ChunkRenderDispatcher.dispose does, once per world
         if (threadBuffers != null) {
             threadBuffers = null;
         }
+        poolSize.set(0);
+        resetStats();
     }
     
     @Nullable
     public static String getDebugString() {
-        if (SharedBlockMeshBuffers.isEnabled() && threadBuffers != null) {
-            return "SharedBlockMeshBuffers " + Integer.toString(threadBuffers.size());
+        ConcurrentLinkedQueue<ChunkBufferBuilderPack> queue = threadBuffers;
+        if (SharedBlockMeshBuffers.isEnabled() && queue != null) {
+            return String.format(
+                "SharedBlockMeshBuffers %s/%s high %s",
+                queue.size(), poolSize.get(), inUseHighWater
+            );
         }
         return null;
     }
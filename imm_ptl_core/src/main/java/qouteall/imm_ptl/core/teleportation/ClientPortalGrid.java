@@ -0,0 +1,239 @@
+package qouteall.imm_ptl.core.teleportation;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ReferenceOpenHashSet;
+import net.fabricmc.api.EnvType;
+import net.fabricmc.api.Environment;
+import net.minecraft.client.multiplayer.ClientLevel;
+import net.minecraft.core.SectionPos;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.util.Mth;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.phys.AABB;
+import net.minecraft.world.phys.Vec3;
+import qouteall.imm_ptl.core.ClientWorldLoader;
+import qouteall.imm_ptl.core.IPGlobal;
+import qouteall.imm_ptl.core.network.IPNetworkingClient;
+import qouteall.imm_ptl.core.portal.Portal;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.WeakHashMap;
+
+/**
+ * A uniform grid of the non-global portals in a client world.
+ * Each portal is put into the 16x16x16 cells that its bounding box touches.
+ * It's used for finding the portals that the player's eye movement segment may cross,
+ * without traversing all nearby entities every frame.
+ * <p>
+ * The grid is updated when a portal spawns, ticks, changes its cache or gets removed.
+ */
+@Environment(EnvType.CLIENT)
+public class ClientPortalGrid {
+    
+    // the portal bounding box is inflated by this, to tolerate the imprecision of teleportation check
+    private static final double BOX_MARGIN = 0.5;
+    
+    // the portals touching more cells than this are not put into the grid, they are checked every time
+    private static final int MAX_CELLS_PER_PORTAL = 512;
+    
+    private static final WeakHashMap<ClientLevel, ClientPortalGrid> BY_WORLD = new WeakHashMap<>();
+    
+    private static record Entry(AABB box, long[] cells) {}
+    
+    private final Long2ObjectOpenHashMap<ArrayList<Portal>> cellToPortals =
+        new Long2ObjectOpenHashMap<>();
+    
+    private final IdentityHashMap<Portal, Entry> portalToEntry = new IdentityHashMap<>();
+    
+    private final ArrayList<Portal> largePortals = new ArrayList<>();
+    
+    // reused in every query
+    private final ReferenceOpenHashSet<Portal> visitedBuffer = new ReferenceOpenHashSet<>();
+    
+    public static void init() {
+        IPNetworkingClient.clientPortalSpawnSignal.connect(ClientPortalGrid::updatePortal);
+        Portal.clientPortalTickSignal.connect(ClientPortalGrid::updatePortal);
+        Portal.portalCacheUpdateSignal.connect(portal -> {
+            if (portal.level().isClientSide()) {
+                updatePortal(portal);
+            }
+        });
+        Portal.portalDisposeSignal.connect(portal -> {
+            if (portal.level().isClientSide()) {
+                ClientPortalGrid grid = BY_WORLD.get(((ClientLevel) portal.level()));
+                if (grid != null) {
+                    grid.remove(portal);
+                }
+            }
+        });
+        
+        IPGlobal.clientCleanupSignal.connect(BY_WORLD::clear);
+        ClientWorldLoader.clientDimensionDynamicRemoveSignal.connect(ClientPortalGrid::onDimensionRemove);
+    }
+    
+    private ClientPortalGrid() {}
+    
+    public static ClientPortalGrid get(ClientLevel world) {
+        return BY_WORLD.computeIfAbsent(world, k -> new ClientPortalGrid());
+    }
+    
+    private static void updatePortal(Portal portal) {
+        if (portal.getIsGlobal() || portal.isRemoved()) {
+            return;
+        }
+        
+        if (!(portal.level() instanceof ClientLevel clientLevel)) {
+            return;
+        }
+        
+        get(clientLevel).update(portal);
+    }
+    
+    private void update(Portal portal) {
+        AABB box = portal.getBoundingBox();
+        
+        Entry entry = portalToEntry.get(portal);
+        if (entry != null && entry.box.equals(box)) {
+            return;
+        }
+        
+        remove(portal);
+        
+        AABB inflated = box.inflate(BOX_MARGIN);
+        int minX = SectionPos.blockToSectionCoord(Mth.floor(inflated.minX));
+        int minY = SectionPos.blockToSectionCoord(Mth.floor(inflated.minY));
+        int minZ = SectionPos.blockToSectionCoord(Mth.floor(inflated.minZ));
+        int maxX = SectionPos.blockToSectionCoord(Mth.floor(inflated.maxX));
+        int maxY = SectionPos.blockToSectionCoord(Mth.floor(inflated.maxY));
+        int maxZ = SectionPos.blockToSectionCoord(Mth.floor(inflated.maxZ));
+        
+        long cellNum = (long) (maxX - minX + 1) * (maxY - minY + 1) * (maxZ - minZ + 1);
+        if (cellNum > MAX_CELLS_PER_PORTAL) {
+            largePortals.add(portal);
+            portalToEntry.put(portal, new Entry(box, new long[0]));
+            return;
+        }
+        
+        long[] cells = new long[(int) cellNum];
+        int index = 0;
+        for (int x = minX; x <= maxX; x++) {
+            for (int y = minY; y <= maxY; y++) {
+                for (int z = minZ; z <= maxZ; z++) {
+                    long cellKey = SectionPos.asLong(x, y, z);
+                    cells[index++] = cellKey;
+                    cellToPortals.computeIfAbsent(cellKey, k -> new ArrayList<>(1)).add(portal);
+                }
+            }
+        }
+        
+        portalToEntry.put(portal, new Entry(box, cells));
+    }
+    
+    private void remove(Portal portal) {
+        Entry entry = portalToEntry.remove(portal);
+        if (entry == null) {
+            return;
+        }
+        
+        if (entry.cells.length == 0) {
+            largePortals.remove(portal);
+            return;
+        }
+        
+        for (long cellKey : entry.cells) {
+            ArrayList<Portal> portals = cellToPortals.get(cellKey);
+            if (portals != null) {
+                portals.remove(portal);
+                if (portals.isEmpty()) {
+                    cellToPortals.remove(cellKey);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Collect the portals whose (inflated) bounding box intersects with the segment.
+     * The result does not contain duplicates. Global portals are not included.
+     */
+    public void collectPortalsAlongSegment(Vec3 start, Vec3 end, List<Portal> result) {
+        visitedBuffer.clear();
+        
+        int minX = SectionPos.blockToSectionCoord(Mth.floor(Math.min(start.x, end.x) - BOX_MARGIN));
+        int minY = SectionPos.blockToSectionCoord(Mth.floor(Math.min(start.y, end.y) - BOX_MARGIN));
+        int minZ = SectionPos.blockToSectionCoord(Mth.floor(Math.min(start.z, end.z) - BOX_MARGIN));
+        int maxX = SectionPos.blockToSectionCoord(Mth.floor(Math.max(start.x, end.x) + BOX_MARGIN));
+        int maxY = SectionPos.blockToSectionCoord(Mth.floor(Math.max(start.y, end.y) + BOX_MARGIN));
+        int maxZ = SectionPos.blockToSectionCoord(Mth.floor(Math.max(start.z, end.z) + BOX_MARGIN));
+        
+        // the segment is short (limited by the teleportation distance check)
+        for (int x = minX; x <= maxX; x++) {
+            for (int y = minY; y <= maxY; y++) {
+                for (int z = minZ; z <= maxZ; z++) {
+                    ArrayList<Portal> portals = cellToPortals.get(SectionPos.asLong(x, y, z));
+                    if (portals != null) {
+                        for (int i = 0; i < portals.size(); i++) {
+                            testAndAdd(portals.get(i), start, end, result);
+                        }
+                    }
+                }
+            }
+        }
+        
+        for (int i = 0; i < largePortals.size(); i++) {
+            testAndAdd(largePortals.get(i), start, end, result);
+        }
+    }
+    
+    private void testAndAdd(Portal portal, Vec3 start, Vec3 end, List<Portal> result) {
+        if (!visitedBuffer.add(portal)) {
+            return;
+        }
+        
+        if (portal.isRemoved()) {
+            return;
+        }
+        
+        if (segmentIntersectsBox(portal.getBoundingBox().inflate(BOX_MARGIN), start, end)) {
+            result.add(portal);
+        }
+    }
+    
+    public int getPortalNum() {
+        return portalToEntry.size();
+    }
+    
+    public int getCellNum() {
+        return cellToPortals.size();
+    }
+    
+    /**
+     * Slab test of a segment against an AABB.
+     */
+    public static boolean segmentIntersectsBox(AABB box, Vec3 start, Vec3 end) {
+        double[] range = {0, 1};
+        return clipSlab(range, start.x, end.x - start.x, box.minX, box.maxX) &&
+            clipSlab(range, start.y, end.y - start.y, box.minY, box.maxY) &&
+            clipSlab(range, start.z, end.z - start.z, box.minZ, box.maxZ);
+    }
+    
+    // narrow the segment parameter range [range[0], range[1]] by one axis slab
+    private static boolean clipSlab(
+        double[] range, double origin, double delta, double slabMin, double slabMax
+    ) {
+        if (Math.abs(delta) < 1e-12) {
+            return origin >= slabMin && origin <= slabMax;
+        }
+        
+        double t1 = (slabMin - origin) / delta;
+        double t2 = (slabMax - origin) / delta;
+        range[0] = Math.max(range[0], Math.min(t1, t2));
+        range[1] = Math.min(range[1], Math.max(t1, t2));
+        return range[0] <= range[1];
+    }
+    
+    private static void onDimensionRemove(ResourceKey<Level> dimension) {
+        BY_WORLD.keySet().removeIf(world -> world.dimension() == dimension);
+    }
+}
@@ -1,6 +1,7 @@
 package qouteall.imm_ptl.core.teleportation;
 
 import com.mojang.logging.LogUtils;
+import it.unimi.dsi.fastutil.objects.ReferenceOpenHashSet;
 import net.fabricmc.api.EnvType;
 import net.fabricmc.api.Environment;
 import net.minecraft.client.Minecraft;
@@ -18,7 +19,6 @@ import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import qouteall.imm_ptl.core.ClientWorldLoader;
 import qouteall.imm_ptl.core.IPGlobal;
-import qouteall.imm_ptl.core.IPMcHelper;
 import qouteall.imm_ptl.core.McHelper;
 import qouteall.imm_ptl.core.collision.CollisionHelper;
 import qouteall.imm_ptl.core.collision.PortalCollisionHandler;
@@ -36,6 +36,7 @@ import qouteall.imm_ptl.core.platform_specific.O_O;
 import qouteall.imm_ptl.core.portal.Portal;
 import qouteall.imm_ptl.core.portal.PortalExtension;
 import qouteall.imm_ptl.core.portal.animation.ClientPortalAnimationManagement;
+import qouteall.imm_ptl.core.portal.global_portals.GlobalPortalStorage;
 import qouteall.imm_ptl.core.portal.animation.StableClientTimer;
 import qouteall.imm_ptl.core.render.FrontClipping;
 import qouteall.imm_ptl.core.render.MyGameRenderer;
@@ -44,11 +45,13 @@ import qouteall.imm_ptl.core.render.context_management.FogRendererContext;
 import qouteall.imm_ptl.core.render.context_management.RenderStates;
 import qouteall.imm_ptl.core.render.context_management.WorldRenderInfo;
 import qouteall.q_misc_util.Helper;
+import qouteall.q_misc_util.metrics.Counter;
+import qouteall.q_misc_util.metrics.Metrics;
+import qouteall.q_misc_util.my_util.MyTaskList;
 import qouteall.q_misc_util.my_util.Vec2d;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
 import java.util.function.Function;
 
@@ -56,6 +59,8 @@ import java.util.function.Function;
 public class ClientTeleportationManager {
     private static final Logger LOGGER = LogUtils.getLogger();
     
+    private static final Counter PLAYER_TELEPORT_COUNTER = Metrics.counter("teleport.client_player");
+    
     public static final Minecraft client = Minecraft.getInstance();
     
     public static long tickTimeForTeleportation = 0;
@@ -75,11 +80,17 @@ public class ClientTeleportationManager {
     
     private static long teleportationCounter = 0;
     
+    // reused in every frame to avoid allocation
+    private static final ArrayList<Portal> candidatePortalBuffer = new ArrayList<>();
+    private static final ReferenceOpenHashSet<Portal> animatedPortalBuffer = new ReferenceOpenHashSet<>();
+    
     public static void init() {
         IPGlobal.postClientTickSignal.connect(
             ClientTeleportationManager::tick
         );
         
+        ClientPortalGrid.init();
+        
         IPGlobal.clientCleanupSignal.connect(() -> {
             lastPlayerEyePos = null;
 //            disableTeleportFor(2);
@@ -202,67 +213,49 @@ public class ClientTeleportationManager {
         Vec3 lastTickEyePos = McHelper.getLastTickEyePos(player);
         Vec3 thisTickEyePos = McHelper.getEyePos(player);
         
-        ArrayList<TeleportationUtil.Teleportation> teleportationCandidates = new ArrayList<>();
-        IPMcHelper.traverseNearbyPortals(
-            player.level(),
-            thisFrameEyePos,
-            IPGlobal.maxNormalPortalRadius,
-            portal -> {
-                if (!portal.canTeleportEntity(player)) {
-                    return;
-                }
-                
-                // Separately handle dynamic teleportation and static teleportation.
-                // Although the dynamic teleportation code can handle static teleportation.
-                // I want the dynamic teleportation bugs to not affect static teleportation.
-                if (portal.animation.clientLastFramePortalStateCounter == teleportationCounter - 1
-                    && portal.animation.clientLastFramePortalState != null
-                    && portal.animation.lastTickAnimatedState != null
-                    && portal.animation.thisTickAnimatedState != null
-                ) {
-                    // the portal is running a real animation
-                    assert portal.animation.clientCurrentFramePortalState != null;
-                    
-                    TeleportationUtil.Teleportation teleportation =
-                        TeleportationUtil.checkDynamicTeleportation(
-                            portal,
-                            portal.animation.clientLastFramePortalState,
-                            portal.animation.clientCurrentFramePortalState,
-                            lastPlayerEyePos,
-                            thisFrameEyePos,
-                            portal.animation.lastTickAnimatedState,
-                            portal.animation.thisTickAnimatedState,
-                            lastTickEyePos,
-                            thisTickEyePos,
-                            partialTicks
-                        );
-                    
-                    if (teleportation != null) {
-                        teleportationCandidates.add(teleportation);
-                    }
-                }
-                else {
-                    // the portal is static
-                    TeleportationUtil.Teleportation teleportation =
-                        TeleportationUtil.checkStaticTeleportation(
-                            portal,
-                            lastPlayerEyePos, thisFrameEyePos,
-                            lastTickEyePos, thisTickEyePos
-                        );
-                    if (teleportation != null) {
-                        teleportationCandidates.add(teleportation);
-                    }
-                }
-            }
+        ClientLevel world = (ClientLevel) player.level();
+        
+        // only the portals that the eye movement segment may cross are checked
+        candidatePortalBuffer.clear();
+        ClientPortalGrid.get(world).collectPortalsAlongSegment(
+            lastPlayerEyePos, thisFrameEyePos, candidatePortalBuffer
         );
+        for (Portal globalPortal : GlobalPortalStorage.getGlobalPortals(world)) {
+            if (ClientPortalGrid.segmentIntersectsBox(
+                globalPortal.getBoundingBox(), lastPlayerEyePos, thisFrameEyePos
+            )) {
+                candidatePortalBuffer.add(globalPortal);
+            }
+        }
         
-        TeleportationUtil.Teleportation teleportation = teleportationCandidates
-            .stream()
-            .min(Comparator.comparingDouble(
-                p -> p.collidingPos().distanceToSqr(lastPlayerEyePos)
-            ))
-            .orElse(null);
+        TeleportationUtil.Teleportation teleportation = null;
         
+        for (int i = 0; i < candidatePortalBuffer.size(); i++) {
+            Portal portal = candidatePortalBuffer.get(i);
+            // the animated portals are handled below, as they may move across the player
+            if (isRunningRealAnimation(portal)) {
+                continue;
+            }
+            teleportation = selectNearer(teleportation, checkTeleportation(
+                portal, player, thisFrameEyePos, lastTickEyePos, thisTickEyePos, partialTicks
+            ));
+        }
+        candidatePortalBuffer.clear();
+        
+        animatedPortalBuffer.clear();
+        ClientPortalAnimationManagement.foreachCustomAnimatedPortals(
+            animatedPortal -> PortalExtension.forClusterPortals(animatedPortal, p -> {
+                if (p.level() == world && isRunningRealAnimation(p)) {
+                    animatedPortalBuffer.add(p);
+                }
+            })
+        );
+        for (Portal portal : animatedPortalBuffer) {
+            teleportation = selectNearer(teleportation, checkTeleportation(
+                portal, player, thisFrameEyePos, lastTickEyePos, thisTickEyePos, partialTicks
+            ));
+        }
+        animatedPortalBuffer.clear();
         
         if (teleportation != null) {
             Portal portal = teleportation.portal();
@@ -287,6 +280,69 @@ public class ClientTeleportationManager {
         }
     }
     
+    private static boolean isRunningRealAnimation(Portal portal) {
+        return portal.animation.clientLastFramePortalStateCounter == teleportationCounter - 1
+            && portal.animation.clientLastFramePortalState != null
+            && portal.animation.lastTickAnimatedState != null
+            && portal.animation.thisTickAnimatedState != null;
+    }
+    
+    @Nullable
+    private static TeleportationUtil.Teleportation checkTeleportation(
+        Portal portal, LocalPlayer player,
+        Vec3 thisFrameEyePos, Vec3 lastTickEyePos, Vec3 thisTickEyePos,
+        float partialTicks
+    ) {
+        if (!portal.canTeleportEntity(player)) {
+            return null;
+        }
+        
+        // Separately handle dynamic teleportation and static teleportation.
+        // Although the dynamic teleportation code can handle static teleportation.
+        // I want the dynamic teleportation bugs to not affect static teleportation.
+        if (isRunningRealAnimation(portal)) {
+            // the portal is running a real animation
+            assert portal.animation.clientCurrentFramePortalState != null;
+            
+            return TeleportationUtil.checkDynamicTeleportation(
+                portal,
+                portal.animation.clientLastFramePortalState,
+                portal.animation.clientCurrentFramePortalState,
+                lastPlayerEyePos,
+                thisFrameEyePos,
+                portal.animation.lastTickAnimatedState,
+                portal.animation.thisTickAnimatedState,
+                lastTickEyePos,
+                thisTickEyePos,
+                partialTicks
+            );
+        }
+        else {
+            // the portal is static
+            return TeleportationUtil.checkStaticTeleportation(
+                portal,
+                lastPlayerEyePos, thisFrameEyePos,
+                lastTickEyePos, thisTickEyePos
+            );
+        }
+    }
+    
+    // select the one that's nearer to the last eye position
+    @Nullable
+    private static TeleportationUtil.Teleportation selectNearer(
+        @Nullable TeleportationUtil.Teleportation a,
+        @Nullable TeleportationUtil.Teleportation b
+    ) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        return b.collidingPos().distanceToSqr(lastPlayerEyePos) <
+            a.collidingPos().distanceToSqr(lastPlayerEyePos) ? b : a;
+    }
+    
     public static Vec3 getPlayerEyePos(float partialTick) {
         return client.player.getEyePosition(partialTick);
     }
@@ -302,6 +358,7 @@ public class ClientTeleportationManager {
         }
         
         lastTeleportGameTime = tickTimeForTeleportation;
+        PLAYER_TELEPORT_COUNTER.inc();
         
         LocalPlayer player = client.player;
         Validate.isTrue(player != null);
@@ -649,7 +706,7 @@ public class ClientTeleportationManager {
             McHelper.updateBoundingBox(player);
             
             return false;
-        });
+        }, MyTaskList.Priority.HIGH);
         
     }
     
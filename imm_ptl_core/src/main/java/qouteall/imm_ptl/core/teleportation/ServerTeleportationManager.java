@@ -38,6 +38,8 @@ import qouteall.q_misc_util.Helper;
 import qouteall.q_misc_util.MiscHelper;
 import qouteall.q_misc_util.api.McRemoteProcedureCall;
 import qouteall.q_misc_util.dimension.DynamicDimensionsImpl;
+import qouteall.q_misc_util.metrics.Counter;
+import qouteall.q_misc_util.metrics.Metrics;
 import qouteall.q_misc_util.my_util.LimitedLogger;
 import qouteall.q_misc_util.my_util.MyTaskList;
 import qouteall.q_misc_util.my_util.WithDim;
@@ -54,6 +56,9 @@ import java.util.stream.Stream;
 public class ServerTeleportationManager {
     private static final Logger LOGGER = LogUtils.getLogger();
     
+    private static final Counter PLAYER_TELEPORT_COUNTER = Metrics.counter("teleport.server_player");
+    private static final Counter ENTITY_TELEPORT_COUNTER = Metrics.counter("teleport.server_entity");
+    
     private Set<Entity> teleportingEntities = new HashSet<>();
     private WeakHashMap<Entity, Long> lastTeleportGameTime = new WeakHashMap<>();
     public boolean isFiringMyChangeDimensionEvent = false;
@@ -135,7 +140,7 @@ public class ServerTeleportationManager {
                 e.printStackTrace();
             }
             return true;
-        });
+        }, MyTaskList.Priority.HIGH);
     }
     
     private static Stream<Entity> getEntitiesToTeleport(Portal portal) {
@@ -288,6 +293,7 @@ public class ServerTeleportationManager {
         Vec3 newEyePos
     ) {
         MiscHelper.getServer().getProfiler().push("portal_teleport");
+        PLAYER_TELEPORT_COUNTER.inc();
         
         ServerLevel fromWorld = (ServerLevel) player.level();
         ServerLevel toWorld = MiscHelper.getServer().getLevel(dimensionTo);
@@ -467,6 +473,8 @@ public class ServerTeleportationManager {
             return;
         }
         
+        ENTITY_TELEPORT_COUNTER.inc();
+        
         if (portal.getDistanceToNearestPointInPortal(entity.getEyePosition()) > 5) {
             Helper.err("Entity is too far to teleport " + entity + portal);
             return;
@@ -12,12 +12,21 @@ import net.minecraft.resources.ResourceKey;
 import net.minecraft.resources.ResourceLocation;
 import net.minecraft.server.level.ServerPlayer;
 import net.minecraft.world.level.Level;
+import net.minecraft.world.level.dimension.BuiltinDimensionTypes;
+import net.minecraft.world.level.dimension.DimensionType;
 import org.apache.commons.lang3.Validate;
 import qouteall.q_misc_util.api.DimensionAPI;
+import qouteall.q_misc_util.dimension.DimId;
+import qouteall.q_misc_util.dimension.DimSyncManagement;
+import qouteall.q_misc_util.dimension.DimensionHibernation;
 import qouteall.q_misc_util.dimension.DimensionIdRecord;
 import qouteall.q_misc_util.dimension.DimensionTypeSync;
 import qouteall.q_misc_util.mixin.client.IEClientPacketListener_Misc;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.function.Supplier;
 
@@ -29,6 +38,8 @@ public class MiscNetworking {
     
     public static final ResourceLocation id_stcDimSync =
         new ResourceLocation("imm_ptl", "dim_sync");
+    public static final ResourceLocation id_stcDimSyncDelta =
+        new ResourceLocation("imm_ptl", "dim_sync_delta");
     
     // no need to make this client only
     public static boolean handleMiscUtilPacketClientSide(
@@ -46,6 +57,10 @@ public class MiscNetworking {
             processDimSync(buf.get(), networkHandler);
             return true;
         }
+        else if (id.equals(id_stcDimSyncDelta)) {
+            processDimSyncDelta(buf.get(), networkHandler);
+            return true;
+        }
         return false;
     }
     
@@ -65,30 +80,57 @@ public class MiscNetworking {
     
     @Environment(EnvType.CLIENT)
     public static void initClient() {
-    
+        
     }
     
     public static void init() {
-    
+        
     }
     
-    public static Packet createDimSyncPacket() {
+    public static Packet createDimSyncPacket(int version) {
         Validate.notNull(DimensionIdRecord.serverRecord);
         
         FriendlyByteBuf buf = new FriendlyByteBuf(Unpooled.buffer());
         
         CompoundTag idMapTag = DimensionIdRecord.recordToTag(
             DimensionIdRecord.serverRecord,
-            dim -> MiscHelper.getServer().getLevel(dim) != null
+            // don't use getLevel() here, it will wake up the hibernated dimensions
+            dim -> DimensionHibernation.isDimensionPresent(MiscHelper.getServer(), dim)
         );
         buf.writeNbt(idMapTag);
         
         CompoundTag typeMapTag = DimensionTypeSync.createTagFromServerWorldInfo();
         buf.writeNbt(typeMapTag);
         
+        buf.writeVarInt(version);
+        
         return new ClientboundCustomPayloadPacket(id_stcDimSync, buf);
     }
     
+    public static Packet createDimSyncDeltaPacket(DimSyncManagement.Delta delta) {
+        FriendlyByteBuf buf = new FriendlyByteBuf(Unpooled.buffer());
+        
+        buf.writeVarInt(delta.baseVersion());
+        buf.writeVarInt(delta.version());
+        
+        buf.writeVarInt(delta.addedIntIds().size());
+        delta.addedIntIds().forEach((dim, intId) -> {
+            buf.writeResourceLocation(dim.location());
+            buf.writeVarInt(intId);
+            ResourceKey<DimensionType> type = delta.addedTypes().get(dim);
+            buf.writeResourceLocation(
+                type == null ? BuiltinDimensionTypes.OVERWORLD.location() : type.location()
+            );
+        });
+        
+        buf.writeVarInt(delta.removed().size());
+        for (ResourceKey<Level> dim : delta.removed()) {
+            buf.writeResourceLocation(dim.location());
+        }
+        
+        return new ClientboundCustomPayloadPacket(id_stcDimSyncDelta, buf);
+    }
+    
     @Environment(EnvType.CLIENT)
     private static void processDimSync(
         FriendlyByteBuf buf,
@@ -100,6 +142,8 @@ public class MiscNetworking {
         
         CompoundTag typeMap = buf.readNbt();
         
+        DimSyncManagement.clientVersion = buf.readVarInt();
+        
         MiscHelper.executeOnRenderThread(() -> {
             DimensionTypeSync.acceptTypeMapData(typeMap);
             
@@ -113,4 +157,55 @@ public class MiscNetworking {
             DimensionAPI.clientDimensionUpdateEvent.invoker().run(dimIdSet);
         });
     }
+    
+    @Environment(EnvType.CLIENT)
+    private static void processDimSyncDelta(
+        FriendlyByteBuf buf,
+        ClientGamePacketListener packetListener
+    ) {
+        int baseVersion = buf.readVarInt();
+        int version = buf.readVarInt();
+        
+        Map<ResourceKey<Level>, Integer> addedIntIds = new HashMap<>();
+        Map<ResourceKey<Level>, ResourceKey<DimensionType>> addedTypes = new HashMap<>();
+        int addedNum = buf.readVarInt();
+        for (int i = 0; i < addedNum; i++) {
+            ResourceKey<Level> dim = DimId.idToKey(buf.readResourceLocation());
+            addedIntIds.put(dim, buf.readVarInt());
+            addedTypes.put(dim, DimensionTypeSync.idToDimType(buf.readResourceLocation()));
+        }
+        
+        List<ResourceKey<Level>> removed = new ArrayList<>();
+        int removedNum = buf.readVarInt();
+        for (int i = 0; i < removedNum; i++) {
+            removed.add(DimId.idToKey(buf.readResourceLocation()));
+        }
+        
+        // the packets arrive in order, so the base version should match the client version
+        if (DimensionIdRecord.clientRecord == null || baseVersion != DimSyncManagement.clientVersion) {
+            Helper.err(
+                "Dimension sync version mismatch. client: %d delta base: %d. Requesting full sync."
+                    .formatted(DimSyncManagement.clientVersion, baseVersion)
+            );
+            DimSyncManagement.clientRequestFullSync();
+            return;
+        }
+        
+        DimensionIdRecord.clientRecord = DimensionIdRecord.clientRecord.withChanges(addedIntIds, removed);
+        DimSyncManagement.clientVersion = version;
+        
+        MiscHelper.executeOnRenderThread(() -> {
+            DimensionTypeSync.acceptTypeMapDelta(addedTypes, removed);
+            
+            Helper.log("Received Dimension Sync Delta. Added: %s Removed: %s".formatted(
+                Helper.myToString(addedIntIds.keySet().stream().map(ResourceKey::location)),
+                Helper.myToString(removed.stream().map(ResourceKey::location))
+            ));
+            
+            Set<ResourceKey<Level>> dimIdSet = DimensionIdRecord.clientRecord.getDimIdSet();
+            ((IEClientPacketListener_Misc) packetListener).ip_setLevels(dimIdSet);
+            
+            DimensionAPI.clientDimensionUpdateEvent.invoker().run(dimIdSet);
+        });
+    }
 }
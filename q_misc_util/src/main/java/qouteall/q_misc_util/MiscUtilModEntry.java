@@ -3,10 +3,13 @@ package qouteall.q_misc_util;
 import net.fabricmc.api.ModInitializer;
 import net.fabricmc.fabric.api.command.v2.CommandRegistrationCallback;
 import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
+import qouteall.q_misc_util.dimension.DimSyncManagement;
+import qouteall.q_misc_util.dimension.DimensionHibernation;
 import qouteall.q_misc_util.dimension.DimensionMisc;
 import qouteall.q_misc_util.dimension.DimsCommand;
 import qouteall.q_misc_util.dimension.DynamicDimensionsImpl;
 import qouteall.q_misc_util.dimension.ExtraDimensionStorage;
+import qouteall.q_misc_util.metrics.Metrics;
 
 public class MiscUtilModEntry implements ModInitializer {
     @Override
@@ -19,8 +22,12 @@ public class MiscUtilModEntry implements ModInitializer {
         
         MiscNetworking.init();
         
+        Metrics.init();
+        
         ServerTickEvents.END_SERVER_TICK.register(server -> {
             MiscGlobals.serverTaskList.processTasks();
+            DimensionHibernation.tick(server);
+            DimSyncManagement.flush();
         });
         
         CommandRegistrationCallback.EVENT.register((dispatcher, registryAccess, environment) -> {
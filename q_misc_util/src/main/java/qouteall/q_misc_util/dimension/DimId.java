@@ -19,6 +19,10 @@ public class DimId {
     public static void writeWorldId(
         FriendlyByteBuf buf, ResourceKey<Level> dimension, boolean isClient
     ) {
+        if (!isClient) {
+            DimSyncManagement.onWritingDimensionId(dimension);
+        }
+        
         if (useIntegerId) {
             DimensionIdRecord record = isClient ?
                 DimensionIdRecord.clientRecord : DimensionIdRecord.serverRecord;
@@ -0,0 +1,227 @@
+package qouteall.q_misc_util.dimension;
+
+import com.mojang.logging.LogUtils;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import net.fabricmc.api.EnvType;
+import net.fabricmc.api.Environment;
+import net.minecraft.network.protocol.Packet;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.dimension.DimensionType;
+import org.slf4j.Logger;
+import qouteall.q_misc_util.MiscHelper;
+import qouteall.q_misc_util.MiscNetworking;
+import qouteall.q_misc_util.api.McRemoteProcedureCall;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.WeakHashMap;
+
+/**
+ * Versioned dimension list synchronization.
+ * <p>
+ * When dimensions are added or removed, the change is not sent immediately.
+ * The changes within one tick are coalesced, and each player gets a delta
+ * (added and removed dimensions) against the version that was last sent to it.
+ * Because the packets arrive in order, the client can check that the delta's base version
+ * matches its own version. If it doesn't match, the client requests a full sync.
+ */
+public class DimSyncManagement {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    
+    private static final int HISTORY_LIMIT = 16;
+    
+    public static record Snapshot(
+        Map<ResourceKey<Level>, Integer> intIds,
+        Map<ResourceKey<Level>, ResourceKey<DimensionType>> types
+    ) {
+        public static Snapshot createFromServer() {
+            Map<ResourceKey<Level>, Integer> intIds = new HashMap<>();
+            MinecraftServer server = MiscHelper.getServer();
+            DimensionIdRecord.serverRecord.idMap.forEach((dim, intId) -> {
+                if (DimensionHibernation.isDimensionPresent(server, dim)) {
+                    intIds.put(dim, intId);
+                }
+            });
+            return new Snapshot(intIds, DimensionTypeSync.createServerTypeMap());
+        }
+    }
+    
+    public static record Delta(
+        int baseVersion,
+        int version,
+        Map<ResourceKey<Level>, Integer> addedIntIds,
+        Map<ResourceKey<Level>, ResourceKey<DimensionType>> addedTypes,
+        List<ResourceKey<Level>> removed
+    ) {
+        public static Delta compute(int baseVersion, Snapshot base, int version, Snapshot current) {
+            Map<ResourceKey<Level>, Integer> addedIntIds = new HashMap<>();
+            Map<ResourceKey<Level>, ResourceKey<DimensionType>> addedTypes = new HashMap<>();
+            List<ResourceKey<Level>> removed = new ArrayList<>();
+            
+            current.intIds.forEach((dim, intId) -> {
+                if (!Objects.equals(base.intIds.get(dim), intId) ||
+                    !Objects.equals(base.types.get(dim), current.types.get(dim))
+                ) {
+                    addedIntIds.put(dim, intId);
+                    ResourceKey<DimensionType> type = current.types.get(dim);
+                    if (type != null) {
+                        addedTypes.put(dim, type);
+                    }
+                }
+            });
+            
+            for (ResourceKey<Level> dim : base.intIds.keySet()) {
+                if (!current.intIds.containsKey(dim)) {
+                    removed.add(dim);
+                }
+            }
+            
+            return new Delta(baseVersion, version, addedIntIds, addedTypes, removed);
+        }
+    }
+    
+    private static int version = 0;
+    
+    private static boolean isDirty = false;
+    
+    private static final Int2ObjectOpenHashMap<Snapshot> history = new Int2ObjectOpenHashMap<>();
+    
+    // the version that was last sent to the player
+    private static final WeakHashMap<ServerPlayer, Integer> playerVersions = new WeakHashMap<>();
+    
+    @Environment(EnvType.CLIENT)
+    public static int clientVersion = -1;
+    
+    public static void onServerStarted() {
+        version = 0;
+        isDirty = false;
+        history.clear();
+        playerVersions.clear();
+        
+        history.put(version, Snapshot.createFromServer());
+    }
+    
+    /**
+     * Called when a dimension is added or removed.
+     * The sync packets will be sent at the end of the tick,
+     * so removing multiple dimensions in one tick only sends one packet to each player.
+     */
+    public static void markDirty() {
+        isDirty = true;
+    }
+    
+    public static int getVersion() {
+        return version;
+    }
+    
+    public static void sendFullSync(ServerPlayer player) {
+        // flush first, so the full sync corresponds to a version in the history
+        flush();
+        
+        player.connection.send(MiscNetworking.createDimSyncPacket(version));
+        playerVersions.put(player, version);
+    }
+    
+    /**
+     * Send the coalesced change to the players.
+     * Called at the end of each server tick.
+     * See also {@link #onWritingDimensionId(ResourceKey)}.
+     */
+    public static void flush() {
+        if (!isDirty) {
+            return;
+        }
+        
+        MinecraftServer server = MiscHelper.getServer();
+        if (server == null || !server.isSameThread()) {
+            return;
+        }
+        
+        isDirty = false;
+        
+        if (history.isEmpty()) {
+            // not initialized yet
+            return;
+        }
+        
+        Snapshot current = Snapshot.createFromServer();
+        Snapshot latest = history.get(version);
+        if (latest != null && latest.equals(current)) {
+            // the changes cancelled out each other
+            return;
+        }
+        
+        int newVersion = version + 1;
+        history.put(newVersion, current);
+        history.remove(newVersion - HISTORY_LIMIT);
+        
+        Map<Integer, Packet<?>> packetByBaseVersion = new HashMap<>();
+        
+        for (ServerPlayer player : server.getPlayerList().getPlayers()) {
+            Integer playerVersion = playerVersions.get(player);
+            Snapshot base = playerVersion == null ? null : history.get(playerVersion.intValue());
+            
+            Packet<?> packet;
+            if (base == null) {
+                packet = MiscNetworking.createDimSyncPacket(newVersion);
+            }
+            else {
+                packet = packetByBaseVersion.computeIfAbsent(
+                    playerVersion,
+                    v -> MiscNetworking.createDimSyncDeltaPacket(
+                        Delta.compute(v, base, newVersion, current)
+                    )
+                );
+            }
+            
+            player.connection.send(packet);
+            playerVersions.put(player, newVersion);
+        }
+        
+        version = newVersion;
+    }
+    
+    /**
+     * Called before writing a dimension id into a packet on server side.
+     * If the dimension is not yet synced, flush now,
+     * so the client knows the new dimension before receiving the packets referencing it.
+     */
+    public static void onWritingDimensionId(ResourceKey<Level> dimension) {
+        if (!isDirty) {
+            return;
+        }
+        
+        // the vanilla packets are encoded in networking thread
+        MinecraftServer server = MiscHelper.getServer();
+        if (server == null || !server.isSameThread()) {
+            return;
+        }
+        
+        Snapshot latest = history.get(version);
+        if (latest != null && latest.intIds.containsKey(dimension)) {
+            return;
+        }
+        
+        flush();
+    }
+    
+    @Environment(EnvType.CLIENT)
+    public static void clientRequestFullSync() {
+        McRemoteProcedureCall.tellServerToInvoke(
+            "qouteall.q_misc_util.dimension.DimSyncManagement.RemoteCallables.requestFullSync"
+        );
+    }
+    
+    public static class RemoteCallables {
+        public static void requestFullSync(ServerPlayer player) {
+            LOGGER.info("{} requested full dimension sync", player.getName().getString());
+            sendFullSync(player);
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package qouteall.q_misc_util.dimension;
+
+import com.mojang.logging.LogUtils;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import net.fabricmc.fabric.api.event.Event;
+import net.fabricmc.fabric.api.event.EventFactory;
+import net.minecraft.core.Registry;
+import net.minecraft.core.registries.Registries;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.dimension.DimensionType;
+import net.minecraft.world.level.dimension.LevelStem;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import qouteall.q_misc_util.Helper;
+import qouteall.q_misc_util.MiscGlobals;
+import qouteall.q_misc_util.ducks.IEMinecraftServer_Misc;
+import qouteall.q_misc_util.my_util.MyTaskList;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Unloads the non-vanilla dimensions that have no player, no forced chunk and no loaded chunk
+ * for a while, and loads them back when {@link MinecraftServer#getLevel(ResourceKey)} is called for them.
+ * <p>
+ * A hibernated dimension is still in the level stem registry and the dimension id record,
+ * and it's still synced to the client. Only its {@link ServerLevel} object is closed.
+ * <p>
+ * The waking up happens in the mixin of {@link MinecraftServer#getLevel(ResourceKey)},
+ * so going through a portal, teleporting or chunk loading will transparently wake it up.
+ */
+public class DimensionHibernation {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    
+    // 0 means disabled
+    public static int idleMinutesBeforeHibernation = 0;
+    
+    private static final int CHECK_INTERVAL_TICKS = 20;
+    
+    /**
+     * Other modules can use this to keep a dimension awake.
+     * All listeners' results are ORed.
+     */
+    public static final Event<Predicate<ServerLevel>> DIMENSION_IN_USE_EVENT =
+        EventFactory.createArrayBacked(
+            Predicate.class,
+            (listeners) -> (world) -> {
+                for (Predicate<ServerLevel> listener : listeners) {
+                    if (listener.test(world)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+        );
+    
+    private static final Map<ResourceKey<Level>, LevelStem> hibernatedDimensions = new HashMap<>();
+    
+    // the server tick count when the dimension started to be idle
+    private static final Object2IntOpenHashMap<ResourceKey<Level>> idleStartTick =
+        new Object2IntOpenHashMap<>();
+    
+    private static boolean isWakingUp = false;
+    
+    private static final LatencyStat hibernateStat = new LatencyStat();
+    private static final LatencyStat wakeUpStat = new LatencyStat();
+    
+    public static class LatencyStat {
+        public int count = 0;
+        public long totalNanos = 0;
+        public long maxNanos = 0;
+        public long lastNanos = 0;
+        
+        private void record(long nanos) {
+            count++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+            lastNanos = nanos;
+        }
+        
+        @Override
+        public String toString() {
+            return "count:%d avg:%.1fms max:%.1fms last:%.1fms".formatted(
+                count,
+                count == 0 ? 0.0 : totalNanos / (double) count / 1.0e6,
+                maxNanos / 1.0e6,
+                lastNanos / 1.0e6
+            );
+        }
+    }
+    
+    public static void onServerStarted() {
+        hibernatedDimensions.clear();
+        idleStartTick.clear();
+    }
+    
+    public static boolean isHibernated(ResourceKey<Level> dimension) {
+        return hibernatedDimensions.containsKey(dimension);
+    }
+    
+    /**
+     * Unlike {@link MinecraftServer#getLevel(ResourceKey)}, this does not wake up the dimension.
+     */
+    public static boolean isDimensionPresent(MinecraftServer server, ResourceKey<Level> dimension) {
+        return server.levelKeys().contains(dimension) || isHibernated(dimension);
+    }
+    
+    public static Map<ResourceKey<Level>, ResourceKey<DimensionType>> getHibernatedDimensionTypes() {
+        Map<ResourceKey<Level>, ResourceKey<DimensionType>> result = new HashMap<>();
+        hibernatedDimensions.forEach((dimension, levelStem) -> {
+            levelStem.type().unwrapKey().ifPresent(typeKey -> result.put(dimension, typeKey));
+        });
+        return result;
+    }
+    
+    public static void tick(MinecraftServer server) {
+        if (idleMinutesBeforeHibernation <= 0) {
+            return;
+        }
+        
+        int tickCount = server.getTickCount();
+        if (tickCount % CHECK_INTERVAL_TICKS != 0) {
+            return;
+        }
+        
+        int idleTicksLimit = idleMinutesBeforeHibernation * 60 * 20;
+        
+        List<ServerLevel> toHibernate = new ArrayList<>();
+        for (ServerLevel world : server.getAllLevels()) {
+            ResourceKey<Level> dimension = world.dimension();
+            if (!canHibernate(server, dimension)) {
+                continue;
+            }
+            
+            if (isIdle(world)) {
+                int startTick = idleStartTick.computeIfAbsent(dimension, k -> tickCount);
+                if (tickCount - startTick >= idleTicksLimit) {
+                    toHibernate.add(world);
+                }
+            }
+            else {
+                idleStartTick.removeInt(dimension);
+            }
+        }
+        
+        for (ServerLevel world : toHibernate) {
+            idleStartTick.removeInt(world.dimension());
+            // don't remove the dimension during ticking the dimensions
+            MiscGlobals.serverTaskList.addTask(MyTaskList.oneShotTask(
+                () -> hibernate(server, world)
+            ));
+        }
+    }
+    
+    private static boolean canHibernate(MinecraftServer server, ResourceKey<Level> dimension) {
+        if (dimension.location().getNamespace().equals("minecraft")) {
+            return false;
+        }
+        
+        // the level stem is needed for loading it back
+        return getLevelStemRegistry(server).containsKey(dimension.location());
+    }
+    
+    private static boolean isIdle(ServerLevel world) {
+        if (!world.players().isEmpty()) {
+            return false;
+        }
+        
+        if (!world.getForcedChunks().isEmpty()) {
+            return false;
+        }
+        
+        // any chunk ticket will keep some chunks loaded
+        if (world.getChunkSource().getLoadedChunksCount() != 0) {
+            return false;
+        }
+        
+        if (world.getChunkSource().chunkMap.hasWork()) {
+            return false;
+        }
+        
+        return !DIMENSION_IN_USE_EVENT.invoker().test(world);
+    }
+    
+    private static void hibernate(MinecraftServer server, ServerLevel world) {
+        ResourceKey<Level> dimension = world.dimension();
+        
+        if (server.getLevel(dimension) != world) {
+            // already removed or hibernated
+            return;
+        }
+        
+        if (!isIdle(world)) {
+            return;
+        }
+        
+        LevelStem levelStem = getLevelStemRegistry(server).get(dimension.location());
+        if (levelStem == null) {
+            LOGGER.error("Missing level stem of {}", dimension.location());
+            return;
+        }
+        
+        long startTime = System.nanoTime();
+        
+        // let the other modules clean up the things related to the ServerLevel object
+        DynamicDimensionsImpl.beforeRemovingDimensionSignal.emit(dimension);
+        
+        DynamicDimensionsImpl.isRemovingDimension = true;
+        
+        ((IEMinecraftServer_Misc) server).ip_removeDimensionFromWorldMap(dimension);
+        
+        DynamicDimensionsImpl.finishChunkTasks(server, world);
+        
+        DynamicDimensionsImpl.isRemovingDimension = false;
+        
+        // save the saved data. closing only saves chunks and entities
+        world.save(null, true, false);
+        
+        try {
+            world.close();
+        }
+        catch (IOException e) {
+            LOGGER.error("Failed to close {}", dimension.location(), e);
+        }
+        
+        DynamicDimensionsImpl.resetWorldBorderListener(server);
+        
+        hibernatedDimensions.put(dimension, levelStem);
+        
+        long duration = System.nanoTime() - startTime;
+        hibernateStat.record(duration);
+        
+        LOGGER.info(
+            "Hibernated dimension {} in {} ms", dimension.location(), duration / 1.0e6
+        );
+    }
+    
+    /**
+     * Called when {@link MinecraftServer#getLevel(ResourceKey)} doesn't find the dimension.
+     */
+    @Nullable
+    public static ServerLevel wakeUp(MinecraftServer server, ResourceKey<Level> dimension) {
+        if (isWakingUp) {
+            return null;
+        }
+        
+        if (!server.isSameThread()) {
+            // the caller will see the dimension as absent this time
+            server.execute(() -> server.getLevel(dimension));
+            return null;
+        }
+        
+        LevelStem levelStem = hibernatedDimensions.remove(dimension);
+        if (levelStem == null) {
+            return null;
+        }
+        
+        long startTime = System.nanoTime();
+        
+        isWakingUp = true;
+        ServerLevel world;
+        try {
+            world = DynamicDimensionsImpl.createAndAddLevel(server, dimension, levelStem);
+        }
+        catch (Throwable e) {
+            LOGGER.error("Failed to wake up dimension {}", dimension.location(), e);
+            hibernatedDimensions.put(dimension, levelStem);
+            return null;
+        }
+        finally {
+            isWakingUp = false;
+        }
+        
+        long duration = System.nanoTime() - startTime;
+        wakeUpStat.record(duration);
+        
+        LOGGER.info(
+            "Woke up dimension {} in {} ms", dimension.location(), duration / 1.0e6
+        );
+        
+        return world;
+    }
+    
+    private static Registry<LevelStem> getLevelStemRegistry(MinecraftServer server) {
+        return server.registryAccess().registryOrThrow(Registries.LEVEL_STEM);
+    }
+    
+    public static String getInfoString() {
+        return "Hibernation idle minutes: %d\nHibernated dimensions: %s\nHibernate: %s\nWake up: %s".formatted(
+            idleMinutesBeforeHibernation,
+            Helper.myToString(hibernatedDimensions.keySet().stream().map(ResourceKey::location)),
+            hibernateStat,
+            wakeUpStat
+        );
+    }
+}
@@ -8,8 +8,10 @@ import net.minecraft.resources.ResourceKey;
 import net.minecraft.world.level.Level;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
@@ -95,6 +97,18 @@ public class DimensionIdRecord {
         return result;
     }
     
+    /**
+     * Create a new record with the changes applied. The original record is not modified.
+     */
+    public DimensionIdRecord withChanges(
+        Map<ResourceKey<Level>, Integer> added, Collection<ResourceKey<Level>> removed
+    ) {
+        HashBiMap<ResourceKey<Level>, Integer> bimap = HashBiMap.create(idMap);
+        removed.forEach(bimap::remove);
+        added.forEach(bimap::forcePut);
+        return new DimensionIdRecord(bimap);
+    }
+    
     public Set<ResourceKey<Level>> getDimIdSet() {
         return new HashSet<>(idMap.keySet());
     }
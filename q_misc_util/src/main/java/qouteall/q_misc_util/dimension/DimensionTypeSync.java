@@ -16,6 +16,7 @@ import net.minecraft.world.level.dimension.DimensionType;
 import qouteall.q_misc_util.Helper;
 import qouteall.q_misc_util.MiscHelper;
 
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.stream.Collectors;
@@ -62,10 +63,26 @@ public class DimensionTypeSync {
         ));
     }
     
+    @Environment(EnvType.CLIENT)
+    public static void acceptTypeMapDelta(
+        Map<ResourceKey<Level>, ResourceKey<DimensionType>> added,
+        Collection<ResourceKey<Level>> removed
+    ) {
+        // replace instead of modifying, the old map may be being read
+        Map<ResourceKey<Level>, ResourceKey<DimensionType>> newMap = new HashMap<>(clientTypeMap);
+        removed.forEach(newMap::remove);
+        newMap.putAll(added);
+        clientTypeMap = newMap;
+    }
+    
     public static CompoundTag createTagFromServerWorldInfo() {
+        return typeMapToTag(createServerTypeMap());
+    }
+    
+    public static Map<ResourceKey<Level>, ResourceKey<DimensionType>> createServerTypeMap() {
         RegistryAccess registryManager = MiscHelper.getServer().registryAccess();
         Registry<DimensionType> dimensionTypes = registryManager.registryOrThrow(Registries.DIMENSION_TYPE);
-        return typeMapToTag(
+        Map<ResourceKey<Level>, ResourceKey<DimensionType>> typeMap =
             Streams.stream(MiscHelper.getServer().getAllLevels()).collect(
                 Collectors.toMap(
                     Level::dimension,
@@ -81,8 +98,10 @@ public class DimensionTypeSync {
                         return idToDimType(id);
                     }
                 )
-            )
-        );
+            );
+        // the hibernated dimensions are not in the world map but are still synced to client
+        typeMap.putAll(DimensionHibernation.getHibernatedDimensionTypes());
+        return typeMap;
     }
     
     public static ResourceKey<DimensionType> idToDimType(ResourceLocation id) {
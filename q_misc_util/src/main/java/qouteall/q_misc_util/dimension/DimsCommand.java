@@ -81,6 +81,17 @@ public class DimsCommand {
             )
         );
         
+        builder.then(Commands
+            .literal("hibernation_info")
+            .executes(context -> {
+                context.getSource().sendSuccess(
+                    () -> Component.literal(DimensionHibernation.getInfoString()),
+                    false
+                );
+                return 0;
+            })
+        );
+        
         dispatcher.register(builder);
     }
     
@@ -9,7 +9,6 @@ import net.minecraft.core.Registry;
 import net.minecraft.core.RegistryAccess;
 import net.minecraft.core.registries.Registries;
 import net.minecraft.network.chat.Component;
-import net.minecraft.network.protocol.Packet;
 import net.minecraft.resources.ResourceKey;
 import net.minecraft.resources.ResourceLocation;
 import net.minecraft.server.MinecraftServer;
@@ -33,7 +32,6 @@ import org.jetbrains.annotations.Nullable;
 import qouteall.q_misc_util.Helper;
 import qouteall.q_misc_util.MiscGlobals;
 import qouteall.q_misc_util.MiscHelper;
-import qouteall.q_misc_util.MiscNetworking;
 import qouteall.q_misc_util.api.DimensionAPI;
 import qouteall.q_misc_util.ducks.IEMappedRegistry2;
 import qouteall.q_misc_util.ducks.IEMinecraftServer_Misc;
@@ -69,6 +67,38 @@ public class DynamicDimensionsImpl {
             throw new RuntimeException("Dimension " + dimensionId + " already exists.");
         }
         
+        ServerLevel newWorld = createAndAddLevel(server, dimensionResourceKey, levelStem);
+        
+        /**
+         * register it into registry, so it will be saved in
+         * {@link WorldGenSettings#encode(DynamicOps, WorldOptions, RegistryAccess)} ,
+         * so it will be saved into level.dat
+         * */
+        Registry<LevelStem> levelStemRegistry = server.registryAccess().registryOrThrow(Registries.LEVEL_STEM);
+        ((IEMappedRegistry) levelStemRegistry).ip_setIsFrozen(false);
+        ((MappedRegistry<LevelStem>) levelStemRegistry).register(
+            ResourceKey.create(Registries.LEVEL_STEM, dimensionId),
+            levelStem, Lifecycle.stable()
+        );
+        ((IEMappedRegistry) levelStemRegistry).ip_setIsFrozen(true);
+        
+        Helper.log("Added Dimension " + dimensionId);
+        
+        DimensionIdManagement.updateAndSaveServerDimIdRecord();
+        
+        // dimension changes in the same tick are coalesced into one delta
+        DimSyncManagement.markDirty();
+        
+        DimensionAPI.serverDimensionDynamicUpdateEvent.invoker().run(server.levelKeys());
+    }
+    
+    /**
+     * Create the {@link ServerLevel} and add it into the server's world map.
+     * Also used for waking up a hibernated dimension.
+     */
+    static ServerLevel createAndAddLevel(
+        MinecraftServer server, ResourceKey<Level> dimensionResourceKey, LevelStem levelStem
+    ) {
         ServerLevel overworld = server.getLevel(Level.OVERWORLD);
         WorldBorder worldBorder = overworld.getWorldBorder();
         Validate.notNull(worldBorder);
@@ -104,31 +134,9 @@ public class DynamicDimensionsImpl {
         
         ((IEMinecraftServer_Misc) server).ip_addDimensionToWorldMap(dimensionResourceKey, newWorld);
         
-        /**
-         * register it into registry, so it will be saved in
-         * {@link WorldGenSettings#encode(DynamicOps, WorldOptions, RegistryAccess)} ,
-         * so it will be saved into level.dat
-         * */
-        Registry<LevelStem> levelStemRegistry = server.registryAccess().registryOrThrow(Registries.LEVEL_STEM);
-        ((IEMappedRegistry) levelStemRegistry).ip_setIsFrozen(false);
-        ((MappedRegistry<LevelStem>) levelStemRegistry).register(
-            ResourceKey.create(Registries.LEVEL_STEM, dimensionId),
-            levelStem, Lifecycle.stable()
-        );
-        ((IEMappedRegistry) levelStemRegistry).ip_setIsFrozen(true);
-        
         worldBorder.applySettings(serverLevelData.getWorldBorder());
         
-        Helper.log("Added Dimension " + dimensionId);
-        
-        DimensionIdManagement.updateAndSaveServerDimIdRecord();
-        
-        Packet dimSyncPacket = MiscNetworking.createDimSyncPacket();
-        for (ServerPlayer player : server.getPlayerList().getPlayers()) {
-            player.connection.send(dimSyncPacket);
-        }
-        
-        DimensionAPI.serverDimensionDynamicUpdateEvent.invoker().run(server.levelKeys());
+        return newWorld;
     }
     
     public static void removeDimensionDynamically(ServerLevel world) {
@@ -151,48 +159,14 @@ public class DynamicDimensionsImpl {
             
             /**{@link MinecraftServer#stopServer()}*/
             
-            long startTime = System.nanoTime();
-            long lastLogTime = System.nanoTime();
-            
             isRemovingDimension = true;
             
             ((IEMinecraftServer_Misc) server).ip_removeDimensionFromWorldMap(dimension);
             
-            try {
-                while (world.getChunkSource().chunkMap.hasWork()) {
-                    world.getChunkSource().removeTicketsOnClosing();
-                    world.getChunkSource().tick(() -> true, false);
-                    world.getChunkSource().pollTask();
-                    server.pollTask();
-                    
-                    if (System.nanoTime() - lastLogTime > Helper.secondToNano(1)) {
-                        lastLogTime = System.nanoTime();
-                        Helper.log("waiting for chunk tasks to finish");
-                    }
-                    
-                    if (System.nanoTime() - startTime > Helper.secondToNano(15)) {
-                        Helper.err("Waited too long for chunk tasks");
-                        break;
-                    }
-                    
-                    ((IEMinecraftServer_Misc) server).ip_waitUntilNextTick();
-                }
-            }
-            catch (Throwable e) {
-                e.printStackTrace();
-            }
+            finishChunkTasks(server, world);
             
             isRemovingDimension = false;
             
-            Helper.log("Finished chunk tasks in %f seconds"
-                .formatted(Helper.nanoToSecond(System.nanoTime() - startTime))
-            );
-            
-            Helper.log("Chunk num:%d Has entities:%s".formatted(
-                world.getChunkSource().chunkMap.size(),
-                world.getAllEntities().iterator().hasNext()
-            ));
-            
             server.saveAllChunks(false, true, false);
             
             try {
@@ -211,16 +185,55 @@ public class DynamicDimensionsImpl {
             
             Helper.log("Successfully Removed Dimension " + dimension.location());
             
-            Packet dimSyncPacket = MiscNetworking.createDimSyncPacket();
-            for (ServerPlayer player : server.getPlayerList().getPlayers()) {
-                player.connection.send(dimSyncPacket);
-            }
+            DimSyncManagement.markDirty();
             
             DimensionAPI.serverDimensionDynamicUpdateEvent.invoker().run(server.levelKeys());
         }));
     }
     
-    private static void resetWorldBorderListener(MinecraftServer server) {
+    /**
+     * Wait for the chunk tasks of a dimension that's already removed from the world map.
+     * Also used for hibernating a dimension.
+     */
+    static void finishChunkTasks(MinecraftServer server, ServerLevel world) {
+        long startTime = System.nanoTime();
+        long lastLogTime = System.nanoTime();
+        
+        try {
+            while (world.getChunkSource().chunkMap.hasWork()) {
+                world.getChunkSource().removeTicketsOnClosing();
+                world.getChunkSource().tick(() -> true, false);
+                world.getChunkSource().pollTask();
+                server.pollTask();
+                
+                if (System.nanoTime() - lastLogTime > Helper.secondToNano(1)) {
+                    lastLogTime = System.nanoTime();
+                    Helper.log("waiting for chunk tasks to finish");
+                }
+                
+                if (System.nanoTime() - startTime > Helper.secondToNano(15)) {
+                    Helper.err("Waited too long for chunk tasks");
+                    break;
+                }
+                
+                ((IEMinecraftServer_Misc) server).ip_waitUntilNextTick();
+            }
+        }
+        catch (Throwable e) {
+            e.printStackTrace();
+        }
+        
+        Helper.log("Finished chunk tasks in %f seconds"
+            .formatted(Helper.nanoToSecond(System.nanoTime() - startTime))
+        );
+        
+        Helper.log("Chunk num:%d Has entities:%s".formatted(
+            world.getChunkSource().chunkMap.size(),
+            world.getAllEntities().iterator().hasNext()
+        ));
+    }
+    
+    static void resetWorldBorderListener(MinecraftServer server) {
         ServerLevel overworld = server.getLevel(Level.OVERWORLD);
         WorldBorder worldBorder = overworld.getWorldBorder();
         List<BorderChangeListener> borderChangeListeners = ((IEWorldBorder) worldBorder).ip_getListeners();
@@ -0,0 +1,32 @@
+package qouteall.q_misc_util.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free counter. It can be incremented from any thread.
+ */
+public final class Counter {
+    public final String name;
+    
+    private final LongAdder adder = new LongAdder();
+    
+    Counter(String name) {
+        this.name = name;
+    }
+    
+    public void inc() {
+        adder.increment();
+    }
+    
+    public void add(long delta) {
+        adder.add(delta);
+    }
+    
+    public long get() {
+        return adder.sum();
+    }
+    
+    void reset() {
+        adder.reset();
+    }
+}
@@ -0,0 +1,23 @@
+package qouteall.q_misc_util.metrics;
+
+/**
+ * A value that is set by its owner (usually on the server thread or render thread)
+ * and can be read from any thread.
+ */
+public final class Gauge {
+    public final String name;
+    
+    private volatile double value = 0;
+    
+    Gauge(String name) {
+        this.name = name;
+    }
+    
+    public void set(double value) {
+        this.value = value;
+    }
+    
+    public double get() {
+        return value;
+    }
+}
@@ -0,0 +1,126 @@
+package qouteall.q_misc_util.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of non-negative long values.
+ * The values are put into power-of-two buckets,
+ * so the percentiles are estimated by the bucket upper bounds, and can be up to 2x larger.
+ * The count, sum and max are exact.
+ * <p>
+ * Recording can happen on any thread. Resetting concurrently with recording may lose some records.
+ */
+public final class Histogram {
+    // bucket i contains the values in [2^(i-1), 2^i - 1], bucket 0 only contains 0
+    private static final int BUCKET_NUM = 64;
+    
+    public final String name;
+    public final boolean isNanoTime;
+    
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_NUM);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+    
+    Histogram(String name, boolean isNanoTime) {
+        this.name = name;
+        this.isNanoTime = isNanoTime;
+    }
+    
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        
+        buckets.incrementAndGet(getBucketIndex(value));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+    
+    static int getBucketIndex(long value) {
+        return 64 - Long.numberOfLeadingZeros(value);
+    }
+    
+    static long getBucketUpperBound(int bucketIndex) {
+        if (bucketIndex == 0) {
+            return 0;
+        }
+        if (bucketIndex >= 63) {
+            return Long.MAX_VALUE;
+        }
+        return (1L << bucketIndex) - 1;
+    }
+    
+    public long getCount() {
+        return count.sum();
+    }
+    
+    public long getSum() {
+        return sum.sum();
+    }
+    
+    public long getMax() {
+        return max.get();
+    }
+    
+    public double getMean() {
+        long c = getCount();
+        return c == 0 ? 0 : getSum() / (double) c;
+    }
+    
+    /**
+     * @param ratio in [0, 1]
+     * @return the estimated value, not larger than the max
+     */
+    public long getPercentile(double ratio) {
+        long[] snapshot = new long[BUCKET_NUM];
+        long total = 0;
+        for (int i = 0; i < BUCKET_NUM; i++) {
+            snapshot[i] = buckets.get(i);
+            total += snapshot[i];
+        }
+        
+        if (total == 0) {
+            return 0;
+        }
+        
+        long threshold = (long) Math.ceil(total * ratio);
+        long accumulated = 0;
+        for (int i = 0; i < BUCKET_NUM; i++) {
+            accumulated += snapshot[i];
+            if (accumulated >= threshold && snapshot[i] != 0) {
+                return Math.min(getBucketUpperBound(i), getMax());
+            }
+        }
+        return getMax();
+    }
+    
+    void reset() {
+        for (int i = 0; i < BUCKET_NUM; i++) {
+            buckets.set(i, 0);
+        }
+        count.reset();
+        sum.reset();
+        max.reset();
+    }
+    
+    String formatValue(double value) {
+        if (isNanoTime) {
+            return "%.3fms".formatted(value / 1.0e6);
+        }
+        return "%.1f".formatted(value);
+    }
+    
+    String getDescription() {
+        return "count:%d mean:%s p50:%s p99:%s max:%s".formatted(
+            getCount(),
+            formatValue(getMean()),
+            formatValue(getPercentile(0.5)),
+            formatValue(getPercentile(0.99)),
+            formatValue(getMax())
+        );
+    }
+}
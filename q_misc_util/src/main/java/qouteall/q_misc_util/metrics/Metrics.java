@@ -0,0 +1,125 @@
+package qouteall.q_misc_util.metrics;
+
+import com.mojang.logging.LogUtils;
+import org.slf4j.Logger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The registry of the metrics of the portal subsystem.
+ * The metrics are process-wide. In singleplayer, the server and client metrics are in the same registry.
+ * <p>
+ * Get the metric objects once and store them in static final fields,
+ * then updating them is lock-free.
+ * The metrics can be viewed by commands or through JMX.
+ */
+public class Metrics {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    
+    private static final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Gauge> gauges = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, TimedSection> sections = new ConcurrentHashMap<>();
+    
+    private static volatile long lastResetTime = System.nanoTime();
+    
+    public static void init() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("qouteall.q_misc_util:type=Metrics");
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new MXBeanImpl(), name);
+            }
+        }
+        catch (Exception e) {
+            LOGGER.error("Failed to register metrics MXBean", e);
+        }
+    }
+    
+    public static Counter counter(String name) {
+        return counters.computeIfAbsent(name, Counter::new);
+    }
+    
+    public static Gauge gauge(String name) {
+        return gauges.computeIfAbsent(name, Gauge::new);
+    }
+    
+    public static Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, k -> new Histogram(k, false));
+    }
+    
+    /**
+     * The section's durations are in the histogram of the same name.
+     */
+    public static TimedSection section(String name) {
+        return sections.computeIfAbsent(
+            name, k -> new TimedSection(k, histograms.computeIfAbsent(k, n -> new Histogram(n, true)))
+        );
+    }
+    
+    public static void reset() {
+        counters.values().forEach(Counter::reset);
+        histograms.values().forEach(Histogram::reset);
+        lastResetTime = System.nanoTime();
+    }
+    
+    public static String getReport() {
+        double seconds = (System.nanoTime() - lastResetTime) / 1.0e9;
+        
+        StringBuilder sb = new StringBuilder();
+        sb.append("Metrics in the last %.1f seconds:\n".formatted(seconds));
+        
+        new TreeMap<>(counters).forEach((name, counter) -> {
+            long value = counter.get();
+            sb.append("%s: %d (%.1f/s)\n".formatted(name, value, value / seconds));
+        });
+        
+        new TreeMap<>(gauges).forEach((name, gauge) -> {
+            sb.append("%s: %s\n".formatted(name, gauge.get()));
+        });
+        
+        new TreeMap<>(histograms).forEach((name, histogram) -> {
+            sb.append("%s: %s\n".formatted(name, histogram.getDescription()));
+        });
+        
+        return sb.toString();
+    }
+    
+    private static class MXBeanImpl implements MetricsMXBean {
+        @Override
+        public Map<String, Long> getCounters() {
+            Map<String, Long> result = new TreeMap<>();
+            counters.forEach((name, counter) -> result.put(name, counter.get()));
+            return result;
+        }
+        
+        @Override
+        public Map<String, Double> getGauges() {
+            Map<String, Double> result = new TreeMap<>();
+            gauges.forEach((name, gauge) -> result.put(name, gauge.get()));
+            return result;
+        }
+        
+        @Override
+        public Map<String, String> getHistograms() {
+            Map<String, String> result = new TreeMap<>();
+            histograms.forEach((name, histogram) -> result.put(name, histogram.getDescription()));
+            return result;
+        }
+        
+        @Override
+        public String getReport() {
+            return Metrics.getReport();
+        }
+        
+        @Override
+        public void reset() {
+            Metrics.reset();
+        }
+    }
+}
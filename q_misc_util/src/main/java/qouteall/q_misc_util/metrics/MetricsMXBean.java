@@ -0,0 +1,18 @@
+package qouteall.q_misc_util.metrics;
+
+import java.util.Map;
+
+/**
+ * The JMX view of {@link Metrics}. Registered as {@code qouteall.q_misc_util:type=Metrics}.
+ */
+public interface MetricsMXBean {
+    Map<String, Long> getCounters();
+    
+    Map<String, Double> getGauges();
+    
+    Map<String, String> getHistograms();
+    
+    String getReport();
+    
+    void reset();
+}
@@ -0,0 +1,28 @@
+package qouteall.q_misc_util.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * The JFR event of a {@link TimedSection}.
+ * It's committed after the section ends, with the measured duration as a field.
+ * (The event's own duration field is reserved by JFR.)
+ */
+@Name("qouteall.Section")
+@Label("Immersive Portals Section")
+@Category("Immersive Portals")
+@Description("The duration of a timed section of the portal subsystem")
+@StackTrace(false)
+public class SectionEvent extends Event {
+    @Label("Section")
+    public String section;
+    
+    @Label("Section Duration")
+    @Timespan(Timespan.NANOSECONDS)
+    public long sectionDuration;
+}
@@ -0,0 +1,42 @@
+package qouteall.q_misc_util.metrics;
+
+import jdk.jfr.EventType;
+
+/**
+ * Measures the duration of a hot code section.
+ * The durations are recorded into a histogram,
+ * and also emitted as {@link SectionEvent} when a JFR recording is running.
+ * <pre>
+ * long startTime = SECTION.begin();
+ * ...
+ * SECTION.end(startTime);
+ * </pre>
+ * The start time is held by the caller, so the sections can nest and be used on multiple threads.
+ */
+public final class TimedSection {
+    private static final EventType EVENT_TYPE = EventType.getEventType(SectionEvent.class);
+    
+    public final String name;
+    public final Histogram histogram;
+    
+    TimedSection(String name, Histogram histogram) {
+        this.name = name;
+        this.histogram = histogram;
+    }
+    
+    public long begin() {
+        return System.nanoTime();
+    }
+    
+    public void end(long startTime) {
+        long duration = System.nanoTime() - startTime;
+        histogram.record(duration);
+        
+        if (EVENT_TYPE.isEnabled()) {
+            SectionEvent event = new SectionEvent();
+            event.section = name;
+            event.sectionDuration = duration;
+            event.commit();
+        }
+    }
+}
@@ -20,7 +20,9 @@ import org.spongepowered.asm.mixin.Shadow;
 import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
 import qouteall.q_misc_util.MiscGlobals;
+import qouteall.q_misc_util.dimension.DimensionHibernation;
 import qouteall.q_misc_util.ducks.IEMinecraftServer_Misc;
 
 import java.lang.ref.WeakReference;
@@ -68,6 +70,21 @@ public abstract class MixinMinecraftServer_Misc extends ReentrantBlockableEventL
         MiscGlobals.refMinecraftServer = new WeakReference<>((MinecraftServer) ((Object) this));
     }
     
+    // transparently wake up the hibernated dimension
+    @Inject(
+        method = "Lnet/minecraft/server/MinecraftServer;getLevel(Lnet/minecraft/resources/ResourceKey;)Lnet/minecraft/server/level/ServerLevel;",
+        at = @At("RETURN"),
+        cancellable = true
+    )
+    private void onGetLevel(ResourceKey<Level> dimension, CallbackInfoReturnable<ServerLevel> cir) {
+        if (cir.getReturnValue() == null && DimensionHibernation.isHibernated(dimension)) {
+            ServerLevel world = DimensionHibernation.wakeUp((MinecraftServer) (Object) this, dimension);
+            if (world != null) {
+                cir.setReturnValue(world);
+            }
+        }
+    }
+    
     @Override
     public void ip_addDimensionToWorldMap(ResourceKey<Level> dim, ServerLevel world) {
         // use read-copy-update to avoid concurrency issues
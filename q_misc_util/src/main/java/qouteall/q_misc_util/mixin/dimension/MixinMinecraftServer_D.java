@@ -12,6 +12,8 @@ import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 import qouteall.q_misc_util.api.DimensionAPI;
+import qouteall.q_misc_util.dimension.DimSyncManagement;
+import qouteall.q_misc_util.dimension.DimensionHibernation;
 import qouteall.q_misc_util.dimension.DimensionIdManagement;
 
 @Mixin(MinecraftServer.class)
@@ -43,5 +45,7 @@ public abstract class MixinMinecraftServer_D {
         CallbackInfo ci
     ) {
         DimensionIdManagement.onServerStarted();
+        DimensionHibernation.onServerStarted();
+        DimSyncManagement.onServerStarted();
     }
 }
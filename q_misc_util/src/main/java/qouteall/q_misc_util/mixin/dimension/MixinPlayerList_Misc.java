@@ -7,7 +7,7 @@ import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
-import qouteall.q_misc_util.MiscNetworking;
+import qouteall.q_misc_util.dimension.DimSyncManagement;
 
 @Mixin(PlayerList.class)
 public class MixinPlayerList_Misc {
@@ -24,6 +24,6 @@ public class MixinPlayerList_Misc {
         ServerPlayer player,
         CallbackInfo ci
     ) {
-        player.connection.send(MiscNetworking.createDimSyncPacket());
+        DimSyncManagement.sendFullSync(player);
     }
 }
@@ -3,33 +3,135 @@ package qouteall.q_misc_util.my_util;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.PeekingIterator;
 import com.mojang.logging.LogUtils;
-import it.unimi.dsi.fastutil.objects.ObjectArrayList;
-import it.unimi.dsi.fastutil.objects.ObjectList;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import qouteall.q_misc_util.Helper;
+import qouteall.q_misc_util.metrics.Counter;
+import qouteall.q_misc_util.metrics.Gauge;
+import qouteall.q_misc_util.metrics.Histogram;
+import qouteall.q_misc_util.metrics.Metrics;
 
+import java.util.ArrayDeque;
 import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.function.BooleanSupplier;
+import java.util.function.LongSupplier;
 import java.util.function.Supplier;
 import java.util.stream.Stream;
 
 //NOTE if the task returns true, it will be deleted
 //if the task returns false, it will be invoked again at next time
+
+/**
+ * Tasks can be added from any thread without locking (multi-producer single-consumer).
+ * {@link #processTasks()} and {@link #forceClearTasks()} should be invoked on one thread.
+ * <p>
+ * Each processing runs every pending task at most once,
+ * so a task that is not finished is invoked again at the next processing, not in the same one.
+ * The higher priority tasks run first.
+ * In one priority, the tasks rotate: a task that ran goes behind the ones that haven't run.
+ * <p>
+ * When the time budget is used up, the remaining tasks are deferred to the next processing.
+ * At least one task runs in each processing.
+ * A task that waited for more than {@link #MAX_WAIT_PROCESSINGS} processings runs before the others
+ * regardless of its priority, so the low priority tasks are not starved by a flood of high priority tasks.
+ */
 public class MyTaskList {
     private static final Logger LOGGER = LogUtils.getLogger();
     
+    private static final LimitedLogger LIMITED_LOGGER = new LimitedLogger(50);
+    
+    public static final int MAX_WAIT_PROCESSINGS = 20;
+    
     public interface MyTask {
         public boolean runAndGetIsFinished();
         
         public default void onCancelled() {}
     }
     
-    private final ObjectList<MyTask> tasks = new ObjectArrayList<>();
-    private final ObjectList<MyTask> tasksToAdd = new ObjectArrayList<>();
+    public static enum Priority {
+        HIGH, NORMAL, LOW
+    }
+    
+    private static final class Entry {
+        final MyTask task;
+        final Priority priority;
+        // the processing index that it started waiting since, and that it last ran
+        long waitingSince = 0;
+        long lastRun = -1;
+        long totalNanos = 0;
+        int runCount = 0;
+        
+        Entry(MyTask task, Priority priority) {
+            this.task = task;
+            this.priority = priority;
+        }
+    }
+    
+    @Nullable
+    private final String name;
+    private final long budgetNanos;
+    private final LongSupplier clock;
+    
+    private final ConcurrentLinkedQueue<Entry> incoming = new ConcurrentLinkedQueue<>();
+    // indexed by priority ordinal, only accessed by the processing thread
+    private final ArrayDeque<Entry>[] queues;
+    
+    private long processingIndex = 0;
+    private int lastDeferredNum = 0;
+    
+    @Nullable
+    private final Histogram taskTimeHistogram;
+    @Nullable
+    private final Counter deferredCounter;
+    @Nullable
+    private final Gauge pendingGauge;
+    
+    /**
+     * Without time budget, it runs every pending task once in each processing.
+     */
+    public MyTaskList() {
+        this(null, Long.MAX_VALUE);
+    }
+    
+    /**
+     * @param name        if not null, the task timings are recorded in the metrics "task_list.[name]"
+     * @param budgetNanos the time budget of one processing
+     */
+    public MyTaskList(@Nullable String name, long budgetNanos) {
+        this(name, budgetNanos, System::nanoTime);
+    }
+    
+    MyTaskList(@Nullable String name, long budgetNanos, LongSupplier clock) {
+        this.name = name;
+        this.budgetNanos = budgetNanos;
+        this.clock = clock;
+        
+        //noinspection unchecked
+        queues = new ArrayDeque[Priority.values().length];
+        for (int i = 0; i < queues.length; i++) {
+            queues[i] = new ArrayDeque<>();
+        }
+        
+        if (name != null) {
+            taskTimeHistogram = Metrics.section("task_list." + name).histogram;
+            deferredCounter = Metrics.counter("task_list." + name + ".deferred");
+            pendingGauge = Metrics.gauge("task_list." + name + ".pending");
+        }
+        else {
+            taskTimeHistogram = null;
+            deferredCounter = null;
+            pendingGauge = null;
+        }
+    }
     
     // this method could be invoked while a task is running
-    public synchronized void addTask(MyTask task) {
-        tasksToAdd.add(task);
+    public void addTask(MyTask task) {
+        addTask(task, Priority.NORMAL);
+    }
+    
+    public void addTask(MyTask task, Priority priority) {
+        incoming.add(new Entry(task, priority));
     }
     
     public void addOneShotTask(Runnable runnable) {
@@ -39,32 +141,152 @@ public class MyTaskList {
         });
     }
     
-    public synchronized void processTasks() {
-        tasks.addAll(tasksToAdd);
-        tasksToAdd.clear();
+    public void processTasks() {
+        processingIndex++;
         
-        Helper.removeIf(tasks, task -> {
-            try {
-                return task.runAndGetIsFinished();
+        for (Entry entry; (entry = incoming.poll()) != null; ) {
+            entry.waitingSince = processingIndex;
+            queues[entry.priority.ordinal()].addLast(entry);
+        }
+        
+        long startTime = clock.getAsLong();
+        int ranNum = 0;
+        
+        // the tasks that waited too long run first.
+        // in one queue, the head is the one that waited longest
+        for (ArrayDeque<Entry> queue : queues) {
+            while (!queue.isEmpty() &&
+                processingIndex - queue.peekFirst().waitingSince > MAX_WAIT_PROCESSINGS
+            ) {
+                if (ranNum != 0 && clock.getAsLong() - startTime >= budgetNanos) {
+                    onProcessingEnd();
+                    return;
+                }
+                runEntry(queue.pollFirst(), queue);
+                ranNum++;
             }
-            catch (Throwable e) {
-                LOGGER.error("Failed to process task {}", task, e);
-                return true;
+        }
+        
+        for (ArrayDeque<Entry> queue : queues) {
+            // the tasks that ran in this processing are behind the ones that haven't
+            while (!queue.isEmpty() && queue.peekFirst().lastRun != processingIndex) {
+                if (ranNum != 0 && clock.getAsLong() - startTime >= budgetNanos) {
+                    onProcessingEnd();
+                    return;
+                }
+                runEntry(queue.pollFirst(), queue);
+                ranNum++;
             }
-        });
+        }
+        
+        onProcessingEnd();
     }
     
-    public synchronized void forceClearTasks() {
-        for (MyTask task : tasks) {
-            task.onCancelled();
+    private void runEntry(Entry entry, ArrayDeque<Entry> queue) {
+        entry.lastRun = processingIndex;
+        
+        long taskStartTime = clock.getAsLong();
+        boolean finished;
+        try {
+            finished = entry.task.runAndGetIsFinished();
         }
+        catch (Throwable e) {
+            LOGGER.error("Failed to process task {}", entry.task, e);
+            finished = true;
+        }
+        long duration = clock.getAsLong() - taskStartTime;
         
-        for (MyTask task : tasksToAdd) {
-            task.onCancelled();
+        entry.totalNanos += duration;
+        entry.runCount++;
+        if (taskTimeHistogram != null) {
+            taskTimeHistogram.record(duration);
+        }
+        if (duration > budgetNanos) {
+            LIMITED_LOGGER.lInfo(
+                LOGGER, "Task {} in task list {} took {}ms, exceeding the budget {}ms",
+                entry.task, name, duration / 1000000.0, budgetNanos / 1000000.0
+            );
         }
         
-        tasks.clear();
-        tasksToAdd.clear();
+        if (!finished) {
+            entry.waitingSince = processingIndex;
+            queue.addLast(entry);
+        }
+    }
+    
+    private void onProcessingEnd() {
+        int deferredNum = 0;
+        int pendingNum = 0;
+        for (ArrayDeque<Entry> queue : queues) {
+            for (Entry entry : queue) {
+                if (entry.lastRun != processingIndex) {
+                    deferredNum++;
+                }
+            }
+            pendingNum += queue.size();
+        }
+        lastDeferredNum = deferredNum;
+        
+        if (deferredCounter != null) {
+            deferredCounter.add(deferredNum);
+        }
+        if (pendingGauge != null) {
+            pendingGauge.set(pendingNum);
+        }
+    }
+    
+    public void forceClearTasks() {
+        for (ArrayDeque<Entry> queue : queues) {
+            for (Entry entry : queue) {
+                entry.task.onCancelled();
+            }
+            queue.clear();
+        }
+        
+        for (Entry entry; (entry = incoming.poll()) != null; ) {
+            entry.task.onCancelled();
+        }
+    }
+    
+    /**
+     * @return the number of pending tasks, not counting the ones added during the last processing
+     */
+    public int getPendingTaskNum() {
+        int result = 0;
+        for (ArrayDeque<Entry> queue : queues) {
+            result += queue.size();
+        }
+        return result;
+    }
+    
+    /**
+     * @return the number of tasks that didn't run in the last processing because of the time budget
+     */
+    public int getLastDeferredNum() {
+        return lastDeferredNum;
+    }
+    
+    public String getDebugString() {
+        Entry slowest = null;
+        for (ArrayDeque<Entry> queue : queues) {
+            for (Entry entry : queue) {
+                if (slowest == null || entry.totalNanos > slowest.totalNanos) {
+                    slowest = entry;
+                }
+            }
+        }
+        
+        String result = String.format(
+            "Task list %s: %s pending, %s deferred in the last processing",
+            name, getPendingTaskNum(), lastDeferredNum
+        );
+        if (slowest != null) {
+            result += String.format(
+                ", slowest pending task %s ran %s times in %.2fms",
+                slowest.task, slowest.runCount, slowest.totalNanos / 1000000.0
+            );
+        }
+        return result;
     }
     
     public static MyTask oneShotTask(Runnable runnable) {
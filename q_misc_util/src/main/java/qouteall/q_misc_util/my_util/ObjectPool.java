@@ -0,0 +1,300 @@
+package qouteall.q_misc_util.my_util;
+
+import org.jetbrains.annotations.Nullable;
+import qouteall.q_misc_util.metrics.Counter;
+import qouteall.q_misc_util.metrics.Metrics;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * A pool of reusable objects.
+ * <p>
+ * Acquiring takes an idle object if there is one (a hit), otherwise creates one (a miss).
+ * Releasing puts the object back as idle. When there are already maxIdle idle objects,
+ * the released object is destroyed. maxIdle is a soft bound:
+ * in the thread-safe pool, concurrent releases may exceed it slightly.
+ * <p>
+ * The idle objects are reused in LIFO order, so the recently used ones (likely still in cache) are reused first.
+ * {@link #trimIdle()} destroys the idle objects that were not needed since the last trimming:
+ * the lowest idle count since the last trimming is the number of objects that stayed idle during the whole period.
+ * <p>
+ * If the pool has a name, the hits, misses and destroys are also counted in the metrics "pool.[name].*".
+ */
+public abstract class ObjectPool<T> {
+    @Nullable
+    public final String name;
+    protected final Supplier<T> creator;
+    protected final Consumer<T> destroyer;
+    protected volatile int maxIdle;
+    
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder destroyCount = new LongAdder();
+    
+    @Nullable
+    private final Counter hitCounter;
+    @Nullable
+    private final Counter missCounter;
+    @Nullable
+    private final Counter destroyCounter;
+    
+    protected ObjectPool(
+        @Nullable String name, int maxIdle, Supplier<T> creator, Consumer<T> destroyer
+    ) {
+        this.name = name;
+        this.maxIdle = maxIdle;
+        this.creator = creator;
+        this.destroyer = destroyer;
+        
+        if (name != null) {
+            hitCounter = Metrics.counter("pool." + name + ".hit");
+            missCounter = Metrics.counter("pool." + name + ".miss");
+            destroyCounter = Metrics.counter("pool." + name + ".destroy");
+        }
+        else {
+            hitCounter = null;
+            missCounter = null;
+            destroyCounter = null;
+        }
+    }
+    
+    /**
+     * The pool that can only be used in one thread (for example the render thread). It has no synchronization.
+     */
+    public static <T> ObjectPool<T> threadConfined(
+        @Nullable String name, int maxIdle, Supplier<T> creator, Consumer<T> destroyer
+    ) {
+        return new ThreadConfined<>(name, maxIdle, creator, destroyer);
+    }
+    
+    /**
+     * The pool that can be acquired and released from any thread. It's lock-free.
+     */
+    public static <T> ObjectPool<T> threadSafe(
+        @Nullable String name, int maxIdle, Supplier<T> creator, Consumer<T> destroyer
+    ) {
+        return new ThreadSafe<>(name, maxIdle, creator, destroyer);
+    }
+    
+    @Nullable
+    protected abstract T pollIdle();
+    
+    /**
+     * @return false if there are already maxIdle idle objects
+     */
+    protected abstract boolean offerIdle(T obj);
+    
+    public abstract int getIdleCount();
+    
+    /**
+     * @return the lowest idle count since the last trimming, and start a new period
+     */
+    protected abstract int resetIdleLowWater();
+    
+    public T acquire() {
+        T obj = pollIdle();
+        if (obj != null) {
+            hitCount.increment();
+            if (hitCounter != null) {
+                hitCounter.inc();
+            }
+            return obj;
+        }
+        
+        missCount.increment();
+        if (missCounter != null) {
+            missCounter.inc();
+        }
+        return creator.get();
+    }
+    
+    public void release(T obj) {
+        if (!offerIdle(obj)) {
+            destroy(obj);
+        }
+    }
+    
+    /**
+     * Create idle objects until there are num idle objects, not exceeding maxIdle.
+     */
+    public void reserve(int num) {
+        int toCreate = Math.min(num, maxIdle) - getIdleCount();
+        for (int i = 0; i < toCreate; i++) {
+            T obj = creator.get();
+            if (!offerIdle(obj)) {
+                destroy(obj);
+                break;
+            }
+        }
+    }
+    
+    public void setMaxIdle(int newMaxIdle) {
+        maxIdle = newMaxIdle;
+        while (getIdleCount() > newMaxIdle) {
+            T obj = pollIdle();
+            if (obj == null) {
+                break;
+            }
+            destroy(obj);
+        }
+    }
+    
+    public int getMaxIdle() {
+        return maxIdle;
+    }
+    
+    /**
+     * Destroys the idle objects that were not needed since the last trimming.
+     *
+     * @return the number of destroyed objects
+     */
+    public int trimIdle() {
+        int unused = resetIdleLowWater();
+        int destroyed = 0;
+        for (int i = 0; i < unused; i++) {
+            T obj = pollIdle();
+            if (obj == null) {
+                break;
+            }
+            destroy(obj);
+            destroyed++;
+        }
+        // the objects polled for destroying are not acquired by the users
+        resetIdleLowWater();
+        return destroyed;
+    }
+    
+    public void destroyAll() {
+        for (; ; ) {
+            T obj = pollIdle();
+            if (obj == null) {
+                break;
+            }
+            destroy(obj);
+        }
+        resetIdleLowWater();
+    }
+    
+    private void destroy(T obj) {
+        destroyer.accept(obj);
+        destroyCount.increment();
+        if (destroyCounter != null) {
+            destroyCounter.inc();
+        }
+    }
+    
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+    
+    public long getMissCount() {
+        return missCount.sum();
+    }
+    
+    public long getDestroyCount() {
+        return destroyCount.sum();
+    }
+    
+    public String getDebugString() {
+        long hits = getHitCount();
+        long misses = getMissCount();
+        return String.format(
+            "%s idle %s/%s hit %s miss %s (%.1f%% hit) destroyed %s",
+            name == null ? "pool" : name, getIdleCount(), maxIdle, hits, misses,
+            hits + misses == 0 ? 0.0 : hits * 100.0 / (hits + misses),
+            getDestroyCount()
+        );
+    }
+    
+    private static final class ThreadConfined<T> extends ObjectPool<T> {
+        private final ArrayDeque<T> idleObjects = new ArrayDeque<>();
+        private int idleLowWater = 0;
+        
+        private ThreadConfined(
+            @Nullable String name, int maxIdle, Supplier<T> creator, Consumer<T> destroyer
+        ) {
+            super(name, maxIdle, creator, destroyer);
+        }
+        
+        @Nullable
+        @Override
+        protected T pollIdle() {
+            T obj = idleObjects.pollFirst();
+            idleLowWater = Math.min(idleLowWater, idleObjects.size());
+            return obj;
+        }
+        
+        @Override
+        protected boolean offerIdle(T obj) {
+            if (idleObjects.size() >= maxIdle) {
+                return false;
+            }
+            idleObjects.addFirst(obj);
+            return true;
+        }
+        
+        @Override
+        public int getIdleCount() {
+            return idleObjects.size();
+        }
+        
+        @Override
+        protected int resetIdleLowWater() {
+            int result = idleLowWater;
+            idleLowWater = idleObjects.size();
+            return result;
+        }
+    }
+    
+    private static final class ThreadSafe<T> extends ObjectPool<T> {
+        private final ConcurrentLinkedDeque<T> idleObjects = new ConcurrentLinkedDeque<>();
+        // ConcurrentLinkedDeque.size() is O(n), so count separately
+        private final AtomicInteger idleCount = new AtomicInteger(0);
+        private final AtomicInteger idleLowWater = new AtomicInteger(0);
+        
+        private ThreadSafe(
+            @Nullable String name, int maxIdle, Supplier<T> creator, Consumer<T> destroyer
+        ) {
+            super(name, maxIdle, creator, destroyer);
+        }
+        
+        @Nullable
+        @Override
+        protected T pollIdle() {
+            T obj = idleObjects.pollFirst();
+            if (obj != null) {
+                int newCount = idleCount.decrementAndGet();
+                idleLowWater.accumulateAndGet(newCount, Math::min);
+            }
+            else {
+                idleLowWater.set(0);
+            }
+            return obj;
+        }
+        
+        @Override
+        protected boolean offerIdle(T obj) {
+            if (idleCount.get() >= maxIdle) {
+                return false;
+            }
+            idleCount.incrementAndGet();
+            idleObjects.addFirst(obj);
+            return true;
+        }
+        
+        @Override
+        public int getIdleCount() {
+            return idleCount.get();
+        }
+        
+        @Override
+        protected int resetIdleLowWater() {
+            return idleLowWater.getAndSet(idleCount.get());
+        }
+    }
+}
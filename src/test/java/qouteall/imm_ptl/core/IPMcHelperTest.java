@@ -0,0 +1,120 @@
+package qouteall.imm_ptl.core;
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.minecraft.core.SectionPos;
+import net.minecraft.util.Mth;
+import net.minecraft.world.phys.Vec3;
+import org.apache.commons.lang3.Validate;
+import org.jetbrains.annotations.Nullable;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.commons.annotation.Testable;
+
+import java.util.Random;
+
+@Testable
+public class IPMcHelperTest {
+    
+    /**
+     * A portal facing the X axis, with the area of the rectangle on the plane x = center.x
+     */
+    private static record TestPortal(Vec3 center, double halfHeight, double halfWidth) {
+        double getRadius() {
+            return Math.sqrt(halfHeight * halfHeight + halfWidth * halfWidth);
+        }
+        
+        long getSectionPos() {
+            return SectionPos.asLong(
+                SectionPos.blockToSectionCoord(Mth.floor(center.x)),
+                SectionPos.blockToSectionCoord(Mth.floor(center.y)),
+                SectionPos.blockToSectionCoord(Mth.floor(center.z))
+            );
+        }
+        
+        @Nullable
+        Vec3 rayTrace(Vec3 start, Vec3 end) {
+            if ((start.x - center.x) * (end.x - center.x) > 0 || start.x == end.x) {
+                return null;
+            }
+            double t = (center.x - start.x) / (end.x - start.x);
+            Vec3 hit = start.lerp(end, t);
+            if (Math.abs(hit.y - center.y) > halfHeight || Math.abs(hit.z - center.z) > halfWidth) {
+                return null;
+            }
+            return hit;
+        }
+    }
+    
+    private static LongOpenHashSet walk(Vec3 start, Vec3 end, int sectionMargin) {
+        LongOpenHashSet visited = new LongOpenHashSet();
+        IPMcHelper.walkSectionsAlongSegment(
+            start, end, sectionMargin, d -> false,
+            sectionPos -> Validate.isTrue(visited.add(sectionPos), "visited twice")
+        );
+        return visited;
+    }
+    
+    @Test
+    public void testLargePortalFarFromRay() {
+        Vec3 start = new Vec3(0.5, 64.5, 0.5);
+        Vec3 end = new Vec3(300.5, 64.5, 0.5);
+        
+        // the center is 3 sections off the ray, the edge of the portal crosses the ray
+        TestPortal portal = new TestPortal(new Vec3(150, 64, 50), 4, 56);
+        Validate.isTrue(portal.rayTrace(start, end) != null);
+        
+        int margin = IPMcHelper.getRayTraceSectionMargin(portal.getRadius());
+        Validate.isTrue(walk(start, end, margin).contains(portal.getSectionPos()));
+        
+        // the fixed margin of one section misses it
+        Validate.isTrue(!walk(start, end, 1).contains(portal.getSectionPos()));
+    }
+    
+    @Test
+    public void testRandomPortalsAreVisited() {
+        Random random = new Random(1);
+        double maxRadius = 64;
+        int margin = IPMcHelper.getRayTraceSectionMargin(maxRadius);
+        
+        int hitNum = 0;
+        for (int i = 0; i < 2000; i++) {
+            Vec3 start = randomPos(random, 200);
+            Vec3 end = randomPos(random, 200);
+            
+            double halfHeight = random.nextDouble() * maxRadius / Math.sqrt(2);
+            double halfWidth = random.nextDouble() * maxRadius / Math.sqrt(2);
+            TestPortal portal = new TestPortal(randomPos(random, 200), halfHeight, halfWidth);
+            
+            if (portal.rayTrace(start, end) == null) {
+                continue;
+            }
+            hitNum++;
+            
+            Validate.isTrue(
+                walk(start, end, margin).contains(portal.getSectionPos()),
+                "missed %s %s %s", start, end, portal
+            );
+        }
+        Validate.isTrue(hitNum > 0);
+    }
+    
+    @Test
+    public void testStopWalking() {
+        Vec3 start = new Vec3(0.5, 64.5, 0.5);
+        Vec3 end = new Vec3(1000.5, 64.5, 0.5);
+        
+        LongOpenHashSet visited = new LongOpenHashSet();
+        IPMcHelper.walkSectionsAlongSegment(
+            start, end, 0, d -> d > 100, visited::add
+        );
+        // the sections entered within 100 blocks, and the section entered after that is not visited
+        Validate.isTrue(visited.size() == 7, "%s", visited.size());
+    }
+    
+    private static Vec3 randomPos(Random random, double range) {
+        return new Vec3(
+            (random.nextDouble() - 0.5) * range,
+            (random.nextDouble() - 0.5) * range,
+            (random.nextDouble() - 0.5) * range
+        );
+    }
+}
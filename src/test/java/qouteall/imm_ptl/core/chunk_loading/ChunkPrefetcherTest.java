@@ -0,0 +1,213 @@
+package qouteall.imm_ptl.core.chunk_loading;
+
+import com.mojang.logging.LogUtils;
+import net.minecraft.world.phys.Vec3;
+import org.apache.commons.lang3.Validate;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.commons.annotation.Testable;
+import org.slf4j.Logger;
+
+import java.util.Random;
+
+@Testable
+public class ChunkPrefetcherTest {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    
+    // a portal at the origin facing +Z
+    private static final Vec3 AXIS_W = new Vec3(1, 0, 0);
+    private static final Vec3 AXIS_H = new Vec3(0, 1, 0);
+    
+    // the chunks need to be prefetched at least this long before crossing to be useful
+    private static final int REQUIRED_LEAD_TICKS = 20;
+    
+    // how much the simulated player corrects the direction toward the target per tick
+    private static final double STEERING = 0.05;
+    
+    private static class Result {
+        int crossings = 0;
+        int hits = 0;
+        int prefetched = 0;
+        int prefetchedWithoutCrossing = 0;
+        int trials = 0;
+    }
+    
+    /**
+     * Simulate players flying toward a portal with random turning and steering,
+     * and count how many portal crossings are prefetched early enough.
+     */
+    private static Result simulate(Random random, int trialNum, double turnRate) {
+        Result result = new Result();
+        
+        for (int trial = 0; trial < trialNum; trial++) {
+            result.trials++;
+            
+            double width = 2 + random.nextDouble() * 6;
+            double height = 3 + random.nextDouble() * 5;
+            
+            Vec3 pos = new Vec3(
+                random.nextGaussian() * 40,
+                random.nextGaussian() * 10,
+                60 + random.nextDouble() * 190
+            );
+            // aim near the portal, some of them will miss
+            Vec3 target = new Vec3(
+                random.nextGaussian() * width * 0.4,
+                random.nextGaussian() * height * 0.4,
+                0
+            );
+            double speed = 10 + random.nextDouble() * 25;
+            Vec3 velocity = target.subtract(pos).normalize().scale(speed);
+            
+            // the same motion tracking as the server
+            ChunkPrefetcher.PlayerMotion motion = new ChunkPrefetcher.PlayerMotion();
+            motion.updatePosition(pos);
+            int playerId = trial;
+            
+            int predictionStartTick = -1;
+            boolean everPredicted = false;
+            boolean crossed = false;
+            
+            int maxTicks = (int) (pos.z / speed * 20) + 40;
+            for (int tick = 0; tick < maxTicks; tick++) {
+                // random turning, then steering toward the target
+                double yaw = random.nextGaussian() * turnRate;
+                double pitch = random.nextGaussian() * turnRate * 0.5;
+                Vec3 direction = velocity.normalize().yRot((float) yaw).xRot((float) pitch);
+                Vec3 targetDirection = target.subtract(pos).normalize();
+                velocity = direction.lerp(targetDirection, STEERING).normalize().scale(speed);
+                
+                Vec3 newPos = pos.add(velocity.scale(1.0 / 20));
+                motion.updatePosition(newPos);
+                
+                if (pos.z > 0 && newPos.z <= 0) {
+                    double t = pos.z / (pos.z - newPos.z);
+                    Vec3 crossPoint = pos.lerp(newPos, t);
+                    if (Math.abs(crossPoint.x) <= width / 2 && Math.abs(crossPoint.y) <= height / 2) {
+                        crossed = true;
+                        result.crossings++;
+                        if (predictionStartTick != -1 && tick - predictionStartTick >= REQUIRED_LEAD_TICKS) {
+                            result.hits++;
+                        }
+                    }
+                    break;
+                }
+                
+                pos = newPos;
+                
+                if (ChunkPrefetcher.isPredictionTick(playerId, tick)) {
+                    double time = ChunkPrefetcher.predictPrefetchCrossingTime(
+                        pos, motion.getVelocity(),
+                        Vec3.ZERO, AXIS_W, AXIS_H, width, height
+                    );
+                    
+                    if (Double.isNaN(time)) {
+                        // the prediction changed, the prefetch is cancelled
+                        predictionStartTick = -1;
+                    }
+                    else {
+                        everPredicted = true;
+                        if (predictionStartTick == -1) {
+                            predictionStartTick = tick;
+                        }
+                    }
+                }
+            }
+            
+            if (everPredicted) {
+                result.prefetched++;
+                if (!crossed) {
+                    result.prefetchedWithoutCrossing++;
+                }
+            }
+        }
+        
+        return result;
+    }
+    
+    @Test
+    public void testPrefetchHitRate() {
+        Random random = new Random(42);
+        
+        for (double turnRate : new double[]{0, 0.01, 0.03}) {
+            Result result = simulate(random, 3000, turnRate);
+            double hitRate = (double) result.hits / result.crossings;
+            double wasteRate = (double) result.prefetchedWithoutCrossing / result.prefetched;
+            
+            LOGGER.info(
+                "Turn rate {}: {} crossings in {} trials, hit rate {}, wasted prefetch rate {}",
+                turnRate, result.crossings, result.trials, hitRate, wasteRate
+            );
+            
+            Validate.isTrue(result.crossings > 100);
+            Validate.isTrue(hitRate > 0.8, "hit rate too low %s", hitRate);
+            Validate.isTrue(wasteRate < 0.7, "wasted prefetch rate too high %s", wasteRate);
+        }
+    }
+    
+    @Test
+    public void testVelocityEstimate() {
+        ChunkPrefetcher.PlayerMotion motion = new ChunkPrefetcher.PlayerMotion();
+        Vec3 pos = new Vec3(0, 64, 0);
+        motion.updatePosition(pos);
+        Validate.isTrue(motion.getVelocity().equals(Vec3.ZERO));
+        
+        // 20 blocks per second
+        for (int i = 0; i < 40; i++) {
+            pos = pos.add(1, 0, 0);
+            motion.updatePosition(pos);
+        }
+        Validate.isTrue(Math.abs(motion.getVelocity().x - 20) < 0.01, "%s", motion.getVelocity());
+        
+        // a teleport is not movement
+        pos = pos.add(0, 0, 1000);
+        motion.updatePosition(pos);
+        Validate.isTrue(motion.getVelocity().equals(Vec3.ZERO));
+        
+        // too slow to prefetch
+        double time = ChunkPrefetcher.predictPrefetchCrossingTime(
+            new Vec3(0, 0, 10), new Vec3(0, 0, -ChunkPrefetcher.MIN_SPEED / 2),
+            Vec3.ZERO, AXIS_W, AXIS_H, 4, 4
+        );
+        Validate.isTrue(Double.isNaN(time));
+        
+        // each player is predicted once per interval
+        for (int playerId = 0; playerId < 30; playerId++) {
+            int predictionNum = 0;
+            for (int tick = 0; tick < ChunkPrefetcher.PREDICTION_INTERVAL * 10; tick++) {
+                if (ChunkPrefetcher.isPredictionTick(playerId, tick)) {
+                    predictionNum++;
+                }
+            }
+            Validate.isTrue(predictionNum == 10);
+        }
+    }
+    
+    @Test
+    public void testNoPrefetchWhenMovingAway() {
+        double time = ChunkPrefetcher.predictCrossingTime(
+            new Vec3(0, 0, 10), new Vec3(0, 0, 20),
+            Vec3.ZERO, AXIS_W, AXIS_H, 4, 4, ChunkPrefetcher.HORIZON_SECONDS
+        );
+        Validate.isTrue(Double.isNaN(time));
+        
+        // behind the portal, moving toward its back side
+        time = ChunkPrefetcher.predictCrossingTime(
+            new Vec3(0, 0, -10), new Vec3(0, 0, 20),
+            Vec3.ZERO, AXIS_W, AXIS_H, 4, 4, ChunkPrefetcher.HORIZON_SECONDS
+        );
+        Validate.isTrue(Double.isNaN(time));
+        
+        // too far away
+        time = ChunkPrefetcher.predictCrossingTime(
+            new Vec3(0, 0, 1000), new Vec3(0, 0, -20),
+            Vec3.ZERO, AXIS_W, AXIS_H, 4, 4, ChunkPrefetcher.HORIZON_SECONDS
+        );
+        Validate.isTrue(Double.isNaN(time));
+        
+        time = ChunkPrefetcher.predictCrossingTime(
+            new Vec3(1, 1, 100), new Vec3(0, 0, -20),
+            Vec3.ZERO, AXIS_W, AXIS_H, 4, 4, ChunkPrefetcher.HORIZON_SECONDS
+        );
+        Validate.isTrue(Math.abs(time - 5) < 1e-6);
+    }
+}
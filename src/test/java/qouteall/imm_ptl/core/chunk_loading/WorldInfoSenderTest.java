@@ -0,0 +1,239 @@
+package qouteall.imm_ptl.core.chunk_loading;
+
+import com.mojang.logging.LogUtils;
+import org.apache.commons.lang3.Validate;
+import org.jetbrains.annotations.Nullable;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.commons.annotation.Testable;
+import org.slf4j.Logger;
+
+@Testable
+public class WorldInfoSenderTest {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    
+    /**
+     * A dimension that the server ticks, with the real time that passes per tick.
+     */
+    private static class SimulatedDimension {
+        long gameTime = 1000;
+        long dayTime = 6000;
+        boolean doDaylightCycle = true;
+        boolean raining = false;
+        float rainLevel = 0;
+        float thunderLevel = 0;
+        // rain level goes toward this by 0.01 per tick, like vanilla
+        float targetRainLevel = 0;
+        
+        long timeMillis = 100000;
+        
+        void tick(long millisPerTick) {
+            gameTime++;
+            if (doDaylightCycle) {
+                dayTime++;
+            }
+            if (rainLevel < targetRainLevel) {
+                rainLevel = Math.min(targetRainLevel, rainLevel + 0.01f);
+            }
+            else if (rainLevel > targetRainLevel) {
+                rainLevel = Math.max(targetRainLevel, rainLevel - 0.01f);
+            }
+            // the same as Level.isRaining
+            raining = rainLevel > 0.2;
+            timeMillis += millisPerTick;
+        }
+        
+        WorldInfoSender.DimensionState getState() {
+            return new WorldInfoSender.DimensionState(
+                gameTime, dayTime, doDaylightCycle, raining, rainLevel, thunderLevel
+            );
+        }
+    }
+    
+    /**
+     * The per-player record, the same as in WorldInfoSender.tick
+     */
+    private static class PlayerSimulation {
+        @Nullable
+        WorldInfoSender.SentState sentState;
+        int packetNum = 0;
+        int sendingNum = 0;
+        
+        void update(SimulatedDimension dimension) {
+            WorldInfoSender.DimensionState state = dimension.getState();
+            int flags = WorldInfoSender.computeUpdates(sentState, state, dimension.timeMillis);
+            if (flags == 0) {
+                return;
+            }
+            packetNum += WorldInfoSender.getPacketNum(flags);
+            sendingNum++;
+            if (sentState == null) {
+                sentState = new WorldInfoSender.SentState();
+            }
+            sentState.apply(state, flags, dimension.timeMillis);
+        }
+    }
+    
+    @Test
+    public void testStaticWorldSendsOnce() {
+        SimulatedDimension dimension = new SimulatedDimension();
+        PlayerSimulation player = new PlayerSimulation();
+        
+        // 10 minutes
+        for (int i = 0; i < 12000; i++) {
+            dimension.tick(50);
+            player.update(dimension);
+        }
+        
+        // the time, rain level and thunder level when it becomes visible,
+        // then only the time is resent once per minute
+        long resendNum = 12000L * 50 / WorldInfoSender.TIME_RESEND_MILLIS;
+        Validate.isTrue(
+            player.sendingNum >= resendNum && player.sendingNum <= 1 + resendNum,
+            "sent %s times", player.sendingNum
+        );
+        Validate.isTrue(player.packetNum == 2 + player.sendingNum, "sent %s packets", player.packetNum);
+        
+        // the previous way sends time, rain level and thunder level every 100 ticks
+        LOGGER.info(
+            "Static world in 12000 ticks: {} packets, previously {}",
+            player.packetNum, 12000 / 100 * 3
+        );
+    }
+    
+    @Test
+    public void testStaticRainingWorld() {
+        SimulatedDimension dimension = new SimulatedDimension();
+        dimension.rainLevel = 1;
+        dimension.targetRainLevel = 1;
+        dimension.thunderLevel = 1;
+        PlayerSimulation player = new PlayerSimulation();
+        
+        for (int i = 0; i < 12000; i++) {
+            dimension.tick(50);
+            player.update(dimension);
+        }
+        
+        // with the start raining packet, then the time resends
+        Validate.isTrue(player.packetNum == 3 + player.sendingNum, "sent %s packets", player.packetNum);
+        Validate.isTrue(player.sendingNum <= 1 + 12000L * 50 / WorldInfoSender.TIME_RESEND_MILLIS);
+    }
+    
+    @Test
+    public void testTimeDiscontinuity() {
+        SimulatedDimension dimension = new SimulatedDimension();
+        PlayerSimulation player = new PlayerSimulation();
+        
+        for (int i = 0; i < 100; i++) {
+            dimension.tick(50);
+            player.update(dimension);
+        }
+        Validate.isTrue(player.sendingNum == 1);
+        
+        // like /time set or sleeping through the night
+        dimension.dayTime += 12000;
+        dimension.tick(50);
+        player.update(dimension);
+        Validate.isTrue(player.sendingNum == 2);
+        Validate.isTrue(player.sentState.dayTime == dimension.dayTime);
+        
+        // a small jitter of the server tick is tolerated
+        dimension.tick(80);
+        player.update(dimension);
+        dimension.tick(20);
+        player.update(dimension);
+        Validate.isTrue(player.sendingNum == 2);
+        
+        // turning off the daylight cycle stops the client's day time
+        dimension.doDaylightCycle = false;
+        dimension.tick(50);
+        player.update(dimension);
+        Validate.isTrue(player.sendingNum == 3);
+        
+        for (int i = 0; i < 1000; i++) {
+            dimension.tick(50);
+            player.update(dimension);
+        }
+        Validate.isTrue(player.sendingNum == 3);
+    }
+    
+    @Test
+    public void testClientDriftIsCorrected() {
+        SimulatedDimension dimension = new SimulatedDimension();
+        PlayerSimulation player = new PlayerSimulation();
+        
+        dimension.tick(50);
+        player.update(dimension);
+        
+        // the server's prediction holds, but the client may not have ticked the dimension
+        int tickNum = (int) (WorldInfoSender.TIME_RESEND_MILLIS / 50);
+        for (int i = 0; i < tickNum; i++) {
+            dimension.tick(50);
+            player.update(dimension);
+            if (player.sendingNum > 1) {
+                break;
+            }
+        }
+        
+        // it's resent within the interval
+        Validate.isTrue(player.sendingNum == 2);
+        Validate.isTrue(player.sentState.dayTime == dimension.dayTime);
+    }
+    
+    @Test
+    public void testServerLagResyncs() {
+        SimulatedDimension dimension = new SimulatedDimension();
+        PlayerSimulation player = new PlayerSimulation();
+        
+        // 10 TPS, the client time runs ahead by 10 ticks per second
+        for (int i = 0; i < 1000; i++) {
+            dimension.tick(100);
+            player.update(dimension);
+            
+            long clientTicks = (dimension.timeMillis - player.sentState.sentTimeMillis) / 50;
+            long clientDayTime = player.sentState.dayTime + clientTicks;
+            Validate.isTrue(
+                Math.abs(clientDayTime - dimension.dayTime) <= WorldInfoSender.TIME_TOLERANCE_TICKS
+            );
+        }
+        
+        // it resyncs when the drift exceeds the tolerance, about every 2 seconds
+        Validate.isTrue(player.sendingNum > 1 && player.sendingNum < 1000 / 10, "%s", player.sendingNum);
+        LOGGER.info("100 seconds at 10 TPS: {} time syncs", player.sendingNum);
+    }
+    
+    @Test
+    public void testRainTransition() {
+        SimulatedDimension dimension = new SimulatedDimension();
+        PlayerSimulation player = new PlayerSimulation();
+        
+        for (int i = 0; i < 100; i++) {
+            dimension.tick(50);
+            player.update(dimension);
+        }
+        int initialPacketNum = player.packetNum;
+        
+        dimension.targetRainLevel = 1;
+        for (int i = 0; i < 400; i++) {
+            dimension.tick(50);
+            player.update(dimension);
+        }
+        
+        // the client knows the final state
+        Validate.isTrue(player.sentState.raining);
+        Validate.isTrue(player.sentState.rainLevel == 1);
+        
+        int transitionPackets = player.packetNum - initialPacketNum;
+        // about one rain level packet per 0.05, plus the start raining packet with the levels
+        Validate.isTrue(transitionPackets >= 10 && transitionPackets <= 30, "%s", transitionPackets);
+        
+        dimension.targetRainLevel = 0;
+        for (int i = 0; i < 400; i++) {
+            dimension.tick(50);
+            player.update(dimension);
+        }
+        Validate.isTrue(!player.sentState.raining);
+        Validate.isTrue(player.sentState.rainLevel == 0);
+        
+        LOGGER.info("Rain transition: {} packets", transitionPackets);
+    }
+}
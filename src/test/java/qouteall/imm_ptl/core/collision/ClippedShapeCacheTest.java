@@ -0,0 +1,163 @@
+package qouteall.imm_ptl.core.collision;
+
+import com.mojang.logging.LogUtils;
+import net.minecraft.core.BlockPos;
+import net.minecraft.world.phys.Vec3;
+import net.minecraft.world.phys.shapes.BooleanOp;
+import net.minecraft.world.phys.shapes.Shapes;
+import net.minecraft.world.phys.shapes.VoxelShape;
+import org.apache.commons.lang3.Validate;
+import org.jetbrains.annotations.Nullable;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.commons.annotation.Testable;
+import org.slf4j.Logger;
+import qouteall.q_misc_util.metrics.Counter;
+import qouteall.q_misc_util.metrics.Metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+@Testable
+public class ClippedShapeCacheTest {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    
+    private static final Counter HIT_COUNTER = Metrics.counter("collision.clip_cache.hit");
+    private static final Counter MISS_COUNTER = Metrics.counter("collision.clip_cache.miss");
+    
+    // the shapes are created once, like the shapes cached in block states
+    private static final List<VoxelShape> BLOCK_SHAPES = List.of(
+        Shapes.block(),
+        // bottom slab
+        Shapes.box(0, 0, 0, 1, 0.5, 1),
+        // stairs
+        Shapes.or(Shapes.box(0, 0, 0, 1, 0.5, 1), Shapes.box(0, 0.5, 0, 0.5, 1, 1)),
+        // fence post
+        Shapes.box(0.375, 0, 0.375, 0.625, 1.5, 0.625)
+    );
+    
+    private record Block(VoxelShape shape, BlockPos pos) {}
+    
+    private static List<Block> generateTerrain(Random random) {
+        List<Block> result = new ArrayList<>();
+        for (int x = -4; x <= 4; x++) {
+            for (int y = 62; y <= 66; y++) {
+                for (int z = -4; z <= 4; z++) {
+                    if (random.nextInt(3) == 0) {
+                        continue;
+                    }
+                    VoxelShape shape = BLOCK_SHAPES.get(random.nextInt(BLOCK_SHAPES.size()));
+                    result.add(new Block(shape, new BlockPos(x, y, z)));
+                }
+            }
+        }
+        return result;
+    }
+    
+    private static boolean isSameShape(@Nullable VoxelShape a, @Nullable VoxelShape b) {
+        boolean aEmpty = a == null || a.isEmpty();
+        boolean bEmpty = b == null || b.isEmpty();
+        if (aEmpty || bEmpty) {
+            return aEmpty == bEmpty;
+        }
+        return !Shapes.joinIsNotEmpty(a, b, BooleanOp.NOT_SAME);
+    }
+    
+    @Test
+    public void testRepeatedClipDoesNoJoin() {
+        List<Block> terrain = generateTerrain(new Random(1));
+        
+        // a diagonal portal plane, so that the clipped shapes are not simple
+        Vec3 planePos = new Vec3(0.3, 64, 0.7);
+        Vec3 planeNormal = new Vec3(1, 0.2, 1).normalize();
+        
+        ClippedShapeCache cache = new ClippedShapeCache();
+        
+        long joinsBefore = CollisionHelper.CLIP_JOIN_COUNTER.get();
+        long missesBefore = MISS_COUNTER.get();
+        
+        List<VoxelShape> firstResults = new ArrayList<>();
+        for (Block block : terrain) {
+            firstResults.add(cache.clipBlockShape(block.shape, block.pos, planePos, planeNormal));
+        }
+        
+        long firstJoins = CollisionHelper.CLIP_JOIN_COUNTER.get() - joinsBefore;
+        long firstMisses = MISS_COUNTER.get() - missesBefore;
+        Validate.isTrue(firstJoins > 0);
+        Validate.isTrue(firstMisses > 0);
+        
+        // the results are the same as clipping without cache
+        for (int i = 0; i < terrain.size(); i++) {
+            Block block = terrain.get(i);
+            VoxelShape expected = CollisionHelper.clipVoxelShape(
+                block.shape.move(block.pos.getX(), block.pos.getY(), block.pos.getZ()),
+                planePos, planeNormal
+            );
+            Validate.isTrue(isSameShape(expected, firstResults.get(i)), "wrong clipped shape at %s", block.pos);
+        }
+        
+        joinsBefore = CollisionHelper.CLIP_JOIN_COUNTER.get();
+        long hitsBefore = HIT_COUNTER.get();
+        missesBefore = MISS_COUNTER.get();
+        
+        for (int i = 0; i < terrain.size(); i++) {
+            Block block = terrain.get(i);
+            VoxelShape result = cache.clipBlockShape(block.shape, block.pos, planePos, planeNormal);
+            Validate.isTrue(isSameShape(result, firstResults.get(i)));
+        }
+        
+        long secondJoins = CollisionHelper.CLIP_JOIN_COUNTER.get() - joinsBefore;
+        long secondHits = HIT_COUNTER.get() - hitsBefore;
+        long secondMisses = MISS_COUNTER.get() - missesBefore;
+        
+        LOGGER.info(
+            "{} blocks, first pass {} joins {} misses, second pass {} joins {} hits",
+            terrain.size(), firstJoins, firstMisses, secondJoins, secondHits
+        );
+        
+        Validate.isTrue(secondJoins == 0);
+        Validate.isTrue(secondMisses == 0);
+        Validate.isTrue(secondHits == firstMisses);
+    }
+    
+    @Test
+    public void testPortalMoveMisses() {
+        List<Block> terrain = generateTerrain(new Random(2));
+        Vec3 planeNormal = new Vec3(1, 0, 0);
+        
+        ClippedShapeCache cache = new ClippedShapeCache();
+        
+        for (Block block : terrain) {
+            cache.clipBlockShape(block.shape, block.pos, new Vec3(0.5, 0, 0), planeNormal);
+        }
+        
+        long hitsBefore = HIT_COUNTER.get();
+        
+        // the moved portal has a different plane, the old entries are not used
+        Vec3 movedPlanePos = new Vec3(0.25, 0, 0);
+        for (Block block : terrain) {
+            VoxelShape result = cache.clipBlockShape(block.shape, block.pos, movedPlanePos, planeNormal);
+            VoxelShape expected = CollisionHelper.clipVoxelShape(
+                block.shape.move(block.pos.getX(), block.pos.getY(), block.pos.getZ()),
+                movedPlanePos, planeNormal
+            );
+            Validate.isTrue(isSameShape(expected, result));
+        }
+        
+        Validate.isTrue(HIT_COUNTER.get() == hitsBefore);
+    }
+    
+    @Test
+    public void testSizeIsBounded() {
+        ClippedShapeCache cache = new ClippedShapeCache();
+        Vec3 planePos = new Vec3(0.5, 0, 0);
+        Vec3 planeNormal = new Vec3(1, 0, 0);
+        
+        // all of these blocks intersect the plane
+        for (int z = 0; z < ClippedShapeCache.MAX_SIZE * 2; z++) {
+            cache.clipBlockShape(Shapes.block(), new BlockPos(0, 64, z), planePos, planeNormal);
+        }
+        
+        Validate.isTrue(cache.getSize() == ClippedShapeCache.MAX_SIZE);
+    }
+}
@@ -0,0 +1,290 @@
+package qouteall.imm_ptl.core.collision;
+
+import com.mojang.logging.LogUtils;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.Direction;
+import net.minecraft.world.level.border.WorldBorder;
+import net.minecraft.world.phys.AABB;
+import net.minecraft.world.phys.Vec3;
+import net.minecraft.world.phys.shapes.Shapes;
+import net.minecraft.world.phys.shapes.VoxelShape;
+import org.apache.commons.lang3.Validate;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.commons.annotation.Testable;
+import org.slf4j.Logger;
+import qouteall.q_misc_util.Helper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+@Testable
+public class MoveCollisionContextTest {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    
+    private static final List<VoxelShape> BLOCK_SHAPES = List.of(
+        Shapes.block(),
+        // bottom slab
+        Shapes.box(0, 0, 0, 1, 0.5, 1),
+        // top slab
+        Shapes.box(0, 0.5, 0, 1, 1, 1),
+        // stairs
+        Shapes.or(Shapes.box(0, 0, 0, 1, 0.5, 1), Shapes.box(0, 0.5, 0, 0.5, 1, 1)),
+        // fence post
+        Shapes.box(0.375, 0, 0.375, 0.625, 1.5, 0.625),
+        // carpet
+        Shapes.box(0, 0, 0, 1, 0.0625, 1),
+        // snow layers
+        Shapes.box(0, 0, 0, 1, 0.375, 1)
+    );
+    
+    private static final Direction[] GRAVITY_DIRECTIONS = {
+        Direction.DOWN, Direction.DOWN, Direction.DOWN, Direction.UP, Direction.NORTH, Direction.EAST
+    };
+    
+    private static final float[] STEP_HEIGHTS = {0, 0.6f, 1.0f, 1.5f};
+    
+    private record Block(VoxelShape localShape, BlockPos pos) {}
+    
+    /**
+     * A floor along the gravity direction with random blocks on it.
+     */
+    private static List<Block> generateTerrain(Random random, Direction gravity) {
+        List<Block> result = new ArrayList<>();
+        for (int a = -3; a <= 3; a++) {
+            for (int b = -3; b <= 3; b++) {
+                // the floor
+                result.add(new Block(Shapes.block(), getBlockPos(gravity, a, b, -1)));
+                
+                for (int height = 0; height < 3; height++) {
+                    if (random.nextInt(3 + height * 3) == 0) {
+                        VoxelShape shape = BLOCK_SHAPES.get(random.nextInt(BLOCK_SHAPES.size()));
+                        result.add(new Block(shape, getBlockPos(gravity, a, b, height)));
+                    }
+                }
+            }
+        }
+        return result;
+    }
+    
+    // the position on the plane perpendicular to gravity, the height is against gravity
+    // the shapes are not rotated, which doesn't matter for comparing the results
+    private static BlockPos getBlockPos(Direction gravity, int a, int b, int height) {
+        int signedHeight = gravity.getAxisDirection() == Direction.AxisDirection.NEGATIVE ? height : -height - 1;
+        return switch (gravity.getAxis()) {
+            case Y -> new BlockPos(a, signedHeight, b);
+            case X -> new BlockPos(signedHeight, a, b);
+            case Z -> new BlockPos(a, b, signedHeight);
+        };
+    }
+    
+    // like CollisionHelper.foreachBlockCollision, filters the blocks by the shape bounds
+    private static MoveCollisionContext.BlockCollisionGetter getBlockCollisionGetter(List<Block> terrain) {
+        return (box, func) -> {
+            for (Block block : terrain) {
+                if (block.localShape.bounds().move(block.pos).intersects(box)) {
+                    func.accept(block.localShape, block.pos);
+                }
+            }
+        };
+    }
+    
+    // the box of size 0.6 x 1.8 x 0.6, its feet is at the height against gravity
+    private static AABB getPlayerBox(Direction gravity, double a, double b, double feetHeight) {
+        double heightSign = gravity.getAxisDirection() == Direction.AxisDirection.NEGATIVE ? 1 : -1;
+        double feet = feetHeight * heightSign;
+        double head = (feetHeight + 1.8) * heightSign;
+        double minH = Math.min(feet, head);
+        double maxH = Math.max(feet, head);
+        return switch (gravity.getAxis()) {
+            case Y -> new AABB(a - 0.3, minH, b - 0.3, a + 0.3, maxH, b + 0.3);
+            case X -> new AABB(minH, a - 0.3, b - 0.3, maxH, a + 0.3, b + 0.3);
+            case Z -> new AABB(a - 0.3, b - 0.3, minH, a + 0.3, b + 0.3, maxH);
+        };
+    }
+    
+    /**
+     * The previous way, the same as {@link CollisionHelper#collideBoundingBox}:
+     * gathers and processes the block shapes in each collision's swept box.
+     */
+    private static Vec3 collidePerQuery(
+        Vec3 vec, AABB collisionBox,
+        List<VoxelShape> entityCollisions, MoveCollisionContext.BlockCollisionGetter blockCollisionGetter,
+        WorldBorder worldBorder, CollisionShapeProcessor shapeProcessor
+    ) {
+        List<VoxelShape> shapes = new ArrayList<>();
+        
+        for (VoxelShape entityCollision : entityCollisions) {
+            VoxelShape processed = shapeProcessor.processShape(entityCollision);
+            if (processed != null) {
+                shapes.add(processed);
+            }
+        }
+        
+        Vec3 boundingBoxCenter = collisionBox.getCenter();
+        if (worldBorder.isWithinBounds(boundingBoxCenter.x, boundingBoxCenter.z)
+            && worldBorder.getDistanceToBorder(boundingBoxCenter.x, boundingBoxCenter.z) < 32
+        ) {
+            shapes.add(worldBorder.getCollisionShape());
+        }
+        
+        blockCollisionGetter.foreachBlockCollision(collisionBox.expandTowards(vec), (localShape, pos) -> {
+            VoxelShape processed = shapeProcessor.processBlockShape(localShape, pos);
+            if (processed != null) {
+                shapes.add(processed);
+            }
+        });
+        
+        return collideWithShapes(vec, collisionBox, shapes);
+    }
+    
+    // vanilla copy of Entity#collideWithShapes, the game uses the mixin invoker which doesn't work in tests
+    private static Vec3 collideWithShapes(Vec3 vec, AABB box, List<VoxelShape> shapes) {
+        if (shapes.isEmpty()) {
+            return vec;
+        }
+        
+        double x = vec.x;
+        double y = vec.y;
+        double z = vec.z;
+        if (y != 0.0) {
+            y = Shapes.collide(Direction.Axis.Y, box, shapes, y);
+            if (y != 0.0) {
+                box = box.move(0.0, y, 0.0);
+            }
+        }
+        
+        boolean zFirst = Math.abs(x) < Math.abs(z);
+        if (zFirst && z != 0.0) {
+            z = Shapes.collide(Direction.Axis.Z, box, shapes, z);
+            if (z != 0.0) {
+                box = box.move(0.0, 0.0, z);
+            }
+        }
+        
+        if (x != 0.0) {
+            x = Shapes.collide(Direction.Axis.X, box, shapes, x);
+            if (!zFirst && x != 0.0) {
+                box = box.move(x, 0.0, 0.0);
+            }
+        }
+        
+        if (!zFirst && z != 0.0) {
+            z = Shapes.collide(Direction.Axis.Z, box, shapes, z);
+        }
+        
+        return new Vec3(x, y, z);
+    }
+    
+    // a boat-sized box near the player
+    private static VoxelShape createEntityShape(Random random) {
+        double x = random.nextDouble() * 4 - 2;
+        double y = random.nextDouble() * 4 - 2;
+        double z = random.nextDouble() * 4 - 2;
+        return Shapes.create(new AABB(x, y, z, x + 1.375, y + 0.5625, z + 1.375));
+    }
+    
+    private static CollisionShapeProcessor createShapeProcessor(Random random, AABB boundingBox) {
+        if (random.nextBoolean()) {
+            return shape -> shape;
+        }
+        
+        // like the clipping by a portal that the player is going through
+        Vec3 planePos = boundingBox.getCenter();
+        Vec3 planeNormal = new Vec3(
+            random.nextDouble() - 0.5, random.nextDouble() - 0.5, random.nextDouble() - 0.5
+        ).normalize();
+        return shape -> CollisionHelper.clipVoxelShape(shape, planePos, planeNormal);
+    }
+    
+    @Test
+    public void testContextMatchesPerQueryGathering() {
+        Random random = new Random(7);
+        
+        int trialNum = 3000;
+        int steppingTrials = 0;
+        int totalQueries = 0;
+        
+        for (int trial = 0; trial < trialNum; trial++) {
+            Direction gravity = GRAVITY_DIRECTIONS[random.nextInt(GRAVITY_DIRECTIONS.length)];
+            Direction jumpDirection = gravity.getOpposite();
+            MoveCollisionContext.BlockCollisionGetter blockCollisionGetter =
+                getBlockCollisionGetter(generateTerrain(random, gravity));
+            
+            // a player-sized box standing on the floor, a bit lower or higher
+            double feetHeight = -0.5 + random.nextInt(3) * 0.5;
+            AABB boundingBox = getPlayerBox(
+                gravity,
+                random.nextDouble() * 4 - 2, random.nextDouble() * 4 - 2, feetHeight
+            );
+            
+            double speed = random.nextDouble() * 1.2;
+            double angle = random.nextDouble() * Math.PI * 2;
+            Vec3 horizontalMove = switch (gravity.getAxis()) {
+                case Y -> new Vec3(Math.cos(angle) * speed, 0, Math.sin(angle) * speed);
+                case X -> new Vec3(0, Math.cos(angle) * speed, Math.sin(angle) * speed);
+                case Z -> new Vec3(Math.cos(angle) * speed, Math.sin(angle) * speed, 0);
+            };
+            Vec3 attemptedMove = Helper.putSignedCoordinate(
+                horizontalMove, gravity, random.nextInt(4) == 0 ? 0 : 0.0784
+            );
+            boolean onGround = random.nextInt(5) != 0;
+            float maxUpStep = STEP_HEIGHTS[random.nextInt(STEP_HEIGHTS.length)];
+            
+            // the entity collisions are gathered in the box of attempted move in both ways
+            AABB entityGatheringBox = boundingBox.expandTowards(attemptedMove);
+            List<VoxelShape> entityCollisions = new ArrayList<>();
+            for (int i = random.nextInt(3); i > 0; i--) {
+                VoxelShape shape = createEntityShape(random);
+                if (shape.bounds().intersects(entityGatheringBox)) {
+                    entityCollisions.add(shape);
+                }
+            }
+            
+            // sometimes near the world border
+            WorldBorder worldBorder = new WorldBorder();
+            if (random.nextInt(4) == 0) {
+                worldBorder.setSize(5 + random.nextDouble() * 10);
+            }
+            
+            CollisionShapeProcessor shapeProcessor = createShapeProcessor(random, boundingBox);
+            
+            int[] queryCount = {0};
+            Vec3 expected = CollisionHelper.collideWithStepping(
+                attemptedMove, boundingBox, onGround, maxUpStep, gravity,
+                (vec, box) -> {
+                    queryCount[0]++;
+                    return collidePerQuery(
+                        vec, box, entityCollisions, blockCollisionGetter, worldBorder, shapeProcessor
+                    );
+                }
+            );
+            
+            // gather once for all collisions
+            MoveCollisionContext context = MoveCollisionContext.create(
+                entityCollisions, blockCollisionGetter, worldBorder, MoveCollisionContextTest::collideWithShapes,
+                boundingBox, attemptedMove, jumpDirection, maxUpStep, shapeProcessor
+            );
+            Vec3 result = CollisionHelper.collideWithStepping(
+                attemptedMove, boundingBox, onGround, maxUpStep, gravity, context::collide
+            );
+            
+            Validate.isTrue(
+                expected.equals(result),
+                "mismatch in trial %s: expected %s got %s", trial, expected, result
+            );
+            
+            totalQueries += queryCount[0];
+            if (queryCount[0] > 1) {
+                steppingTrials++;
+            }
+        }
+        
+        LOGGER.info(
+            "{} trials, {} with stepping, {} shape queries replaced by {}",
+            trialNum, steppingTrials, totalQueries, trialNum
+        );
+        
+        Validate.isTrue(steppingTrials > trialNum / 10);
+    }
+}
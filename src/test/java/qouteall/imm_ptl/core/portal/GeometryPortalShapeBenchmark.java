@@ -0,0 +1,59 @@
+package qouteall.imm_ptl.core.portal;
+
+import com.mojang.logging.LogUtils;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.platform.commons.annotation.Testable;
+import org.slf4j.Logger;
+
+import java.util.Random;
+
+/**
+ * Logs the time of the linear scan and the quad tree lookup of point in shape.
+ * Not run by default, run with -Dimm_ptl.benchmark=true
+ */
+@Testable
+@Tag("benchmark")
+@EnabledIfSystemProperty(named = "imm_ptl.benchmark", matches = "true")
+public class GeometryPortalShapeBenchmark {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    
+    @Test
+    public void benchmarkPointInShape() {
+        Random random = new Random(44);
+        GeometryPortalShape shape = GeometryPortalShapeTest.generateShape(80, random);
+        int queryNum = 200000;
+        double[] xs = new double[queryNum];
+        double[] ys = new double[queryNum];
+        for (int i = 0; i < queryNum; i++) {
+            xs[i] = random.nextDouble() * 2 - 1;
+            ys[i] = random.nextDouble() * 2 - 1;
+        }
+        
+        // warm up and build the lookup
+        int indexedHits = 0;
+        int linearHits = 0;
+        for (int i = 0; i < 1000; i++) {
+            indexedHits += shape.lenientIsPointInShape(xs[i], ys[i], 0.001) ? 1 : 0;
+            linearHits += GeometryPortalShapeTest.bruteForceIsPointInShape(shape, xs[i], ys[i], 0.001) ? 1 : 0;
+        }
+        
+        long linearStart = System.nanoTime();
+        for (int i = 0; i < queryNum / 100; i++) {
+            linearHits += GeometryPortalShapeTest.bruteForceIsPointInShape(shape, xs[i], ys[i], 0.001) ? 1 : 0;
+        }
+        long linearNanosPerQuery = (System.nanoTime() - linearStart) / (queryNum / 100);
+        
+        long indexedStart = System.nanoTime();
+        for (int i = 0; i < queryNum; i++) {
+            indexedHits += shape.lenientIsPointInShape(xs[i], ys[i], 0.001) ? 1 : 0;
+        }
+        long indexedNanosPerQuery = (System.nanoTime() - indexedStart) / queryNum;
+        
+        LOGGER.info(
+            "Point in shape with {} triangles: linear scan {} ns/query, quad tree {} ns/query (hits {} {})",
+            shape.triangles.size(), linearNanosPerQuery, indexedNanosPerQuery, linearHits, indexedHits
+        );
+    }
+}
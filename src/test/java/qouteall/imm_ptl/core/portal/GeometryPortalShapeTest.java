@@ -0,0 +1,88 @@
+package qouteall.imm_ptl.core.portal;
+
+import org.apache.commons.lang3.Validate;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.commons.annotation.Testable;
+import qouteall.q_misc_util.my_util.GeometryUtil;
+
+import java.util.Random;
+
+@Testable
+public class GeometryPortalShapeTest {
+    // a grid of rectangles with random holes, each rectangle is 2 triangles
+    static GeometryPortalShape generateShape(int gridSize, Random random) {
+        GeometryPortalShape shape = new GeometryPortalShape();
+        double cellSize = 2.0 / gridSize;
+        for (int x = 0; x < gridSize; x++) {
+            for (int y = 0; y < gridSize; y++) {
+                if (random.nextInt(4) == 0) {
+                    continue;
+                }
+                shape.addTriangleForRectangle(
+                    -1 + x * cellSize, -1 + y * cellSize,
+                    -1 + (x + 1) * cellSize, -1 + (y + 1) * cellSize
+                );
+            }
+        }
+        shape.normalized = true;
+        return shape;
+    }
+    
+    static boolean bruteForceIsPointInShape(
+        GeometryPortalShape shape, double x, double y, double leniency
+    ) {
+        return shape.triangles.stream().anyMatch(
+            t -> t.lenientIsPointInTriangle(x, y, leniency)
+        );
+    }
+    
+    @Test
+    public void testPointInShape() {
+        Random random = new Random(42);
+        GeometryPortalShape shape = generateShape(80, random);
+        Validate.isTrue(shape.triangles.size() <= GeometryPortalShape.MAX_TRIANGLE_NUM);
+        
+        for (int i = 0; i < 100000; i++) {
+            double x = random.nextDouble() * 2.2 - 1.1;
+            double y = random.nextDouble() * 2.2 - 1.1;
+            double leniency = random.nextBoolean() ? 0 : 0.001;
+            Validate.isTrue(
+                shape.lenientIsPointInShape(x, y, leniency) ==
+                    bruteForceIsPointInShape(shape, x, y, leniency),
+                "mismatch at %f %f", x, y
+            );
+        }
+        
+        // the points on the grid lines and on the quad tree node boundaries
+        for (int i = 0; i <= 80; i++) {
+            double v = -1 + i * (2.0 / 80);
+            Validate.isTrue(
+                shape.lenientIsPointInShape(v, 0, 0) == bruteForceIsPointInShape(shape, v, 0, 0)
+            );
+            Validate.isTrue(
+                shape.lenientIsPointInShape(0, v, 0) == bruteForceIsPointInShape(shape, 0, v, 0)
+            );
+        }
+    }
+    
+    @Test
+    public void testBoxIntersects() {
+        Random random = new Random(43);
+        GeometryPortalShape shape = generateShape(60, random);
+        
+        for (int i = 0; i < 20000; i++) {
+            double x = random.nextDouble() * 2.2 - 1.1;
+            double y = random.nextDouble() * 2.2 - 1.1;
+            double w = random.nextDouble() * 0.2;
+            double h = random.nextDouble() * 0.2;
+            
+            boolean expected = shape.triangles.stream().anyMatch(
+                t -> GeometryUtil.triangleIntersectsWithAABB(
+                    t.x1, t.y1, t.x2, t.y2, t.x3, t.y3,
+                    x, y, x + w, y + h
+                )
+            );
+            Validate.isTrue(shape.boxIntersects(x, y, x + w, y + h) == expected);
+        }
+    }
+}
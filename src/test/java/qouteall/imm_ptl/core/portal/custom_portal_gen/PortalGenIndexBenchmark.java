@@ -0,0 +1,56 @@
+package qouteall.imm_ptl.core.portal.custom_portal_gen;
+
+import com.mojang.logging.LogUtils;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.platform.commons.annotation.Testable;
+import org.slf4j.Logger;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Logs the time of dispatching through the index and the linear scan.
+ * Not run by default, run with -Dimm_ptl.benchmark=true
+ */
+@Testable
+@Tag("benchmark")
+@EnabledIfSystemProperty(named = "imm_ptl.benchmark", matches = "true")
+public class PortalGenIndexBenchmark {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    
+    @Test
+    public void benchmarkDispatch() {
+        Random random = new Random(0);
+        List<PortalGenIndexTest.SyntheticGen> gens = PortalGenIndexTest.createGens(random, 2000, 200, 30);
+        PortalGenIndex<String, String, PortalGenIndexTest.SyntheticGen> index = PortalGenIndexTest.createIndex(gens);
+        
+        int lookupNum = 20000;
+        String[] triggerKeys = new String[lookupNum];
+        String[] dimensions = new String[lookupNum];
+        for (int i = 0; i < lookupNum; i++) {
+            triggerKeys[i] = "use_item/item" + random.nextInt(200);
+            dimensions[i] = "dim" + random.nextInt(30);
+        }
+        
+        long start = System.nanoTime();
+        long sum1 = 0;
+        for (int i = 0; i < lookupNum; i++) {
+            sum1 += PortalGenIndexTest.linearScan(gens, triggerKeys[i], dimensions[i]).size();
+        }
+        long linearNanos = System.nanoTime() - start;
+        
+        start = System.nanoTime();
+        long sum2 = 0;
+        for (int i = 0; i < lookupNum; i++) {
+            sum2 += index.getCandidates(triggerKeys[i], dimensions[i]).size();
+        }
+        long indexNanos = System.nanoTime() - start;
+        
+        LOGGER.info(
+            "{} lookups in {} generations: linear scan {} ms, index {} ms ({} {})",
+            lookupNum, gens.size(), linearNanos / 1000000, indexNanos / 1000000, sum1, sum2
+        );
+    }
+}
@@ -0,0 +1,127 @@
+package qouteall.imm_ptl.core.portal.custom_portal_gen;
+
+import org.apache.commons.lang3.Validate;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.commons.annotation.Testable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+@Testable
+public class PortalGenIndexTest {
+    static final String ANY_DIMENSION = "any_dimension";
+    
+    private static final String[] TRIGGER_KINDS = {"use_item", "throw_item", "conventional"};
+    
+    /**
+     * A generation definition without the registries, only the parts that decide whether it can be triggered.
+     */
+    static record SyntheticGen(int id, String triggerKind, String item, List<String> fromDimensions) {
+        String getTriggerKey() {
+            return triggerKind + "/" + item;
+        }
+        
+        // the same as the dimension check in CustomPortalGeneration.perform
+        boolean canTrigger(String dimension) {
+            return fromDimensions.contains(dimension) || fromDimensions.get(0).equals(ANY_DIMENSION);
+        }
+    }
+    
+    static List<SyntheticGen> createGens(Random random, int num, int itemNum, int dimensionNum) {
+        List<SyntheticGen> gens = new ArrayList<>();
+        for (int i = 0; i < num; i++) {
+            String triggerKind = TRIGGER_KINDS[random.nextInt(TRIGGER_KINDS.length)];
+            String item = triggerKind.equals("conventional") ? "" : "item" + random.nextInt(itemNum);
+            
+            List<String> fromDimensions = new ArrayList<>();
+            if (random.nextInt(10) == 0) {
+                fromDimensions.add(ANY_DIMENSION);
+            }
+            else {
+                int fromNum = 1 + random.nextInt(3);
+                for (int j = 0; j < fromNum; j++) {
+                    // may be duplicated
+                    fromDimensions.add("dim" + random.nextInt(dimensionNum));
+                }
+            }
+            
+            gens.add(new SyntheticGen(i, triggerKind, item, fromDimensions));
+        }
+        return gens;
+    }
+    
+    static PortalGenIndex<String, String, SyntheticGen> createIndex(List<SyntheticGen> gens) {
+        PortalGenIndex<String, String, SyntheticGen> index = new PortalGenIndex<>(ANY_DIMENSION);
+        for (SyntheticGen gen : gens) {
+            index.add(gen.getTriggerKey(), gen.fromDimensions(), gen);
+        }
+        return index;
+    }
+    
+    // the previous way, checks every generation
+    static List<SyntheticGen> linearScan(List<SyntheticGen> gens, String triggerKey, String dimension) {
+        List<SyntheticGen> result = new ArrayList<>();
+        for (SyntheticGen gen : gens) {
+            if (gen.getTriggerKey().equals(triggerKey) && gen.canTrigger(dimension)) {
+                result.add(gen);
+            }
+        }
+        return result;
+    }
+    
+    @Test
+    public void testMatchesLinearScan() {
+        Random random = new Random(42);
+        int itemNum = 50;
+        int dimensionNum = 20;
+        List<SyntheticGen> gens = createGens(random, 5000, itemNum, dimensionNum);
+        PortalGenIndex<String, String, SyntheticGen> index = createIndex(gens);
+        
+        Validate.isTrue(index.size() == gens.size());
+        
+        int nonEmptyNum = 0;
+        for (String triggerKind : TRIGGER_KINDS) {
+            // including the items and dimensions that no generation uses
+            for (int item = 0; item <= itemNum; item++) {
+                String triggerKey = triggerKind + "/" + (triggerKind.equals("conventional") ? "" : "item" + item);
+                for (int dim = 0; dim <= dimensionNum; dim++) {
+                    String dimension = "dim" + dim;
+                    
+                    List<SyntheticGen> expected = linearScan(gens, triggerKey, dimension);
+                    List<SyntheticGen> actual = index.getCandidates(triggerKey, dimension);
+                    
+                    // the same generations in the same order
+                    Validate.isTrue(
+                        expected.equals(actual),
+                        "mismatch %s %s: %s %s", triggerKey, dimension, expected, actual
+                    );
+                    Validate.isTrue(index.hasCandidates(triggerKey, dimension) == !expected.isEmpty());
+                    if (!expected.isEmpty()) {
+                        nonEmptyNum++;
+                    }
+                }
+            }
+        }
+        Validate.isTrue(nonEmptyNum > 0);
+        
+        index.clear();
+        Validate.isTrue(index.isEmpty());
+        Validate.isTrue(index.getCandidates("use_item/item0", "dim0").isEmpty());
+    }
+    
+    @Test
+    public void testAnyDimensionOrder() {
+        PortalGenIndex<String, String, String> index = new PortalGenIndex<>(ANY_DIMENSION);
+        index.add("item", List.of("dim0"), "a");
+        index.add("item", List.of(ANY_DIMENSION), "b");
+        index.add("item", List.of("dim1", "dim0", "dim0"), "c");
+        index.add("item", List.of(ANY_DIMENSION), "d");
+        index.add("other_item", List.of("dim0"), "e");
+        
+        Validate.isTrue(index.getCandidates("item", "dim0").equals(List.of("a", "b", "c", "d")));
+        Validate.isTrue(index.getCandidates("item", "dim1").equals(List.of("b", "c", "d")));
+        Validate.isTrue(index.getCandidates("item", "dim2").equals(List.of("b", "d")));
+        Validate.isTrue(!index.hasCandidates("other_item", "dim1"));
+    }
+}
@@ -0,0 +1,55 @@
+package qouteall.imm_ptl.core.portal.nether_portal;
+
+import com.mojang.logging.LogUtils;
+import net.minecraft.core.BlockPos;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.platform.commons.annotation.Testable;
+import org.slf4j.Logger;
+import qouteall.q_misc_util.my_util.IntBox;
+
+import java.util.Random;
+
+/**
+ * Logs the time and block reads of the air cube search, using the worlds of {@link AirCubeFinderTest}.
+ * Not run by default, run with -Dimm_ptl.benchmark=true
+ */
+@Testable
+@Tag("benchmark")
+@EnabledIfSystemProperty(named = "imm_ptl.benchmark", matches = "true")
+public class AirCubeFinderBenchmark {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    
+    @Test
+    public void benchmarkAirCubeSearch() {
+        Random random = new Random(4);
+        
+        // a dense nether that often has no destination, the worst case
+        AirCubeFinderTest.FakeWorld world = AirCubeFinderTest.generateNetherLike(random, 40);
+        BlockPos areaSize = new BlockPos(6, 30, 6);
+        BlockPos center = new BlockPos(0, 64, 0);
+        int radius = 32;
+        
+        // warm up
+        AirCubeFinderTest.findByCheckingEveryBox(world, areaSize, center, 4);
+        AirCubeFinderTest.findWithFinder(world, areaSize, center, 4);
+        
+        world.blockReads = 0;
+        long oldStart = System.nanoTime();
+        IntBox expected = AirCubeFinderTest.findByCheckingEveryBox(world, areaSize, center, radius);
+        long oldNanos = System.nanoTime() - oldStart;
+        long oldReads = world.blockReads;
+        
+        world.blockReads = 0;
+        long newStart = System.nanoTime();
+        AirCubeFinderTest.findWithFinder(world, areaSize, center, radius);
+        long newNanos = System.nanoTime() - newStart;
+        long newReads = world.blockReads;
+        
+        LOGGER.info(
+            "Air cube search (found {}): checking every box {} ms {} block reads, finder {} ms {} block reads",
+            expected != null, oldNanos / 1000000, oldReads, newNanos / 1000000, newReads
+        );
+    }
+}
@@ -0,0 +1,275 @@
+package qouteall.imm_ptl.core.portal.nether_portal;
+
+import net.minecraft.core.BlockPos;
+import org.apache.commons.lang3.Validate;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.commons.annotation.Testable;
+import qouteall.q_misc_util.my_util.IntBox;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+
+@Testable
+public class AirCubeFinderTest {
+    private static final int MIN_Y = 0;
+    private static final int MAX_Y_EXCLUSIVE = 256;
+    // like the nether, the logical height is lower than the build height
+    private static final int MAX_CONTENT_Y_EXCLUSIVE = 128;
+    
+    private static final int HORIZONTAL_RANGE = 80;
+    private static final int WIDTH = HORIZONTAL_RANGE * 2;
+    
+    /**
+     * The generated section data. The section states are computed from the blocks.
+     */
+    static class FakeWorld implements AirCubeFinder.BlockAccess {
+        final boolean[] air = new boolean[WIDTH * WIDTH * (MAX_Y_EXCLUSIVE - MIN_Y)];
+        final AirCubeFinder.SectionAirState[] sectionStates =
+            new AirCubeFinder.SectionAirState[(WIDTH / 16) * (WIDTH / 16) * ((MAX_Y_EXCLUSIVE - MIN_Y) / 16)];
+        long blockReads = 0;
+        
+        static int index(int x, int y, int z) {
+            return ((y - MIN_Y) * WIDTH + (x + HORIZONTAL_RANGE)) * WIDTH + (z + HORIZONTAL_RANGE);
+        }
+        
+        static int sectionIndex(int sectionX, int sectionY, int sectionZ) {
+            int sectionWidth = WIDTH / 16;
+            return ((sectionY - MIN_Y / 16) * sectionWidth + (sectionX + HORIZONTAL_RANGE / 16)) * sectionWidth
+                + (sectionZ + HORIZONTAL_RANGE / 16);
+        }
+        
+        void setAir(int x, int y, int z, boolean isAir) {
+            if (x < -HORIZONTAL_RANGE || x >= HORIZONTAL_RANGE || z < -HORIZONTAL_RANGE || z >= HORIZONTAL_RANGE
+                || y < MIN_Y || y >= MAX_Y_EXCLUSIVE) {
+                return;
+            }
+            air[index(x, y, z)] = isAir;
+            sectionStates[sectionIndex(x >> 4, y >> 4, z >> 4)] = null;
+        }
+        
+        // the reads of the world block states
+        boolean readAir(int x, int y, int z) {
+            blockReads++;
+            return air[index(x, y, z)];
+        }
+        
+        @Override
+        public AirCubeFinder.SectionAirState getSectionAirState(int sectionX, int sectionY, int sectionZ) {
+            int index = sectionIndex(sectionX, sectionY, sectionZ);
+            if (sectionStates[index] == null) {
+                boolean hasAir = false;
+                boolean hasNonAir = false;
+                for (int dx = 0; dx < 16; dx++) {
+                    for (int dy = 0; dy < 16; dy++) {
+                        for (int dz = 0; dz < 16; dz++) {
+                            if (air[index(sectionX * 16 + dx, sectionY * 16 + dy, sectionZ * 16 + dz)]) {
+                                hasAir = true;
+                            }
+                            else {
+                                hasNonAir = true;
+                            }
+                        }
+                    }
+                }
+                sectionStates[index] = !hasNonAir ? AirCubeFinder.SectionAirState.ALL_AIR :
+                    !hasAir ? AirCubeFinder.SectionAirState.NO_AIR : AirCubeFinder.SectionAirState.MIXED;
+            }
+            return sectionStates[index];
+        }
+        
+        @Override
+        public boolean isAir(int x, int y, int z) {
+            return readAir(x, y, z);
+        }
+        
+        @Override
+        public int getAirStartY(int x, int z) {
+            for (int y = MAX_Y_EXCLUSIVE - 1; y >= MIN_Y; y--) {
+                if (!air[index(x, y, z)]) {
+                    return y + 1;
+                }
+            }
+            return MIN_Y;
+        }
+    }
+    
+    private static void carveCaves(FakeWorld world, Random random, int caveNum, int minY, int maxY) {
+        for (int i = 0; i < caveNum; i++) {
+            int cx = random.nextInt(WIDTH) - HORIZONTAL_RANGE;
+            int cy = minY + random.nextInt(maxY - minY);
+            int cz = random.nextInt(WIDTH) - HORIZONTAL_RANGE;
+            int r = 2 + random.nextInt(6);
+            for (int x = cx - r; x <= cx + r; x++) {
+                for (int y = Math.max(cy - r, minY); y <= Math.min(cy + r, maxY - 1); y++) {
+                    for (int z = cz - r; z <= cz + r; z++) {
+                        int dx = x - cx, dy = y - cy, dz = z - cz;
+                        if (dx * dx + dy * dy + dz * dz <= r * r) {
+                            world.setAir(x, y, z, true);
+                        }
+                    }
+                }
+            }
+        }
+    }
+    
+    // bedrock floor and roof, netherrack with caves, air above the roof
+    static FakeWorld generateNetherLike(Random random, int caveNum) {
+        FakeWorld world = new FakeWorld();
+        for (int y = MAX_CONTENT_Y_EXCLUSIVE; y < MAX_Y_EXCLUSIVE; y++) {
+            for (int x = -HORIZONTAL_RANGE; x < HORIZONTAL_RANGE; x++) {
+                for (int z = -HORIZONTAL_RANGE; z < HORIZONTAL_RANGE; z++) {
+                    world.setAir(x, y, z, true);
+                }
+            }
+        }
+        carveCaves(world, random, caveNum, 5, MAX_CONTENT_Y_EXCLUSIVE - 5);
+        return world;
+    }
+    
+    // a terrain surface with caves under it
+    private static FakeWorld generateSurfaceLike(Random random) {
+        FakeWorld world = new FakeWorld();
+        for (int x = -HORIZONTAL_RANGE; x < HORIZONTAL_RANGE; x++) {
+            for (int z = -HORIZONTAL_RANGE; z < HORIZONTAL_RANGE; z++) {
+                int height = 60 + (int) (Math.sin(x * 0.1) * 8 + Math.cos(z * 0.13) * 8);
+                for (int y = height; y < MAX_Y_EXCLUSIVE; y++) {
+                    world.setAir(x, y, z, true);
+                }
+            }
+        }
+        carveCaves(world, random, 300, 5, 55);
+        // some trees
+        for (int i = 0; i < 200; i++) {
+            int x = random.nextInt(WIDTH) - HORIZONTAL_RANGE;
+            int z = random.nextInt(WIDTH) - HORIZONTAL_RANGE;
+            for (int y = 50; y < 95; y++) {
+                world.setAir(x, y, z, false);
+            }
+        }
+        return world;
+    }
+    
+    // the previous way: check every block of every candidate box, column by column
+    static IntBox findByCheckingEveryBox(
+        FakeWorld world, BlockPos areaSize, BlockPos searchingCenter, int findingRadius
+    ) {
+        return BlockTraverse.searchColumned(
+            searchingCenter.getX() - (areaSize.getX() / 2),
+            searchingCenter.getZ() - (areaSize.getZ() / 2),
+            findingRadius,
+            1 + MIN_Y, MAX_Y_EXCLUSIVE - 1,
+            mutable -> {
+                IntBox box = IntBox.fromBasePointAndSize(mutable, areaSize);
+                if (box.h.getY() + 1 >= MAX_CONTENT_Y_EXCLUSIVE) {
+                    return null;
+                }
+                if (box.l.getY() - 1 <= MIN_Y) {
+                    return null;
+                }
+                boolean roughTest = Arrays.stream(box.getEightVertices()).allMatch(
+                    p -> world.readAir(p.getX(), p.getY(), p.getZ())
+                );
+                if (!roughTest) {
+                    return null;
+                }
+                if (box.stream().allMatch(p -> world.readAir(p.getX(), p.getY(), p.getZ()))) {
+                    return box;
+                }
+                return null;
+            }
+        );
+    }
+    
+    // the same bounds as NetherPortalMatcher.findCubeAirAreaAtAnywhere
+    static IntBox findWithFinder(
+        FakeWorld world, BlockPos areaSize, BlockPos searchingCenter, int findingRadius
+    ) {
+        return AirCubeFinder.findAirCube(
+            world, areaSize,
+            searchingCenter.getX() - (areaSize.getX() / 2),
+            searchingCenter.getZ() - (areaSize.getZ() / 2),
+            findingRadius,
+            MIN_Y + 2,
+            Math.min(MAX_Y_EXCLUSIVE - 1, MAX_CONTENT_Y_EXCLUSIVE - areaSize.getY() - 1)
+        );
+    }
+    
+    private static final List<BlockPos> AREA_SIZES = List.of(
+        new BlockPos(4, 5, 3),
+        new BlockPos(1, 12, 4),
+        new BlockPos(6, 30, 6),
+        new BlockPos(20, 20, 20)
+    );
+    
+    static boolean isSameBox(IntBox a, IntBox b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        return Objects.equals(a.l, b.l) && Objects.equals(a.h, b.h);
+    }
+    
+    @Test
+    public void testSameResultAsCheckingEveryBox() {
+        Random random = new Random(3);
+        
+        List<FakeWorld> worlds = List.of(
+            generateNetherLike(random, 600),
+            generateNetherLike(random, 60),
+            generateSurfaceLike(random)
+        );
+        
+        int foundNum = 0;
+        int notFoundNum = 0;
+        for (FakeWorld world : worlds) {
+            for (int i = 0; i < 30; i++) {
+                BlockPos areaSize = AREA_SIZES.get(random.nextInt(AREA_SIZES.size()));
+                BlockPos center = new BlockPos(
+                    random.nextInt(40) - 20, random.nextInt(128), random.nextInt(40) - 20
+                );
+                int radius = 1 + random.nextInt(24);
+                
+                IntBox expected = findByCheckingEveryBox(world, areaSize, center, radius);
+                IntBox result = findWithFinder(world, areaSize, center, radius);
+                
+                Validate.isTrue(
+                    isSameBox(expected, result),
+                    "mismatch for size %s center %s radius %s", areaSize, center, radius
+                );
+                
+                if (expected == null) {
+                    notFoundNum++;
+                }
+                else {
+                    foundNum++;
+                }
+            }
+        }
+        
+        Validate.isTrue(foundNum > 0);
+        Validate.isTrue(notFoundNum > 0);
+    }
+    
+    @Test
+    public void testFewerBlockReads() {
+        Random random = new Random(4);
+        
+        // a dense nether that often has no destination, the worst case
+        FakeWorld world = generateNetherLike(random, 40);
+        BlockPos areaSize = new BlockPos(6, 30, 6);
+        BlockPos center = new BlockPos(0, 64, 0);
+        int radius = 32;
+        
+        world.blockReads = 0;
+        IntBox expected = findByCheckingEveryBox(world, areaSize, center, radius);
+        long oldReads = world.blockReads;
+        
+        world.blockReads = 0;
+        IntBox result = findWithFinder(world, areaSize, center, radius);
+        long newReads = world.blockReads;
+        
+        Validate.isTrue(isSameBox(expected, result));
+        Validate.isTrue(newReads < oldReads, "%s %s", newReads, oldReads);
+    }
+}
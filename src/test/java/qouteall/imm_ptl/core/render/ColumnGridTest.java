@@ -0,0 +1,118 @@
+package qouteall.imm_ptl.core.render;
+
+import com.mojang.logging.LogUtils;
+import net.minecraft.world.level.ChunkPos;
+import org.apache.commons.lang3.Validate;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.commons.annotation.Testable;
+import org.slf4j.Logger;
+
+import java.util.Random;
+
+@Testable
+public class ColumnGridTest {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    
+    /**
+     * The chunk positions in the previous per-camera preset,
+     * the same as vanilla ViewArea#repositionCamera
+     */
+    private static long[] createPresetByChunkPos(int sizeX, int sizeZ, int chunkX, int chunkZ) {
+        long[] result = new long[sizeX * sizeZ];
+        
+        for (int cx = 0; cx < sizeX; ++cx) {
+            int xBlockSize = sizeX * 16;
+            int xStart = (chunkX << 4) - xBlockSize / 2;
+            int px = xStart + Math.floorMod(cx * 16 - xStart, xBlockSize);
+            
+            for (int cz = 0; cz < sizeZ; ++cz) {
+                int zBlockSize = sizeZ * 16;
+                int zStart = (chunkZ << 4) - zBlockSize / 2;
+                int pz = zStart + Math.floorMod(cz * 16 - zStart, zBlockSize);
+                
+                Validate.isTrue(px % 16 == 0);
+                Validate.isTrue(pz % 16 == 0);
+                
+                result[cz * sizeX + cx] = ChunkPos.asLong(px >> 4, pz >> 4);
+            }
+        }
+        
+        return result;
+    }
+    
+    private static void checkSameAsPreset(ColumnGrid<Long> grid, int chunkX, int chunkZ) {
+        long[] preset = createPresetByChunkPos(grid.sizeX, grid.sizeZ, chunkX, chunkZ);
+        for (int slotX = 0; slotX < grid.sizeX; slotX++) {
+            for (int slotZ = 0; slotZ < grid.sizeZ; slotZ++) {
+                long expected = preset[slotZ * grid.sizeX + slotX];
+                long actual = grid.getColumnAtSlot(slotX, slotZ);
+                Validate.isTrue(
+                    expected == actual,
+                    "slot %s %s camera %s %s: expected %s got %s",
+                    slotX, slotZ, chunkX, chunkZ, new ChunkPos(expected), new ChunkPos(actual)
+                );
+            }
+        }
+    }
+    
+    @Test
+    public void testSameLayoutAsPreset() {
+        Random random = new Random(5);
+        
+        // odd sizes are the vanilla ones, also test even sizes
+        int[][] sizes = {{5, 5}, {25, 25}, {8, 8}, {7, 10}, {1, 1}, {2, 3}};
+        
+        for (int[] size : sizes) {
+            ColumnGrid<Long> grid = new ColumnGrid<>(size[0], size[1]);
+            
+            int chunkX = random.nextInt(200) - 100;
+            int chunkZ = random.nextInt(200) - 100;
+            
+            for (int step = 0; step < 2000; step++) {
+                int kind = random.nextInt(10);
+                if (kind < 7) {
+                    // walking or flying
+                    chunkX += random.nextInt(3) - 1;
+                    chunkZ += random.nextInt(3) - 1;
+                }
+                else if (kind < 9) {
+                    // moving fast
+                    chunkX += random.nextInt(size[0] * 2 + 1) - size[0];
+                    chunkZ += random.nextInt(size[1] * 2 + 1) - size[1];
+                }
+                else {
+                    // teleporting
+                    chunkX = random.nextInt(20000) - 10000;
+                    chunkZ = random.nextInt(20000) - 10000;
+                }
+                
+                grid.moveCamera(chunkX, chunkZ, (slotX, slotZ, cx, cz) -> ChunkPos.asLong(cx, cz));
+                
+                checkSameAsPreset(grid, chunkX, chunkZ);
+            }
+        }
+    }
+    
+    @Test
+    public void testCrossingChunkBoundaryUpdatesOneRow() {
+        int size = 25;
+        ColumnGrid<Long> grid = new ColumnGrid<>(size, size);
+        
+        int fullUpdated = grid.moveCamera(0, 0, (slotX, slotZ, cx, cz) -> ChunkPos.asLong(cx, cz));
+        Validate.isTrue(fullUpdated == size * size);
+        
+        int updated = grid.moveCamera(1, 0, (slotX, slotZ, cx, cz) -> ChunkPos.asLong(cx, cz));
+        Validate.isTrue(updated == size);
+        Validate.isTrue(grid.getMoveCost(1, 0) == 0);
+        
+        updated = grid.moveCamera(2, -1, (slotX, slotZ, cx, cz) -> ChunkPos.asLong(cx, cz));
+        Validate.isTrue(updated == size * 2 - 1);
+        
+        updated = grid.moveCamera(2, -1, (slotX, slotZ, cx, cz) -> ChunkPos.asLong(cx, cz));
+        Validate.isTrue(updated == 0);
+        
+        checkSameAsPreset(grid, 2, -1);
+        
+        LOGGER.info("Crossing a chunk boundary updated {} of {} slots", size, size * size);
+    }
+}
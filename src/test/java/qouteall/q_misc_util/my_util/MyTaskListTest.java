@@ -0,0 +1,239 @@
+package qouteall.q_misc_util.my_util;
+
+import com.mojang.logging.LogUtils;
+import org.apache.commons.lang3.Validate;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.commons.annotation.Testable;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+@Testable
+public class MyTaskListTest {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    
+    private static final long MS = 1000000;
+    
+    private static class FakeClock {
+        long time = 0;
+    }
+    
+    // a task that takes the time on the fake clock and never finishes
+    private static MyTaskList.MyTask longRunningTask(FakeClock clock, long nanos, int[] runCounts, int index) {
+        return () -> {
+            clock.time += nanos;
+            runCounts[index]++;
+            return false;
+        };
+    }
+    
+    @Test
+    public void testBudget() {
+        FakeClock clock = new FakeClock();
+        MyTaskList taskList = new MyTaskList(null, 10 * MS, () -> clock.time);
+        
+        int[] runCounts = new int[10];
+        for (int i = 0; i < 10; i++) {
+            taskList.addTask(longRunningTask(clock, 3 * MS, runCounts, i));
+        }
+        
+        // checked before each task: 0, 3, 6, 9 are within the budget
+        taskList.processTasks();
+        Validate.isTrue(sum(runCounts) == 4, "ran %s", sum(runCounts));
+        Validate.isTrue(taskList.getLastDeferredNum() == 6);
+        Validate.isTrue(taskList.getPendingTaskNum() == 10);
+        
+        // a task that exceeds the budget alone still runs, one per processing
+        MyTaskList slowList = new MyTaskList(null, 10 * MS, () -> clock.time);
+        int[] slowCounts = new int[3];
+        for (int i = 0; i < 3; i++) {
+            slowList.addTask(longRunningTask(clock, 50 * MS, slowCounts, i));
+        }
+        for (int i = 0; i < 3; i++) {
+            slowList.processTasks();
+        }
+        Validate.isTrue(slowCounts[0] == 1 && slowCounts[1] == 1 && slowCounts[2] == 1);
+        
+        LOGGER.info(slowList.getDebugString());
+    }
+    
+    @Test
+    public void testRotation() {
+        FakeClock clock = new FakeClock();
+        MyTaskList taskList = new MyTaskList(null, 10 * MS, () -> clock.time);
+        
+        int[] runCounts = new int[7];
+        for (int i = 0; i < 7; i++) {
+            taskList.addTask(longRunningTask(clock, 3 * MS, runCounts, i));
+        }
+        
+        for (int processing = 0; processing < 100; processing++) {
+            taskList.processTasks();
+            
+            int min = Integer.MAX_VALUE;
+            int max = Integer.MIN_VALUE;
+            for (int count : runCounts) {
+                min = Math.min(min, count);
+                max = Math.max(max, count);
+            }
+            // the long-running tasks take turns
+            Validate.isTrue(max - min <= 1, "unfair %s %s", min, max);
+        }
+        
+        Validate.isTrue(sum(runCounts) == 400);
+    }
+    
+    @Test
+    public void testRunOncePerProcessing() {
+        MyTaskList taskList = new MyTaskList();
+        
+        AtomicInteger runCount = new AtomicInteger();
+        taskList.addTask(MyTaskList.withDelay(3, () -> {
+            runCount.incrementAndGet();
+            return true;
+        }));
+        
+        // the task added by a task runs in the next processing
+        AtomicInteger innerRunCount = new AtomicInteger();
+        taskList.addOneShotTask(() -> taskList.addOneShotTask(innerRunCount::incrementAndGet));
+        
+        taskList.processTasks();
+        Validate.isTrue(innerRunCount.get() == 0);
+        taskList.processTasks();
+        Validate.isTrue(innerRunCount.get() == 1);
+        taskList.processTasks();
+        Validate.isTrue(runCount.get() == 0);
+        taskList.processTasks();
+        Validate.isTrue(runCount.get() == 1);
+        Validate.isTrue(taskList.getPendingTaskNum() == 0);
+    }
+    
+    @Test
+    public void testPriority() {
+        FakeClock clock = new FakeClock();
+        MyTaskList taskList = new MyTaskList(null, 10 * MS, () -> clock.time);
+        
+        List<String> order = new ArrayList<>();
+        taskList.addOneShotTask(() -> order.add("normal"));
+        taskList.addTask(MyTaskList.oneShotTask(() -> order.add("low")), MyTaskList.Priority.LOW);
+        taskList.addTask(MyTaskList.oneShotTask(() -> order.add("high")), MyTaskList.Priority.HIGH);
+        
+        taskList.processTasks();
+        Validate.isTrue(order.equals(List.of("high", "normal", "low")), "%s", order);
+    }
+    
+    @Test
+    public void testLowPriorityNotStarved() {
+        FakeClock clock = new FakeClock();
+        MyTaskList taskList = new MyTaskList(null, 10 * MS, () -> clock.time);
+        
+        // the high priority tasks alone use up the budget in every processing
+        int[] highCounts = new int[5];
+        for (int i = 0; i < 5; i++) {
+            taskList.addTask(longRunningTask(clock, 6 * MS, highCounts, i), MyTaskList.Priority.HIGH);
+        }
+        
+        int[] lowCounts = new int[2];
+        taskList.addTask(longRunningTask(clock, 1 * MS, lowCounts, 0), MyTaskList.Priority.LOW);
+        taskList.addTask(longRunningTask(clock, 1 * MS, lowCounts, 1), MyTaskList.Priority.LOW);
+        
+        int processingNum = (MyTaskList.MAX_WAIT_PROCESSINGS + 2) * 5;
+        for (int i = 0; i < processingNum; i++) {
+            taskList.processTasks();
+        }
+        
+        Validate.isTrue(lowCounts[0] > 0 && lowCounts[1] > 0);
+        // the low priority tasks run about once per MAX_WAIT_PROCESSINGS
+        Validate.isTrue(lowCounts[0] >= 4, "low ran %s", lowCounts[0]);
+        // the high priority tasks still get most of the time
+        Validate.isTrue(sum(highCounts) > sum(lowCounts) * 5);
+    }
+    
+    @Test
+    public void testExceptionRemovesTask() {
+        MyTaskList taskList = new MyTaskList();
+        AtomicInteger runCount = new AtomicInteger();
+        taskList.addTask(() -> {
+            runCount.incrementAndGet();
+            throw new RuntimeException("test");
+        });
+        taskList.processTasks();
+        taskList.processTasks();
+        Validate.isTrue(runCount.get() == 1);
+        Validate.isTrue(taskList.getPendingTaskNum() == 0);
+    }
+    
+    @Test
+    public void testForceClear() {
+        MyTaskList taskList = new MyTaskList();
+        AtomicInteger cancelCount = new AtomicInteger();
+        MyTaskList.MyTask task = new MyTaskList.MyTask() {
+            @Override
+            public boolean runAndGetIsFinished() {
+                return false;
+            }
+            
+            @Override
+            public void onCancelled() {
+                cancelCount.incrementAndGet();
+            }
+        };
+        
+        taskList.addTask(task);
+        taskList.processTasks();
+        // not yet taken by processing
+        taskList.addTask(task);
+        
+        taskList.forceClearTasks();
+        Validate.isTrue(cancelCount.get() == 2);
+        taskList.processTasks();
+        Validate.isTrue(taskList.getPendingTaskNum() == 0);
+    }
+    
+    @Test
+    public void testMultipleProducers() throws InterruptedException {
+        MyTaskList taskList = new MyTaskList("test", Long.MAX_VALUE);
+        
+        int threadNum = 4;
+        int perThread = 20000;
+        AtomicIntegerArray runCounts = new AtomicIntegerArray(threadNum * perThread);
+        
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < threadNum; t++) {
+            int threadIndex = t;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    int index = threadIndex * perThread + i;
+                    taskList.addOneShotTask(() -> runCounts.incrementAndGet(index));
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        
+        // process while the producers are adding
+        while (threads.stream().anyMatch(Thread::isAlive)) {
+            taskList.processTasks();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        taskList.processTasks();
+        
+        for (int i = 0; i < runCounts.length(); i++) {
+            Validate.isTrue(runCounts.get(i) == 1, "task %s ran %s times", i, runCounts.get(i));
+        }
+        Validate.isTrue(taskList.getPendingTaskNum() == 0);
+    }
+    
+    private static int sum(int[] arr) {
+        int result = 0;
+        for (int i : arr) {
+            result += i;
+        }
+        return result;
+    }
+}
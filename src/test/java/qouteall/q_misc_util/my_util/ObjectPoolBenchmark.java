@@ -0,0 +1,89 @@
+package qouteall.q_misc_util.my_util;
+
+import com.mojang.logging.LogUtils;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.platform.commons.annotation.Testable;
+import org.slf4j.Logger;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Logs the time of pooling and plain allocation. Not run by default, run with -Dimm_ptl.benchmark=true
+ */
+@Testable
+@Tag("benchmark")
+@EnabledIfSystemProperty(named = "imm_ptl.benchmark", matches = "true")
+public class ObjectPoolBenchmark {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    
+    @Test
+    public void benchmarkPoolAgainstAllocation() {
+        // like the per-frame vertex data buffers, a few used in each frame
+        int bufferSize = 16 * 1024;
+        int perFrame = 4;
+        int frames = 1000;
+        
+        ObjectPool<ByteBuffer> confinedPool = ObjectPool.threadConfined(
+            null, 16, () -> ByteBuffer.allocateDirect(bufferSize), b -> {}
+        );
+        ObjectPool<ByteBuffer> safePool = ObjectPool.threadSafe(
+            null, 16, () -> ByteBuffer.allocateDirect(bufferSize), b -> {}
+        );
+        
+        // warm up
+        runFrames(confinedPool, perFrame, 200);
+        runFrames(safePool, perFrame, 200);
+        runFramesAllocating(perFrame, 200, bufferSize);
+        
+        long start = System.nanoTime();
+        long sum1 = runFrames(confinedPool, perFrame, frames);
+        long confinedNanos = System.nanoTime() - start;
+        
+        start = System.nanoTime();
+        long sum2 = runFrames(safePool, perFrame, frames);
+        long safeNanos = System.nanoTime() - start;
+        
+        start = System.nanoTime();
+        long sum3 = runFramesAllocating(perFrame, frames, bufferSize);
+        long allocatingNanos = System.nanoTime() - start;
+        
+        LOGGER.info(
+            "{} frames of {} buffers: thread-confined pool {} us, thread-safe pool {} us, allocating {} us ({})",
+            frames, perFrame, confinedNanos / 1000, safeNanos / 1000, allocatingNanos / 1000,
+            sum1 + sum2 + sum3
+        );
+        LOGGER.info("{}", confinedPool.getDebugString());
+    }
+    
+    private static long runFrames(ObjectPool<ByteBuffer> pool, int perFrame, int frames) {
+        long sum = 0;
+        ByteBuffer[] taken = new ByteBuffer[perFrame];
+        for (int frame = 0; frame < frames; frame++) {
+            for (int i = 0; i < perFrame; i++) {
+                ByteBuffer buffer = pool.acquire();
+                buffer.clear();
+                buffer.putInt(frame);
+                sum += buffer.getInt(0);
+                taken[i] = buffer;
+            }
+            for (int i = 0; i < perFrame; i++) {
+                pool.release(taken[i]);
+            }
+        }
+        return sum;
+    }
+    
+    private static long runFramesAllocating(int perFrame, int frames, int bufferSize) {
+        long sum = 0;
+        for (int frame = 0; frame < frames; frame++) {
+            for (int i = 0; i < perFrame; i++) {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(bufferSize);
+                buffer.putInt(frame);
+                sum += buffer.getInt(0);
+            }
+        }
+        return sum;
+    }
+}
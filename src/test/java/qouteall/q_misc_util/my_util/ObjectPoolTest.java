@@ -0,0 +1,142 @@
+package qouteall.q_misc_util.my_util;
+
+import org.apache.commons.lang3.Validate;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.commons.annotation.Testable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Testable
+public class ObjectPoolTest {
+    private static class Resource {
+        final AtomicBoolean inUse = new AtomicBoolean(false);
+        boolean destroyed = false;
+    }
+    
+    private static void testCountingAndBound(ObjectPool<Resource> pool, AtomicInteger created) {
+        List<Resource> taken = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            taken.add(pool.acquire());
+        }
+        Validate.isTrue(pool.getMissCount() == 5);
+        Validate.isTrue(created.get() == 5);
+        
+        // maxIdle is 3, the other 2 are destroyed
+        taken.forEach(pool::release);
+        Validate.isTrue(pool.getIdleCount() == 3);
+        Validate.isTrue(pool.getDestroyCount() == 2);
+        
+        // LIFO, the last released one is reused first
+        Resource last = taken.get(2);
+        Validate.isTrue(pool.acquire() == last);
+        Validate.isTrue(pool.getHitCount() == 1);
+        pool.release(last);
+        
+        pool.setMaxIdle(1);
+        Validate.isTrue(pool.getIdleCount() == 1);
+        Validate.isTrue(pool.getDestroyCount() == 4);
+        
+        pool.setMaxIdle(4);
+        pool.reserve(10);
+        Validate.isTrue(pool.getIdleCount() == 4);
+        
+        pool.destroyAll();
+        Validate.isTrue(pool.getIdleCount() == 0);
+        Validate.isTrue(pool.getDestroyCount() == created.get());
+    }
+    
+    @Test
+    public void testCountingAndBound() {
+        AtomicInteger created = new AtomicInteger();
+        testCountingAndBound(ObjectPool.threadConfined(
+            null, 3, () -> {created.incrementAndGet(); return new Resource();}, r -> r.destroyed = true
+        ), created);
+        
+        AtomicInteger created1 = new AtomicInteger();
+        testCountingAndBound(ObjectPool.threadSafe(
+            null, 3, () -> {created1.incrementAndGet(); return new Resource();}, r -> r.destroyed = true
+        ), created1);
+    }
+    
+    private static void testTrimIdle(ObjectPool<Resource> pool) {
+        pool.reserve(10);
+        pool.trimIdle();
+        
+        // at most 4 are used at the same time in this period
+        for (int frame = 0; frame < 20; frame++) {
+            List<Resource> taken = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                taken.add(pool.acquire());
+            }
+            taken.forEach(pool::release);
+        }
+        
+        int trimmed = pool.trimIdle();
+        Validate.isTrue(trimmed == 6, "trimmed %s", trimmed);
+        Validate.isTrue(pool.getIdleCount() == 4);
+        
+        // nothing is used in this period
+        Validate.isTrue(pool.trimIdle() == 4);
+        Validate.isTrue(pool.getIdleCount() == 0);
+        
+        // a miss means all idle objects were needed
+        pool.reserve(2);
+        pool.trimIdle();
+        List<Resource> taken = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            taken.add(pool.acquire());
+        }
+        taken.forEach(pool::release);
+        Validate.isTrue(pool.trimIdle() == 0);
+    }
+    
+    @Test
+    public void testTrimIdle() {
+        testTrimIdle(ObjectPool.threadConfined(null, 100, Resource::new, r -> r.destroyed = true));
+        testTrimIdle(ObjectPool.threadSafe(null, 100, Resource::new, r -> r.destroyed = true));
+    }
+    
+    @Test
+    public void testThreadSafe() throws InterruptedException {
+        AtomicInteger created = new AtomicInteger();
+        AtomicInteger destroyed = new AtomicInteger();
+        ObjectPool<Resource> pool = ObjectPool.threadSafe(
+            null, 8,
+            () -> {created.incrementAndGet(); return new Resource();},
+            r -> {
+                Validate.isTrue(!r.inUse.get());
+                Validate.isTrue(!r.destroyed);
+                r.destroyed = true;
+                destroyed.incrementAndGet();
+            }
+        );
+        
+        AtomicBoolean failed = new AtomicBoolean(false);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 100000; i++) {
+                    Resource r = pool.acquire();
+                    // an object must not be given to two users at the same time
+                    if (!r.inUse.compareAndSet(false, true) || r.destroyed) {
+                        failed.set(true);
+                    }
+                    r.inUse.set(false);
+                    pool.release(r);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        
+        Validate.isTrue(!failed.get());
+        Validate.isTrue(pool.getHitCount() + pool.getMissCount() == 800000);
+        Validate.isTrue(created.get() == pool.getIdleCount() + destroyed.get());
+    }
+}